@@ -0,0 +1,106 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.PreparedMechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.jfr.FlightRecorderBackend;
+import iaik.pkcs.pkcs11.metrics.MeteredBackend;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * Measures the overhead of the decorators of the backend: a C_EncryptInit
+ * and C_Encrypt of 16 bytes against the software token, without decorator,
+ * with {@link MeteredBackend} and with {@link FlightRecorderBackend} while
+ * no recording is running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackendDecoratorBenchmark {
+
+  @Param({"none", "metered", "jfr"})
+  public String decorator;
+
+  private Session session;
+
+  private ValuedSecretKey key;
+
+  private PreparedMechanism mechanism;
+
+  private byte[] in;
+
+  private byte[] out;
+
+  @Setup
+  public void setUp() throws Exception {
+    PKCS11Backend.Factory factory = SoftBackend.FACTORY;
+    if ("metered".equals(decorator)) {
+      factory = MeteredBackend.factory(factory);
+    } else if ("jfr".equals(decorator)) {
+      factory = FlightRecorderBackend.factory(factory);
+    }
+    session = SoftToken.openSession("decorator", factory);
+    ValuedSecretKey template = ValuedSecretKey.newAESSecretKey();
+    template.getValueLen().setLongValue(16L);
+    key = (ValuedSecretKey) session.generateKey(
+        Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), template);
+
+    Mechanism cbc = Mechanism.get(PKCS11Constants.CKM_AES_CBC);
+    cbc.setParameters(new InitializationVectorParameters(new byte[16]));
+    mechanism = new PreparedMechanism(cbc);
+
+    in = new byte[16];
+    out = new byte[16];
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SoftToken.close(session);
+  }
+
+  @Benchmark
+  public int encrypt() throws Exception {
+    session.encryptInit(mechanism, key);
+    return session.encrypt(in, 0, in.length, out, 0, out.length);
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+
+/**
+ * Measures finding objects with N results against the software token, once
+ * with and once without reading the attributes of the found objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FindObjectsBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int count;
+
+  private Session session;
+
+  private Data template;
+
+  @Setup
+  public void setUp() throws Exception {
+    session = SoftToken.openSession("find");
+    template = new Data();
+    template.getLabel().setCharArrayValue("find".toCharArray());
+
+    for (int i = 0; i < count; i++) {
+      Data data = new Data();
+      data.getLabel().setCharArrayValue("find".toCharArray());
+      data.getValue().setByteArrayValue(new byte[] {(byte) i});
+      session.createObject(data);
+    }
+
+    // objects which do not match
+    for (int i = 0; i < 100; i++) {
+      Data data = new Data();
+      data.getLabel().setCharArrayValue("other".toCharArray());
+      session.createObject(data);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SoftToken.close(session);
+  }
+
+  @Benchmark
+  public PKCS11Object[] findObjects() throws Exception {
+    session.findObjectsInit(template);
+    try {
+      return session.findObjects(count);
+    } finally {
+      session.findObjectsFinal();
+    }
+  }
+
+  @Benchmark
+  public long[] findObjectHandles() throws Exception {
+    session.findObjectsInit(template);
+    try {
+      return session.findObjectHandles(count);
+    } finally {
+      session.findObjectsFinal();
+    }
+  }
+
+}
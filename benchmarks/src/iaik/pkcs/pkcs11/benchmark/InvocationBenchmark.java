@@ -0,0 +1,104 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.PreparedMechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.parameters.GCMParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * Measures the calls which are invoked via method handles: Session.encrypt
+ * and Session.decrypt down to C_Encrypt / C_Decrypt of the backend, and the
+ * construction of the JDK's CK_*_PARAMS objects.
+ * <p>
+ * The calls run against the software token. A single AES block in ECB mode
+ * is processed, so that the per-call overhead of the wrapper dominates.
+ * Run with <code>-prof gc</code> to see the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvocationBenchmark {
+
+  private Session session;
+
+  private ValuedSecretKey key;
+
+  private PreparedMechanism mechanism;
+
+  private final byte[] in = new byte[16];
+
+  private final byte[] out = new byte[16];
+
+  private final GCMParameters gcmParameters =
+      new GCMParameters(16, new byte[12], null);
+
+  @Setup
+  public void setUp() throws Exception {
+    session = SoftToken.openSession("invocation");
+    ValuedSecretKey template = ValuedSecretKey.newAESSecretKey();
+    template.getValueLen().setLongValue(16L);
+    key = (ValuedSecretKey) session.generateKey(
+        Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), template);
+    mechanism = new PreparedMechanism(
+        Mechanism.get(PKCS11Constants.CKM_AES_ECB));
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SoftToken.close(session);
+  }
+
+  @Benchmark
+  public int encrypt() throws Exception {
+    session.encryptInit(mechanism, key);
+    return session.encrypt(in, 0, in.length, out, 0, out.length);
+  }
+
+  @Benchmark
+  public int decrypt() throws Exception {
+    session.decryptInit(mechanism, key);
+    return session.decrypt(in, 0, in.length, out, 0, out.length);
+  }
+
+  @Benchmark
+  public Object gcmParams() {
+    return gcmParameters.getPKCS11ParamsObject();
+  }
+
+}
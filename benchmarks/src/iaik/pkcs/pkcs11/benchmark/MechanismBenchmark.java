@@ -0,0 +1,91 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.PreparedMechanism;
+import iaik.pkcs.pkcs11.parameters.GCMParameters;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.parameters.RSAPkcsPssParameters;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * Measures the conversion of a Mechanism into the CK_MECHANISM of the JDK,
+ * which the *Init methods of Session do on every call unless a
+ * PreparedMechanism is used, and the lookup of the mechanism name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MechanismBenchmark {
+
+  @Param({"CKM_AES_ECB", "CKM_AES_CBC", "CKM_AES_GCM", "CKM_RSA_PKCS_PSS"})
+  public String mechanismName;
+
+  private Mechanism mechanism;
+
+  private long mechanismCode;
+
+  @Setup
+  public void setUp() {
+    mechanismCode = Functions.mechanismStringToCode(mechanismName);
+    mechanism = Mechanism.get(mechanismCode);
+    if (mechanismCode == PKCS11Constants.CKM_AES_CBC) {
+      mechanism.setParameters(
+          new InitializationVectorParameters(new byte[16]));
+    } else if (mechanismCode == PKCS11Constants.CKM_AES_GCM) {
+      mechanism.setParameters(new GCMParameters(16, new byte[12], null));
+    } else if (mechanismCode == PKCS11Constants.CKM_RSA_PKCS_PSS) {
+      mechanism.setParameters(new RSAPkcsPssParameters(
+          PKCS11Constants.CKM_SHA256, PKCS11Constants.CKG_MGF1_SHA256, 32));
+    }
+  }
+
+  /**
+   * Converts the mechanism and its parameters, as Session.toCkMechanism
+   * does.
+   */
+  @Benchmark
+  public PreparedMechanism toCkMechanism() {
+    return new PreparedMechanism(mechanism);
+  }
+
+  @Benchmark
+  public String mechanismCodeToString() {
+    return Functions.mechanismCodeToString(mechanismCode);
+  }
+
+}
@@ -0,0 +1,173 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.benchmark;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.objects.Attribute;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.ECPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.objects.X509PublicKeyCertificate;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+
+/**
+ * Measures the object layer per object class against the software token:
+ * PKCS11Object.getInstance (construction and reading of all attributes),
+ * getSetAttributes (conversion into the CK_ATTRIBUTE template) and the
+ * operations on the attribute table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectBenchmark {
+
+  // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+  private static final byte[] EC_PARAMS = new byte[] {0x06, 0x08, 0x2a,
+      (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+
+  @Param({"data", "aes", "rsaPublic", "rsaPrivate", "ecPublic", "ecPrivate",
+      "certificate"})
+  public String objectType;
+
+  private final char[] label = "benchmark".toCharArray();
+
+  private Session session;
+
+  private long objectHandle;
+
+  private PKCS11Object object;
+
+  @Setup
+  public void setUp() throws Exception {
+    session = SoftToken.openSession("object");
+    objectHandle = createObject();
+    object = PKCS11Object.getInstance(session, objectHandle);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    SoftToken.close(session);
+  }
+
+  private long createObject() throws Exception {
+    switch (objectType) {
+      case "data":
+        Data data = new Data();
+        data.getLabel().setCharArrayValue(label);
+        data.getApplication().setCharArrayValue(label);
+        data.getValue().setByteArrayValue(new byte[100]);
+        return session.createObject(data).getObjectHandle();
+      case "aes":
+        ValuedSecretKey secretKey = ValuedSecretKey.newAESSecretKey();
+        secretKey.getLabel().setCharArrayValue(label);
+        secretKey.getValueLen().setLongValue(16L);
+        return session.generateKey(
+            Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), secretKey)
+            .getObjectHandle();
+      case "rsaPublic":
+      case "rsaPrivate":
+        RSAPublicKey rsaPublicKey = new RSAPublicKey();
+        rsaPublicKey.getLabel().setCharArrayValue(label);
+        rsaPublicKey.getModulusBits().setLongValue(2048L);
+        RSAPrivateKey rsaPrivateKey = new RSAPrivateKey();
+        rsaPrivateKey.getLabel().setCharArrayValue(label);
+        return handle(session.generateKeyPair(
+            Mechanism.get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN),
+            rsaPublicKey, rsaPrivateKey));
+      case "ecPublic":
+      case "ecPrivate":
+        ECPublicKey ecPublicKey = new ECPublicKey();
+        ecPublicKey.getLabel().setCharArrayValue(label);
+        ecPublicKey.getEcdsaParams().setByteArrayValue(EC_PARAMS);
+        ECPrivateKey ecPrivateKey = new ECPrivateKey();
+        ecPrivateKey.getLabel().setCharArrayValue(label);
+        return handle(session.generateKeyPair(
+            Mechanism.get(PKCS11Constants.CKM_EC_KEY_PAIR_GEN),
+            ecPublicKey, ecPrivateKey));
+      case "certificate":
+        X509PublicKeyCertificate certificate = new X509PublicKeyCertificate();
+        certificate.getLabel().setCharArrayValue(label);
+        certificate.getSubject().setByteArrayValue(new byte[100]);
+        certificate.getIssuer().setByteArrayValue(new byte[100]);
+        certificate.getSerialNumber().setByteArrayValue(new byte[20]);
+        certificate.getValue().setByteArrayValue(new byte[1000]);
+        return session.createObject(certificate).getObjectHandle();
+      default:
+        throw new IllegalStateException("unknown objectType " + objectType);
+    }
+  }
+
+  private long handle(KeyPair keyPair) {
+    return objectType.endsWith("Private")
+        ? keyPair.getPrivateKey().getObjectHandle()
+        : keyPair.getPublicKey().getObjectHandle();
+  }
+
+  @Benchmark
+  public PKCS11Object getInstance() throws Exception {
+    return PKCS11Object.getInstance(session, objectHandle);
+  }
+
+  @Benchmark
+  public CK_ATTRIBUTE[] getSetAttributes() throws Exception {
+    return PKCS11Object.getSetAttributes(object);
+  }
+
+  @Benchmark
+  public Attribute getAttribute() {
+    return object.getAttribute(PKCS11Constants.CKA_LABEL);
+  }
+
+  @Benchmark
+  public PKCS11Object putAttribute() throws Exception {
+    object.putAttribute(PKCS11Constants.CKA_LABEL, label);
+    return object;
+  }
+
+  @Benchmark
+  public Hashtable<Long, Attribute> getAttributeTable() {
+    return object.getAttributeTable();
+  }
+
+}
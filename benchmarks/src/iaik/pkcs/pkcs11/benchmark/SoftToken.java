@@ -0,0 +1,89 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.benchmark;
+
+import java.io.IOException;
+
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
+
+/**
+ * Opens sessions to the in-memory software token, so that the benchmarks
+ * measure the wrapper without a PKCS#11 module.
+ */
+final class SoftToken {
+
+  private static final char[] PIN = "1234".toCharArray();
+
+  private SoftToken() {
+  }
+
+  /**
+   * Initializes a new software token and opens a read-write session as
+   * user.
+   *
+   * @param label
+   *          The label of the token; tokens with different labels do not
+   *          share objects.
+   * @return the session.
+   */
+  static Session openSession(String label)
+      throws IOException, TokenException {
+    return openSession(label, SoftBackend.FACTORY);
+  }
+
+  /**
+   * Initializes a new software token with the given backend factory and
+   * opens a read-write session as user.
+   *
+   * @param label
+   *          The label of the token; tokens with different labels do not
+   *          share objects.
+   * @param backendFactory
+   *          The factory which creates the backend of the software token.
+   * @return the session.
+   */
+  static Session openSession(String label,
+      PKCS11Backend.Factory backendFactory)
+      throws IOException, TokenException {
+    Module module = Module.getInstance(SoftBackend.MODULE_NAME_PREFIX
+        + "pin=" + new String(PIN) + ",label=" + label, backendFactory);
+    module.initialize(null);
+    Token token = module.getSlotList(true)[0].getToken();
+    Session session = token.openSession(true, true, null, null);
+    session.login(Session.UserType.USER, PIN);
+    return session;
+  }
+
+  /**
+   * Closes the session and finalizes the token.
+   *
+   * @param session
+   *          The session opened by {@link #openSession(String)}.
+   */
+  static void close(Session session) throws TokenException {
+    Module module = session.getToken().getSlot().getModule();
+    session.closeSession();
+    module.finalize(null);
+  }
+
+}
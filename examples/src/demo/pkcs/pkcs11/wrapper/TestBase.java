@@ -65,8 +65,11 @@ import iaik.pkcs.pkcs11.Module;
 import iaik.pkcs.pkcs11.Session;
 import iaik.pkcs.pkcs11.Token;
 import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.metrics.CallStatistics;
+import iaik.pkcs.pkcs11.metrics.MeteredBackend;
 import iaik.pkcs.pkcs11.objects.DSAPrivateKey;
 import iaik.pkcs.pkcs11.objects.DSAPublicKey;
+import iaik.pkcs.pkcs11.objects.Data;
 import iaik.pkcs.pkcs11.objects.ECPrivateKey;
 import iaik.pkcs.pkcs11.objects.ECPublicKey;
 import iaik.pkcs.pkcs11.objects.Key.KeyType;
@@ -74,8 +77,12 @@ import iaik.pkcs.pkcs11.objects.KeyPair;
 import iaik.pkcs.pkcs11.objects.PublicKey;
 import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
 import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
 import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 
 public class TestBase {
 
@@ -119,14 +126,28 @@ public class TestBase {
 
   private static SecureRandom random = new SecureRandom();
 
+  /**
+   * The PIN of the software tokens used by the demos which run without a
+   * PKCS#11 module.
+   */
+  protected static final char[] SOFT_PIN = "1234".toCharArray();
+
+  // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+  protected static final byte[] SECP256R1_PARAMS = new byte[] {0x06, 0x08,
+      0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+
+  private static Token softToken;
+
   protected Logger LOG = LoggerFactory.getLogger(getClass());
 
   static {
     Properties props = new Properties();
     try {
       props.load(TestBase.class.getResourceAsStream("/pkcs11.properties"));
-      modulePath = props.getProperty("module.path");
-      modulePin = props.getProperty("module.pin");
+      modulePath = System.getProperty("module.path",
+          props.getProperty("module.path"));
+      modulePin = System.getProperty("module.pin",
+          props.getProperty("module.pin"));
       String str = props.getProperty("module.slotIndex");
       slotIndex = (str == null) ? null : Integer.parseInt(str);
       module = Module.getInstance(modulePath);
@@ -198,6 +219,122 @@ public class TestBase {
     return getClass().getResourceAsStream(path);
   }
 
+  /**
+   * Returns the in-memory software token shared by the demos which run
+   * without a PKCS#11 module. The token is initialized on first use.
+   *
+   * @return the software token.
+   */
+  protected static synchronized Token getSoftToken() throws TokenException {
+    if (softToken == null) {
+      Module softModule = newSoftModule("demo", SoftBackend.FACTORY);
+      softToken = softModule.getSlotList(true)[0].getToken();
+    }
+    return softToken;
+  }
+
+  /**
+   * Creates and initializes a new software token. The caller must finalize
+   * the module.
+   *
+   * @param label
+   *          The label of the token; tokens with different labels do not
+   *          share objects.
+   * @param backendFactory
+   *          The factory which creates the backend, e.g. a decorator of
+   *          {@link SoftBackend#FACTORY}.
+   * @return the initialized module.
+   */
+  protected static Module newSoftModule(String label,
+      PKCS11Backend.Factory backendFactory) throws TokenException {
+    Module softModule = Module.getInstance(SoftBackend.MODULE_NAME_PREFIX
+        + "pin=" + new String(SOFT_PIN) + ",label=" + label, backendFactory);
+    softModule.initialize(null);
+    return softModule;
+  }
+
+  /**
+   * Opens a read-write session to the shared software token and logs in as
+   * user.
+   *
+   * @return the session.
+   */
+  protected static Session openSoftSession() throws TokenException {
+    return openSoftSession(getSoftToken());
+  }
+
+  /**
+   * Opens a read-write session to the given software token and logs in as
+   * user, unless another session has already logged in.
+   *
+   * @param token
+   *          The software token.
+   * @return the session.
+   */
+  protected static Session openSoftSession(Token token)
+      throws TokenException {
+    Session session = token.openSession(true, true, null, null);
+    try {
+      session.login(Session.UserType.USER, SOFT_PIN);
+    } catch (PKCS11Exception ex) {
+      // all sessions of a token share the login state
+      if (ex.getErrorCode() != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN) {
+        session.closeSession();
+        throw ex;
+      }
+    }
+    return session;
+  }
+
+  protected static ValuedSecretKey generateAESKey(Session session,
+      int keyLen) throws TokenException {
+    ValuedSecretKey template = ValuedSecretKey.newAESSecretKey();
+    template.getValueLen().setLongValue((long) keyLen);
+    return (ValuedSecretKey) session.generateKey(
+        Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), template);
+  }
+
+  protected static ValuedSecretKey generateGenericSecretKey(Session session,
+      int keyLen) throws TokenException {
+    ValuedSecretKey template = ValuedSecretKey.newGenericSecretKey();
+    template.getValueLen().setLongValue((long) keyLen);
+    return (ValuedSecretKey) session.generateKey(
+        Mechanism.get(PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN), template);
+  }
+
+  /**
+   * Returns the number of calls of the given function recorded by the
+   * backend, summed up over all slots and mechanisms.
+   */
+  protected static long getCallCount(MeteredBackend backend,
+      String function) {
+    long count = 0;
+    for (CallStatistics statistics : backend.getStatistics(function)) {
+      count += statistics.getCount();
+    }
+    return count;
+  }
+
+  /**
+   * Creates a data object on the token with 64 random bytes as value.
+   */
+  protected static Data createTokenData(Session session, String label,
+      boolean privateObject) throws TokenException {
+    Data data = new Data();
+    data.getToken().setBooleanValue(Boolean.TRUE);
+    data.getPrivate().setBooleanValue(privateObject);
+    data.getLabel().setCharArrayValue(label.toCharArray());
+    data.getValue().setByteArrayValue(randomBytes(64));
+    return (Data) session.createObject(data);
+  }
+
+  /**
+   * Returns a label which is not used by other demos.
+   */
+  protected static String randomLabel(String prefix) {
+    return prefix + "-" + random.nextInt(Integer.MAX_VALUE);
+  }
+
   public static byte[] randomBytes(int len) {
     byte[] ret = new byte[len];
     random.nextBytes(ret);
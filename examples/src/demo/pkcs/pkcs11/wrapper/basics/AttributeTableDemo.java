@@ -0,0 +1,74 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Attribute;
+import iaik.pkcs.pkcs11.objects.GenericTemplate;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program accesses the attributes of a key by their position,
+ * which is ordered by the attribute type, and by their type, and copies
+ * them into a template.
+ */
+public class AttributeTableDemo extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    Session session = openSoftSession();
+    try {
+      ValuedSecretKey template = ValuedSecretKey.newAESSecretKey();
+      template.getValueLen().setLongValue(16L);
+      template.getLabel().setCharArrayValue("table".toCharArray());
+      ValuedSecretKey key = (ValuedSecretKey) session.generateKey(
+          Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), template);
+
+      // the attributes are ordered by their type
+      Hashtable<Long, Attribute> table = key.getAttributeTable();
+      Long[] types = table.keySet().toArray(new Long[0]);
+      Arrays.sort(types);
+      Assert.assertEquals(types.length, key.attributeCount());
+      for (int i = 0; i < types.length; i++) {
+        Assert.assertSame(table.get(types[i]), key.attributeAt(i));
+        Assert.assertSame(table.get(types[i]), key.getAttribute(types[i]));
+      }
+
+      GenericTemplate generic = new GenericTemplate();
+      generic.addAllPresentAttributes(key);
+      Assert.assertTrue(generic.containsAttribute(key.getLabel()));
+      Assert.assertEquals(key.getSetAttributes().size(),
+          generic.getSetAttributes().size());
+      generic.removeAllPresentAttributes(key);
+      Assert.assertEquals(0, generic.getSetAttributes().size());
+    } finally {
+      session.closeSession();
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.io.ByteArrayInputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.CertificateIndex;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.X509PublicKeyCertificate;
+
+/**
+ * This demo program indexes the certificates of the token and finds them by
+ * issuer and serial number, by subject and by ID. A refresh reads only new
+ * certificates and removes destroyed ones.
+ */
+public class CertificateIndexDemo extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    byte[] encoded = Base64.getMimeDecoder().decode(
+        "MIIBYzCCAQegAwIBAgIELjzmvzAMBggqhkjOPQQDAgUAMCUxDjAMBgNVBAoTBXhp"
+        + "cGtpMRMwEQYDVQQDEwpJbmRleCBEZW1vMCAXDTI2MTAxNjIwMzEzNVoYDzIxMjYw"
+        + "OTIyMjAzMTM1WjAlMQ4wDAYDVQQKEwV4aXBraTETMBEGA1UEAxMKSW5kZXggRGVt"
+        + "bzBZMBMGByqGSM49AgEGCCqGSM49AwEHA0IABKpBYfgU2DtElEbPPi6QWvIcDiQl"
+        + "i5FZ+qB4uxEld9RT7tYdLYVbsUL20f7UXVr6llQMOj8DrvDsA8a77LNzpYWjITAf"
+        + "MB0GA1UdDgQWBBRMnsSoP1tqSR2r2UfZCBwu1nWOSzAMBggqhkjOPQQDAgUAA0gA"
+        + "MEUCIQDptRRDyuaAgQnPgVhks+bquAHrlz66Ym5M4rMoChbZmAIgOzJvSm79Ztto"
+        + "1Q0ws18Zxkgzo5hybUnwofNTxgecfiI=");
+    X509Certificate cert = (X509Certificate) CertificateFactory
+        .getInstance("X.509").generateCertificate(
+            new ByteArrayInputStream(encoded));
+    byte[] id = randomBytes(8);
+
+    Session session = openSoftSession();
+    try {
+      X509PublicKeyCertificate template = new X509PublicKeyCertificate();
+      template.getToken().setBooleanValue(Boolean.TRUE);
+      template.getValue().setByteArrayValue(encoded);
+      template.getSubject().setByteArrayValue(
+          cert.getSubjectX500Principal().getEncoded());
+      template.getId().setByteArrayValue(id);
+      PKCS11Object withId = session.createObject(template);
+
+      // issuer, serial number and subject are taken from the value
+      template = new X509PublicKeyCertificate();
+      template.getToken().setBooleanValue(Boolean.TRUE);
+      template.getValue().setByteArrayValue(encoded);
+      PKCS11Object valueOnly = session.createObject(template);
+
+      CertificateIndex index = new CertificateIndex();
+      Assert.assertEquals(2, index.refresh(session));
+      Assert.assertEquals(0, index.refresh(session));
+
+      List<CertificateIndex.Entry> entries =
+          index.findByIssuerAndSerialNumber(cert.getIssuerX500Principal(),
+              cert.getSerialNumber());
+      Assert.assertEquals(2, entries.size());
+      Assert.assertEquals(cert, entries.get(0).getX509Certificate());
+      Assert.assertEquals(2,
+          index.findBySubject(cert.getSubjectX500Principal()).size());
+
+      entries = index.findById(id);
+      Assert.assertEquals(1, entries.size());
+      Assert.assertEquals(withId.getObjectHandle(),
+          entries.get(0).getObjectHandle());
+
+      session.destroyObject(valueOnly);
+      Assert.assertEquals(0, index.refresh(session));
+      Assert.assertEquals(1, index.size());
+      session.destroyObject(withId);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+}
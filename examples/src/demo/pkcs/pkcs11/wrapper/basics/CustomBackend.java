@@ -0,0 +1,128 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * This demo program plugs a backend of its own into a module: a decorator of
+ * the software token which records the names of the called functions. It
+ * shows that the module, its slots, tokens, sessions and objects call the
+ * PKCS#11 functions only through the backend of the module.
+ */
+public class CustomBackend extends TestBase {
+
+  private static final String MODULE_NAME = SoftBackend.MODULE_NAME_PREFIX
+      + "pin=" + new String(SOFT_PIN) + ",label=custom-backend";
+
+  @Test
+  public void main() throws TokenException {
+    Set<String> calledFunctions = new ConcurrentSkipListSet<>();
+    AtomicReference<String> connectedName = new AtomicReference<>();
+    PKCS11Backend.Factory factory = (pkcs11ModuleName, initArgs) -> {
+      connectedName.set(pkcs11ModuleName);
+      return recording(SoftBackend.FACTORY.connect(pkcs11ModuleName, initArgs),
+          calledFunctions);
+    };
+
+    Module module = Module.getInstance(MODULE_NAME, factory);
+    module.initialize(null);
+    try {
+      Assert.assertEquals(MODULE_NAME, connectedName.get());
+      Assert.assertTrue(Proxy.isProxyClass(module.getBackend().getClass()));
+
+      LOG.info("{}", module.getInfo());
+      Token token = module.getSlotList(true)[0].getToken();
+      LOG.info("{}", token.getTokenInfo());
+      Session session = openSoftSession(token);
+
+      Data template = new Data();
+      template.getToken().setBooleanValue(Boolean.FALSE);
+      template.getLabel().setCharArrayValue("custom".toCharArray());
+      template.getValue().setByteArrayValue(randomBytes(20));
+      session.createObject(template);
+
+      session.findObjectsInit(template);
+      PKCS11Object[] found = session.findObjects(10);
+      session.findObjectsFinal();
+      Assert.assertEquals(1, found.length);
+      Assert.assertEquals("custom",
+          new String(((Data) found[0]).getLabel().getCharArrayValue()));
+
+      // the errors of the backend reach the caller unchanged
+      try {
+        PKCS11Object.getInstance(session, 0x7fffffffL);
+        Assert.fail("PKCS11Exception expected");
+      } catch (PKCS11Exception ex) {
+        Assert.assertEquals(PKCS11Constants.CKR_OBJECT_HANDLE_INVALID,
+            ex.getErrorCode());
+      }
+      session.closeSession();
+    } finally {
+      module.finalize(null);
+    }
+
+    List<String> expected = Arrays.asList("C_GetInfo", "C_GetSlotList",
+        "C_GetTokenInfo", "C_OpenSession", "C_Login", "C_CreateObject",
+        "C_FindObjectsInit", "C_FindObjects", "C_FindObjectsFinal",
+        "C_GetAttributeValue", "C_CloseSession", "C_Finalize");
+    LOG.info("called functions: {}", calledFunctions);
+    Assert.assertTrue(calledFunctions.containsAll(expected));
+  }
+
+  /**
+   * Returns a backend which records the names of the called functions and
+   * delegates the calls to the given backend.
+   */
+  private static PKCS11Backend recording(PKCS11Backend backend,
+      Set<String> calledFunctions) {
+    return (PKCS11Backend) Proxy.newProxyInstance(
+        PKCS11Backend.class.getClassLoader(),
+        new Class<?>[] {PKCS11Backend.class},
+        (proxy, method, args) -> {
+          calledFunctions.add(method.getName());
+          try {
+            return method.invoke(backend, args);
+          } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+          }
+        });
+  }
+
+}
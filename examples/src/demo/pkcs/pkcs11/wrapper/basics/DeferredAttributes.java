@@ -0,0 +1,195 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionInterceptor;
+import iaik.pkcs.pkcs11.SessionInterceptor.Invocation;
+import iaik.pkcs.pkcs11.SessionInterceptor.Operation;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+
+/**
+ * This demo program gets objects whose attributes are read on the first
+ * access to one of them, per call and per session.
+ */
+public class DeferredAttributes extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    Session session = openSoftSession();
+    try {
+      String label = randomLabel("deferred");
+      byte[] value = randomBytes(20);
+      Data created = createData(session, label, value);
+
+      PKCS11Object object = PKCS11Object.getInstance(session,
+          created.getObjectHandle(), true);
+      Assert.assertTrue(object instanceof Data);
+      Assert.assertTrue(object.isDeferred());
+      Assert.assertArrayEquals(value,
+          ((Data) object).getValue().getByteArrayValue());
+      Assert.assertFalse(object.isDeferred());
+      Assert.assertEquals(label,
+          new String(((Data) object).getLabel().getCharArrayValue()));
+
+      session.setDeferAttributeReading(true);
+      Data template = new Data();
+      template.getLabel().setCharArrayValue(label.toCharArray());
+      session.findObjectsInit(template);
+      PKCS11Object[] found = session.findObjects(1);
+      session.findObjectsFinal();
+      Assert.assertEquals(1, found.length);
+      Assert.assertTrue(found[0].isDeferred());
+      Assert.assertArrayEquals(value,
+          ((Data) found[0]).getValue().getByteArrayValue());
+      Assert.assertFalse(found[0].isDeferred());
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  /**
+   * Accesses an attribute while another thread reads the deferred
+   * attributes; the access waits for the values.
+   */
+  @Test
+  public void concurrentAccess() throws Exception {
+    Module module = newSoftModule("deferred-concurrent", SoftBackend.FACTORY);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Session session = openSoftSession(
+          module.getSlotList(true)[0].getToken());
+      String label = randomLabel("deferred");
+      byte[] value = randomBytes(20);
+      Data object = (Data) PKCS11Object.getInstance(session,
+          createData(session, label, value).getObjectHandle(), true);
+
+      ((SoftBackend) module.getBackend()).setLatency(200,
+          TimeUnit.MILLISECONDS);
+      Future<char[]> otherLabel =
+          executor.submit(() -> object.getLabel().getCharArrayValue());
+      // let the other thread start the read
+      Thread.sleep(50);
+      Assert.assertArrayEquals(value, object.getValue().getByteArrayValue());
+      Assert.assertEquals(label, new String(otherLabel.get()));
+      Assert.assertFalse(object.isDeferred());
+    } finally {
+      executor.shutdown();
+      module.finalize(null);
+    }
+  }
+
+  /**
+   * Accesses an attribute after the session to read the deferred attributes
+   * with has been closed; the attributes remain deferred.
+   */
+  @Test
+  public void failedRead() throws TokenException {
+    Token token = getSoftToken();
+    Session session = openSoftSession(token);
+    try {
+      Session readSession = openSoftSession(token);
+      Data object = (Data) PKCS11Object.getInstance(readSession,
+          createData(session, randomLabel("deferred"), randomBytes(20))
+              .getObjectHandle(), true);
+      readSession.closeSession();
+
+      for (int i = 0; i < 2; i++) {
+        try {
+          object.getValue().getByteArrayValue();
+          Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+          LOG.info("expected: {}", ex.getMessage());
+        }
+        Assert.assertTrue(object.isDeferred());
+      }
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  /**
+   * Resolves another object in a session interceptor while an object with
+   * deferred attributes is constructed; the other object is read
+   * completely.
+   */
+  @Test
+  public void nestedConstruction() throws TokenException {
+    Module module = newSoftModule("deferred-nested", SoftBackend.FACTORY);
+    try {
+      Token token = module.getSlotList(true)[0].getToken();
+      Session session = openSoftSession(token);
+      byte[] value = randomBytes(20);
+      byte[] otherValue = randomBytes(20);
+      long handle = createData(session, randomLabel("deferred"), value)
+          .getObjectHandle();
+      long otherHandle = createData(session, randomLabel("other"), otherValue)
+          .getObjectHandle();
+
+      AtomicReference<PKCS11Object> resolved = new AtomicReference<>();
+      token.addSessionInterceptor(new SessionInterceptor() {
+        @Override
+        public void before(Invocation invocation) throws TokenException {
+          if (invocation.getOperation() == Operation.GET_ATTRIBUTE_VALUE
+              && invocation.getKeyHandle() == handle
+              && resolved.get() == null) {
+            resolved.set(PKCS11Object.getInstance(invocation.getSession(),
+                otherHandle));
+          }
+        }
+      });
+
+      PKCS11Object object = PKCS11Object.getInstance(session, handle, true);
+      Assert.assertTrue(object.isDeferred());
+      Assert.assertTrue(resolved.get() instanceof Data);
+      Data other = (Data) resolved.get();
+      Assert.assertFalse(other.isDeferred());
+      Assert.assertArrayEquals(otherValue,
+          other.getValue().getByteArrayValue());
+      Assert.assertArrayEquals(value,
+          ((Data) object).getValue().getByteArrayValue());
+      session.closeSession();
+    } finally {
+      module.finalize(null);
+    }
+  }
+
+  private static Data createData(Session session, String label,
+      byte[] value) throws TokenException {
+    Data data = new Data();
+    data.getLabel().setCharArrayValue(label.toCharArray());
+    data.getValue().setByteArrayValue(value);
+    return (Data) session.createObject(data);
+  }
+
+}
@@ -0,0 +1,112 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.ProjectionResult;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.X509PublicKeyCertificate;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This class demonstrates how to find objects without reading their
+ * attributes, and how to read only selected attributes.
+ */
+public class FindObjectHandles extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    Session session = openReadOnlySession(token);
+    try {
+      main0(session);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  private void main0(Session session) throws TokenException {
+    LOG.info("##################################################");
+    LOG.info("Count all objects, 100 handles per C_FindObjects call.");
+    try (LongStream handles = session.streamObjectHandles(null, 100)) {
+      LOG.info("found {} objects on this token", handles.count());
+    }
+
+    LOG.info("##################################################");
+    LOG.info("Find the first certificate and read its attributes.");
+    X509PublicKeyCertificate template = new X509PublicKeyCertificate();
+    session.findObjectsInit(template);
+    long[] handles = session.findObjectHandles(1);
+    session.findObjectsFinal();
+
+    if (handles.length == 0) {
+      LOG.info("There is no certificate on this token.");
+    } else {
+      PKCS11Object certificate =
+          PKCS11Object.getInstance(session, handles[0]);
+      LOG.info("__________________________________________________\n{}",
+          certificate);
+    }
+
+    LOG.info("##################################################");
+    LOG.info("Read the ID and label of all certificates.");
+    ProjectionResult result = session.findObjectAttributes(template,
+        new long[]{PKCS11Constants.CKA_ID, PKCS11Constants.CKA_LABEL});
+    for (int i = 0; i < result.size(); i++) {
+      byte[] id = result.getByteArrayValue(i, PKCS11Constants.CKA_ID);
+      char[] label = result.getCharArrayValue(i, PKCS11Constants.CKA_LABEL);
+      LOG.info("handle {}: id={}, label={}", result.getObjectHandle(i),
+          (id == null) ? null : Functions.toHexString(id),
+          (label == null) ? null : new String(label));
+    }
+  }
+
+}
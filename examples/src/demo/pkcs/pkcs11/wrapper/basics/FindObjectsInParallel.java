@@ -0,0 +1,78 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.AsyncToken;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+
+/**
+ * This demo program finds data objects with an {@link AsyncToken}, which
+ * reads the attributes of the found objects in parallel lanes over the
+ * sessions of a {@link SessionPool}, and checks that the objects come back
+ * in the order of their handles.
+ */
+public class FindObjectsInParallel extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    String label = randomLabel("parallel");
+    Session session = openSoftSession();
+    SessionPool pool = new SessionPool(getSoftToken(), SOFT_PIN, 1, 4, 0, 1);
+    AsyncToken asyncToken = new AsyncToken(pool, 4);
+    try {
+      List<Data> created = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        created.add(createTokenData(session, label, i % 2 == 0));
+      }
+
+      Data template = new Data();
+      template.getLabel().setCharArrayValue(label.toCharArray());
+      long[] handles = pool.findObjectHandles(template, 100);
+      List<PKCS11Object> found = asyncToken.findObjects(template).get();
+
+      Assert.assertEquals(50, found.size());
+      for (int i = 0; i < handles.length; i++) {
+        Data data = (Data) found.get(i);
+        Assert.assertEquals(handles[i], data.getObjectHandle());
+        Assert.assertEquals(label,
+            new String(data.getLabel().getCharArrayValue()));
+        Assert.assertEquals(64, data.getValue().getByteArrayValue().length);
+      }
+
+      for (Data data : created) {
+        session.destroyObject(data);
+      }
+      Assert.assertTrue(asyncToken.findObjects(template).get().isEmpty());
+    } finally {
+      asyncToken.close();
+      pool.close();
+      session.closeSession();
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.jfr.CryptoFinalEvent;
+import iaik.pkcs.pkcs11.jfr.FlightRecorderBackend;
+import iaik.pkcs.pkcs11.jfr.FlightRecording;
+import iaik.pkcs.pkcs11.jfr.GetAttributeValueEvent;
+import iaik.pkcs.pkcs11.jfr.OpenSessionEvent;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program records the calls to the software token with Java
+ * Flight Recorder and reads the recorded events of opening a session,
+ * reading attributes and signing.
+ */
+public class FlightRecorderDemo extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    // without jdk.jfr, the module would be created without events
+    Assume.assumeTrue(FlightRecording.isAvailable());
+    Module recordedModule = newSoftModule("jfr",
+        FlightRecording.factory(SoftBackend.FACTORY));
+    Assert.assertTrue(
+        recordedModule.getBackend() instanceof FlightRecorderBackend);
+    Path file = Files.createTempFile("pkcs11-", ".jfr");
+    Recording recording = new Recording();
+    recording.enable(OpenSessionEvent.class);
+    recording.enable(GetAttributeValueEvent.class);
+    recording.enable(CryptoFinalEvent.class);
+    recording.start();
+    try {
+      Token recordedToken = recordedModule.getSlotList(true)[0].getToken();
+      Session session = openSoftSession(recordedToken);
+
+      ValuedSecretKey key = generateGenericSecretKey(session, 32);
+      session.signInit(Mechanism.get(PKCS11Constants.CKM_SHA256_HMAC), key);
+      session.sign(randomBytes(100));
+      session.closeSession();
+    } finally {
+      recordedModule.finalize(null);
+      recording.stop();
+      recording.dump(file);
+      recording.close();
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    Files.delete(file);
+    boolean opened = false;
+    boolean read = false;
+    boolean signed = false;
+    for (RecordedEvent event : events) {
+      String name = event.getEventType().getName();
+      if ("iaik.pkcs11.OpenSession".equals(name)) {
+        opened = true;
+      } else if ("iaik.pkcs11.GetAttributeValue".equals(name)) {
+        Assert.assertTrue(event.getInt("attributeCount") > 0);
+        read = true;
+      } else if ("iaik.pkcs11.CryptoFinal".equals(name)) {
+        Assert.assertEquals("C_Sign", event.getString("function"));
+        Assert.assertEquals("CKM_SHA256_HMAC", event.getString("mechanism"));
+        Assert.assertEquals(100, event.getLong("inputLength"));
+        Assert.assertEquals(32, event.getLong("outputLength"));
+        Assert.assertEquals("CKR_OK", event.getString("result"));
+        signed = true;
+      }
+    }
+    Assert.assertTrue(opened && read && signed);
+  }
+
+}
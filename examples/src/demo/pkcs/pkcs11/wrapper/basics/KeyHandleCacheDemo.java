@@ -0,0 +1,83 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.KeyHandleCache;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program finds secret keys by label and by ID with the key handle
+ * cache of the token, and shows that negative lookups are cached until a
+ * key is created and that destroyed keys are no longer found.
+ */
+public class KeyHandleCacheDemo extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    Session session = openSoftSession();
+    try {
+      KeyHandleCache cache = getSoftToken().getKeyHandleCache();
+      String label = randomLabel("cached");
+      long secretKeyClass = PKCS11Constants.CKO_SECRET_KEY;
+      Long aes = PKCS11Constants.CKK_AES;
+
+      // negative lookups are cached until a secret key is created
+      Assert.assertEquals(0, cache.findHandlesByLabel(session,
+          secretKeyClass, aes, label).length);
+      long misses = cache.getMissCount();
+      Assert.assertEquals(0, cache.findHandlesByLabel(session,
+          secretKeyClass, aes, label).length);
+      Assert.assertEquals(misses, cache.getMissCount());
+
+      ValuedSecretKey template = ValuedSecretKey.newAESSecretKey();
+      template.getValueLen().setLongValue(16L);
+      template.getToken().setBooleanValue(Boolean.TRUE);
+      template.getLabel().setCharArrayValue(label.toCharArray());
+      template.getId().setByteArrayValue(label.getBytes());
+      PKCS11Object key = session.generateKey(
+          Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), template);
+
+      long[] handles = cache.findHandlesByLabel(session, secretKeyClass,
+          aes, label);
+      Assert.assertArrayEquals(new long[] {key.getObjectHandle()}, handles);
+      handles = cache.findHandlesById(session, secretKeyClass, null,
+          label.getBytes());
+      Assert.assertArrayEquals(new long[] {key.getObjectHandle()}, handles);
+
+      long hits = cache.getHitCount();
+      cache.findHandlesByLabel(session, secretKeyClass, aes, label);
+      Assert.assertEquals(hits + 1, cache.getHitCount());
+
+      session.destroyObject(key);
+      Assert.assertEquals(0, cache.findHandlesByLabel(session,
+          secretKeyClass, aes, label).length);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.metrics.CallStatistics;
+import iaik.pkcs.pkcs11.metrics.MeteredBackend;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program decorates the software token with a
+ * {@link MeteredBackend}, signs and verifies with it, and reads the call
+ * counts, errors and latencies per function and mechanism, which are also
+ * published as MXBeans while the module is initialized.
+ */
+public class MeteredBackendDemo extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    Module meteredModule = newSoftModule("metered",
+        MeteredBackend.factory(SoftBackend.FACTORY));
+    MeteredBackend backend = (MeteredBackend) meteredModule.getBackend();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName names = new ObjectName(
+        "iaik.pkcs.pkcs11:type=CallStatistics,module="
+        + ObjectName.quote("soft:pin=1234,label=metered") + ",*");
+    try {
+      Token meteredToken = meteredModule.getSlotList(true)[0].getToken();
+      Session session = openSoftSession(meteredToken);
+
+      ValuedSecretKey key = generateGenericSecretKey(session, 32);
+
+      Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_SHA256_HMAC);
+      byte[] data = randomBytes(100);
+      byte[] mac = null;
+      for (int i = 0; i < 10; i++) {
+        session.signInit(mechanism, key);
+        mac = session.sign(data);
+      }
+
+      mac[0] ^= 1;
+      session.verifyInit(mechanism, key);
+      try {
+        session.verify(data, mac);
+        Assert.fail("modified MAC verified");
+      } catch (TokenException ex) {
+        // expected
+      }
+
+      List<CallStatistics> signs = backend.getStatistics("C_Sign");
+      Assert.assertEquals(1, signs.size());
+      CallStatistics sign = signs.get(0);
+      Assert.assertEquals(meteredToken.getTokenID(), sign.getSlotId());
+      Assert.assertEquals("CKM_SHA256_HMAC", sign.getMechanism());
+      Assert.assertEquals(10, sign.getCount());
+      Assert.assertEquals(0, sign.getErrorCount());
+      Assert.assertTrue(sign.getP50Micros() <= sign.getP999Micros());
+      Assert.assertTrue(sign.getP999Micros() <= sign.getMaxMicros());
+
+      CallStatistics verify = backend.getStatistics("C_Verify").get(0);
+      Assert.assertEquals(1, verify.getErrorCount());
+      Assert.assertEquals(Long.valueOf(1),
+          verify.getErrors().get("CKR_SIGNATURE_INVALID"));
+
+      Assert.assertFalse(server.queryNames(names, null).isEmpty());
+      session.closeSession();
+    } finally {
+      meteredModule.finalize(null);
+    }
+    Assert.assertTrue(server.queryNames(names, null).isEmpty());
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.ProjectionResult;
+import iaik.pkcs.pkcs11.ProjectionResult.Status;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.metrics.MeteredBackend;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program reads selected attributes of all objects of a token with
+ * {@link Session#findObjectAttributes(iaik.pkcs.pkcs11.objects.PKCS11Object,
+ * long[])} and tells attributes the objects do not have from sensitive ones.
+ */
+public class ProjectObjectAttributes extends TestBase {
+
+  private static final long[] TYPES = {PKCS11Constants.CKA_LABEL,
+    PKCS11Constants.CKA_APPLICATION, PKCS11Constants.CKA_VALUE};
+
+  @Test
+  public void main() throws TokenException {
+    Module module = newSoftModule("project-attributes",
+        MeteredBackend.factory(SoftBackend.FACTORY));
+    try {
+      Session session = openSoftSession(
+          module.getSlotList(true)[0].getToken());
+
+      byte[] value = randomBytes(20);
+      Data data = new Data();
+      data.getToken().setBooleanValue(Boolean.FALSE);
+      data.getLabel().setCharArrayValue("full".toCharArray());
+      data.getApplication().setCharArrayValue("demo".toCharArray());
+      data.getValue().setByteArrayValue(value);
+      session.createObject(data);
+
+      // without application
+      data = new Data();
+      data.getToken().setBooleanValue(Boolean.FALSE);
+      data.getLabel().setCharArrayValue("bare".toCharArray());
+      data.getValue().setByteArrayValue(value);
+      session.createObject(data);
+
+      // without application and with a sensitive value
+      ValuedSecretKey template = ValuedSecretKey.newAESSecretKey();
+      template.getValueLen().setLongValue(16L);
+      template.getLabel().setCharArrayValue("key".toCharArray());
+      template.getSensitive().setBooleanValue(Boolean.TRUE);
+      session.generateKey(Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN),
+          template);
+
+      MeteredBackend backend = (MeteredBackend) module.getBackend();
+      long calls = getCallCount(backend, "C_GetAttributeValue");
+      ProjectionResult result = session.findObjectAttributes(null, TYPES);
+      Assert.assertEquals(3, result.size());
+      // 1 call for the complete object, 5 for each of the others by
+      // bisection: all, the label, the application with the value, each
+      // of the latter alone
+      Assert.assertEquals(calls + 11,
+          getCallCount(backend, "C_GetAttributeValue"));
+
+      for (int i = 0; i < result.size(); i++) {
+        String label = new String(
+            result.getCharArrayValue(i, PKCS11Constants.CKA_LABEL));
+        Assert.assertEquals(Status.PRESENT,
+            result.getStatus(i, PKCS11Constants.CKA_LABEL));
+        Status application =
+            result.getStatus(i, PKCS11Constants.CKA_APPLICATION);
+        Status valueStatus = result.getStatus(i, PKCS11Constants.CKA_VALUE);
+        if ("full".equals(label)) {
+          Assert.assertEquals(Status.PRESENT, application);
+          Assert.assertEquals("demo", new String(result.getCharArrayValue(i,
+              PKCS11Constants.CKA_APPLICATION)));
+          Assert.assertEquals(Status.PRESENT, valueStatus);
+          Assert.assertArrayEquals(value,
+              result.getByteArrayValue(i, PKCS11Constants.CKA_VALUE));
+        } else if ("bare".equals(label)) {
+          Assert.assertEquals(Status.INVALID, application);
+          Assert.assertNull(
+              result.getValue(i, PKCS11Constants.CKA_APPLICATION));
+          Assert.assertEquals(Status.PRESENT, valueStatus);
+        } else {
+          Assert.assertEquals("key", label);
+          Assert.assertEquals(Status.INVALID, application);
+          Assert.assertEquals(Status.SENSITIVE, valueStatus);
+          Assert.assertNull(result.getValue(i, PKCS11Constants.CKA_VALUE));
+        }
+      }
+      session.closeSession();
+    } finally {
+      module.finalize(null);
+    }
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.PublicObjectCache;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+
+/**
+ * This demo program caches the public objects of a token in a file with
+ * {@link PublicObjectCache}, loads the file in a new cache which reads only
+ * the new objects and a validation sample from the token, and shows that the
+ * rotating sample notices a modified object.
+ */
+public class PublicObjectCacheDemo extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    Module cacheModule = newSoftModule("cache", SoftBackend.FACTORY);
+    Path directory = Files.createTempDirectory("pkcs11-cache");
+    try {
+      Session session = openSoftSession(
+          cacheModule.getSlotList(true)[0].getToken());
+      for (int i = 0; i < 20; i++) {
+        createTokenData(session, "public-" + i, false);
+      }
+      createTokenData(session, "private", true);
+
+      PublicObjectCache cache = new PublicObjectCache(directory);
+      Assert.assertEquals(20, cache.refresh(session));
+      Assert.assertEquals(20, cache.size());
+      Assert.assertTrue(Files.isRegularFile(cache.getFile()));
+
+      // a new cache loads the file and reads only the validation sample
+      PublicObjectCache loaded = new PublicObjectCache(directory);
+      loaded.setSampleSize(2);
+      Assert.assertEquals(2, loaded.refresh(session));
+      Assert.assertEquals(20, loaded.size());
+      for (PKCS11Object object : cache.getObjects()) {
+        PKCS11Object loadedObject =
+            loaded.getObject(object.getObjectHandle());
+        Assert.assertTrue(loadedObject instanceof Data);
+        Assert.assertEquals(object.toString(true, true, ""),
+            loadedObject.toString(true, true, ""));
+      }
+
+      // only the new objects are read
+      Data created = createTokenData(session, "public-new", false);
+      Assert.assertEquals(3, loaded.refresh(session));
+      Assert.assertEquals(21, loaded.size());
+      session.destroyObject(created);
+      Assert.assertEquals(2, loaded.refresh(session));
+      Assert.assertEquals(20, loaded.size());
+
+      // a modified object is noticed once the rotating sample reaches it,
+      // then all objects are read again
+      Data modified = (Data) loaded.getObjects().get(0);
+      Data template = new Data();
+      template.getValue().setByteArrayValue(new byte[] {-1});
+      session.setAttributeValues(modified, template);
+      int refreshes = 1;
+      while (loaded.refresh(session) == 2) {
+        refreshes++;
+      }
+      Assert.assertTrue(refreshes <= 10);
+      Assert.assertArrayEquals(new byte[] {-1},
+          ((Data) loaded.getObject(modified.getObjectHandle())).getValue()
+              .getByteArrayValue());
+      session.closeSession();
+    } finally {
+      cacheModule.finalize(null);
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+        for (Path file : files) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.metrics.MeteredBackend;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.LongAttribute;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program reads all attributes of an object of a vendor-specific
+ * subclass with one C_GetAttributeValue call, including the attribute added
+ * by the subclass.
+ */
+public class ReadObjectAttributes extends TestBase {
+
+  private static final long CKA_VENDOR_COUNTER =
+      PKCS11Constants.CKA_VENDOR_DEFINED | 0x1001L;
+
+  /**
+   * A data object with a vendor-defined attribute. Like the classes of the
+   * wrapper, it only registers the attribute in allocateAttributes and does
+   * not override readAttributes.
+   */
+  public static class CountedData extends Data {
+
+    protected LongAttribute counter;
+
+    public CountedData() {
+    }
+
+    protected CountedData(Session session, long objectHandle)
+        throws TokenException {
+      super(session, objectHandle);
+    }
+
+    protected static void putAttributesInTable(CountedData object) {
+      object.attributeTable.put(CKA_VENDOR_COUNTER, object.counter);
+    }
+
+    @Override
+    protected void allocateAttributes() {
+      super.allocateAttributes();
+      counter = new LongAttribute(CKA_VENDOR_COUNTER);
+      putAttributesInTable(this);
+    }
+
+    public LongAttribute getCounter() {
+      return counter;
+    }
+
+  }
+
+  @Test
+  public void main() throws TokenException {
+    Module module = newSoftModule("read-attributes",
+        MeteredBackend.factory(SoftBackend.FACTORY));
+    try {
+      Session session = openSoftSession(
+          module.getSlotList(true)[0].getToken());
+
+      byte[] value = randomBytes(20);
+      CountedData template = new CountedData();
+      template.getToken().setBooleanValue(Boolean.FALSE);
+      template.getPrivate().setBooleanValue(Boolean.TRUE);
+      template.getModifiable().setBooleanValue(Boolean.TRUE);
+      template.getLabel().setCharArrayValue("counted".toCharArray());
+      template.getApplication().setCharArrayValue("demo".toCharArray());
+      template.getObjectID().setByteArrayValue(new byte[] {0x06, 0x01, 0x00});
+      template.getValue().setByteArrayValue(value);
+      template.getCounter().setLongValue(42L);
+      long handle = session.createObject(template).getObjectHandle();
+
+      MeteredBackend backend = (MeteredBackend) module.getBackend();
+      long calls = getCallCount(backend, "C_GetAttributeValue");
+      CountedData data = new CountedData(session, handle);
+      Assert.assertEquals(calls + 1,
+          getCallCount(backend, "C_GetAttributeValue"));
+
+      Assert.assertEquals(Long.valueOf(42), data.getCounter().getLongValue());
+      Assert.assertArrayEquals(value, data.getValue().getByteArrayValue());
+      Assert.assertEquals("demo",
+          new String(data.getApplication().getCharArrayValue()));
+      Assert.assertEquals("counted",
+          new String(data.getLabel().getCharArrayValue()));
+      session.closeSession();
+    } finally {
+      module.finalize(null);
+    }
+  }
+
+}
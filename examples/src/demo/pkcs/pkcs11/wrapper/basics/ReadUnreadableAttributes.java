@@ -0,0 +1,117 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.metrics.MeteredBackend;
+import iaik.pkcs.pkcs11.objects.Attribute;
+import iaik.pkcs.pkcs11.objects.AttributeReadProfile;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program reads the attributes of data objects which lack some
+ * optional attributes. The first read locates the missing attributes by
+ * bisection and records them in the attribute read profile of data objects,
+ * the following reads leave them out, so that each object is read with a
+ * constant number of calls. Objects which have such an attribute get it by
+ * reading it explicitly or after the profile has been cleared.
+ */
+public class ReadUnreadableAttributes extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    Module module = newSoftModule("unreadable-attributes",
+        MeteredBackend.factory(SoftBackend.FACTORY));
+    try {
+      Token token = module.getSlotList(true)[0].getToken();
+      Session session = openSoftSession(token);
+      MeteredBackend backend = (MeteredBackend) module.getBackend();
+
+      // without application and object ID
+      Data template = new Data();
+      template.getToken().setBooleanValue(Boolean.FALSE);
+      template.getLabel().setCharArrayValue("bare".toCharArray());
+      template.getValue().setByteArrayValue(randomBytes(20));
+      long bareHandle = session.createObject(template).getObjectHandle();
+
+      template.getLabel().setCharArrayValue("full".toCharArray());
+      template.getApplication().setCharArrayValue("demo".toCharArray());
+      long fullHandle = session.createObject(template).getObjectHandle();
+
+      AttributeReadProfile profile = module.getAttributeReadProfile(
+          token.getTokenID(), PKCS11Constants.CKO_DATA, -1L);
+      // createObject has read the new objects already
+      profile.clear();
+
+      long calls = getCallCount(backend, "C_GetAttributeValue");
+      Data bare = (Data) PKCS11Object.getInstance(session, bareHandle);
+      long bisectionCalls =
+          getCallCount(backend, "C_GetAttributeValue") - calls;
+
+      Assert.assertFalse(bare.getApplication().isPresent());
+      Assert.assertFalse(bare.getObjectID().isPresent());
+      Assert.assertTrue(bare.getValue().isPresent());
+      Assert.assertEquals("bare",
+          new String(bare.getLabel().getCharArrayValue()));
+      Assert.assertTrue(profile.isInvalid(PKCS11Constants.CKA_APPLICATION));
+      Assert.assertTrue(profile.isInvalid(PKCS11Constants.CKA_OBJECT_ID));
+      Assert.assertFalse(profile.isInvalid(PKCS11Constants.CKA_VALUE));
+
+      // once learned: the class and one batch, data objects have no
+      // subtype
+      for (long handle : new long[] {bareHandle, fullHandle}) {
+        calls = getCallCount(backend, "C_GetAttributeValue");
+        Data data = (Data) PKCS11Object.getInstance(session, handle);
+        Assert.assertEquals(2,
+            getCallCount(backend, "C_GetAttributeValue") - calls);
+        Assert.assertFalse(data.getApplication().isPresent());
+        Assert.assertTrue(data.getValue().isPresent());
+      }
+      Assert.assertTrue(2 < bisectionCalls);
+
+      // the attributes recorded as invalid are read on request
+      Data full = (Data) PKCS11Object.getInstance(session, fullHandle);
+      PKCS11Object.getAttributeValues(session, fullHandle,
+          new Attribute[] {full.getApplication()});
+      Assert.assertEquals("demo",
+          new String(full.getApplication().getCharArrayValue()));
+
+      // or after the profile has been cleared
+      profile.clear();
+      full = (Data) PKCS11Object.getInstance(session, fullHandle);
+      Assert.assertEquals("demo",
+          new String(full.getApplication().getCharArrayValue()));
+      Assert.assertFalse(full.getObjectID().isPresent());
+
+      session.closeSession();
+    } finally {
+      module.finalize(null);
+    }
+  }
+
+}
@@ -0,0 +1,204 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionInterceptor;
+import iaik.pkcs.pkcs11.SessionInterceptor.Invocation;
+import iaik.pkcs.pkcs11.SessionInterceptor.Operation;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * This demo program registers session interceptors with the module and the
+ * token of the software token, records the operations of a session and
+ * vetoes some of them.
+ */
+public class SessionInterceptorDemo extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    final List<Invocation> invocations = new ArrayList<>();
+    SessionInterceptor recorder = new SessionInterceptor() {
+      @Override
+      public void after(Invocation invocation) {
+        invocations.add(invocation);
+      }
+    };
+    SessionInterceptor randomVeto = new SessionInterceptor() {
+      @Override
+      public void before(Invocation invocation) throws TokenException {
+        if (invocation.getOperation() == Operation.GENERATE_RANDOM) {
+          throw new TokenException("random vetoed");
+        }
+      }
+    };
+
+    Session session = openSoftSession();
+    try {
+      ValuedSecretKey key = generateGenericSecretKey(session, 32);
+      long keyHandle = key.getObjectHandle();
+
+      Token token = getSoftToken();
+      token.addSessionInterceptor(recorder);
+      token.getSlot().getModule().addSessionInterceptor(randomVeto);
+      try {
+        Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_SHA256_HMAC);
+        byte[] data = randomBytes(100);
+        session.signInit(mechanism, key);
+        byte[] mac = session.sign(data);
+
+        mac[0] ^= 1;
+        session.verifyInit(mechanism, key);
+        try {
+          session.verify(data, mac);
+          Assert.fail("modified MAC verified");
+        } catch (TokenException ex) {
+          // expected
+        }
+
+        try {
+          session.generateRandom(16);
+          Assert.fail("generateRandom not vetoed");
+        } catch (TokenException ex) {
+          Assert.assertEquals("random vetoed", ex.getMessage());
+        }
+      } finally {
+        token.removeSessionInterceptor(recorder);
+        token.getSlot().getModule().removeSessionInterceptor(randomVeto);
+      }
+
+      session.signInit(Mechanism.get(PKCS11Constants.CKM_SHA256_HMAC), key);
+      session.sign(randomBytes(10));
+      session.generateRandom(16);
+
+      // the vetoing interceptor is called first, so the recorder never sees
+      // the generation of random
+      Assert.assertEquals(4, invocations.size());
+      Invocation signInit = invocations.get(0);
+      Assert.assertEquals(Operation.SIGN_INIT, signInit.getOperation());
+      Assert.assertEquals(keyHandle, signInit.getKeyHandle());
+
+      Invocation sign = invocations.get(1);
+      Assert.assertEquals(Operation.SIGN, sign.getOperation());
+      Assert.assertEquals(PKCS11Constants.CKM_SHA256_HMAC,
+          sign.getMechanismCode());
+      Assert.assertEquals(keyHandle, sign.getKeyHandle());
+      Assert.assertEquals(100, sign.getInputLength());
+      Assert.assertEquals(32, sign.getOutputLength());
+      Assert.assertNull(sign.getException());
+      Assert.assertTrue(sign.getDurationNanos() > 0);
+
+      Invocation verify = invocations.get(3);
+      Assert.assertEquals(Operation.VERIFY, verify.getOperation());
+      Assert.assertEquals(100, verify.getInputLength());
+      Assert.assertTrue(verify.getException() instanceof PKCS11Exception);
+      Assert.assertEquals(PKCS11Constants.CKR_SIGNATURE_INVALID,
+          ((PKCS11Exception) verify.getException()).getErrorCode());
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  /**
+   * Records the calls which read and set the attributes of an object, and
+   * vetoes reading them.
+   */
+  @Test
+  public void attributeOperations() throws TokenException {
+    final List<Invocation> invocations = new ArrayList<>();
+    SessionInterceptor recorder = new SessionInterceptor() {
+      @Override
+      public void after(Invocation invocation) {
+        invocations.add(invocation);
+      }
+    };
+    SessionInterceptor readVeto = new SessionInterceptor() {
+      @Override
+      public void before(Invocation invocation) throws TokenException {
+        if (invocation.getOperation() == Operation.GET_ATTRIBUTE_VALUE) {
+          throw new TokenException("read vetoed");
+        }
+      }
+    };
+
+    Session session = openSoftSession();
+    try {
+      Data data = new Data();
+      data.getLabel().setCharArrayValue(randomLabel("before").toCharArray());
+      data.getValue().setByteArrayValue(randomBytes(20));
+      PKCS11Object object = session.createObject(data);
+      long handle = object.getObjectHandle();
+
+      Token token = getSoftToken();
+      token.addSessionInterceptor(recorder);
+      try {
+        Data template = new Data();
+        template.getLabel().setCharArrayValue(
+            randomLabel("after").toCharArray());
+        session.setAttributeValues(object, template);
+        Invocation set = invocations.get(0);
+        Assert.assertEquals(Operation.SET_ATTRIBUTE_VALUE, set.getOperation());
+        Assert.assertEquals(handle, set.getKeyHandle());
+        Assert.assertEquals(PKCS11Object.getSetAttributes(template).length,
+            set.getInputLength());
+        Assert.assertNull(set.getException());
+
+        invocations.clear();
+        Data read = (Data) PKCS11Object.getInstance(session, handle);
+        Assert.assertArrayEquals(template.getLabel().getCharArrayValue(),
+            read.getLabel().getCharArrayValue());
+        Assert.assertFalse(invocations.isEmpty());
+        for (Invocation get : invocations) {
+          Assert.assertEquals(Operation.GET_ATTRIBUTE_VALUE,
+              get.getOperation());
+          Assert.assertEquals(handle, get.getKeyHandle());
+          Assert.assertTrue(get.getInputLength() > 0);
+        }
+
+        token.addSessionInterceptor(readVeto);
+        try {
+          PKCS11Object.getInstance(session, handle);
+          Assert.fail("reading the attributes not vetoed");
+        } catch (TokenException ex) {
+          Assert.assertEquals("read vetoed", ex.getMessage());
+        } finally {
+          token.removeSessionInterceptor(readVeto);
+        }
+      } finally {
+        token.removeSessionInterceptor(recorder);
+      }
+    } finally {
+      session.closeSession();
+    }
+  }
+
+}
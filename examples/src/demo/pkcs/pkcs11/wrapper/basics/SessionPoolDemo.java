@@ -0,0 +1,112 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.AsyncToken;
+import iaik.pkcs.pkcs11.PooledSession;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+
+/**
+ * This class demonstrates how to share the sessions of a token among
+ * several threads with a {@link SessionPool}, and how to execute operations
+ * asynchronously with an {@link AsyncToken}.
+ */
+public class SessionPoolDemo extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    Token token = getNonNullToken();
+    try (SessionPool pool = new SessionPool(token, getModulePin(),
+        1, 4, 0, 1)) {
+      LOG.info("created pool\n{}", pool);
+
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+        List<Future<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+          futures.add(executor.submit(() -> generateRandom(pool)));
+        }
+
+        for (Future<byte[]> future : futures) {
+          future.get();
+        }
+      } finally {
+        executor.shutdown();
+      }
+
+      LOG.info("pool after 32 tasks in 8 threads\n{}", pool);
+
+      try (AsyncToken asyncToken = new AsyncToken(pool)) {
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+          futures.add(asyncToken.getSession().generateRandom(32));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .join();
+        LOG.info("generated 32 random values in {} lanes",
+            asyncToken.getNumLanes());
+      }
+    }
+  }
+
+  private static byte[] generateRandom(SessionPool pool)
+      throws TokenException {
+    try (PooledSession pooled = pool.borrowSession(false)) {
+      return pooled.getSession().generateRandom(32);
+    }
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.PooledSession;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program closes the sessions of a {@link SessionPool} behind its
+ * back, as a restart of the token would do, and shows that the pool opens
+ * new sessions, logs in again via its PIN callback and retries the
+ * operations.
+ */
+public class SessionPoolRecovery extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    Module module = Module.getInstance(SoftBackend.MODULE_NAME_PREFIX
+        + "pin=" + new String(SOFT_PIN) + ",label=pool-recovery"
+        + ",maxSessions=3,maxRwSessions=2");
+    module.initialize(null);
+    try {
+      Token token = module.getSlotList(true)[0].getToken();
+      AtomicInteger logins = new AtomicInteger();
+      SessionPool.PinCallback pinCallback = () -> {
+        logins.incrementAndGet();
+        return SOFT_PIN.clone();
+      };
+
+      try (SessionPool pool = new SessionPool(token,
+          PKCS11Constants.CKU_USER, pinCallback, 1, 10, 0, 10)) {
+        // the read-write sessions count against both limits of the token
+        Assert.assertEquals(2, pool.getMaxSessions(true));
+        Assert.assertEquals(1, pool.getMaxSessions(false));
+        main0(module, pool, logins);
+      }
+    } finally {
+      module.finalize(null);
+    }
+  }
+
+  private void main0(Module module, SessionPool pool, AtomicInteger logins)
+      throws Exception {
+    ValuedSecretKey template = ValuedSecretKey.newGenericSecretKey();
+    template.getToken().setBooleanValue(Boolean.TRUE);
+    template.getPrivate().setBooleanValue(Boolean.TRUE);
+    template.getSign().setBooleanValue(Boolean.TRUE);
+    template.getValueLen().setLongValue(32L);
+    ValuedSecretKey key = pool.execute(true, false,
+        session -> (ValuedSecretKey) session.generateKey(Mechanism.get(
+            PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN), template));
+    Assert.assertEquals(1, logins.get());
+
+    Mechanism hmac = Mechanism.get(PKCS11Constants.CKM_SHA256_HMAC);
+    byte[] data = randomBytes(100);
+    byte[] mac = pool.sign(hmac, key, data);
+
+    closeSessions(module, pool);
+    Assert.assertArrayEquals(mac, pool.sign(hmac, key, data));
+    Assert.assertEquals(2, logins.get());
+
+    // the lost session is recognized in the cause, like in the exceptions
+    // of Session.findObjects
+    closeSessions(module, pool);
+    byte[] mac2 = pool.execute(false, session -> {
+      try {
+        session.signInit(hmac, key);
+        return session.sign(data);
+      } catch (TokenException ex) {
+        throw new TokenException(ex);
+      }
+    });
+    Assert.assertArrayEquals(mac, mac2);
+    Assert.assertEquals(3, logins.get());
+  }
+
+  /**
+   * Closes the idle sessions of the pool in the token, without the pool
+   * noticing it. The token logs out when its last session is closed.
+   */
+  private static void closeSessions(Module module, SessionPool pool)
+      throws Exception {
+    long roHandle;
+    long rwHandle;
+    try (PooledSession ro = pool.borrowSession(false);
+        PooledSession rw = pool.borrowSession(true)) {
+      roHandle = ro.getSession().getSessionHandle();
+      rwHandle = rw.getSession().getSessionHandle();
+    }
+    module.getBackend().C_CloseSession(roHandle);
+    module.getBackend().C_CloseSession(rwHandle);
+  }
+
+}
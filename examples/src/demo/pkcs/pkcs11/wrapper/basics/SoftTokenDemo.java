@@ -0,0 +1,239 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.ECPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program uses the in-memory software token, so that it runs
+ * without any PKCS#11 module.
+ */
+public class SoftTokenDemo extends TestBase {
+
+  @Test
+  public void tokenInfo() throws TokenException {
+    Assert.assertEquals("demo", getSoftToken().getTokenInfo().getLabel().trim());
+  }
+
+  @Test
+  public void aesCbcPad() throws TokenException {
+    Session session = openSoftSession();
+    try {
+      ValuedSecretKey key = generateAESKey(session, 16);
+
+      Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+      mechanism.setParameters(
+          new InitializationVectorParameters(randomBytes(16)));
+
+      byte[] data = randomBytes(1000);
+      byte[] encrypted = new byte[data.length + 16];
+      session.encryptInit(mechanism, key);
+      int len = session.encrypt(data, 0, data.length,
+          encrypted, 0, encrypted.length);
+      Assert.assertEquals(1008, len);
+
+      // direct buffers are copied since the software token has no access
+      // to native memory
+      ByteBuffer in = ByteBuffer.allocateDirect(len);
+      in.put(encrypted, 0, len).flip();
+      ByteBuffer out = ByteBuffer.allocateDirect(len);
+      session.decryptInit(mechanism, key);
+      session.decryptUpdate(in, out);
+      session.decryptFinal(out);
+
+      out.flip();
+      byte[] decrypted = new byte[out.remaining()];
+      out.get(decrypted);
+      Assert.assertArrayEquals(data, decrypted);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  @Test
+  public void hmac() throws TokenException {
+    Session session = openSoftSession();
+    try {
+      ValuedSecretKey key = generateGenericSecretKey(session, 32);
+
+      Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_SHA256_HMAC);
+      byte[] data = randomBytes(1057);
+      session.signInit(mechanism, key);
+      byte[] mac = session.sign(data);
+      Assert.assertEquals(32, mac.length);
+
+      session.verifyInit(mechanism, key);
+      session.verify(data, mac);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  @Test
+  public void rsaSign() throws Exception {
+    Session session = openSoftSession();
+    try {
+      RSAPublicKey publicKeyTemplate = new RSAPublicKey();
+      publicKeyTemplate.getModulusBits().setLongValue(2048L);
+      KeyPair keyPair = session.generateKeyPair(
+          Mechanism.get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN),
+          publicKeyTemplate, new RSAPrivateKey());
+
+      byte[] data = randomBytes(1057);
+      session.signInit(Mechanism.get(PKCS11Constants.CKM_SHA256_RSA_PKCS),
+          keyPair.getPrivateKey());
+      byte[] signature = session.sign(data);
+
+      // verify with JCE
+      RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublicKey();
+      RSAPublicKeySpec spec = new RSAPublicKeySpec(
+          new BigInteger(1, publicKey.getModulus().getByteArrayValue()),
+          new BigInteger(1,
+              publicKey.getPublicExponent().getByteArrayValue()));
+      Signature verifier = Signature.getInstance("SHA256withRSA");
+      verifier.initVerify(
+          KeyFactory.getInstance("RSA").generatePublic(spec));
+      verifier.update(data);
+      Assert.assertTrue(verifier.verify(signature));
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  @Test
+  public void ecdsaSign() throws Exception {
+    Session session = openSoftSession();
+    try {
+      ECPublicKey publicKeyTemplate = new ECPublicKey();
+      publicKeyTemplate.getEcdsaParams().setByteArrayValue(SECP256R1_PARAMS);
+      KeyPair keyPair = session.generateKeyPair(
+          Mechanism.get(PKCS11Constants.CKM_EC_KEY_PAIR_GEN),
+          publicKeyTemplate, new ECPrivateKey());
+
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+          randomBytes(1057));
+      Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_ECDSA);
+      session.signInit(mechanism, keyPair.getPrivateKey());
+      byte[] signature = session.sign(hash);
+      Assert.assertEquals(64, signature.length);
+
+      session.verifyInit(mechanism, keyPair.getPublicKey());
+      session.verify(hash, signature);
+
+      signature[0] ^= 1;
+      session.verifyInit(mechanism, keyPair.getPublicKey());
+      try {
+        session.verify(hash, signature);
+        Assert.fail("modified signature verified");
+      } catch (TokenException ex) {
+        // expected
+      }
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  @Test
+  public void digest() throws Exception {
+    Session session = openSoftSession();
+    try {
+      byte[] data = randomBytes(1057);
+      byte[] digest = new byte[32];
+      int len = session.digestSingle(
+          Mechanism.get(PKCS11Constants.CKM_SHA256), data, 0, data.length,
+          digest, 0, digest.length);
+      Assert.assertEquals(32, len);
+      Assert.assertArrayEquals(
+          MessageDigest.getInstance("SHA-256").digest(data), digest);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  @Test
+  public void findObjects() throws TokenException {
+    Session session = openSoftSession();
+    try {
+      String label = randomLabel("find");
+      for (int i = 0; i < 5; i++) {
+        Data data = new Data();
+        data.getLabel().setCharArrayValue(label.toCharArray());
+        data.getValue().setByteArrayValue(new byte[] {(byte) i});
+        session.createObject(data);
+      }
+
+      Data template = new Data();
+      template.getLabel().setCharArrayValue(label.toCharArray());
+      session.findObjectsInit(template);
+      PKCS11Object[] found = session.findObjects(10);
+      session.findObjectsFinal();
+
+      Assert.assertEquals(5, found.length);
+      byte[] values = new byte[found.length];
+      for (int i = 0; i < found.length; i++) {
+        values[i] = ((Data) found[i]).getValue().getByteArrayValue()[0];
+      }
+      Arrays.sort(values);
+      Assert.assertArrayEquals(new byte[] {0, 1, 2, 3, 4}, values);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  @Test
+  public void latency() throws Exception {
+    Module slowModule = Module.getInstance("soft:latency=2000");
+    slowModule.initialize(null);
+    try {
+      long start = System.nanoTime();
+      slowModule.getInfo();
+      long duration = System.nanoTime() - start;
+      Assert.assertTrue("latency not applied: " + duration + " ns",
+          duration >= TimeUnit.MILLISECONDS.toNanos(2));
+    } finally {
+      slowModule.finalize(null);
+    }
+  }
+
+}
@@ -18,6 +18,7 @@
 package demo.pkcs.pkcs11.wrapper.encryption;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.junit.Assert;
@@ -57,6 +58,18 @@ public abstract class MultipleStepsSymmEncryptDecrypt extends TestBase {
     }
   }
 
+  @Test
+  public void byteBuffers() throws TokenException {
+    Token token = getNonNullToken();
+
+    Session session = openReadWriteSession(token);
+    try {
+      byteBuffers0(token, session);
+    } finally {
+      session.closeSession();
+    }
+  }
+
   private void main0(Token token, Session session) throws TokenException {
     LOG.info("##################################################");
     LOG.info("generate secret encryption/decryption key");
@@ -135,4 +148,44 @@ public abstract class MultipleStepsSymmEncryptDecrypt extends TestBase {
     Assert.assertArrayEquals(rawData, decryptedData);
   }
 
+  private void byteBuffers0(Token token, Session session)
+      throws TokenException {
+    ValuedSecretKey keyTemplate = getKeyTemplate();
+    keyTemplate.getToken().setBooleanValue(false);
+
+    ValuedSecretKey encryptionKey = (ValuedSecretKey)
+        session.generateKey(getKeyGenMech(token), keyTemplate);
+
+    byte[] rawData = randomBytes(1024);
+
+    LOG.info("##################################################");
+    LOG.info("encrypting data from and to direct buffers");
+    ByteBuffer in = ByteBuffer.allocateDirect(64);
+    ByteBuffer out = ByteBuffer.allocateDirect(rawData.length + 64);
+    session.encryptInit(getEncryptionMech(token), encryptionKey);
+    for (int i = 0; i < rawData.length; i += 64) {
+      in.clear();
+      in.put(rawData, i, Math.min(rawData.length - i, 64));
+      in.flip();
+      session.encryptUpdate(in, out);
+    }
+    session.encryptFinal(out);
+
+    out.flip();
+    byte[] encryptedData = new byte[out.remaining()];
+    out.get(encryptedData);
+
+    LOG.info("##################################################");
+    LOG.info("decrypting data from and to heap buffers");
+    ByteBuffer encrypted = ByteBuffer.wrap(encryptedData);
+    ByteBuffer decrypted = ByteBuffer.allocate(encryptedData.length + 64);
+    session.decryptInit(getEncryptionMech(token), encryptionKey);
+    session.decryptUpdate(encrypted, decrypted);
+    session.decryptFinal(decrypted);
+
+    Assert.assertFalse(encrypted.hasRemaining());
+    Assert.assertArrayEquals(rawData,
+        Arrays.copyOf(decrypted.array(), decrypted.position()));
+  }
+
 }
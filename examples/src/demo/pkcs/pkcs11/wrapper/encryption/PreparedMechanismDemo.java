@@ -0,0 +1,110 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.encryption;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.PreparedMechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.parameters.GCMParameters;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * This demo program prepares the CKM_AES_CBC_PAD mechanism once and encrypts
+ * with it and with derived mechanisms with other initialization vectors.
+ */
+public class PreparedMechanismDemo extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    Session session = openSoftSession();
+    try {
+      Key key = generateAESKey(session, 16);
+      byte[] data = randomBytes(100);
+      byte[] iv = randomBytes(16);
+      byte[] ivCopy = iv.clone();
+
+      Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+      mechanism.setParameters(new InitializationVectorParameters(iv));
+      PreparedMechanism prepared = new PreparedMechanism(mechanism);
+
+      // changes after the preparation are not reflected
+      iv[0] ^= 0x01;
+      byte[] expected = encrypt(session, mechanism(ivCopy), key, data);
+      session.encryptInit(prepared, key);
+      Assert.assertArrayEquals(expected, encrypt(session, data));
+
+      byte[] otherIv = randomBytes(16);
+      PreparedMechanism derived = prepared.withIv(otherIv);
+      expected = encrypt(session, mechanism(otherIv), key, data);
+      otherIv[0] ^= 0x01;
+      session.encryptInit(derived, key);
+      Assert.assertArrayEquals(expected, encrypt(session, data));
+
+      try {
+        new PreparedMechanism(Mechanism.get(PKCS11Constants.CKM_AES_ECB))
+            .withIv(randomBytes(16));
+        Assert.fail("IllegalStateException expected");
+      } catch (IllegalStateException ex) {
+        LOG.info("expected: {}", ex.getMessage());
+      }
+
+      byte[] nonce = randomBytes(12);
+      byte[] aad = randomBytes(20);
+      Mechanism gcm = Mechanism.get(PKCS11Constants.CKM_AES_GCM);
+      gcm.setParameters(new GCMParameters(128, nonce, aad.clone()));
+      prepared = new PreparedMechanism(gcm);
+      nonce[0] ^= 0x01;
+      ((GCMParameters) gcm.getParameters()).getAad()[0] ^= 0x01;
+      GCMParameters params = (GCMParameters) prepared.getParameters();
+      Assert.assertEquals(0x01, (params.getIv()[0] ^ nonce[0]) & 0xff);
+      Assert.assertArrayEquals(aad, params.getAad());
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  private static Mechanism mechanism(byte[] iv) {
+    Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+    mechanism.setParameters(new InitializationVectorParameters(iv.clone()));
+    return mechanism;
+  }
+
+  private static byte[] encrypt(Session session, Mechanism mechanism,
+      Key key, byte[] data) throws TokenException {
+    session.encryptInit(mechanism, key);
+    return encrypt(session, data);
+  }
+
+  private static byte[] encrypt(Session session, byte[] data)
+      throws TokenException {
+    byte[] encrypted = new byte[data.length + 16];
+    int len = session.encrypt(data, 0, data.length,
+        encrypted, 0, encrypted.length);
+    return Arrays.copyOf(encrypted, len);
+  }
+
+}
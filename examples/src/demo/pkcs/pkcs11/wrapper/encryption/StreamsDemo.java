@@ -0,0 +1,149 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.encryption;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.stream.CipherChannel;
+import iaik.pkcs.pkcs11.stream.CipherInputStream;
+import iaik.pkcs.pkcs11.stream.CipherOutputStream;
+import iaik.pkcs.pkcs11.stream.DigestOutputStream;
+import iaik.pkcs.pkcs11.stream.SignOutputStream;
+import iaik.pkcs.pkcs11.stream.VerifyOutputStream;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * This demo program encrypts, decrypts, digests, signs and verifies data
+ * through the streams and channels of the package iaik.pkcs.pkcs11.stream,
+ * over a session of the application and over sessions borrowed from a
+ * {@link SessionPool}, and compares the results with the expected ones.
+ */
+public class StreamsDemo extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    Session session = openSoftSession();
+    SessionPool pool = new SessionPool(getSoftToken(), SOFT_PIN, 1, 2, 0, 1);
+    try {
+      ValuedSecretKey key = generateAESKey(session, 16);
+
+      Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+      mechanism.setParameters(
+          new InitializationVectorParameters(randomBytes(16)));
+      byte[] data = randomBytes(10000);
+
+      // mixed writes, partly collected and partly passed in chunks
+      ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+      try (OutputStream out = new CipherOutputStream(encrypted, pool, true,
+          mechanism, key, 256)) {
+        out.write(data[0]);
+        out.write(data, 1, 99);
+        out.write(data, 100, 9000);
+        out.write(data, 9100, 900);
+      }
+      Assert.assertEquals(10000 + 16, encrypted.size());
+      Assert.assertEquals(1, pool.getIdleSessions(false));
+
+      ByteArrayOutputStream viaChannel = new ByteArrayOutputStream();
+      try (WritableByteChannel out = new CipherChannel(
+          Channels.newChannel(viaChannel), session, true, mechanism, key,
+          1024)) {
+        out.write(ByteBuffer.wrap(data, 0, 500));
+        out.write(ByteBuffer.wrap(data, 500, 9500));
+      }
+      Assert.assertArrayEquals(encrypted.toByteArray(),
+          viaChannel.toByteArray());
+
+      byte[] decrypted = new byte[data.length];
+      try (InputStream in = new CipherInputStream(
+          new ByteArrayInputStream(encrypted.toByteArray()), session, false,
+          mechanism, key, 512)) {
+        int off = 0;
+        int n;
+        while ((n = in.read(decrypted, off, decrypted.length - off)) > 0) {
+          off += n;
+        }
+        Assert.assertEquals(data.length, off);
+        Assert.assertEquals(-1, in.read());
+      }
+      Assert.assertArrayEquals(data, decrypted);
+
+      byte[] digest;
+      try (DigestOutputStream out = new DigestOutputStream(pool,
+          Mechanism.get(PKCS11Constants.CKM_SHA256), 1024)) {
+        out.write(data, 0, 10);
+        out.write(ByteBuffer.wrap(data, 10, data.length - 10));
+        digest = out.digest();
+      }
+      Assert.assertArrayEquals(
+          MessageDigest.getInstance("SHA-256").digest(data), digest);
+
+      // aborted in a session of the application, which remains usable
+      DigestOutputStream aborted = new DigestOutputStream(session,
+          Mechanism.get(PKCS11Constants.CKM_SHA256));
+      aborted.write(data);
+      aborted.close();
+      try (DigestOutputStream out = new DigestOutputStream(session,
+          Mechanism.get(PKCS11Constants.CKM_SHA256))) {
+        out.write(data);
+        Assert.assertArrayEquals(digest, out.digest());
+      }
+
+      Mechanism hmac = Mechanism.get(PKCS11Constants.CKM_SHA256_HMAC);
+      byte[] mac;
+      try (SignOutputStream out = new SignOutputStream(session, hmac, key)) {
+        out.write(data);
+        mac = out.sign(32);
+      }
+      try (VerifyOutputStream out = new VerifyOutputStream(pool, hmac, key)) {
+        out.write(data);
+        out.verify(mac);
+      }
+      try (VerifyOutputStream out = new VerifyOutputStream(pool, hmac, key)) {
+        out.write(data, 1, data.length - 1);
+        out.verify(mac);
+        Assert.fail("modified data verified");
+      } catch (PKCS11Exception ex) {
+        Assert.assertEquals(PKCS11Constants.CKR_SIGNATURE_INVALID,
+            ex.getErrorCode());
+      }
+      Assert.assertEquals(1, pool.getIdleSessions(false));
+    } finally {
+      pool.close();
+      session.closeSession();
+    }
+  }
+
+}
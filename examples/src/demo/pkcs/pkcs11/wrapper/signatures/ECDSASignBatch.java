@@ -0,0 +1,100 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.signatures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.AsyncToken;
+import iaik.pkcs.pkcs11.BatchResult;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * Signs and verifies a batch of hash values using CKM_ECDSA.
+ */
+public class ECDSASignBatch extends SignatureTestBase {
+
+  @Test
+  public void main() throws Exception {
+    Token token = getNonNullToken();
+    // the session objects are visible as long as this session is open
+    Session session = openReadOnlySession(token);
+    try {
+      main0(token, session);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  private void main0(Token token, Session session) throws Exception {
+    LOG.info("##################################################");
+    LOG.info("generate signature key pair");
+
+    final long mechCode = PKCS11Constants.CKM_ECDSA;
+    if (!Util.supports(token, mechCode)) {
+      System.out.println("Unsupported mechanism "
+          + Functions.mechanismCodeToString(mechCode));
+      return;
+    }
+    Mechanism signatureMechanism = getSupportedMechanism(token, mechCode);
+
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    final byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+        0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+    KeyPair keyPair = generateECKeypair(token, session, ecParams, false);
+
+    List<byte[]> hashValues = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      hashValues.add(randomBytes(32));
+    }
+
+    LOG.info("##################################################");
+    LOG.info("signing {} hash values", hashValues.size());
+    try (SessionPool pool = new SessionPool(token, getModulePin(),
+            0, 4, 0, 0);
+        AsyncToken asyncToken = new AsyncToken(pool)) {
+      BatchResult signatures = asyncToken.signBatch(signatureMechanism,
+          keyPair.getPrivateKey(), hashValues).join();
+      LOG.info("{}", signatures);
+      Assert.assertEquals(0, signatures.getFailureCount());
+
+      List<byte[]> signatureValues = new ArrayList<>(signatures.size());
+      for (int i = 0; i < signatures.size(); i++) {
+        signatureValues.add(signatures.getResult(i));
+      }
+
+      BatchResult verifications = asyncToken.verifyBatch(signatureMechanism,
+          keyPair.getPublicKey(), hashValues, signatureValues).join();
+      LOG.info("{}", verifications);
+      Assert.assertEquals(0, verifications.getFailureCount());
+    }
+
+    LOG.info("##################################################");
+  }
+
+}
@@ -0,0 +1,147 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.signatures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.AsyncToken;
+import iaik.pkcs.pkcs11.BatchResult;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * This demo program signs and verifies batches of data with CKM_SHA256_HMAC
+ * on the software token. It shows that the results are in the order of the
+ * data, that an item which fails does not affect the others, and that the
+ * items left by a lane which gives up fail with its exception.
+ */
+public class HMACSignBatch extends TestBase {
+
+  private static final Mechanism HMAC =
+      Mechanism.get(PKCS11Constants.CKM_SHA256_HMAC);
+
+  @Test
+  public void main() throws Exception {
+    Module module = newSoftModule("hmac-batch", SoftBackend.FACTORY);
+    try {
+      Token token = module.getSlotList(true)[0].getToken();
+      try (SessionPool pool = new SessionPool(token, SOFT_PIN, 0, 4, 0, 1)) {
+        ValuedSecretKey template = ValuedSecretKey.newGenericSecretKey();
+        template.getToken().setBooleanValue(Boolean.TRUE);
+        template.getSign().setBooleanValue(Boolean.TRUE);
+        template.getVerify().setBooleanValue(Boolean.TRUE);
+        template.getValueLen().setLongValue(32L);
+        ValuedSecretKey key = pool.execute(true, false,
+            session -> (ValuedSecretKey) session.generateKey(Mechanism.get(
+                PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN), template));
+
+        List<byte[]> data = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+          data.add(randomBytes(20 + i));
+        }
+
+        try (AsyncToken asyncToken = new AsyncToken(pool)) {
+          signAndVerify(pool, asyncToken, key, data);
+        }
+
+        // a single lane gives up at the item it cannot process
+        try (AsyncToken asyncToken = new AsyncToken(pool, 1)) {
+          giveUp(asyncToken, key, data);
+        }
+      }
+    } finally {
+      module.finalize(null);
+    }
+  }
+
+  private void signAndVerify(SessionPool pool, AsyncToken asyncToken,
+      ValuedSecretKey key, List<byte[]> data) throws TokenException {
+    BatchResult signatures = asyncToken.signBatch(HMAC, key, data).join();
+    LOG.info("{}", signatures);
+    Assert.assertEquals(data.size(), signatures.size());
+    Assert.assertEquals(0, signatures.getFailureCount());
+
+    // the results are in the order of the data
+    List<byte[]> signatureValues = new ArrayList<>(signatures.size());
+    for (int i = 0; i < signatures.size(); i++) {
+      Assert.assertArrayEquals(pool.sign(HMAC, key, data.get(i)),
+          signatures.getResult(i));
+      signatureValues.add(signatures.getResult(i));
+    }
+
+    // only the item with the wrong signature fails
+    final int wrongIndex = 17;
+    byte[] wrong = signatureValues.get(wrongIndex).clone();
+    wrong[0] ^= 0x01;
+    signatureValues.set(wrongIndex, wrong);
+    BatchResult verifications = asyncToken.verifyBatch(HMAC, key, data,
+        signatureValues).join();
+    LOG.info("{}", verifications);
+    Assert.assertEquals(1, verifications.getFailureCount());
+    for (int i = 0; i < verifications.size(); i++) {
+      Assert.assertEquals(i != wrongIndex, verifications.isSuccessful(i));
+    }
+    TokenException ex = verifications.getException(wrongIndex);
+    Assert.assertTrue(ex instanceof PKCS11Exception);
+    Assert.assertEquals(PKCS11Constants.CKR_SIGNATURE_INVALID,
+        ((PKCS11Exception) ex).getErrorCode());
+
+    BatchResult empty = asyncToken.signBatch(HMAC, key,
+        Collections.<byte[]>emptyList()).join();
+    Assert.assertEquals(0, empty.size());
+    Assert.assertEquals(0, empty.getFailureCount());
+
+    try {
+      asyncToken.verifyBatch(HMAC, key, null, signatureValues);
+      Assert.fail("NullPointerException expected");
+    } catch (NullPointerException ex2) {
+      LOG.info("expected: {}", ex2.getMessage());
+    }
+  }
+
+  private void giveUp(AsyncToken asyncToken, ValuedSecretKey key,
+      List<byte[]> data) {
+    final int nullIndex = 10;
+    List<byte[]> items = new ArrayList<>(data);
+    items.set(nullIndex, null);
+    BatchResult signatures = asyncToken.signBatch(HMAC, key, items).join();
+    LOG.info("{}", signatures);
+    Assert.assertEquals(items.size(), signatures.size());
+    Assert.assertEquals(items.size() - nullIndex,
+        signatures.getFailureCount());
+    for (int i = 0; i < signatures.size(); i++) {
+      Assert.assertEquals(i < nullIndex, signatures.isSuccessful(i));
+    }
+    Assert.assertTrue(signatures.getException(nullIndex)
+        .getEncapsulatedException() instanceof NullPointerException);
+  }
+
+}
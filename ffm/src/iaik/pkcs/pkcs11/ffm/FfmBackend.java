@@ -0,0 +1,1452 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.ffm;
+
+import java.io.IOException;
+import java.lang.foreign.AddressLayout;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Attribute;
+import iaik.pkcs.pkcs11.objects.AttributeArray;
+import iaik.pkcs.pkcs11.objects.BooleanAttribute;
+import iaik.pkcs.pkcs11.objects.CharArrayAttribute;
+import iaik.pkcs.pkcs11.objects.DateAttribute;
+import iaik.pkcs.pkcs11.objects.LongAttribute;
+import iaik.pkcs.pkcs11.objects.MechanismArrayAttribute;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11RuntimeException;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_C_INITIALIZE_ARGS;
+import sun.security.pkcs11.wrapper.CK_DATE;
+import sun.security.pkcs11.wrapper.CK_ECDH1_DERIVE_PARAMS;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_RSA_PKCS_OAEP_PARAMS;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+import sun.security.pkcs11.wrapper.CK_VERSION;
+import sun.security.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * A {@link PKCS11Backend} which calls the PKCS#11 module via the Foreign
+ * Function and Memory API of JDK 22+, without the JNI library of the JDK.
+ * The functions are taken from the CK_FUNCTION_LIST returned by
+ * C_GetFunctionList of the module.
+ * <p>
+ * Mechanisms, templates and buffers are laid out in a per-thread scratch
+ * segment which is reused by every call, see {@link Frame}. The methods
+ * {@link #sign(long, MemorySegment, MemorySegment)},
+ * {@link #encrypt(long, MemorySegment, MemorySegment)},
+ * {@link #decrypt(long, MemorySegment, MemorySegment)} and
+ * {@link #digest(long, MemorySegment, MemorySegment)} write into
+ * caller-provided segments, and the direct addresses of the *Update
+ * functions are passed to the module as they are.
+ * <pre><code>
+ *   Module module = Module.getInstance("/usr/lib/softhsm/libsofthsm2.so",
+ *       FfmBackend.FACTORY);
+ * </code></pre>
+ * Limitations: only 64-bit platforms with 8-byte CK_ULONG and natural
+ * structure alignment (Linux, macOS) are supported; mutex and notify
+ * callbacks are not supported; the supported mechanism parameters are
+ * byte[], Long, CK_VERSION, CK_RSA_PKCS_OAEP_PARAMS and
+ * CK_ECDH1_DERIVE_PARAMS; values of attributes with an attribute array
+ * (e.g. CKA_WRAP_TEMPLATE) are not read.
+ * <p>
+ * The JVM must be started with the option {@code --add-exports
+ * jdk.crypto.cryptoki/sun.security.pkcs11.wrapper=ALL-UNNAMED} and should be
+ * started with {@code --enable-native-access=ALL-UNNAMED}.
+ */
+public class FfmBackend implements PKCS11Backend {
+
+  /**
+   * Connects to a PKCS#11 module via C_GetFunctionList.
+   */
+  public static final Factory FACTORY = FfmBackend::connect;
+
+  private static final ValueLayout.OfLong ULONG = ValueLayout.JAVA_LONG;
+
+  private static final ValueLayout.OfByte BYTE = ValueLayout.JAVA_BYTE;
+
+  private static final AddressLayout PTR = ValueLayout.ADDRESS;
+
+  private static final long CK_UNAVAILABLE_INFORMATION = -1L;
+
+  private static final long SIZEOF_ATTRIBUTE = 24;
+
+  private static final long SIZEOF_MECHANISM = 24;
+
+  /**
+   * Initial size of output buffers with unknown length, e.g. signatures.
+   */
+  private static final int DEFAULT_OUTPUT_LEN = 1024;
+
+  private static final Map<String, FfmBackend> INSTANCES = new HashMap<>();
+
+  private final String pkcs11ModuleName;
+
+  private final MethodHandle initialize;
+
+  private final MethodHandle finalize;
+
+  private final MethodHandle getInfo;
+
+  private final MethodHandle getSlotList;
+
+  private final MethodHandle getSlotInfo;
+
+  private final MethodHandle getTokenInfo;
+
+  private final MethodHandle getMechanismList;
+
+  private final MethodHandle getMechanismInfo;
+
+  private final MethodHandle openSession;
+
+  private final MethodHandle closeSession;
+
+  private final MethodHandle getSessionInfo;
+
+  private final MethodHandle getOperationState;
+
+  private final MethodHandle setOperationState;
+
+  private final MethodHandle login;
+
+  private final MethodHandle logout;
+
+  private final MethodHandle createObject;
+
+  private final MethodHandle copyObject;
+
+  private final MethodHandle destroyObject;
+
+  private final MethodHandle getAttributeValue;
+
+  private final MethodHandle setAttributeValue;
+
+  private final MethodHandle findObjectsInit;
+
+  private final MethodHandle findObjects;
+
+  private final MethodHandle findObjectsFinal;
+
+  private final MethodHandle encryptInit;
+
+  private final MethodHandle encrypt;
+
+  private final MethodHandle encryptUpdate;
+
+  private final MethodHandle encryptFinal;
+
+  private final MethodHandle decryptInit;
+
+  private final MethodHandle decrypt;
+
+  private final MethodHandle decryptUpdate;
+
+  private final MethodHandle decryptFinal;
+
+  private final MethodHandle digestInit;
+
+  private final MethodHandle digest;
+
+  private final MethodHandle digestUpdate;
+
+  private final MethodHandle digestKey;
+
+  private final MethodHandle digestFinal;
+
+  private final MethodHandle signInit;
+
+  private final MethodHandle sign;
+
+  private final MethodHandle signUpdate;
+
+  private final MethodHandle signFinal;
+
+  private final MethodHandle signRecoverInit;
+
+  private final MethodHandle signRecover;
+
+  private final MethodHandle verifyInit;
+
+  private final MethodHandle verify;
+
+  private final MethodHandle verifyUpdate;
+
+  private final MethodHandle verifyFinal;
+
+  private final MethodHandle verifyRecoverInit;
+
+  private final MethodHandle verifyRecover;
+
+  private final MethodHandle generateKey;
+
+  private final MethodHandle generateKeyPair;
+
+  private final MethodHandle wrapKey;
+
+  private final MethodHandle unwrapKey;
+
+  private final MethodHandle deriveKey;
+
+  private final MethodHandle seedRandom;
+
+  private final MethodHandle generateRandom;
+
+  private FfmBackend(String pkcs11ModuleName, MemorySegment functionList) {
+    this.pkcs11ModuleName = pkcs11ModuleName;
+    // the indexes of the functions in CK_FUNCTION_LIST of PKCS#11 v2.40
+    FunctionTable ft = new FunctionTable(functionList);
+    initialize = ft.get(0, PTR);
+    finalize = ft.get(1, PTR);
+    getInfo = ft.get(2, PTR);
+    getSlotList = ft.get(4, BYTE, PTR, PTR);
+    getSlotInfo = ft.get(5, ULONG, PTR);
+    getTokenInfo = ft.get(6, ULONG, PTR);
+    getMechanismList = ft.get(7, ULONG, PTR, PTR);
+    getMechanismInfo = ft.get(8, ULONG, ULONG, PTR);
+    openSession = ft.get(12, ULONG, ULONG, PTR, PTR, PTR);
+    closeSession = ft.get(13, ULONG);
+    getSessionInfo = ft.get(15, ULONG, PTR);
+    getOperationState = ft.get(16, ULONG, PTR, PTR);
+    setOperationState = ft.get(17, ULONG, PTR, ULONG, ULONG, ULONG);
+    login = ft.get(18, ULONG, ULONG, PTR, ULONG);
+    logout = ft.get(19, ULONG);
+    createObject = ft.get(20, ULONG, PTR, ULONG, PTR);
+    copyObject = ft.get(21, ULONG, ULONG, PTR, ULONG, PTR);
+    destroyObject = ft.get(22, ULONG, ULONG);
+    getAttributeValue = ft.get(24, ULONG, ULONG, PTR, ULONG);
+    setAttributeValue = ft.get(25, ULONG, ULONG, PTR, ULONG);
+    findObjectsInit = ft.get(26, ULONG, PTR, ULONG);
+    findObjects = ft.get(27, ULONG, PTR, ULONG, PTR);
+    findObjectsFinal = ft.get(28, ULONG);
+    encryptInit = ft.get(29, ULONG, PTR, ULONG);
+    encrypt = ft.get(30, ULONG, PTR, ULONG, PTR, PTR);
+    encryptUpdate = ft.get(31, ULONG, PTR, ULONG, PTR, PTR);
+    encryptFinal = ft.get(32, ULONG, PTR, PTR);
+    decryptInit = ft.get(33, ULONG, PTR, ULONG);
+    decrypt = ft.get(34, ULONG, PTR, ULONG, PTR, PTR);
+    decryptUpdate = ft.get(35, ULONG, PTR, ULONG, PTR, PTR);
+    decryptFinal = ft.get(36, ULONG, PTR, PTR);
+    digestInit = ft.get(37, ULONG, PTR);
+    digest = ft.get(38, ULONG, PTR, ULONG, PTR, PTR);
+    digestUpdate = ft.get(39, ULONG, PTR, ULONG);
+    digestKey = ft.get(40, ULONG, ULONG);
+    digestFinal = ft.get(41, ULONG, PTR, PTR);
+    signInit = ft.get(42, ULONG, PTR, ULONG);
+    sign = ft.get(43, ULONG, PTR, ULONG, PTR, PTR);
+    signUpdate = ft.get(44, ULONG, PTR, ULONG);
+    signFinal = ft.get(45, ULONG, PTR, PTR);
+    signRecoverInit = ft.get(46, ULONG, PTR, ULONG);
+    signRecover = ft.get(47, ULONG, PTR, ULONG, PTR, PTR);
+    verifyInit = ft.get(48, ULONG, PTR, ULONG);
+    verify = ft.get(49, ULONG, PTR, ULONG, PTR, ULONG);
+    verifyUpdate = ft.get(50, ULONG, PTR, ULONG);
+    verifyFinal = ft.get(51, ULONG, PTR, ULONG);
+    verifyRecoverInit = ft.get(52, ULONG, PTR, ULONG);
+    verifyRecover = ft.get(53, ULONG, PTR, ULONG, PTR, PTR);
+    generateKey = ft.get(58, ULONG, PTR, PTR, ULONG, PTR);
+    generateKeyPair =
+        ft.get(59, ULONG, PTR, PTR, ULONG, PTR, ULONG, PTR, PTR);
+    wrapKey = ft.get(60, ULONG, PTR, ULONG, ULONG, PTR, PTR);
+    unwrapKey = ft.get(61, ULONG, PTR, ULONG, PTR, ULONG, PTR, ULONG, PTR);
+    deriveKey = ft.get(62, ULONG, PTR, ULONG, PTR, ULONG, PTR);
+    seedRandom = ft.get(63, ULONG, PTR, ULONG);
+    generateRandom = ft.get(64, ULONG, PTR, ULONG);
+  }
+
+  /**
+   * Reads the function pointers of a CK_FUNCTION_LIST.
+   */
+  private static final class FunctionTable {
+
+    private static final int NUM_FUNCTIONS = 68;
+
+    private final MemorySegment functionList;
+
+    private FunctionTable(MemorySegment functionList) {
+      // CK_VERSION, padded to the alignment of the function pointers
+      this.functionList = functionList.reinterpret(8 + 8 * NUM_FUNCTIONS);
+    }
+
+    private MethodHandle get(int index, MemoryLayout... argLayouts) {
+      MemorySegment function = functionList.get(PTR, 8 + 8L * index);
+      return Linker.nativeLinker().downcallHandle(function,
+          FunctionDescriptor.of(ULONG, argLayouts));
+    }
+
+  }
+
+  /**
+   * Loads the PKCS#11 module, gets its function list and calls
+   * C_Initialize. The module is loaded and initialized only once.
+   *
+   * @param pkcs11ModuleName
+   *          The name or path of the module; e.g. "libsofthsm2.so".
+   * @param initArgs
+   *          The initialization arguments. May be null.
+   * @return The backend for the module.
+   * @exception IOException
+   *              If the module cannot be loaded.
+   * @exception TokenException
+   *              If initializing the module fails.
+   */
+  public static synchronized FfmBackend connect(String pkcs11ModuleName,
+      CK_C_INITIALIZE_ARGS initArgs) throws IOException, TokenException {
+    FfmBackend backend = INSTANCES.get(pkcs11ModuleName);
+    if (backend != null) {
+      return backend;
+    }
+
+    if (System.getProperty("os.name").startsWith("Windows")
+        || !"64".equals(System.getProperty("sun.arch.data.model"))) {
+      throw new UnsupportedOperationException(
+          "FfmBackend requires a 64-bit platform with 8-byte CK_ULONG");
+    }
+
+    SymbolLookup lookup;
+    try {
+      lookup = SymbolLookup.libraryLookup(pkcs11ModuleName, Arena.global());
+    } catch (IllegalArgumentException ex) {
+      throw new IOException("could not load " + pkcs11ModuleName, ex);
+    }
+
+    MemorySegment getFunctionList = lookup.find("C_GetFunctionList")
+        .orElseThrow(() -> new IOException(
+            "C_GetFunctionList not found in " + pkcs11ModuleName));
+    MethodHandle handle = Linker.nativeLinker().downcallHandle(
+        getFunctionList, FunctionDescriptor.of(ULONG, PTR));
+
+    try {
+      MemorySegment functionList;
+      try (Frame frame = Frame.open()) {
+        MemorySegment ppFunctionList = frame.allocate(PTR);
+        check((long) handle.invokeExact(ppFunctionList));
+        functionList = ppFunctionList.get(PTR, 0);
+      }
+
+      backend = new FfmBackend(pkcs11ModuleName, functionList);
+      backend.initialize(initArgs);
+    } catch (Throwable th) {
+      throw new iaik.pkcs.pkcs11.wrapper.PKCS11Exception(rethrow(th));
+    }
+
+    INSTANCES.put(pkcs11ModuleName, backend);
+    return backend;
+  }
+
+  private void initialize(CK_C_INITIALIZE_ARGS initArgs) throws Throwable {
+    try (Frame frame = Frame.open()) {
+      MemorySegment pInitArgs = MemorySegment.NULL;
+      if (initArgs != null) {
+        if (initArgs.CreateMutex != null || initArgs.DestroyMutex != null
+            || initArgs.LockMutex != null || initArgs.UnlockMutex != null) {
+          throw new UnsupportedOperationException(
+              "mutex callbacks are not supported");
+        }
+        // 4 function pointers, flags and pReserved
+        pInitArgs = frame.allocate(48, 8).fill((byte) 0);
+        pInitArgs.set(ULONG, 32, initArgs.flags);
+      }
+
+      long rv = (long) initialize.invokeExact(pInitArgs);
+      if (rv != PKCS11Constants.CKR_CRYPTOKI_ALREADY_INITIALIZED) {
+        check(rv);
+      }
+    }
+  }
+
+  private static void check(long rv) throws PKCS11Exception {
+    if (rv != PKCS11Constants.CKR_OK) {
+      throw new PKCS11Exception(rv, null);
+    }
+  }
+
+  /**
+   * Returns a checked exception to be thrown, or throws an unchecked one.
+   */
+  private static PKCS11Exception rethrow(Throwable th) {
+    if (th instanceof PKCS11Exception) {
+      return (PKCS11Exception) th;
+    } else if (th instanceof RuntimeException) {
+      throw (RuntimeException) th;
+    } else if (th instanceof Error) {
+      throw (Error) th;
+    } else {
+      if (th instanceof Exception) {
+        throw new PKCS11RuntimeException(th.getMessage(), (Exception) th);
+      }
+      PKCS11RuntimeException ex = new PKCS11RuntimeException(th.getMessage());
+      ex.initCause(th);
+      throw ex;
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Conversion between Java and native
+   * ------------------------------------------------------------------- */
+
+  private static MemorySegment bytes(Frame frame, byte[] bytes) {
+    return (bytes == null) ? MemorySegment.NULL
+        : bytes(frame, bytes, 0, bytes.length);
+  }
+
+  private static MemorySegment bytes(Frame frame, byte[] bytes, int ofs,
+      int len) {
+    MemorySegment segment = frame.allocate(len);
+    MemorySegment.copy(bytes, ofs, segment, BYTE, 0, len);
+    return segment;
+  }
+
+  private static MemorySegment input(Frame frame, long direct, byte[] in,
+      int inOfs, int inLen) {
+    return (direct != 0) ? MemorySegment.ofAddress(direct).reinterpret(inLen)
+        : bytes(frame, in, inOfs, inLen);
+  }
+
+  private static MemorySegment output(Frame frame, long direct, int outLen) {
+    return (direct != 0)
+        ? MemorySegment.ofAddress(direct).reinterpret(outLen)
+        : frame.allocate(outLen);
+  }
+
+  /**
+   * Copies the output to the array, unless it has been written directly.
+   */
+  private static int copyOutput(long direct, MemorySegment output,
+      MemorySegment pulLen, byte[] out, int outOfs) {
+    int len = (int) pulLen.get(ULONG, 0);
+    if (direct == 0 && len > 0) {
+      MemorySegment.copy(output, BYTE, 0, out, outOfs, len);
+    }
+    return len;
+  }
+
+  private static MemorySegment ulong(Frame frame, long value) {
+    MemorySegment segment = frame.allocate(ULONG);
+    segment.set(ULONG, 0, value);
+    return segment;
+  }
+
+  /**
+   * Converts the characters as the JDK does: each char to one byte.
+   */
+  private static MemorySegment chars(Frame frame, char[] chars) {
+    if (chars == null) {
+      return MemorySegment.NULL;
+    }
+
+    MemorySegment segment = frame.allocate(chars.length);
+    for (int i = 0; i < chars.length; i++) {
+      segment.set(BYTE, i, (byte) chars[i]);
+    }
+    return segment;
+  }
+
+  private static char[] toChars(MemorySegment segment, long offset, int len) {
+    char[] chars = new char[len];
+    for (int i = 0; i < len; i++) {
+      chars[i] = (char) (segment.get(BYTE, offset + i) & 0xFF);
+    }
+    return chars;
+  }
+
+  private static CK_VERSION toVersion(MemorySegment segment, long offset) {
+    return new CK_VERSION(segment.get(BYTE, offset) & 0xFF,
+        segment.get(BYTE, offset + 1) & 0xFF);
+  }
+
+  private static MemorySegment mechanism(Frame frame, CK_MECHANISM mechanism)
+      throws PKCS11Exception {
+    MemorySegment segment = frame.allocate(SIZEOF_MECHANISM, 8);
+    segment.set(ULONG, 0, mechanism.mechanism);
+    MemorySegment param = parameter(frame, mechanism.pParameter);
+    segment.set(PTR, 8, param);
+    segment.set(ULONG, 16, param.byteSize());
+    return segment;
+  }
+
+  private static MemorySegment parameter(Frame frame, Object param)
+      throws PKCS11Exception {
+    if (param == null) {
+      return MemorySegment.NULL;
+    } else if (param instanceof byte[]) {
+      return bytes(frame, (byte[]) param);
+    } else if (param instanceof Long) {
+      return ulong(frame, (Long) param);
+    } else if (param instanceof CK_VERSION) {
+      CK_VERSION version = (CK_VERSION) param;
+      MemorySegment segment = frame.allocate(2);
+      segment.set(BYTE, 0, version.major);
+      segment.set(BYTE, 1, version.minor);
+      return segment;
+    } else if (param instanceof CK_RSA_PKCS_OAEP_PARAMS) {
+      CK_RSA_PKCS_OAEP_PARAMS oaep = (CK_RSA_PKCS_OAEP_PARAMS) param;
+      MemorySegment sourceData = bytes(frame, oaep.pSourceData);
+      MemorySegment segment = frame.allocate(40, 8);
+      segment.set(ULONG, 0, oaep.hashAlg);
+      segment.set(ULONG, 8, oaep.mgf);
+      segment.set(ULONG, 16, oaep.source);
+      segment.set(PTR, 24, sourceData);
+      segment.set(ULONG, 32, sourceData.byteSize());
+      return segment;
+    } else if (param instanceof CK_ECDH1_DERIVE_PARAMS) {
+      CK_ECDH1_DERIVE_PARAMS ecdh = (CK_ECDH1_DERIVE_PARAMS) param;
+      MemorySegment sharedData = bytes(frame, ecdh.pSharedData);
+      MemorySegment publicData = bytes(frame, ecdh.pPublicData);
+      MemorySegment segment = frame.allocate(40, 8);
+      segment.set(ULONG, 0, ecdh.kdf);
+      segment.set(ULONG, 8, sharedData.byteSize());
+      segment.set(PTR, 16, sharedData);
+      segment.set(ULONG, 24, publicData.byteSize());
+      segment.set(PTR, 32, publicData);
+      return segment;
+    } else {
+      throw new PKCS11Exception(PKCS11Constants.CKR_MECHANISM_PARAM_INVALID,
+          "unsupported parameter " + param.getClass().getName());
+    }
+  }
+
+  private static MemorySegment template(Frame frame, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    if (template == null || template.length == 0) {
+      return MemorySegment.NULL;
+    }
+
+    MemorySegment segment =
+        frame.allocate(SIZEOF_ATTRIBUTE * template.length, 8);
+    for (int i = 0; i < template.length; i++) {
+      long offset = SIZEOF_ATTRIBUTE * i;
+      MemorySegment value = attributeValue(frame, template[i].pValue);
+      segment.set(ULONG, offset, template[i].type);
+      segment.set(PTR, offset + 8, value);
+      segment.set(ULONG, offset + 16, value.byteSize());
+    }
+    return segment;
+  }
+
+  private static MemorySegment attributeValue(Frame frame, Object value)
+      throws PKCS11Exception {
+    if (value == null) {
+      return MemorySegment.NULL;
+    } else if (value instanceof byte[]) {
+      return bytes(frame, (byte[]) value);
+    } else if (value instanceof Boolean) {
+      MemorySegment segment = frame.allocate(1);
+      segment.set(BYTE, 0, (byte) (((Boolean) value) ? 1 : 0));
+      return segment;
+    } else if (value instanceof Long) {
+      return ulong(frame, (Long) value);
+    } else if (value instanceof char[]) {
+      return chars(frame, (char[]) value);
+    } else if (value instanceof CK_DATE) {
+      CK_DATE date = (CK_DATE) value;
+      char[] chars = new char[8];
+      System.arraycopy(date.year, 0, chars, 0, 4);
+      System.arraycopy(date.month, 0, chars, 4, 2);
+      System.arraycopy(date.day, 0, chars, 6, 2);
+      return chars(frame, chars);
+    } else if (value instanceof BigInteger) {
+      byte[] bytes = ((BigInteger) value).toByteArray();
+      int ofs = (bytes.length > 1 && bytes[0] == 0) ? 1 : 0;
+      return bytes(frame, bytes, ofs, bytes.length - ofs);
+    } else if (value instanceof long[]) {
+      long[] longs = (long[]) value;
+      MemorySegment segment = frame.allocate(8L * longs.length, 8);
+      MemorySegment.copy(longs, 0, segment, ULONG, 0, longs.length);
+      return segment;
+    } else if (value instanceof CK_ATTRIBUTE[]) {
+      return template(frame, (CK_ATTRIBUTE[]) value);
+    } else {
+      throw new PKCS11Exception(PKCS11Constants.CKR_ATTRIBUTE_VALUE_INVALID,
+          "unsupported value " + value.getClass().getName());
+    }
+  }
+
+  /**
+   * Converts the value of an attribute to the type the attribute classes of
+   * the wrapper expect.
+   */
+  private static Object toJavaValue(long type, MemorySegment value) {
+    int len = (int) value.byteSize();
+    Class<?> clazz = Attribute.getAttributeClass(type);
+    if (clazz == null) {
+      return value.toArray(BYTE);
+    } else if (clazz == BooleanAttribute.class) {
+      return len > 0 && value.get(BYTE, 0) != 0;
+    } else if (LongAttribute.class.isAssignableFrom(clazz)) {
+      return (len == 8) ? value.get(ULONG, 0) : null;
+    } else if (clazz == CharArrayAttribute.class) {
+      return toChars(value, 0, len);
+    } else if (clazz == DateAttribute.class) {
+      if (len != 8) {
+        return null;
+      }
+      char[] chars = toChars(value, 0, 8);
+      return new CK_DATE(new char[] {chars[0], chars[1], chars[2], chars[3]},
+          new char[] {chars[4], chars[5]}, new char[] {chars[6], chars[7]});
+    } else if (clazz == MechanismArrayAttribute.class) {
+      return value.toArray(ULONG);
+    } else if (clazz == AttributeArray.class) {
+      return null;
+    } else {
+      return value.toArray(BYTE);
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * General-purpose, slot and token management functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_Finalize(Object pReserved) throws PKCS11Exception {
+    try {
+      check((long) finalize.invokeExact(MemorySegment.NULL));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+
+    synchronized (FfmBackend.class) {
+      INSTANCES.remove(pkcs11ModuleName);
+    }
+  }
+
+  @Override
+  public CK_INFO C_GetInfo() throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment info = frame.allocate(88, 8);
+      check((long) getInfo.invokeExact(info));
+      return new CK_INFO(toVersion(info, 0), toChars(info, 2, 32),
+          info.get(ULONG, 40), toChars(info, 48, 32), toVersion(info, 80));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent) throws PKCS11Exception {
+    byte present = (byte) (tokenPresent ? 1 : 0);
+    try (Frame frame = Frame.open()) {
+      MemorySegment pulCount = ulong(frame, 0);
+      check((long) getSlotList.invokeExact(present, MemorySegment.NULL,
+          pulCount));
+      MemorySegment slots =
+          frame.allocate(8 * Math.max(1, pulCount.get(ULONG, 0)), 8);
+      check((long) getSlotList.invokeExact(present, slots, pulCount));
+      return slots.asSlice(0, 8 * pulCount.get(ULONG, 0)).toArray(ULONG);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment info = frame.allocate(112, 8);
+      check((long) getSlotInfo.invokeExact(slotID, info));
+      return new CK_SLOT_INFO(toChars(info, 0, 64), toChars(info, 64, 32),
+          info.get(ULONG, 96), toVersion(info, 104), toVersion(info, 106));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment info = frame.allocate(208, 8);
+      check((long) getTokenInfo.invokeExact(slotID, info));
+      return new CK_TOKEN_INFO(toChars(info, 0, 32), toChars(info, 32, 32),
+          toChars(info, 64, 16), toChars(info, 80, 16), info.get(ULONG, 96),
+          info.get(ULONG, 104), info.get(ULONG, 112), info.get(ULONG, 120),
+          info.get(ULONG, 128), info.get(ULONG, 136), info.get(ULONG, 144),
+          info.get(ULONG, 152), info.get(ULONG, 160), info.get(ULONG, 168),
+          info.get(ULONG, 176), toVersion(info, 184), toVersion(info, 186),
+          toChars(info, 188, 16));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment pulCount = ulong(frame, 0);
+      check((long) getMechanismList.invokeExact(slotID, MemorySegment.NULL,
+          pulCount));
+      MemorySegment mechanisms =
+          frame.allocate(8 * Math.max(1, pulCount.get(ULONG, 0)), 8);
+      check((long) getMechanismList.invokeExact(slotID, mechanisms,
+          pulCount));
+      return mechanisms.asSlice(0, 8 * pulCount.get(ULONG, 0))
+          .toArray(ULONG);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment info = frame.allocate(24, 8);
+      check((long) getMechanismInfo.invokeExact(slotID, type, info));
+      return new CK_MECHANISM_INFO(info.get(ULONG, 0), info.get(ULONG, 8),
+          info.get(ULONG, 16));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Session management functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object pApplication,
+      CK_NOTIFY notify) throws PKCS11Exception {
+    if (notify != null) {
+      throw new UnsupportedOperationException(
+          "notify callbacks are not supported");
+    }
+
+    try (Frame frame = Frame.open()) {
+      MemorySegment phSession = ulong(frame, 0);
+      check((long) openSession.invokeExact(slotID, flags, MemorySegment.NULL,
+          MemorySegment.NULL, phSession));
+      return phSession.get(ULONG, 0);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_CloseSession(long hSession) throws PKCS11Exception {
+    try {
+      check((long) closeSession.invokeExact(hSession));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment info = frame.allocate(32, 8);
+      check((long) getSessionInfo.invokeExact(hSession, info));
+      return new CK_SESSION_INFO(info.get(ULONG, 0), info.get(ULONG, 8),
+          info.get(ULONG, 16), info.get(ULONG, 24));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment pulLen = ulong(frame, 0);
+      check((long) getOperationState.invokeExact(hSession,
+          MemorySegment.NULL, pulLen));
+      MemorySegment state = frame.allocate(pulLen.get(ULONG, 0));
+      check((long) getOperationState.invokeExact(hSession, state, pulLen));
+      return state.asSlice(0, pulLen.get(ULONG, 0)).toArray(BYTE);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] pOperationState,
+      long hEncryptionKey, long hAuthenticationKey) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment state = bytes(frame, pOperationState);
+      check((long) setOperationState.invokeExact(hSession, state,
+          state.byteSize(), hEncryptionKey, hAuthenticationKey));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_Login(long hSession, long userType, char[] pPin)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment pin = chars(frame, pPin);
+      try {
+        check((long) login.invokeExact(hSession, userType, pin,
+            pin.byteSize()));
+      } finally {
+        if (pin.byteSize() > 0) {
+          pin.fill((byte) 0);
+        }
+      }
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_Logout(long hSession) throws PKCS11Exception {
+    try {
+      check((long) logout.invokeExact(hSession));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Object management functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment phObject = ulong(frame, 0);
+      check((long) createObject.invokeExact(hSession,
+          template(frame, pTemplate), count(pTemplate), phObject));
+      return phObject.get(ULONG, 0);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment phNewObject = ulong(frame, 0);
+      check((long) copyObject.invokeExact(hSession, hObject,
+          template(frame, pTemplate), count(pTemplate), phNewObject));
+      return phNewObject.get(ULONG, 0);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject)
+      throws PKCS11Exception {
+    try {
+      check((long) destroyObject.invokeExact(hSession, hObject));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  /**
+   * Reads the attribute values with two calls, the first one gets the
+   * lengths. Like the JNI binding, the values are only set if both calls
+   * return CKR_OK.
+   */
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    int count = (pTemplate == null) ? 0 : pTemplate.length;
+    if (count == 0) {
+      return;
+    }
+
+    try (Frame frame = Frame.open()) {
+      MemorySegment template = frame.allocate(SIZEOF_ATTRIBUTE * count, 8);
+      for (int i = 0; i < count; i++) {
+        long offset = SIZEOF_ATTRIBUTE * i;
+        template.set(ULONG, offset, pTemplate[i].type);
+        template.set(PTR, offset + 8, MemorySegment.NULL);
+        template.set(ULONG, offset + 16, 0);
+      }
+      check((long) getAttributeValue.invokeExact(hSession, hObject, template,
+          (long) count));
+
+      for (int i = 0; i < count; i++) {
+        long offset = SIZEOF_ATTRIBUTE * i;
+        long len = template.get(ULONG, offset + 16);
+        if (len != CK_UNAVAILABLE_INFORMATION && len > 0) {
+          template.set(PTR, offset + 8, frame.allocate(len, 8));
+        }
+      }
+      check((long) getAttributeValue.invokeExact(hSession, hObject, template,
+          (long) count));
+
+      for (int i = 0; i < count; i++) {
+        long offset = SIZEOF_ATTRIBUTE * i;
+        long len = template.get(ULONG, offset + 16);
+        MemorySegment value = template.get(PTR, offset + 8);
+        pTemplate[i].pValue = (len == CK_UNAVAILABLE_INFORMATION)
+            ? null : toJavaValue(pTemplate[i].type, value.reinterpret(len));
+      }
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      check((long) setAttributeValue.invokeExact(hSession, hObject,
+          template(frame, pTemplate), count(pTemplate)));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      check((long) findObjectsInit.invokeExact(hSession,
+          template(frame, pTemplate), count(pTemplate)));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment objects =
+          frame.allocate(8 * Math.max(1, ulMaxObjectCount), 8);
+      MemorySegment pulCount = ulong(frame, 0);
+      check((long) findObjects.invokeExact(hSession, objects,
+          ulMaxObjectCount, pulCount));
+      return objects.asSlice(0, 8 * pulCount.get(ULONG, 0)).toArray(ULONG);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession) throws PKCS11Exception {
+    try {
+      check((long) findObjectsFinal.invokeExact(hSession));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  private static long count(CK_ATTRIBUTE[] template) {
+    return (template == null) ? 0 : template.length;
+  }
+
+  /* ---------------------------------------------------------------------
+   * Encryption and decryption functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws PKCS11Exception {
+    init(encryptInit, hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    return crypt(encrypt, hSession, directIn, in, inOfs, inLen, directOut,
+        out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_EncryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    return crypt(encryptUpdate, hSession, directIn, in, inOfs, inLen,
+        directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_EncryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    return cryptFinal(encryptFinal, hSession, directOut, out, outOfs,
+        outLen);
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws PKCS11Exception {
+    init(decryptInit, hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    return crypt(decrypt, hSession, directIn, in, inOfs, inLen, directOut,
+        out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_DecryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    return crypt(decryptUpdate, hSession, directIn, in, inOfs, inLen,
+        directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_DecryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    return cryptFinal(decryptFinal, hSession, directOut, out, outOfs,
+        outLen);
+  }
+
+  /**
+   * Encrypts the data into the caller-provided segment.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param in
+   *          the data to encrypt
+   * @param out
+   *          receives the encrypted data
+   * @return the length of the encrypted data
+   * @exception PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  public int encrypt(long hSession, MemorySegment in, MemorySegment out)
+      throws PKCS11Exception {
+    return singlePart(encrypt, hSession, in, out);
+  }
+
+  /**
+   * Decrypts the data into the caller-provided segment.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param in
+   *          the data to decrypt
+   * @param out
+   *          receives the decrypted data
+   * @return the length of the decrypted data
+   * @exception PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  public int decrypt(long hSession, MemorySegment in, MemorySegment out)
+      throws PKCS11Exception {
+    return singlePart(decrypt, hSession, in, out);
+  }
+
+  private void init(MethodHandle handle, long hSession,
+      CK_MECHANISM pMechanism, long hKey) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      check((long) handle.invokeExact(hSession, mechanism(frame, pMechanism),
+          hKey));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  private int crypt(MethodHandle handle, long hSession, long directIn,
+      byte[] in, int inOfs, int inLen, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment input = input(frame, directIn, in, inOfs, inLen);
+      MemorySegment output = output(frame, directOut, outLen);
+      MemorySegment pulOutLen = ulong(frame, outLen);
+      check((long) handle.invokeExact(hSession, input, (long) inLen, output,
+          pulOutLen));
+      return copyOutput(directOut, output, pulOutLen, out, outOfs);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  private int cryptFinal(MethodHandle handle, long hSession, long directOut,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment output = output(frame, directOut, outLen);
+      MemorySegment pulOutLen = ulong(frame, outLen);
+      check((long) handle.invokeExact(hSession, output, pulOutLen));
+      return copyOutput(directOut, output, pulOutLen, out, outOfs);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  private int singlePart(MethodHandle handle, long hSession,
+      MemorySegment in, MemorySegment out) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment pulOutLen = ulong(frame, out.byteSize());
+      check((long) handle.invokeExact(hSession, in, in.byteSize(), out,
+          pulOutLen));
+      return (int) pulOutLen.get(ULONG, 0);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Message digesting functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM pMechanism)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      check((long) digestInit.invokeExact(hSession,
+          mechanism(frame, pMechanism)));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public int C_DigestSingle(long hSession, CK_MECHANISM pMechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws PKCS11Exception {
+    C_DigestInit(hSession, pMechanism);
+    return crypt(this.digest, hSession, 0, in, inOfs, inLen, 0, digest,
+        digestOfs, digestLen);
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    update(digestUpdate, hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey) throws PKCS11Exception {
+    try {
+      check((long) digestKey.invokeExact(hSession, hKey));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public int C_DigestFinal(long hSession, byte[] pDigest, int digestOfs,
+      int digestLen) throws PKCS11Exception {
+    return cryptFinal(digestFinal, hSession, 0, pDigest, digestOfs,
+        digestLen);
+  }
+
+  /**
+   * Digests the data into the caller-provided segment. The digest operation
+   * must have been initialized.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param in
+   *          the data to digest
+   * @param out
+   *          receives the digest
+   * @return the length of the digest
+   * @exception PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  public int digest(long hSession, MemorySegment in, MemorySegment out)
+      throws PKCS11Exception {
+    return singlePart(digest, hSession, in, out);
+  }
+
+  private void update(MethodHandle handle, long hSession, long directIn,
+      byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment input = input(frame, directIn, in, inOfs, inLen);
+      check((long) handle.invokeExact(hSession, input, (long) inLen));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Signing and MACing functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws PKCS11Exception {
+    init(signInit, hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] pData) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment data = bytes(frame, pData);
+      MemorySegment pulLen = ulong(frame, DEFAULT_OUTPUT_LEN);
+      MemorySegment signature = frame.allocate(DEFAULT_OUTPUT_LEN);
+      long rv = (long) sign.invokeExact(hSession, data, data.byteSize(),
+          signature, pulLen);
+      if (rv == PKCS11Constants.CKR_BUFFER_TOO_SMALL) {
+        // the operation is still active, pulLen is the required length
+        signature = frame.allocate(pulLen.get(ULONG, 0));
+        rv = (long) sign.invokeExact(hSession, data, data.byteSize(),
+            signature, pulLen);
+      }
+      check(rv);
+      return signature.asSlice(0, pulLen.get(ULONG, 0)).toArray(BYTE);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws PKCS11Exception {
+    update(signUpdate, hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession, int expectedLen)
+      throws PKCS11Exception {
+    int len = (expectedLen > 0) ? expectedLen : DEFAULT_OUTPUT_LEN;
+    try (Frame frame = Frame.open()) {
+      MemorySegment pulLen = ulong(frame, len);
+      MemorySegment signature = frame.allocate(len);
+      long rv = (long) signFinal.invokeExact(hSession, signature, pulLen);
+      if (rv == PKCS11Constants.CKR_BUFFER_TOO_SMALL) {
+        signature = frame.allocate(pulLen.get(ULONG, 0));
+        rv = (long) signFinal.invokeExact(hSession, signature, pulLen);
+      }
+      check(rv);
+      return signature.asSlice(0, pulLen.get(ULONG, 0)).toArray(BYTE);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey) throws PKCS11Exception {
+    init(signRecoverInit, hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return crypt(signRecover, hSession, 0, in, inOfs, inLen, 0, out, outOfs,
+        outLen);
+  }
+
+  /**
+   * Signs the data into the caller-provided segment. The signature
+   * operation must have been initialized.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param data
+   *          the data to sign
+   * @param signature
+   *          receives the signature
+   * @return the length of the signature
+   * @exception PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  public int sign(long hSession, MemorySegment data, MemorySegment signature)
+      throws PKCS11Exception {
+    return singlePart(sign, hSession, data, signature);
+  }
+
+  /* ---------------------------------------------------------------------
+   * Functions for verifying signatures and MACs
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws PKCS11Exception {
+    init(verifyInit, hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment data = bytes(frame, pData);
+      MemorySegment signature = bytes(frame, pSignature);
+      check((long) verify.invokeExact(hSession, data, data.byteSize(),
+          signature, signature.byteSize()));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    update(verifyUpdate, hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] pSignature)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment signature = bytes(frame, pSignature);
+      check((long) verifyFinal.invokeExact(hSession, signature,
+          signature.byteSize()));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey) throws PKCS11Exception {
+    init(verifyRecoverInit, hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return crypt(verifyRecover, hSession, 0, in, inOfs, inLen, 0, out,
+        outOfs, outLen);
+  }
+
+  /* ---------------------------------------------------------------------
+   * Key management functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment phKey = ulong(frame, 0);
+      check((long) generateKey.invokeExact(hSession,
+          mechanism(frame, pMechanism), template(frame, pTemplate),
+          count(pTemplate), phKey));
+      return phKey.get(ULONG, 0);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pPublicKeyTemplate, CK_ATTRIBUTE[] pPrivateKeyTemplate)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment phPublicKey = ulong(frame, 0);
+      MemorySegment phPrivateKey = ulong(frame, 0);
+      check((long) generateKeyPair.invokeExact(hSession,
+          mechanism(frame, pMechanism),
+          template(frame, pPublicKeyTemplate), count(pPublicKeyTemplate),
+          template(frame, pPrivateKeyTemplate), count(pPrivateKeyTemplate),
+          phPublicKey, phPrivateKey));
+      return new long[] {phPublicKey.get(ULONG, 0),
+          phPrivateKey.get(ULONG, 0)};
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hWrappingKey, long hKey) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment mechanism = mechanism(frame, pMechanism);
+      MemorySegment pulLen = ulong(frame, 0);
+      check((long) wrapKey.invokeExact(hSession, mechanism, hWrappingKey,
+          hKey, MemorySegment.NULL, pulLen));
+      MemorySegment wrappedKey = frame.allocate(pulLen.get(ULONG, 0));
+      check((long) wrapKey.invokeExact(hSession, mechanism, hWrappingKey,
+          hKey, wrappedKey, pulLen));
+      return wrappedKey.asSlice(0, pulLen.get(ULONG, 0)).toArray(BYTE);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hUnwrappingKey, byte[] pWrappedKey, CK_ATTRIBUTE[] pTemplate)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment wrappedKey = bytes(frame, pWrappedKey);
+      MemorySegment phKey = ulong(frame, 0);
+      check((long) unwrapKey.invokeExact(hSession,
+          mechanism(frame, pMechanism), hUnwrappingKey, wrappedKey,
+          wrappedKey.byteSize(), template(frame, pTemplate),
+          count(pTemplate), phKey));
+      return phKey.get(ULONG, 0);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM pMechanism,
+      long hBaseKey, CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment phKey = ulong(frame, 0);
+      check((long) deriveKey.invokeExact(hSession,
+          mechanism(frame, pMechanism), hBaseKey, template(frame, pTemplate),
+          count(pTemplate), phKey));
+      return phKey.get(ULONG, 0);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Random number generation functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_SeedRandom(long hSession, byte[] pSeed)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment seed = bytes(frame, pSeed);
+      check((long) seedRandom.invokeExact(hSession, seed, seed.byteSize()));
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData)
+      throws PKCS11Exception {
+    try (Frame frame = Frame.open()) {
+      MemorySegment random = frame.allocate(randomData.length);
+      check((long) generateRandom.invokeExact(hSession, random,
+          (long) randomData.length));
+      MemorySegment.copy(random, BYTE, 0, randomData, 0, randomData.length);
+    } catch (Throwable th) {
+      throw rethrow(th);
+    }
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    return "FfmBackend " + pkcs11ModuleName;
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.ffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+
+/**
+ * Allocates the native memory of one call to the PKCS#11 module. Each thread
+ * reuses its own scratch segment, so that mechanisms, templates and buffers
+ * of usual size cause no allocation; larger requests are served by a
+ * confined arena which is closed with the frame.
+ * <p>
+ * The memory is not zeroed.
+ */
+final class Frame implements SegmentAllocator, AutoCloseable {
+
+  private static final long SCRATCH_SIZE = 16 * 1024;
+
+  private static final ThreadLocal<Frame> FRAMES =
+      ThreadLocal.withInitial(Frame::new);
+
+  private final MemorySegment scratch =
+      Arena.ofAuto().allocate(SCRATCH_SIZE, 16);
+
+  private long offset;
+
+  private Arena overflow;
+
+  private boolean inUse;
+
+  private Frame() {
+  }
+
+  /**
+   * Opens the frame of the current thread.
+   *
+   * @return the frame, must be closed after the call.
+   */
+  static Frame open() {
+    Frame frame = FRAMES.get();
+    if (frame.inUse) {
+      // nested call, e.g. from a callback of the module
+      frame = new Frame();
+    }
+    frame.inUse = true;
+    frame.offset = 0;
+    return frame;
+  }
+
+  @Override
+  public MemorySegment allocate(long byteSize, long byteAlignment) {
+    long start = (offset + byteAlignment - 1) & -byteAlignment;
+    if (start + byteSize <= SCRATCH_SIZE) {
+      offset = start + byteSize;
+      return scratch.asSlice(start, byteSize);
+    }
+
+    if (overflow == null) {
+      overflow = Arena.ofConfined();
+    }
+    return overflow.allocate(byteSize, byteAlignment);
+  }
+
+  @Override
+  public void close() {
+    if (overflow != null) {
+      overflow.close();
+      overflow = null;
+    }
+    inUse = false;
+  }
+
+}
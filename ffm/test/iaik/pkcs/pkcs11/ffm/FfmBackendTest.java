@@ -0,0 +1,142 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.ffm;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import iaik.pkcs.pkcs11.Info;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * Tests the {@link FfmBackend} against a software token, e.g. SoftHSMv2:
+ * <pre>
+ * mvn test -Dpkcs11.module=/usr/lib/softhsm/libsofthsm2.so -Dpkcs11.pin=1234
+ * </pre>
+ * The tests are skipped if the property pkcs11.module is not set.
+ */
+public class FfmBackendTest {
+
+  private static Module module;
+
+  private static Token token;
+
+  private static char[] pin;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    String moduleName = System.getProperty("pkcs11.module");
+    Assume.assumeTrue(moduleName != null && !moduleName.isEmpty());
+
+    pin = System.getProperty("pkcs11.pin", "1234").toCharArray();
+    module = Module.getInstance(moduleName, FfmBackend.FACTORY);
+    module.initialize(null);
+    Slot[] slots = module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+    Assume.assumeTrue(slots.length > 0);
+    token = slots[0].getToken();
+  }
+
+  @AfterClass
+  public static void finish() throws TokenException {
+    if (module != null) {
+      module.finalize(null);
+    }
+  }
+
+  @Test
+  public void getInfo() throws TokenException {
+    Info info = module.getInfo();
+    Assert.assertTrue(info.getCryptokiVersion().getMajor() >= 2);
+    Assert.assertNotNull(token.getTokenInfo().getLabel());
+  }
+
+  @Test
+  public void generateKeyAndEncrypt() throws Exception {
+    Session session = openSession();
+    try {
+      ValuedSecretKey template = ValuedSecretKey.newAESSecretKey();
+      template.getToken().setBooleanValue(false);
+      template.getEncrypt().setBooleanValue(true);
+      template.getDecrypt().setBooleanValue(true);
+      template.getValueLen().setLongValue(16L);
+      ValuedSecretKey key = (ValuedSecretKey) session.generateKey(
+          Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), template);
+      Assert.assertEquals(Long.valueOf(16), key.getValueLen().getLongValue());
+
+      Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+      mechanism.setParameters(
+          new InitializationVectorParameters(new byte[16]));
+      byte[] data = new byte[1000];
+      Arrays.fill(data, (byte) 0x5A);
+
+      byte[] buffer = new byte[data.length + 16];
+      session.encryptInit(mechanism, key);
+      int len = session.encrypt(data, 0, data.length, buffer, 0,
+          buffer.length);
+      byte[] encrypted = Arrays.copyOf(buffer, len);
+
+      session.decryptInit(mechanism, key);
+      len = session.decrypt(encrypted, 0, encrypted.length, buffer, 0,
+          buffer.length);
+      Assert.assertArrayEquals(data, Arrays.copyOf(buffer, len));
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  @Test
+  public void digest() throws Exception {
+    Session session = openSession();
+    try {
+      byte[] data = "FFM backend".getBytes("UTF-8");
+      byte[] digest = new byte[32];
+      int len = session.digestSingle(Mechanism.get(PKCS11Constants.CKM_SHA256),
+          data, 0, data.length, digest, 0, digest.length);
+      Assert.assertEquals(32, len);
+      Assert.assertArrayEquals(
+          MessageDigest.getInstance("SHA-256").digest(data), digest);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  private static Session openSession() throws TokenException {
+    Session session = token.openSession(true, true, null, null);
+    try {
+      session.login(PKCS11Constants.CKU_USER, pin);
+    } catch (TokenException ex) {
+      // already logged in by another session
+    }
+    return session;
+  }
+
+}
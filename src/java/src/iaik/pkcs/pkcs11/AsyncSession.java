@@ -0,0 +1,368 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+
+/**
+ * Executes operations of a {@link SessionPool} asynchronously on one
+ * dedicated platform thread, the lane. The caller is never blocked by the
+ * native call; this matters especially for virtual threads, which would pin
+ * their carrier thread while the token is working.
+ * <p>
+ * The operations are executed in the order they are submitted. Each
+ * operation borrows a session of the pool, so a lane uses at most one
+ * session at a time. Use {@link AsyncToken} to spread the operations over
+ * one lane per pooled session.
+ * <p>
+ * Dependent stages which are not registered with the *Async methods of
+ * {@link CompletableFuture} run on the lane thread and delay the following
+ * operations; they should therefore be short.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @version 1.0
+ */
+public class AsyncSession implements AutoCloseable {
+
+  /**
+   * The future of an operation which is also the task executed by the lane,
+   * so that only one object is allocated per operation.
+   */
+  private static final class Task<T> extends CompletableFuture<T>
+      implements Runnable {
+
+    private final AsyncSession lane;
+
+    private final boolean rwSession;
+
+    private final boolean idempotent;
+
+    private final SessionPool.SessionCallback<T> operation;
+
+    private Task(AsyncSession lane, boolean rwSession, boolean idempotent,
+        SessionPool.SessionCallback<T> operation) {
+      this.lane = lane;
+      this.rwSession = rwSession;
+      this.idempotent = idempotent;
+      this.operation = operation;
+    }
+
+    @Override
+    public void run() {
+      if (isDone()) {
+        // cancelled or completed by the caller while queued
+        lane.pending.decrementAndGet();
+        return;
+      }
+
+      T result;
+      try {
+        result = lane.pool.execute(rwSession, idempotent, operation);
+      } catch (Throwable th) {
+        lane.pending.decrementAndGet();
+        completeExceptionally(th);
+        return;
+      }
+
+      lane.pending.decrementAndGet();
+      complete(result);
+    }
+
+  }
+
+  private final SessionPool pool;
+
+  private final ExecutorService executor;
+
+  /**
+   * The number of submitted but not yet completed operations.
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * Creates a new lane for the given pool.
+   *
+   * @param pool
+   *          The pool to borrow the sessions from.
+   */
+  public AsyncSession(SessionPool pool) {
+    this(pool, "pkcs11-lane-" + pool.getToken().getTokenID());
+  }
+
+  AsyncSession(SessionPool pool, String threadName) {
+    this.pool = Util.requireNonNull("pool", pool);
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      // always a platform thread, also if the caller is a virtual thread
+      Thread thread = new Thread(runnable, threadName);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Get the number of operations which have been submitted but not yet
+   * completed.
+   *
+   * @return The number of pending operations.
+   */
+  public int getPendingOperations() {
+    return pending.get();
+  }
+
+  /**
+   * Executes an operation on the lane. See
+   * {@link SessionPool#execute(boolean, boolean,
+   * SessionPool.SessionCallback)}.
+   * If the returned future is cancelled or completed before the lane takes
+   * the operation from its queue, the operation is skipped and no session is
+   * borrowed.
+   *
+   * @param <T>
+   *          The type of the result.
+   * @param rwSession
+   *          True for a read-write session, false for a read-only session.
+   * @param idempotent
+   *          True, if the operation may be executed more than once.
+   * @param operation
+   *          The operation.
+   * @return The future result of the operation.
+   */
+  public <T> CompletableFuture<T> execute(boolean rwSession,
+      boolean idempotent, SessionPool.SessionCallback<T> operation) {
+    Util.requireNonNull("operation", operation);
+    Task<T> task = new Task<>(this, rwSession, idempotent, operation);
+    pending.incrementAndGet();
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException ex) {
+      pending.decrementAndGet();
+      task.completeExceptionally(ex);
+    }
+    return task;
+  }
+
+  /**
+   * Signs the data.
+   *
+   * @param mechanism
+   *          The signature mechanism.
+   * @param key
+   *          The signing key.
+   * @param data
+   *          The data to sign.
+   * @return The future signature.
+   */
+  public CompletableFuture<byte[]> sign(Mechanism mechanism, Key key,
+      byte[] data) {
+    return execute(false, true, session -> {
+      session.signInit(mechanism, key);
+      return session.sign(data);
+    });
+  }
+
+  /**
+   * Verifies the signature. The future completes exceptionally if the
+   * signature is invalid.
+   *
+   * @param mechanism
+   *          The signature mechanism.
+   * @param key
+   *          The verification key.
+   * @param data
+   *          The signed data.
+   * @param signature
+   *          The signature.
+   * @return The future which completes when the signature is verified.
+   */
+  public CompletableFuture<Void> verify(Mechanism mechanism, Key key,
+      byte[] data, byte[] signature) {
+    return execute(false, true, session -> {
+      session.verifyInit(mechanism, key);
+      session.verify(data, signature);
+      return null;
+    });
+  }
+
+  /**
+   * Encrypts the data.
+   *
+   * @param mechanism
+   *          The encryption mechanism.
+   * @param key
+   *          The encryption key.
+   * @param data
+   *          The data to encrypt.
+   * @param maxOutLen
+   *          The maximal length of the encrypted data.
+   * @return The future encrypted data.
+   */
+  public CompletableFuture<byte[]> encrypt(Mechanism mechanism, Key key,
+      byte[] data, int maxOutLen) {
+    return execute(false, true, session -> {
+      session.encryptInit(mechanism, key);
+      byte[] out = new byte[maxOutLen];
+      int len = session.encrypt(data, 0, data.length, out, 0, maxOutLen);
+      return copyOf(out, len);
+    });
+  }
+
+  /**
+   * Decrypts the data.
+   *
+   * @param mechanism
+   *          The decryption mechanism.
+   * @param key
+   *          The decryption key.
+   * @param data
+   *          The data to decrypt.
+   * @param maxOutLen
+   *          The maximal length of the decrypted data.
+   * @return The future decrypted data.
+   */
+  public CompletableFuture<byte[]> decrypt(Mechanism mechanism, Key key,
+      byte[] data, int maxOutLen) {
+    return execute(false, true, session -> {
+      session.decryptInit(mechanism, key);
+      byte[] out = new byte[maxOutLen];
+      int len = session.decrypt(data, 0, data.length, out, 0, maxOutLen);
+      return copyOf(out, len);
+    });
+  }
+
+  /**
+   * Digests the data.
+   *
+   * @param mechanism
+   *          The digest mechanism.
+   * @param data
+   *          The data to digest.
+   * @param maxDigestLen
+   *          The maximal length of the digest.
+   * @return The future digest.
+   */
+  public CompletableFuture<byte[]> digest(Mechanism mechanism, byte[] data,
+      int maxDigestLen) {
+    return execute(false, true, session -> {
+      byte[] digest = new byte[maxDigestLen];
+      int len = session.digestSingle(mechanism, data, 0, data.length,
+          digest, 0, maxDigestLen);
+      return copyOf(digest, len);
+    });
+  }
+
+  /**
+   * Generates random bytes.
+   *
+   * @param numberOfBytesToGenerate
+   *          The number of random bytes to generate.
+   * @return The future random bytes.
+   */
+  public CompletableFuture<byte[]> generateRandom(
+      int numberOfBytesToGenerate) {
+    return execute(false, true,
+        session -> session.generateRandom(numberOfBytesToGenerate));
+  }
+
+  /**
+   * Generates a secret key with a read-write session. Since the key may be a
+   * token object, the operation is not retried if the session is lost.
+   *
+   * @param mechanism
+   *          The key generation mechanism.
+   * @param template
+   *          The template of the new key.
+   * @return The future new key.
+   */
+  public CompletableFuture<PKCS11Object> generateKey(Mechanism mechanism,
+      PKCS11Object template) {
+    return execute(true, false,
+        session -> session.generateKey(mechanism, template));
+  }
+
+  /**
+   * Generates a key pair with a read-write session. Since the keys may be
+   * token objects, the operation is not retried if the session is lost.
+   *
+   * @param mechanism
+   *          The key pair generation mechanism.
+   * @param publicKeyTemplate
+   *          The template of the new public key.
+   * @param privateKeyTemplate
+   *          The template of the new private key.
+   * @return The future new key pair.
+   */
+  public CompletableFuture<KeyPair> generateKeyPair(Mechanism mechanism,
+      PKCS11Object publicKeyTemplate, PKCS11Object privateKeyTemplate) {
+    return execute(true, false, session -> session.generateKeyPair(
+        mechanism, publicKeyTemplate, privateKeyTemplate));
+  }
+
+  private static byte[] copyOf(byte[] bytes, int len) {
+    if (len == bytes.length) {
+      return bytes;
+    }
+
+    byte[] ret = new byte[len];
+    System.arraycopy(bytes, 0, ret, 0, len);
+    return ret;
+  }
+
+  /**
+   * Stops the lane after the pending operations have been executed. The pool
+   * is not closed.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+}
@@ -0,0 +1,454 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * Spreads asynchronous operations over several lanes, see
+ * {@link AsyncSession}. By default there is one lane per read-only session of
+ * the pool, so that a lane never waits for a session.
+ * <pre><code>
+ *   AsyncToken asyncToken = new AsyncToken(pool);
+ *   CompletableFuture&lt;byte[]&gt; signature =
+ *       asyncToken.getSession().sign(mechanism, privateKey, data);
+ * </code></pre>
+ * This class is thread-safe.
+ *
+ * @version 1.0
+ */
+public class AsyncToken implements AutoCloseable {
+
+  /**
+   * Processes the items of a batch with one session until no item is left.
+   * Several workers share the index of the next item.
+   */
+  private static final class BatchWorker
+      implements SessionPool.SessionCallback<Void> {
+
+    private final PreparedMechanism mechanism;
+
+    private final Key key;
+
+    private final List<byte[]> data;
+
+    private final List<byte[]> signatures;
+
+    private final AtomicInteger nextIndex;
+
+    private final BatchResult result;
+
+    /**
+     * The item in process, or -1. If the session has been lost, the item is
+     * processed again with the new session.
+     */
+    private int current = -1;
+
+    private BatchWorker(PreparedMechanism mechanism, Key key, List<byte[]> data,
+        List<byte[]> signatures, AtomicInteger nextIndex, BatchResult result) {
+      this.mechanism = mechanism;
+      this.key = key;
+      this.data = data;
+      this.signatures = signatures;
+      this.nextIndex = nextIndex;
+      this.result = result;
+    }
+
+    @Override
+    public Void execute(Session session) throws TokenException {
+      int size = data.size();
+      while (true) {
+        if (current == -1) {
+          int index = nextIndex.getAndIncrement();
+          if (index >= size) {
+            return null;
+          }
+          current = index;
+        }
+
+        int index = current;
+
+        try {
+          if (signatures == null) {
+            session.signInit(mechanism, key);
+            result.setResult(index, session.sign(data.get(index)));
+          } else {
+            session.verifyInit(mechanism, key);
+            session.verify(data.get(index), signatures.get(index));
+          }
+        } catch (PKCS11Exception ex) {
+          long errorCode = ex.getErrorCode();
+          if (SessionPool.isSessionLost(errorCode)
+              || errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
+            // let the pool recover the session, then process this item again
+            throw ex;
+          }
+          result.setException(index, ex);
+        } catch (TokenException ex) {
+          result.setException(index, ex);
+        }
+        current = -1;
+      }
+    }
+
+  }
+
+  /**
+   * Reads the attributes of found objects with one session until no object
+   * is left. Several workers share the index of the next object.
+   */
+  private static final class ObjectWorker
+      implements SessionPool.SessionCallback<Void> {
+
+    private final long[] handles;
+
+    private final PKCS11Object[] objects;
+
+    private final AtomicInteger nextIndex;
+
+    /**
+     * The object in process, or -1. If the session has been lost, the object
+     * is read again with the new session.
+     */
+    private int current = -1;
+
+    private ObjectWorker(long[] handles, PKCS11Object[] objects,
+        AtomicInteger nextIndex) {
+      this.handles = handles;
+      this.objects = objects;
+      this.nextIndex = nextIndex;
+    }
+
+    @Override
+    public Void execute(Session session) throws TokenException {
+      while (true) {
+        if (current == -1) {
+          int index = nextIndex.getAndIncrement();
+          if (index >= handles.length) {
+            return null;
+          }
+          current = index;
+        }
+
+        int index = current;
+        try {
+          objects[index] = PKCS11Object.getInstance(session, handles[index]);
+        } catch (PKCS11Exception ex) {
+          long errorCode = ex.getErrorCode();
+          if (SessionPool.isSessionLost(errorCode)
+              || errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
+            // let the pool recover the session, then read this object again
+            throw ex;
+          } else if (errorCode != PKCS11Constants.CKR_OBJECT_HANDLE_INVALID) {
+            // stop the other workers
+            nextIndex.set(handles.length);
+            throw ex;
+          }
+          // the object has been destroyed after it was found
+        } catch (TokenException ex) {
+          nextIndex.set(handles.length);
+          throw ex;
+        }
+        current = -1;
+      }
+    }
+
+  }
+
+  /**
+   * The number of handles fetched at once by {@link #findObjects}.
+   */
+  private static final int FIND_PAGE_SIZE = 1000;
+
+  private final SessionPool pool;
+
+  private final AsyncSession[] lanes;
+
+  /**
+   * Creates one lane per read-only session of the pool.
+   *
+   * @param pool
+   *          The pool to borrow the sessions from.
+   */
+  public AsyncToken(SessionPool pool) {
+    this(pool, pool.getMaxSessions(false));
+  }
+
+  /**
+   * Creates the given number of lanes.
+   *
+   * @param pool
+   *          The pool to borrow the sessions from.
+   * @param numLanes
+   *          The number of lanes. Should not exceed the maximal number of
+   *          sessions of the pool.
+   */
+  public AsyncToken(SessionPool pool, int numLanes) {
+    this.pool = Util.requireNonNull("pool", pool);
+    if (numLanes < 1) {
+      throw new IllegalArgumentException("numLanes must be positive");
+    }
+
+    this.lanes = new AsyncSession[numLanes];
+    String prefix = "pkcs11-lane-" + pool.getToken().getTokenID() + "-";
+    for (int i = 0; i < numLanes; i++) {
+      lanes[i] = new AsyncSession(pool, prefix + i);
+    }
+  }
+
+  /**
+   * Get the pool of this token.
+   *
+   * @return The pool.
+   */
+  public SessionPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Get the number of lanes.
+   *
+   * @return The number of lanes.
+   */
+  public int getNumLanes() {
+    return lanes.length;
+  }
+
+  /**
+   * Get the lane with the fewest pending operations.
+   *
+   * @return The least loaded lane.
+   */
+  public AsyncSession getSession() {
+    AsyncSession lane = lanes[0];
+    int minPending = lane.getPendingOperations();
+    for (int i = 1; i < lanes.length && minPending > 0; i++) {
+      int pending = lanes[i].getPendingOperations();
+      if (pending < minPending) {
+        lane = lanes[i];
+        minPending = pending;
+      }
+    }
+    return lane;
+  }
+
+  /**
+   * Signs all items of the batch with the same key. The items are spread over
+   * the lanes; each lane converts the mechanism only once and processes
+   * items with one session until no item is left.
+   *
+   * @param mechanism
+   *          The signature mechanism.
+   * @param key
+   *          The signing key.
+   * @param data
+   *          The data to sign.
+   * @return The future signatures in the order of the data. A failed item
+   *         does not abort the batch, see {@link BatchResult#getException}.
+   */
+  public CompletableFuture<BatchResult> signBatch(Mechanism mechanism,
+      Key key, List<byte[]> data) {
+    return executeBatch(mechanism, key, data, null);
+  }
+
+  /**
+   * Verifies all signatures of the batch with the same key. The items are
+   * spread over the lanes; each lane converts the mechanism only once and
+   * processes items with one session until no item is left.
+   *
+   * @param mechanism
+   *          The signature mechanism.
+   * @param key
+   *          The verification key.
+   * @param data
+   *          The signed data.
+   * @param signatures
+   *          The signatures, in the order of the data.
+   * @return The future batch result. An item with an invalid signature fails
+   *         with the error code CKR_SIGNATURE_INVALID.
+   */
+  public CompletableFuture<BatchResult> verifyBatch(Mechanism mechanism,
+      Key key, List<byte[]> data, List<byte[]> signatures) {
+    Util.requireNonNull("data", data);
+    Util.requireNonNull("signatures", signatures);
+    if (signatures.size() != data.size()) {
+      throw new IllegalArgumentException(
+          "data and signatures differ in size");
+    }
+    return executeBatch(mechanism, key, data, signatures);
+  }
+
+  private CompletableFuture<BatchResult> executeBatch(Mechanism mechanism,
+      Key key, List<byte[]> data, List<byte[]> signatures) {
+    Util.requireNonNull("mechanism", mechanism);
+    Util.requireNonNull("key", key);
+    Util.requireNonNull("data", data);
+
+    BatchResult result = new BatchResult(data.size());
+    PreparedMechanism preparedMechanism = new PreparedMechanism(mechanism);
+    AtomicInteger nextIndex = new AtomicInteger();
+    int numWorkers = Math.min(lanes.length, data.size());
+    BatchWorker[] workers = new BatchWorker[numWorkers];
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      workers[i] = new BatchWorker(preparedMechanism, key, data, signatures,
+          nextIndex, result);
+      futures[i] = lanes[i].execute(false, true, workers[i]);
+    }
+
+    return CompletableFuture.allOf(futures).handle((ignore, th) -> {
+      if (th != null) {
+        // workers gave up; fail the items they left unprocessed
+        TokenException ex = toTokenException(th);
+        for (BatchWorker worker : workers) {
+          if (worker.current != -1) {
+            result.setException(worker.current, ex);
+          }
+        }
+        for (int i = nextIndex.get(); i < result.size(); i++) {
+          result.setException(i, ex);
+        }
+      }
+      return result;
+    });
+  }
+
+  /**
+   * Finds all objects matching the template and reads their attributes in
+   * parallel. The handles are found with one session of the pool, since
+   * object handles are valid in all sessions. The found objects are then
+   * spread over the lanes; each lane reads objects with one session until
+   * no object is left, so that the work is balanced even if the objects
+   * differ in the number of their attributes. Objects destroyed after they
+   * have been found are left out.
+   *
+   * @param template
+   *          The search template. May be null to find all objects.
+   * @return The future objects, in the order in which the token has found
+   *         them. Fails with the first TokenException of a lane.
+   */
+  public CompletableFuture<List<PKCS11Object>> findObjects(
+      PKCS11Object template) {
+    return getSession().execute(false, true,
+        session -> findAllObjectHandles(session, template))
+        .thenCompose(this::readObjects);
+  }
+
+  private static long[] findAllObjectHandles(Session session,
+      PKCS11Object template) throws TokenException {
+    long[] handles = new long[0];
+    session.findObjectsInit(template);
+    try {
+      while (true) {
+        long[] found = session.findObjectHandles(FIND_PAGE_SIZE);
+        if (found.length == 0) {
+          return handles;
+        }
+        int len = handles.length;
+        handles = Arrays.copyOf(handles, len + found.length);
+        System.arraycopy(found, 0, handles, len, found.length);
+      }
+    } finally {
+      session.findObjectsFinal();
+    }
+  }
+
+  private CompletableFuture<List<PKCS11Object>> readObjects(long[] handles) {
+    PKCS11Object[] objects = new PKCS11Object[handles.length];
+    AtomicInteger nextIndex = new AtomicInteger();
+    int numWorkers = Math.min(lanes.length, handles.length);
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      futures[i] = lanes[i].execute(false, true,
+          new ObjectWorker(handles, objects, nextIndex));
+    }
+
+    return CompletableFuture.allOf(futures).thenApply(ignore -> {
+      List<PKCS11Object> list = new ArrayList<>(objects.length);
+      for (PKCS11Object object : objects) {
+        if (object != null) {
+          list.add(object);
+        }
+      }
+      return list;
+    });
+  }
+
+  private static TokenException toTokenException(Throwable th) {
+    if (th instanceof CompletionException && th.getCause() != null) {
+      th = th.getCause();
+    }
+    if (th instanceof TokenException) {
+      return (TokenException) th;
+    }
+    if (th instanceof Exception) {
+      return new TokenException(th.getMessage(), (Exception) th);
+    }
+    // keep errors as the cause
+    TokenException ex = new TokenException(th.getMessage());
+    ex.initCause(th);
+    return ex;
+  }
+
+  /**
+   * Stops all lanes after their pending operations have been executed. The
+   * pool is not closed.
+   */
+  @Override
+  public void close() {
+    for (AsyncSession lane : lanes) {
+      lane.close();
+    }
+  }
+
+}
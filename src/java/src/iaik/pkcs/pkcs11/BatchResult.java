@@ -0,0 +1,147 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+/**
+ * The results of a batch operation, in the order of the input items. Each
+ * item either succeeded with an (optional) result, or failed with an
+ * exception; a failed item does not abort the other items of the batch.
+ *
+ * @version 1.0
+ */
+public class BatchResult {
+
+  private final byte[][] results;
+
+  private final TokenException[] exceptions;
+
+  /**
+   * Constructor.
+   *
+   * @param size
+   *          The number of items.
+   */
+  protected BatchResult(int size) {
+    this.results = new byte[size][];
+    this.exceptions = new TokenException[size];
+  }
+
+  void setResult(int index, byte[] result) {
+    results[index] = result;
+  }
+
+  void setException(int index, TokenException exception) {
+    exceptions[index] = exception;
+  }
+
+  /**
+   * Get the number of items.
+   *
+   * @return The number of items.
+   */
+  public int size() {
+    return results.length;
+  }
+
+  /**
+   * Returns true, if the item has been processed successfully.
+   *
+   * @param index
+   *          The index of the item.
+   * @return true, if the item has been processed successfully.
+   */
+  public boolean isSuccessful(int index) {
+    return exceptions[index] == null;
+  }
+
+  /**
+   * Get the number of failed items.
+   *
+   * @return The number of failed items.
+   */
+  public int getFailureCount() {
+    int count = 0;
+    for (TokenException ex : exceptions) {
+      if (ex != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Get the result of the item, e.g. the signature.
+   *
+   * @param index
+   *          The index of the item.
+   * @return The result, or null if the item failed or the operation has no
+   *         result.
+   */
+  public byte[] getResult(int index) {
+    return results[index];
+  }
+
+  /**
+   * Get the exception of a failed item.
+   *
+   * @param index
+   *          The index of the item.
+   * @return The exception, or null if the item has been processed
+   *         successfully.
+   */
+  public TokenException getException(int index) {
+    return exceptions[index];
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    return Util.concatObjects("Batch Result: ", size(), " items, ",
+        getFailureCount(), " failed");
+  }
+
+}
@@ -0,0 +1,502 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
+
+import iaik.pkcs.pkcs11.objects.ByteArrayAttribute;
+import iaik.pkcs.pkcs11.objects.Certificate;
+import iaik.pkcs.pkcs11.objects.GenericTemplate;
+import iaik.pkcs.pkcs11.objects.ObjectClassAttribute;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.WTLSCertificate;
+import iaik.pkcs.pkcs11.objects.X509AttributeCertificate;
+import iaik.pkcs.pkcs11.objects.X509PublicKeyCertificate;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * An in-memory index of the certificate objects of a token, which answers
+ * lookups by issuer and serial number, subject, CKA_ID and hash of the
+ * subject public key without calling the token. The index is built by
+ * {@link #refresh(Session)} from one enumeration of the certificate objects;
+ * later calls only read the objects whose handles have not been seen before
+ * and drop the entries of the objects which no longer exist.
+ * <p>
+ * The keys of the index are the DER encodings as stored in the attributes
+ * CKA_ISSUER, CKA_SERIAL_NUMBER, CKA_SUBJECT, CKA_ID and
+ * CKA_HASH_OF_SUBJECT_PUBLIC_KEY of {@link X509PublicKeyCertificate},
+ * CKA_AC_ISSUER, CKA_SERIAL_NUMBER and CKA_OWNER (as subject) of
+ * {@link X509AttributeCertificate}, and CKA_SUBJECT and
+ * CKA_HASH_OF_SUBJECT_PUBLIC_KEY of {@link WTLSCertificate}. If the issuer,
+ * serial number or subject of an X.509 public key certificate is not
+ * present, it is taken from the certificate in CKA_VALUE.
+ * <pre><code>
+ *   CertificateIndex index = new CertificateIndex();
+ *   index.refresh(session);
+ *   List&lt;CertificateIndex.Entry&gt; entries =
+ *       index.findByIssuerAndSerialNumber(issuer, serialNumber);
+ *   X509Certificate cert = entries.get(0).getX509Certificate();
+ * </code></pre>
+ * This class is thread-safe; lookups do not block while the index is
+ * refreshed.
+ *
+ * @version 1.0
+ */
+public class CertificateIndex {
+
+  /**
+   * An indexed certificate object.
+   */
+  public static final class Entry {
+
+    private final long objectHandle;
+
+    private final Certificate certificate;
+
+    private volatile X509Certificate x509Certificate;
+
+    private Entry(long objectHandle, Certificate certificate) {
+      this.objectHandle = objectHandle;
+      this.certificate = certificate;
+    }
+
+    /**
+     * Gets the handle of the certificate object.
+     *
+     * @return The object handle.
+     */
+    public long getObjectHandle() {
+      return objectHandle;
+    }
+
+    /**
+     * Gets the certificate object with all its attributes.
+     *
+     * @return The certificate object; an instance of
+     *         {@link X509PublicKeyCertificate},
+     *         {@link X509AttributeCertificate} or {@link WTLSCertificate}.
+     */
+    public Certificate getCertificate() {
+      return certificate;
+    }
+
+    /**
+     * Gets the parsed X.509 certificate. It is parsed on the first call and
+     * kept for later calls.
+     *
+     * @return The parsed certificate, or null if this is not an X.509
+     *         public key certificate or its value is not present.
+     * @exception CertificateException
+     *              If the value cannot be parsed.
+     */
+    public X509Certificate getX509Certificate() throws CertificateException {
+      X509Certificate cert = x509Certificate;
+      if (cert == null && certificate instanceof X509PublicKeyCertificate) {
+        byte[] encoded = ((X509PublicKeyCertificate) certificate).getValue()
+            .getByteArrayValue();
+        if (encoded != null) {
+          cert = (X509Certificate) CertificateFactory.getInstance("X.509")
+              .generateCertificate(new ByteArrayInputStream(encoded));
+          x509Certificate = cert;
+        }
+      }
+      return cert;
+    }
+
+  }
+
+  private static final class BytesKey {
+
+    private final byte[] bytes;
+
+    private final int hashCode;
+
+    BytesKey(byte[] bytes) {
+      this.bytes = bytes;
+      this.hashCode = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return (obj instanceof BytesKey)
+          && Arrays.equals(bytes, ((BytesKey) obj).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+  }
+
+  /**
+   * An immutable state of the index, replaced as a whole on refresh.
+   */
+  private static final class Snapshot {
+
+    private final Map<Long, Entry> entries;
+
+    private final Map<BytesKey, List<Entry>> byIssuerAndSerialNumber =
+        new HashMap<>();
+
+    private final Map<BytesKey, List<Entry>> bySubject = new HashMap<>();
+
+    private final Map<BytesKey, List<Entry>> byId = new HashMap<>();
+
+    private final Map<BytesKey, List<Entry>> byHashOfSubjectPublicKey =
+        new HashMap<>();
+
+    Snapshot(Map<Long, Entry> entries) {
+      this.entries = entries;
+      for (Entry entry : entries.values()) {
+        index(entry);
+      }
+    }
+
+    private void index(Entry entry) {
+      Certificate cert = entry.certificate;
+      byte[] issuer = null;
+      byte[] serialNumber = null;
+      byte[] subject = null;
+      byte[] id = null;
+      byte[] hashOfSubjectPublicKey = null;
+
+      if (cert instanceof X509PublicKeyCertificate) {
+        X509PublicKeyCertificate x509 = (X509PublicKeyCertificate) cert;
+        issuer = value(x509.getIssuer());
+        serialNumber = value(x509.getSerialNumber());
+        subject = value(x509.getSubject());
+        id = value(x509.getId());
+        hashOfSubjectPublicKey = value(x509.getHashOfSubjectPublicKey());
+
+        if (issuer == null || serialNumber == null || subject == null) {
+          X509Certificate parsed;
+          try {
+            parsed = entry.getX509Certificate();
+          } catch (CertificateException ex) {
+            parsed = null;
+          }
+
+          if (parsed != null) {
+            if (issuer == null) {
+              issuer = parsed.getIssuerX500Principal().getEncoded();
+            }
+            if (serialNumber == null) {
+              serialNumber = encodeInteger(parsed.getSerialNumber());
+            }
+            if (subject == null) {
+              subject = parsed.getSubjectX500Principal().getEncoded();
+            }
+          }
+        }
+      } else if (cert instanceof X509AttributeCertificate) {
+        X509AttributeCertificate x509 = (X509AttributeCertificate) cert;
+        issuer = value(x509.getAcIssuer());
+        serialNumber = value(x509.getSerialNumber());
+        subject = value(x509.getOwner());
+      } else if (cert instanceof WTLSCertificate) {
+        WTLSCertificate wtls = (WTLSCertificate) cert;
+        subject = value(wtls.getSubject());
+        hashOfSubjectPublicKey = value(wtls.getHashOfSubjectPublicKey());
+      }
+
+      if (issuer != null && serialNumber != null) {
+        add(byIssuerAndSerialNumber, concat(issuer, serialNumber), entry);
+      }
+      add(bySubject, subject, entry);
+      add(byId, id, entry);
+      add(byHashOfSubjectPublicKey, hashOfSubjectPublicKey, entry);
+    }
+
+    private static byte[] value(ByteArrayAttribute attribute) {
+      // empty values are the defaults of the optional attributes
+      byte[] value =
+          attribute.isPresent() ? attribute.getByteArrayValue() : null;
+      return (value == null || value.length == 0) ? null : value;
+    }
+
+    private static void add(Map<BytesKey, List<Entry>> map, byte[] key,
+        Entry entry) {
+      if (key == null) {
+        return;
+      }
+
+      BytesKey bytesKey = new BytesKey(key);
+      List<Entry> list = map.get(bytesKey);
+      if (list == null) {
+        list = new ArrayList<>(1);
+        map.put(bytesKey, list);
+      }
+      list.add(entry);
+    }
+
+  }
+
+  private volatile Snapshot snapshot =
+      new Snapshot(Collections.<Long, Entry>emptyMap());
+
+  /**
+   * Enumerates the certificate objects of the token and updates the index:
+   * the objects whose handles have not been seen before are read, the
+   * entries of the objects which no longer exist are removed.
+   *
+   * @param session
+   *          The session used to find and read the certificate objects. No
+   *          other find operation may be active in this session.
+   * @return The number of newly read certificate objects.
+   * @exception TokenException
+   *              If finding or reading the objects failed.
+   */
+  public synchronized int refresh(Session session) throws TokenException {
+    Util.requireNonNull("session", session);
+
+    GenericTemplate template = new GenericTemplate();
+    ObjectClassAttribute objectClass = new ObjectClassAttribute();
+    objectClass.setLongValue(PKCS11Constants.CKO_CERTIFICATE);
+    template.addAttribute(objectClass);
+
+    List<Long> handles = new ArrayList<>();
+    session.findObjectsInit(template);
+    try {
+      while (true) {
+        long[] found = session.findObjectHandles(100);
+        if (found.length == 0) {
+          break;
+        }
+        for (long handle : found) {
+          handles.add(handle);
+        }
+      }
+    } finally {
+      session.findObjectsFinal();
+    }
+
+    Map<Long, Entry> oldEntries = snapshot.entries;
+    Map<Long, Entry> entries = new HashMap<>(handles.size() * 4 / 3 + 1);
+    int newCount = 0;
+    for (Long handle : handles) {
+      Entry entry = oldEntries.get(handle);
+      if (entry == null) {
+        PKCS11Object object = PKCS11Object.getInstance(session, handle);
+        if (!(object instanceof Certificate)) {
+          continue;
+        }
+        entry = new Entry(handle, (Certificate) object);
+        newCount++;
+      }
+      entries.put(handle, entry);
+    }
+
+    if (newCount > 0 || entries.size() != oldEntries.size()) {
+      snapshot = new Snapshot(entries);
+    }
+    return newCount;
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public synchronized void clear() {
+    snapshot = new Snapshot(Collections.<Long, Entry>emptyMap());
+  }
+
+  /**
+   * Gets the number of indexed certificate objects.
+   *
+   * @return The number of entries.
+   */
+  public int size() {
+    return snapshot.entries.size();
+  }
+
+  /**
+   * Gets all indexed certificate objects.
+   *
+   * @return The entries, never null.
+   */
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(
+        new ArrayList<>(snapshot.entries.values()));
+  }
+
+  /**
+   * Gets the entry of the certificate object with the given handle.
+   *
+   * @param objectHandle
+   *          The object handle.
+   * @return The entry, or null if not indexed.
+   */
+  public Entry getEntry(long objectHandle) {
+    return snapshot.entries.get(objectHandle);
+  }
+
+  /**
+   * Finds the certificates with the given issuer and serial number.
+   *
+   * @param issuer
+   *          The DER encoding of the issuer.
+   * @param serialNumber
+   *          The DER encoding of the serial number.
+   * @return The matching entries, never null.
+   */
+  public List<Entry> findByIssuerAndSerialNumber(byte[] issuer,
+      byte[] serialNumber) {
+    Util.requireNonNull("issuer", issuer);
+    Util.requireNonNull("serialNumber", serialNumber);
+    return find(snapshot.byIssuerAndSerialNumber,
+        concat(issuer, serialNumber));
+  }
+
+  /**
+   * Finds the certificates with the given issuer and serial number.
+   *
+   * @param issuer
+   *          The issuer.
+   * @param serialNumber
+   *          The serial number.
+   * @return The matching entries, never null.
+   */
+  public List<Entry> findByIssuerAndSerialNumber(X500Principal issuer,
+      BigInteger serialNumber) {
+    Util.requireNonNull("issuer", issuer);
+    Util.requireNonNull("serialNumber", serialNumber);
+    return findByIssuerAndSerialNumber(issuer.getEncoded(),
+        encodeInteger(serialNumber));
+  }
+
+  /**
+   * Finds the certificates with the given subject.
+   *
+   * @param subject
+   *          The DER encoding of the subject.
+   * @return The matching entries, never null.
+   */
+  public List<Entry> findBySubject(byte[] subject) {
+    Util.requireNonNull("subject", subject);
+    return find(snapshot.bySubject, subject);
+  }
+
+  /**
+   * Finds the certificates with the given subject.
+   *
+   * @param subject
+   *          The subject.
+   * @return The matching entries, never null.
+   */
+  public List<Entry> findBySubject(X500Principal subject) {
+    Util.requireNonNull("subject", subject);
+    return findBySubject(subject.getEncoded());
+  }
+
+  /**
+   * Finds the certificates with the given CKA_ID.
+   *
+   * @param id
+   *          The CKA_ID.
+   * @return The matching entries, never null.
+   */
+  public List<Entry> findById(byte[] id) {
+    Util.requireNonNull("id", id);
+    return find(snapshot.byId, id);
+  }
+
+  /**
+   * Finds the certificates with the given hash of the subject public key.
+   *
+   * @param hash
+   *          The value of CKA_HASH_OF_SUBJECT_PUBLIC_KEY.
+   * @return The matching entries, never null.
+   */
+  public List<Entry> findByHashOfSubjectPublicKey(byte[] hash) {
+    Util.requireNonNull("hash", hash);
+    return find(snapshot.byHashOfSubjectPublicKey, hash);
+  }
+
+  private static List<Entry> find(Map<BytesKey, List<Entry>> map,
+      byte[] key) {
+    List<Entry> list = map.get(new BytesKey(key));
+    return (list == null) ? Collections.<Entry>emptyList()
+        : Collections.unmodifiableList(list);
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] result = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+
+  /**
+   * Encodes the given integer as DER INTEGER.
+   */
+  private static byte[] encodeInteger(BigInteger value) {
+    byte[] content = value.toByteArray();
+    int len = content.length;
+    byte[] encodedLen;
+    if (len < 0x80) {
+      encodedLen = new byte[] {(byte) len};
+    } else if (len < 0x100) {
+      encodedLen = new byte[] {(byte) 0x81, (byte) len};
+    } else {
+      encodedLen = new byte[] {(byte) 0x82, (byte) (len >> 8), (byte) len};
+    }
+
+    byte[] encoded = new byte[1 + encodedLen.length + len];
+    encoded[0] = 0x02;
+    System.arraycopy(encodedLen, 0, encoded, 1, encodedLen.length);
+    System.arraycopy(content, 0, encoded, 1 + encodedLen.length, len);
+    return encoded;
+  }
+
+}
@@ -0,0 +1,177 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongConsumer;
+
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+
+/**
+ * A spliterator over the handles of the objects matching a template. It drives
+ * C_FindObjectsInit, C_FindObjects and C_FindObjectsFinal lazily: the find
+ * operation is initialized on the first advance, the handles are fetched
+ * page by page with the configured page size, and the find operation is
+ * finalized once the last page has been consumed or this spliterator is
+ * closed. No object is materialized; the caller decides whether and when to
+ * call {@link PKCS11Object#getInstance(Session, long)} for a handle.
+ * <p>
+ * Since a session can only run one find operation at a time, the session must
+ * not be used for other find operations until this spliterator is exhausted
+ * or closed. Errors of the token are thrown as {@link TokenRuntimeException}
+ * wrapping the original {@link TokenException}.
+ * <p>
+ * Usually, this class is used via
+ * {@link Session#streamObjectHandles(PKCS11Object, int)}.
+ *
+ * @version 1.0
+ */
+public class FindObjectsSpliterator extends Spliterators.AbstractLongSpliterator
+    implements AutoCloseable {
+
+  private final Session session;
+
+  private final PKCS11Object template;
+
+  private final int pageSize;
+
+  private long[] page;
+
+  private int pageIndex;
+
+  private boolean initialized;
+
+  private boolean finished;
+
+  /**
+   * Creates a new spliterator over the handles of the objects matching the
+   * given template.
+   *
+   * @param session
+   *          The session to search in.
+   * @param template
+   *          The template to match. May be null to find all objects.
+   * @param pageSize
+   *          The maximal number of handles fetched by one C_FindObjects call.
+   *          Must be positive.
+   */
+  public FindObjectsSpliterator(Session session, PKCS11Object template,
+      int pageSize) {
+    super(Long.MAX_VALUE,
+        Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    this.session = Util.requireNonNull("session", session);
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("pageSize must be positive");
+    }
+    this.template = template;
+    this.pageSize = pageSize;
+  }
+
+  @Override
+  public boolean tryAdvance(LongConsumer action) {
+    Util.requireNonNull("action", action);
+    if (finished) {
+      return false;
+    }
+
+    try {
+      if (!initialized) {
+        session.findObjectsInit(template);
+        initialized = true;
+      }
+
+      if (page == null || pageIndex == page.length) {
+        page = session.findObjectHandles(pageSize);
+        pageIndex = 0;
+        if (page.length == 0) {
+          finish();
+          return false;
+        }
+      }
+    } catch (TokenException ex) {
+      closeQuietly();
+      throw new TokenRuntimeException(ex);
+    }
+
+    action.accept(page[pageIndex++]);
+    return true;
+  }
+
+  /**
+   * Finalizes the find operation if it is still running. Handles not yet
+   * consumed are discarded.
+   *
+   * @exception TokenRuntimeException
+   *              If finalizing the find operation failed.
+   */
+  @Override
+  public void close() {
+    if (finished) {
+      return;
+    }
+
+    try {
+      finish();
+    } catch (TokenException ex) {
+      throw new TokenRuntimeException(ex);
+    }
+  }
+
+  private void finish() throws TokenException {
+    finished = true;
+    page = null;
+    if (initialized) {
+      session.findObjectsFinal();
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (TokenRuntimeException ex) {
+      // the original exception is more important
+    }
+  }
+
+}
@@ -0,0 +1,446 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import iaik.pkcs.pkcs11.objects.Attribute;
+import iaik.pkcs.pkcs11.objects.BooleanAttribute;
+import iaik.pkcs.pkcs11.objects.ByteArrayAttribute;
+import iaik.pkcs.pkcs11.objects.CharArrayAttribute;
+import iaik.pkcs.pkcs11.objects.GenericTemplate;
+import iaik.pkcs.pkcs11.objects.KeyTypeAttribute;
+import iaik.pkcs.pkcs11.objects.ObjectClassAttribute;
+
+/**
+ * A cache which resolves the class, the key type and the CKA_ID or CKA_LABEL
+ * of token objects to their handles, so that looking up the same key again
+ * needs no C_FindObjectsInit, C_FindObjects and C_FindObjectsFinal calls.
+ * Combined with {@link Session#setDeferAttributeReading(boolean)}, a key can
+ * then be used without reading any of its attributes.
+ * <p>
+ * The cache is kept per token, see {@link Token#getKeyHandleCache()}. It
+ * holds at most {@link #getMaxSize()} lookups and evicts the least recently
+ * used one. Lookups without result are cached as well. Only token objects
+ * (CKA_TOKEN set to true) are found, since the handles of session objects
+ * become invalid when their session is closed.
+ * <p>
+ * The sessions of this wrapper keep the cache up to date:
+ * {@link Session#destroyObject(iaik.pkcs.pkcs11.objects.PKCS11Object)}
+ * removes the lookups which found the destroyed object; creating, copying,
+ * generating, unwrapping and deriving objects as well as modifying their
+ * attributes removes the lookups for the class of the affected object;
+ * login and logout clear the cache, since they change the visibility of
+ * private objects. Changes made by other processes are noticed when the
+ * cached lookup expires after {@link #getTtl()} milliseconds.
+ * <pre><code>
+ *   KeyHandleCache cache = token.getKeyHandleCache();
+ *   long[] handles = cache.findHandlesByLabel(session,
+ *       PKCS11Constants.CKO_PRIVATE_KEY, null, "signer");
+ * </code></pre>
+ * This class is thread-safe.
+ *
+ * @version 1.0
+ */
+public class KeyHandleCache {
+
+  /**
+   * The default maximal number of cached lookups.
+   */
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  /**
+   * The default time to live of a cached lookup in milliseconds.
+   */
+  public static final long DEFAULT_TTL = 60000;
+
+  private static final long[] NO_HANDLES = new long[0];
+
+  private static final class LookupKey {
+
+    private final long objectClass;
+
+    private final Long keyType;
+
+    private final byte[] id;
+
+    private final String label;
+
+    private final int hashCode;
+
+    LookupKey(long objectClass, Long keyType, byte[] id, String label) {
+      this.objectClass = objectClass;
+      this.keyType = keyType;
+      this.id = id;
+      this.label = label;
+      int hash = Long.hashCode(objectClass);
+      hash = 31 * hash + ((keyType == null) ? 0 : keyType.hashCode());
+      hash = 31 * hash + Arrays.hashCode(id);
+      hash = 31 * hash + ((label == null) ? 0 : label.hashCode());
+      this.hashCode = hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof LookupKey)) {
+        return false;
+      }
+
+      LookupKey other = (LookupKey) obj;
+      return objectClass == other.objectClass
+          && Util.objEquals(keyType, other.keyType)
+          && Arrays.equals(id, other.id)
+          && Util.objEquals(label, other.label);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+  }
+
+  private static final class Lookup {
+
+    private final long[] handles;
+
+    private final long expiresAt;
+
+    Lookup(long[] handles, long expiresAt) {
+      this.handles = handles;
+      this.expiresAt = expiresAt;
+    }
+
+  }
+
+  private final LinkedHashMap<LookupKey, Lookup> lookups =
+      new LinkedHashMap<LookupKey, Lookup>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<LookupKey, Lookup> eldest) {
+          return size() > maxSize;
+        }
+
+      };
+
+  private int maxSize = DEFAULT_MAX_SIZE;
+
+  private long ttlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL);
+
+  /**
+   * Incremented on each invalidation, so that the result of a lookup which
+   * raced with an invalidation is not cached.
+   */
+  private long generation;
+
+  private long hitCount;
+
+  private long missCount;
+
+  /**
+   * Finds the handles of the token objects with the given class, key type
+   * and CKA_ID. The cached handles are returned if available.
+   *
+   * @param session
+   *          The session used to find the objects on a cache miss. No other
+   *          find operation may be active in this session.
+   * @param objectClass
+   *          The object class; e.g. PKCS11Constants.CKO_PRIVATE_KEY.
+   * @param keyType
+   *          The key type; e.g. PKCS11Constants.CKK_RSA. May be null to
+   *          match any key type.
+   * @param id
+   *          The CKA_ID of the objects.
+   * @return The handles of the matching objects, never null.
+   * @exception TokenException
+   *              If finding the objects failed.
+   */
+  public long[] findHandlesById(Session session, long objectClass,
+      Long keyType, byte[] id) throws TokenException {
+    Util.requireNonNull("id", id);
+    return findHandles(session,
+        new LookupKey(objectClass, keyType, id.clone(), null));
+  }
+
+  /**
+   * Finds the handles of the token objects with the given class, key type
+   * and CKA_LABEL. The cached handles are returned if available.
+   *
+   * @param session
+   *          The session used to find the objects on a cache miss. No other
+   *          find operation may be active in this session.
+   * @param objectClass
+   *          The object class; e.g. PKCS11Constants.CKO_PRIVATE_KEY.
+   * @param keyType
+   *          The key type; e.g. PKCS11Constants.CKK_RSA. May be null to
+   *          match any key type.
+   * @param label
+   *          The CKA_LABEL of the objects.
+   * @return The handles of the matching objects, never null.
+   * @exception TokenException
+   *              If finding the objects failed.
+   */
+  public long[] findHandlesByLabel(Session session, long objectClass,
+      Long keyType, String label) throws TokenException {
+    Util.requireNonNull("label", label);
+    return findHandles(session,
+        new LookupKey(objectClass, keyType, null, label));
+  }
+
+  private long[] findHandles(Session session, LookupKey key)
+      throws TokenException {
+    Util.requireNonNull("session", session);
+    long startGeneration;
+    synchronized (this) {
+      Lookup lookup = lookups.get(key);
+      if (lookup != null) {
+        if (System.nanoTime() - lookup.expiresAt < 0) {
+          hitCount++;
+          return lookup.handles.clone();
+        }
+        lookups.remove(key);
+      }
+      missCount++;
+      startGeneration = generation;
+    }
+
+    long[] handles = findObjectHandles(session, key);
+
+    synchronized (this) {
+      if (generation == startGeneration && maxSize > 0) {
+        lookups.put(key, new Lookup(handles, System.nanoTime() + ttlNanos));
+      }
+    }
+    return handles.clone();
+  }
+
+  private static long[] findObjectHandles(Session session, LookupKey key)
+      throws TokenException {
+    GenericTemplate template = new GenericTemplate();
+    ObjectClassAttribute objectClass = new ObjectClassAttribute();
+    objectClass.setLongValue(key.objectClass);
+    template.addAttribute(objectClass);
+
+    BooleanAttribute token = new BooleanAttribute(Attribute.TOKEN);
+    token.setBooleanValue(Boolean.TRUE);
+    template.addAttribute(token);
+
+    if (key.keyType != null) {
+      KeyTypeAttribute keyType = new KeyTypeAttribute();
+      keyType.setLongValue(key.keyType);
+      template.addAttribute(keyType);
+    }
+
+    if (key.id != null) {
+      ByteArrayAttribute id = new ByteArrayAttribute(Attribute.ID);
+      id.setByteArrayValue(key.id);
+      template.addAttribute(id);
+    } else {
+      CharArrayAttribute label = new CharArrayAttribute(Attribute.LABEL);
+      label.setCharArrayValue(key.label.toCharArray());
+      template.addAttribute(label);
+    }
+
+    long[] handles = NO_HANDLES;
+    session.findObjectsInit(template);
+    try {
+      while (true) {
+        long[] found = session.findObjectHandles(16);
+        if (found.length == 0) {
+          break;
+        }
+
+        int len = handles.length;
+        handles = Arrays.copyOf(handles, len + found.length);
+        System.arraycopy(found, 0, handles, len, found.length);
+      }
+    } finally {
+      session.findObjectsFinal();
+    }
+    return handles;
+  }
+
+  /**
+   * Removes the cached lookups which found the object with the given handle.
+   *
+   * @param objectHandle
+   *          The handle of the object.
+   */
+  public synchronized void invalidateHandle(long objectHandle) {
+    generation++;
+    Iterator<Lookup> it = lookups.values().iterator();
+    while (it.hasNext()) {
+      for (long handle : it.next().handles) {
+        if (handle == objectHandle) {
+          it.remove();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the cached lookups for objects of the given class.
+   *
+   * @param objectClass
+   *          The object class; e.g. PKCS11Constants.CKO_SECRET_KEY.
+   */
+  public synchronized void invalidateClass(long objectClass) {
+    generation++;
+    Iterator<LookupKey> it = lookups.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().objectClass == objectClass) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Removes all cached lookups.
+   */
+  public synchronized void clear() {
+    generation++;
+    lookups.clear();
+  }
+
+  /**
+   * Gets the number of cached lookups, including the expired ones which
+   * have not been removed yet.
+   *
+   * @return The number of cached lookups.
+   */
+  public synchronized int size() {
+    return lookups.size();
+  }
+
+  /**
+   * Gets the maximal number of cached lookups.
+   *
+   * @return The maximal number of cached lookups.
+   */
+  public synchronized int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Sets the maximal number of cached lookups. 0 disables the cache.
+   *
+   * @param maxSize
+   *          The maximal number of cached lookups.
+   */
+  public synchronized void setMaxSize(int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("maxSize must not be negative");
+    }
+
+    this.maxSize = maxSize;
+    Iterator<LookupKey> it = lookups.keySet().iterator();
+    while (lookups.size() > maxSize) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  /**
+   * Gets the time to live of a cached lookup.
+   *
+   * @return The time to live in milliseconds.
+   */
+  public synchronized long getTtl() {
+    return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+  }
+
+  /**
+   * Sets the time to live of a cached lookup. The lookups cached before
+   * keep their expiry time.
+   *
+   * @param ttl
+   *          The time to live in milliseconds.
+   */
+  public synchronized void setTtl(long ttl) {
+    if (ttl < 0) {
+      throw new IllegalArgumentException("ttl must not be negative");
+    }
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+  }
+
+  /**
+   * Gets the number of lookups answered from the cache.
+   *
+   * @return The number of cache hits.
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Gets the number of lookups which had to find the objects on the token.
+   *
+   * @return The number of cache misses.
+   */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public synchronized String toString() {
+    return "KeyHandleCache: size=" + lookups.size() + ", maxSize=" + maxSize
+        + ", ttl=" + getTtl() + " ms, hits=" + hitCount + ", misses="
+        + missCount;
+  }
+
+}
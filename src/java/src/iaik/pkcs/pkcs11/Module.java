@@ -45,7 +45,15 @@ package iaik.pkcs.pkcs11;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import iaik.pkcs.pkcs11.objects.AttributeReadProfile;
+import iaik.pkcs.pkcs11.soft.SoftBackend;
+import iaik.pkcs.pkcs11.wrapper.JniBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 import sun.security.pkcs11.wrapper.CK_CREATEMUTEX;
@@ -167,10 +175,39 @@ public class Module {
   /**
    * Interface to the underlying PKCS#11 module.
    */
-  private PKCS11 pkcs11Module;
+  private PKCS11Backend pkcs11Module;
 
   private String pkcs11ModuleName;
 
+  private final PKCS11Backend.Factory backendFactory;
+
+  /**
+   * The attribute read profiles, per slot ID and kind of object. The kind is
+   * the object class together with the key, certificate or hardware feature
+   * type.
+   */
+  private final ConcurrentMap<Long, ConcurrentMap<Map.Entry<Long, Long>,
+      AttributeReadProfile>> attributeReadProfiles = new ConcurrentHashMap<>();
+
+  /**
+   * The key handle caches, per slot ID.
+   */
+  private final ConcurrentMap<Long, KeyHandleCache> keyHandleCaches =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The session interceptor chains, per slot ID. Changes are guarded by the
+   * map.
+   */
+  private final ConcurrentMap<Long, SessionInterceptorChain>
+      sessionInterceptorChains = new ConcurrentHashMap<>();
+
+  /**
+   * The session interceptors of all tokens.
+   */
+  private SessionInterceptor[] sessionInterceptors =
+      SessionInterceptorChain.EMPTY;
+
   /**
    * Create a new module that uses the given PKCS11 interface to interact with
    * the token.
@@ -179,12 +216,30 @@ public class Module {
    *          The interface to interact with the token.
    */
   public Module(String pkcs11ModuleName) {
+    this(pkcs11ModuleName, JniBackend.FACTORY);
+  }
+
+  /**
+   * Create a new module that uses the given backend factory to connect to
+   * the PKCS#11 module.
+   *
+   * @param pkcs11ModuleName
+   *          The name of the module; e.g. "slbck.dll".
+   * @param backendFactory
+   *          The factory which connects to the module in
+   *          {@link #initialize(InitializeArgs)}.
+   */
+  public Module(String pkcs11ModuleName,
+      PKCS11Backend.Factory backendFactory) {
     this.pkcs11ModuleName = pkcs11ModuleName;
+    this.backendFactory =
+        Util.requireNonNull("backendFactory", backendFactory);
   }
 
   /**
    * Get an instance of this class by giving the name of the PKCS#11 module;
-   * e.g. "slbck.dll".
+   * e.g. "slbck.dll". Names starting with "soft:" select the in-memory
+   * software token, see {@link SoftBackend}.
    *
    * @param pkcs11ModuleName
    *          The name of the module; e.g. "slbck.dll".
@@ -195,6 +250,10 @@ public class Module {
    */
   public static Module getInstance(String pkcs11ModuleName) throws IOException {
     Util.requireNonNull("pkcs11ModuleName", pkcs11ModuleName);
+    if (pkcs11ModuleName.startsWith(SoftBackend.MODULE_NAME_PREFIX)) {
+      return new Module(pkcs11ModuleName, SoftBackend.FACTORY);
+    }
+
     File file = new File(pkcs11ModuleName);
     if (!file.exists()) {
       throw new FileNotFoundException(
@@ -209,6 +268,24 @@ public class Module {
     return new Module(pkcs11ModuleName);
   }
 
+  /**
+   * Get an instance of this class which connects to the PKCS#11 module with
+   * the given backend factory instead of the JNI binding of the JDK. The
+   * meaning of the module name depends on the backend.
+   *
+   * @param pkcs11ModuleName
+   *          The name of the module.
+   * @param backendFactory
+   *          The factory which connects to the module.
+   * @return An instance of Module that connects to the given PKCS#11 module
+   *         with the given backend.
+   */
+  public static Module getInstance(String pkcs11ModuleName,
+      PKCS11Backend.Factory backendFactory) {
+    Util.requireNonNull("pkcs11ModuleName", pkcs11ModuleName);
+    return new Module(pkcs11ModuleName, backendFactory);
+  }
+
   /**
    * Get an instance of this class by giving the name of the PKCS#11 module,
    * e.g. "slbck.dll" and the absolute path to the PKCS#11-wrapper native
@@ -317,15 +394,10 @@ public class Module {
     // pReserved of CK_C_INITIALIZE_ARGS not used yet, just set to standard
     // conform UTF8
 
-    final String functionList = "C_GetFunctionList";
-    final boolean omitInitialize = false;
     try {
-      pkcs11Module = PKCS11.getInstance(pkcs11ModuleName, functionList,
-          wrapperInitArgs, omitInitialize);
+      pkcs11Module = backendFactory.connect(pkcs11ModuleName, wrapperInitArgs);
     } catch (IOException ex) {
       throw new TokenException(ex.getMessage(), ex);
-    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
     }
   }
 
@@ -389,13 +461,204 @@ public class Module {
    * Gets the PKCS#11 module of the wrapper package behind this object.
    *
    * @return The PKCS#11 module behind this object.
+   * @exception UnsupportedOperationException
+   *              If this module does not use the JNI binding.
+   * @deprecated Use {@link #getBackend()} instead.
    */
   // CHECKSTYLE:SKIP
+  @Deprecated
   public PKCS11 getPKCS11Module() {
+    assertInitialized();
+    if (pkcs11Module instanceof JniBackend) {
+      return ((JniBackend) pkcs11Module).getPKCS11();
+    }
+    throw new UnsupportedOperationException(
+        "module does not use the JNI binding");
+  }
+
+  /**
+   * Gets the backend which performs the calls to the PKCS#11 module.
+   *
+   * @return The backend behind this object.
+   */
+  public PKCS11Backend getBackend() {
     assertInitialized();
     return pkcs11Module;
   }
 
+  /**
+   * Gets the profile of the attribute types which the token in the given slot
+   * cannot read for objects of the given kind. The profile is created on
+   * first access and is filled while reading attributes.
+   *
+   * @param slotID
+   *          The ID of the slot the token resides in.
+   * @param objectClass
+   *          The object class; e.g. PKCS11Constants.CKO_PRIVATE_KEY.
+   * @param subType
+   *          The key, certificate or hardware feature type; e.g.
+   *          PKCS11Constants.CKK_RSA. -1 if the objects have none.
+   * @return The profile, never null.
+   */
+  public AttributeReadProfile getAttributeReadProfile(long slotID,
+      long objectClass, long subType) {
+    ConcurrentMap<Map.Entry<Long, Long>, AttributeReadProfile> profiles =
+        attributeReadProfiles.get(slotID);
+    if (profiles == null) {
+      attributeReadProfiles.putIfAbsent(slotID,
+          new ConcurrentHashMap<Map.Entry<Long, Long>,
+              AttributeReadProfile>());
+      profiles = attributeReadProfiles.get(slotID);
+    }
+
+    Map.Entry<Long, Long> kind =
+        new AbstractMap.SimpleImmutableEntry<>(objectClass, subType);
+    AttributeReadProfile profile = profiles.get(kind);
+    if (profile == null) {
+      profiles.putIfAbsent(kind, new AttributeReadProfile());
+      profile = profiles.get(kind);
+    }
+    return profile;
+  }
+
+  /**
+   * Discards all attribute read profiles of the token in the given slot; e.g.
+   * after the token has been replaced.
+   *
+   * @param slotID
+   *          The ID of the slot the token resides in.
+   */
+  public void clearAttributeReadProfiles(long slotID) {
+    attributeReadProfiles.remove(slotID);
+  }
+
+  /**
+   * Gets the cache of the key handles of the token in the given slot. The
+   * cache is created on first access.
+   *
+   * @param slotID
+   *          The ID of the slot the token resides in.
+   * @return The cache, never null.
+   */
+  public KeyHandleCache getKeyHandleCache(long slotID) {
+    KeyHandleCache cache = keyHandleCaches.get(slotID);
+    if (cache == null) {
+      keyHandleCaches.putIfAbsent(slotID, new KeyHandleCache());
+      cache = keyHandleCaches.get(slotID);
+    }
+    return cache;
+  }
+
+  /**
+   * Gets the cache of the key handles of the token in the given slot, if it
+   * has been created.
+   *
+   * @param slotID
+   *          The ID of the slot the token resides in.
+   * @return The cache, or null.
+   */
+  KeyHandleCache getKeyHandleCacheIfPresent(long slotID) {
+    return keyHandleCaches.get(slotID);
+  }
+
+  /**
+   * Registers an interceptor which is called for the operations of the
+   * sessions of all tokens of this module, including sessions already open.
+   *
+   * @param interceptor
+   *          The interceptor to add.
+   */
+  public void addSessionInterceptor(SessionInterceptor interceptor) {
+    Util.requireNonNull("interceptor", interceptor);
+    synchronized (sessionInterceptorChains) {
+      sessionInterceptors =
+          SessionInterceptorChain.add(sessionInterceptors, interceptor);
+      for (SessionInterceptorChain chain
+          : sessionInterceptorChains.values()) {
+        chain.update(sessionInterceptors, chain.getTokenInterceptors());
+      }
+    }
+  }
+
+  /**
+   * Removes an interceptor added by
+   * {@link #addSessionInterceptor(SessionInterceptor)}.
+   *
+   * @param interceptor
+   *          The interceptor to remove.
+   */
+  public void removeSessionInterceptor(SessionInterceptor interceptor) {
+    synchronized (sessionInterceptorChains) {
+      sessionInterceptors =
+          SessionInterceptorChain.remove(sessionInterceptors, interceptor);
+      for (SessionInterceptorChain chain
+          : sessionInterceptorChains.values()) {
+        chain.update(sessionInterceptors, chain.getTokenInterceptors());
+      }
+    }
+  }
+
+  /**
+   * Registers an interceptor which is called for the operations of the
+   * sessions of the token in the given slot, including sessions already
+   * open.
+   *
+   * @param slotID
+   *          The ID of the slot the token resides in.
+   * @param interceptor
+   *          The interceptor to add.
+   */
+  public void addSessionInterceptor(long slotID,
+      SessionInterceptor interceptor) {
+    Util.requireNonNull("interceptor", interceptor);
+    synchronized (sessionInterceptorChains) {
+      SessionInterceptorChain chain = getSessionInterceptorChain(slotID);
+      chain.update(sessionInterceptors, SessionInterceptorChain.add(
+          chain.getTokenInterceptors(), interceptor));
+    }
+  }
+
+  /**
+   * Removes an interceptor added by
+   * {@link #addSessionInterceptor(long, SessionInterceptor)}.
+   *
+   * @param slotID
+   *          The ID of the slot the token resides in.
+   * @param interceptor
+   *          The interceptor to remove.
+   */
+  public void removeSessionInterceptor(long slotID,
+      SessionInterceptor interceptor) {
+    synchronized (sessionInterceptorChains) {
+      SessionInterceptorChain chain = getSessionInterceptorChain(slotID);
+      chain.update(sessionInterceptors, SessionInterceptorChain.remove(
+          chain.getTokenInterceptors(), interceptor));
+    }
+  }
+
+  /**
+   * Gets the session interceptor chain of the token in the given slot. The
+   * chain is created on first access.
+   *
+   * @param slotID
+   *          The ID of the slot the token resides in.
+   * @return The chain, never null.
+   */
+  SessionInterceptorChain getSessionInterceptorChain(long slotID) {
+    SessionInterceptorChain chain = sessionInterceptorChains.get(slotID);
+    if (chain == null) {
+      synchronized (sessionInterceptorChains) {
+        chain = sessionInterceptorChains.get(slotID);
+        if (chain == null) {
+          chain = new SessionInterceptorChain();
+          chain.update(sessionInterceptors, SessionInterceptorChain.EMPTY);
+          sessionInterceptorChains.put(slotID, chain);
+        }
+      }
+    }
+    return chain;
+  }
+
   /**
    * Returns the string representation of this object.
    *
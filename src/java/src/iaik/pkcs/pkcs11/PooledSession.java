@@ -0,0 +1,152 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A session borrowed from a {@link SessionPool}. The application performs its
+ * operations with {@link #getSession()} and returns the session by calling
+ * {@link #close()}, preferably with try-with-resources:
+ * <pre><code>
+ *   try (PooledSession pooled = pool.borrowSession(false)) {
+ *     Session session = pooled.getSession();
+ *     session.signInit(mechanism, key);
+ *     signature = session.sign(data);
+ *   }
+ * </code></pre>
+ * If the session turned out to be unusable, the application should call
+ * {@link #invalidate()} instead; the pool then closes the session and opens
+ * a new one on demand.
+ * <p>
+ * After the session has been returned, neither this object nor the session
+ * may be used anymore.
+ *
+ * @version 1.0
+ */
+public class PooledSession implements AutoCloseable {
+
+  private static final AtomicIntegerFieldUpdater<PooledSession> BORROWED =
+      AtomicIntegerFieldUpdater.newUpdater(PooledSession.class, "borrowed");
+
+  private final SessionPool pool;
+
+  private final Session session;
+
+  private final boolean rwSession;
+
+  /**
+   * The time when this session was returned to the pool the last time, or
+   * has been validated the last time.
+   */
+  volatile long lastUsed;
+
+  /**
+   * 1, if the session is currently borrowed; 0 otherwise.
+   */
+  private volatile int borrowed;
+
+  PooledSession(SessionPool pool, Session session, boolean rwSession) {
+    this.pool = pool;
+    this.session = session;
+    this.rwSession = rwSession;
+    this.lastUsed = System.currentTimeMillis();
+  }
+
+  void setBorrowed() {
+    borrowed = 1;
+  }
+
+  boolean clearBorrowed() {
+    return BORROWED.compareAndSet(this, 1, 0);
+  }
+
+  /**
+   * Get the pooled session.
+   *
+   * @return The session.
+   */
+  public Session getSession() {
+    return session;
+  }
+
+  /**
+   * Check, if this is a read-write session.
+   *
+   * @return True, if this is a read-write session; false, if this is a
+   *         read-only session.
+   */
+  public boolean isRwSession() {
+    return rwSession;
+  }
+
+  /**
+   * Returns the session to the pool. Calling this method more than once has
+   * no effect.
+   */
+  @Override
+  public void close() {
+    pool.returnSession(this, true);
+  }
+
+  /**
+   * Returns the session to the pool and marks it as unusable; the pool
+   * closes it. Calling this method after {@link #close()} has no effect.
+   */
+  public void invalidate() {
+    pool.returnSession(this, false);
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    return Util.concatObjects("Pooled ", rwSession ? "RW" : "RO",
+        " Session Handle: 0x", Long.toHexString(session.getSessionHandle()),
+        ", borrowed: ", borrowed == 1);
+  }
+
+}
@@ -0,0 +1,238 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.parameters.AesCtrParameters;
+import iaik.pkcs.pkcs11.parameters.CCMParameters;
+import iaik.pkcs.pkcs11.parameters.GCMParameters;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.parameters.Parameters;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+
+/**
+ * A mechanism whose conversion to the CK_MECHANISM of the underlying wrapper
+ * has been done once in advance. Applications which initialize many
+ * operations with the same mechanism and parameters should prepare the
+ * mechanism once and pass it to the *Init methods of {@link Session}; e.g.
+ * <pre><code>
+ *   PreparedMechanism pss = new PreparedMechanism(mechanism);
+ *   ...
+ *   session.signInit(pss, key);
+ * </code></pre>
+ * If only the initialization vector or nonce changes per operation, use
+ * {@link #withIv(byte[])} to derive a prepared mechanism with the new IV; the
+ * other parameters are not converted again.
+ * <p>
+ * Objects of this class are immutable and may be used concurrently by several
+ * sessions. Changes to the mechanism or its parameters after preparation are
+ * not reflected: the initialization vectors and the AEAD parameters are
+ * copied. The CK_MECHANISM of the AEAD mechanisms (GCM and CCM) is not
+ * shared, since newer JDKs keep native memory in it during the operation; it
+ * is created on each use from the copied parameters.
+ *
+ * @version 1.0
+ */
+public class PreparedMechanism {
+
+  private final long mechanismCode;
+
+  private final Parameters parameters;
+
+  /**
+   * The converted mechanism, null if it must be created on each use.
+   */
+  private final CK_MECHANISM ckMechanism;
+
+  /**
+   * Prepares the given mechanism.
+   *
+   * @param mechanism
+   *          The mechanism to prepare.
+   * @exception IllegalArgumentException
+   *              If the parameters of the mechanism are not supported.
+   */
+  public PreparedMechanism(Mechanism mechanism) {
+    Util.requireNonNull("mechanism", mechanism);
+    this.mechanismCode = mechanism.getMechanismCode();
+    this.parameters = copy(mechanism.getParameters());
+    if (isAead(parameters)) {
+      // check that the mechanism can be converted
+      Session.toCkMechanism(mechanismCode, parameters);
+      this.ckMechanism = null;
+    } else {
+      this.ckMechanism = Session.toCkMechanism(mechanismCode, parameters);
+    }
+  }
+
+  private PreparedMechanism(long mechanismCode, Parameters parameters,
+      CK_MECHANISM ckMechanism) {
+    this.mechanismCode = mechanismCode;
+    this.parameters = parameters;
+    this.ckMechanism = ckMechanism;
+  }
+
+  /**
+   * Copies the parameters which hold an initialization vector, so that
+   * changing the given ones or the arrays they refer to does not change the
+   * prepared mechanism. Other parameters are converted once and not read
+   * again, hence they are not copied.
+   */
+  private static Parameters copy(Parameters parameters) {
+    if (parameters instanceof InitializationVectorParameters) {
+      byte[] iv = ((InitializationVectorParameters) parameters)
+          .getInitializationVector();
+      return new InitializationVectorParameters(iv.clone());
+    } else if (parameters instanceof AesCtrParameters) {
+      return new AesCtrParameters(
+          ((AesCtrParameters) parameters).getCb().clone());
+    } else if (parameters instanceof GCMParameters) {
+      GCMParameters params = (GCMParameters) parameters;
+      return new GCMParameters(params.getTagLen(), clone(params.getIv()),
+          clone(params.getAad()));
+    } else if (parameters instanceof CCMParameters) {
+      CCMParameters params = (CCMParameters) parameters;
+      return new CCMParameters(params.getTagLen(), clone(params.getIv()),
+          clone(params.getAad()), params.getDataLen());
+    } else {
+      return parameters;
+    }
+  }
+
+  private static byte[] clone(byte[] bytes) {
+    return (bytes == null) ? null : bytes.clone();
+  }
+
+  private static boolean isAead(Parameters parameters) {
+    return parameters instanceof GCMParameters
+        || parameters instanceof CCMParameters;
+  }
+
+  /**
+   * Derives a prepared mechanism which differs from this one only in the
+   * initialization vector (or nonce, or counter block). Supported are
+   * mechanisms with {@link InitializationVectorParameters},
+   * {@link AesCtrParameters}, {@link GCMParameters} and
+   * {@link CCMParameters}.
+   *
+   * @param iv
+   *          The new initialization vector, nonce, or counter block. It is
+   *          copied.
+   * @return The prepared mechanism with the new initialization vector.
+   * @exception IllegalStateException
+   *              If this mechanism has no parameters or its parameters have
+   *              no initialization vector.
+   */
+  public PreparedMechanism withIv(byte[] iv) {
+    Util.requireNonNull("iv", iv);
+    iv = iv.clone();
+    if (parameters == null) {
+      throw new IllegalStateException("Mechanism "
+          + Functions.mechanismCodeToString(mechanismCode)
+          + " has no parameters");
+    } else if (parameters instanceof InitializationVectorParameters) {
+      return new PreparedMechanism(mechanismCode,
+          new InitializationVectorParameters(iv),
+          new CK_MECHANISM(mechanismCode, iv));
+    } else if (parameters instanceof AesCtrParameters) {
+      AesCtrParameters params = new AesCtrParameters(iv);
+      return new PreparedMechanism(mechanismCode, params,
+          new CK_MECHANISM(mechanismCode, params.getPKCS11ParamsObject()));
+    } else if (parameters instanceof GCMParameters) {
+      GCMParameters params = (GCMParameters) parameters;
+      return new PreparedMechanism(mechanismCode,
+          new GCMParameters(params.getTagLen(), iv, params.getAad()), null);
+    } else if (parameters instanceof CCMParameters) {
+      CCMParameters params = (CCMParameters) parameters;
+      return new PreparedMechanism(mechanismCode,
+          new CCMParameters(params.getTagLen(), iv, params.getAad(),
+              params.getDataLen()), null);
+    } else {
+      throw new IllegalStateException("Parameters "
+          + parameters.getClass().getName() + " have no IV");
+    }
+  }
+
+  /**
+   * Get the code of the mechanism as defined in PKCS11Constants.
+   *
+   * @return The mechanism code.
+   */
+  public long getMechanismCode() {
+    return mechanismCode;
+  }
+
+  /**
+   * Get the parameters of the mechanism. The parameters which hold an
+   * initialization vector are copied, so that modifying them does not modify
+   * this object.
+   *
+   * @return The parameters, may be null.
+   */
+  public Parameters getParameters() {
+    return copy(parameters);
+  }
+
+  /**
+   * Get the mechanism to be passed to the underlying wrapper.
+   *
+   * @return The CK_MECHANISM object.
+   */
+  CK_MECHANISM getCkMechanism() {
+    return (ckMechanism != null) ? ckMechanism
+        : Session.toCkMechanism(mechanismCode, parameters);
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    return Util.concatObjectsCap(128,
+      "    Mechanism: ", Functions.mechanismCodeToString(mechanismCode),
+      "\n    Parameters:\n", parameters);
+  }
+
+}
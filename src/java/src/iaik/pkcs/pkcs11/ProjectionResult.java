@@ -0,0 +1,268 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.util.Arrays;
+
+/**
+ * The result of a projection query, see
+ * {@link Session#findObjectAttributes(iaik.pkcs.pkcs11.objects.PKCS11Object,
+ * long[])}. The result is stored column-wise: one array of object handles,
+ * and for each requested attribute type one array of values in the same
+ * order. A value is the plain value as returned by the underlying wrapper;
+ * e.g. a byte[] for CKA_ID, a char[] for CKA_LABEL, a Boolean for CKA_TOKEN
+ * and a Long for CKA_KEY_TYPE. A value is null if the object does not have
+ * the attribute, or if the attribute is sensitive; {@link #getStatus(int,
+ * long)} tells which of them applies.
+ * <p>
+ * Objects of this class are not modified after creation.
+ *
+ * @version 1.0
+ */
+public class ProjectionResult {
+
+  /**
+   * The status of an attribute of a found object.
+   */
+  public enum Status {
+
+    /**
+     * The attribute has been read.
+     */
+    PRESENT,
+
+    /**
+     * The token answered CKR_ATTRIBUTE_TYPE_INVALID; i.e. the object does
+     * not have the attribute.
+     */
+    INVALID,
+
+    /**
+     * The token answered CKR_ATTRIBUTE_SENSITIVE; i.e. the object has the
+     * attribute, but does not reveal its value.
+     */
+    SENSITIVE
+
+  }
+
+  private final long[] objectHandles;
+
+  private final long[] attributeTypes;
+
+  private final Object[][] columns;
+
+  private final Status[][] statuses;
+
+  /**
+   * Constructor taking the handles, the attribute types, the values and
+   * their statuses.
+   *
+   * @param objectHandles
+   *          The object handles.
+   * @param attributeTypes
+   *          The attribute types.
+   * @param columns
+   *          For each attribute type, the values of all objects.
+   * @param statuses
+   *          For each attribute type, the statuses of the attribute of all
+   *          objects.
+   */
+  protected ProjectionResult(long[] objectHandles, long[] attributeTypes,
+      Object[][] columns, Status[][] statuses) {
+    this.objectHandles = Util.requireNonNull("objectHandles", objectHandles);
+    this.attributeTypes = Util.requireNonNull("attributeTypes", attributeTypes);
+    this.columns = Util.requireNonNull("columns", columns);
+    this.statuses = Util.requireNonNull("statuses", statuses);
+  }
+
+  /**
+   * Get the number of found objects.
+   *
+   * @return The number of found objects.
+   */
+  public int size() {
+    return objectHandles.length;
+  }
+
+  /**
+   * Get the handle of the object in the given row.
+   *
+   * @param row
+   *          The index of the object, starting with 0.
+   * @return The object handle.
+   */
+  public long getObjectHandle(int row) {
+    return objectHandles[row];
+  }
+
+  /**
+   * Get the handles of all found objects.
+   *
+   * @return A copy of the object handles.
+   */
+  public long[] getObjectHandles() {
+    return objectHandles.clone();
+  }
+
+  /**
+   * Get the requested attribute types, in the order of the columns.
+   *
+   * @return A copy of the attribute types.
+   */
+  public long[] getAttributeTypes() {
+    return attributeTypes.clone();
+  }
+
+  /**
+   * Get the value of the given attribute of the object in the given row.
+   *
+   * @param row
+   *          The index of the object, starting with 0.
+   * @param attributeType
+   *          The attribute type; e.g. PKCS11Constants.CKA_ID. Must be one of
+   *          the requested types.
+   * @return The value, or null if the object does not have the attribute or
+   *         the attribute is sensitive.
+   */
+  public Object getValue(int row, long attributeType) {
+    return columns[columnIndex(attributeType)][row];
+  }
+
+  /**
+   * Get the status of the given attribute of the object in the given row.
+   *
+   * @param row
+   *          The index of the object, starting with 0.
+   * @param attributeType
+   *          The attribute type; e.g. PKCS11Constants.CKA_VALUE. Must be one
+   *          of the requested types.
+   * @return Whether the attribute has been read, is not present or is
+   *         sensitive.
+   */
+  public Status getStatus(int row, long attributeType) {
+    return statuses[columnIndex(attributeType)][row];
+  }
+
+  /**
+   * Get the value of a byte array attribute; e.g. CKA_ID or CKA_VALUE.
+   *
+   * @param row
+   *          The index of the object, starting with 0.
+   * @param attributeType
+   *          The attribute type.
+   * @return The value, or null.
+   */
+  public byte[] getByteArrayValue(int row, long attributeType) {
+    return (byte[]) getValue(row, attributeType);
+  }
+
+  /**
+   * Get the value of a char array attribute; e.g. CKA_LABEL.
+   *
+   * @param row
+   *          The index of the object, starting with 0.
+   * @param attributeType
+   *          The attribute type.
+   * @return The value, or null.
+   */
+  public char[] getCharArrayValue(int row, long attributeType) {
+    return (char[]) getValue(row, attributeType);
+  }
+
+  /**
+   * Get the value of a boolean attribute; e.g. CKA_PRIVATE.
+   *
+   * @param row
+   *          The index of the object, starting with 0.
+   * @param attributeType
+   *          The attribute type.
+   * @return The value, or null.
+   */
+  public Boolean getBooleanValue(int row, long attributeType) {
+    return (Boolean) getValue(row, attributeType);
+  }
+
+  /**
+   * Get the value of a long attribute; e.g. CKA_KEY_TYPE.
+   *
+   * @param row
+   *          The index of the object, starting with 0.
+   * @param attributeType
+   *          The attribute type.
+   * @return The value, or null.
+   */
+  public Long getLongValue(int row, long attributeType) {
+    return (Long) getValue(row, attributeType);
+  }
+
+  private int columnIndex(long attributeType) {
+    for (int i = 0; i < attributeTypes.length; i++) {
+      if (attributeTypes[i] == attributeType) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("attribute type 0x"
+        + Long.toHexString(attributeType) + " has not been requested");
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(100);
+    sb.append("Objects: ").append(objectHandles.length);
+    sb.append("\nAttribute types: ");
+    for (int i = 0; i < attributeTypes.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append("0x").append(Long.toHexString(attributeTypes[i]));
+    }
+    sb.append("\nObject handles: ").append(Arrays.toString(objectHandles));
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,646 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import iaik.pkcs.pkcs11.objects.Attribute;
+import iaik.pkcs.pkcs11.objects.BooleanAttribute;
+import iaik.pkcs.pkcs11.objects.GenericTemplate;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_DATE;
+
+/**
+ * A persistent cache of the public token objects (CKA_TOKEN true and
+ * CKA_PRIVATE false) of a token, such as certificates and public keys, which
+ * makes the enumeration of thousands of objects at startup fast. The handle
+ * and the values of all readable attributes of each object are stored in a
+ * compact binary file in the given directory. The file is named after a hash
+ * of the model, label and serial number of the token, which are stored in
+ * the file as well.
+ * <p>
+ * {@link #refresh(Session)} finds the handles of the public objects, loads
+ * the file on the first call, and validates the cached objects by reading
+ * a sample of them from the token and comparing the checksums of their
+ * values. The sample rotates through the cached objects from one refresh to
+ * the next. If all checksums match, only the objects whose handles are not
+ * cached are read from the token, and the objects which no longer exist are
+ * dropped; otherwise all objects are read again. The file is rewritten if
+ * anything has changed. A missing, corrupt or foreign file is ignored.
+ * <pre><code>
+ *   PublicObjectCache cache = new PublicObjectCache(Paths.get("cache"));
+ *   cache.refresh(session);
+ *   for (PKCS11Object object : cache.getObjects()) {
+ *     ...
+ *   }
+ * </code></pre>
+ * Modifications of the attributes of an object which keep its handle are
+ * only noticed when the object is in the sample, that is within the number
+ * of cached objects divided by the sample size refreshes. Attribute values
+ * of types other than the ones of the attribute classes of this wrapper are
+ * not stored; the objects with such values are read from the token on each
+ * startup.
+ * <p>
+ * This class is thread-safe; lookups do not block while the cache is
+ * refreshed.
+ *
+ * @version 1.0
+ */
+public class PublicObjectCache {
+
+  /**
+   * A cached object.
+   */
+  private static final class Entry {
+
+    private final long objectHandle;
+
+    private final int checksum;
+
+    /**
+     * The encoded attribute values, or null if they cannot be stored.
+     */
+    private final byte[] values;
+
+    private PKCS11Object object;
+
+    private Entry(long objectHandle, int checksum, byte[] values,
+        PKCS11Object object) {
+      this.objectHandle = objectHandle;
+      this.checksum = checksum;
+      this.values = values;
+      this.object = object;
+    }
+
+  }
+
+  private static final int MAGIC = 0x50313143; // P11C
+
+  private static final int VERSION = 1;
+
+  private static final byte TAG_NULL = 0;
+
+  private static final byte TAG_BOOLEAN = 1;
+
+  private static final byte TAG_LONG = 2;
+
+  private static final byte TAG_BYTES = 3;
+
+  private static final byte TAG_CHARS = 4;
+
+  private static final byte TAG_DATE = 5;
+
+  private static final byte TAG_LONGS = 6;
+
+  private static final byte TAG_ATTRIBUTES = 7;
+
+  private final Path directory;
+
+  private volatile int sampleSize = 8;
+
+  /**
+   * The file of the token of the last refresh, or null.
+   */
+  private Path file;
+
+  /**
+   * The position in the cached objects of the next validation sample.
+   */
+  private int sampleOffset;
+
+  /**
+   * The cached objects by handle. Replaced as a whole on each refresh.
+   */
+  private volatile Map<Long, Entry> entries =
+      Collections.<Long, Entry>emptyMap();
+
+  /**
+   * Creates a new cache which stores its files in the given directory.
+   *
+   * @param directory
+   *          The directory of the cache files. It is created if necessary.
+   */
+  public PublicObjectCache(Path directory) {
+    this.directory = Util.requireNonNull("directory", directory);
+  }
+
+  /**
+   * Gets the number of cached objects which are read from the token to
+   * validate the cache on each refresh.
+   *
+   * @return The sample size.
+   */
+  public int getSampleSize() {
+    return sampleSize;
+  }
+
+  /**
+   * Sets the number of cached objects which are read from the token to
+   * validate the cache on each refresh. Defaults to 8.
+   *
+   * @param sampleSize
+   *          The sample size; 0 to trust the cache without validation.
+   */
+  public void setSampleSize(int sampleSize) {
+    if (sampleSize < 0) {
+      throw new IllegalArgumentException("sampleSize must not be negative");
+    }
+    this.sampleSize = sampleSize;
+  }
+
+  /**
+   * Gets the file of the token of the last refresh.
+   *
+   * @return The file, or null if the cache has not been refreshed.
+   */
+  public synchronized Path getFile() {
+    return file;
+  }
+
+  /**
+   * Finds the public objects of the token and updates the cache and its
+   * file, see the description of this class.
+   *
+   * @param session
+   *          The session used to find and read the objects. No other find
+   *          operation may be active in this session.
+   * @return The number of objects read from the token, including the
+   *         validation sample.
+   * @exception TokenException
+   *              If finding or reading the objects failed.
+   * @exception IOException
+   *              If writing the file failed.
+   */
+  public synchronized int refresh(Session session)
+      throws TokenException, IOException {
+    Util.requireNonNull("session", session);
+
+    TokenInfo tokenInfo = session.getToken().getTokenInfo();
+    String[] tokenKey = {tokenInfo.getModel(), tokenInfo.getLabel(),
+        tokenInfo.getSerialNumber()};
+    Path tokenFile = directory.resolve(fileName(tokenKey));
+
+    Map<Long, Entry> oldEntries = entries;
+    boolean changed = false;
+    if (!tokenFile.equals(file)) {
+      // first refresh, or a different token
+      file = tokenFile;
+      oldEntries = load(tokenFile, tokenKey);
+      changed = oldEntries.isEmpty();
+    }
+
+    long[] handles = findHandles(session);
+    List<Entry> known = new ArrayList<>(handles.length);
+    for (long handle : handles) {
+      Entry entry = oldEntries.get(handle);
+      if (entry != null) {
+        known.add(entry);
+      }
+    }
+    if (known.size() != oldEntries.size()) {
+      // objects have been destroyed
+      changed = true;
+    }
+
+    Map<Long, Entry> newEntries = new HashMap<>(handles.length * 4 / 3 + 1);
+    int readCount = 0;
+
+    int samples = Math.min(sampleSize, known.size());
+    boolean stale = false;
+    for (int i = 0; i < samples; i++) {
+      Entry entry = known.get((sampleOffset + i) % known.size());
+      Entry readEntry = read(session, entry.objectHandle);
+      readCount++;
+      newEntries.put(entry.objectHandle, readEntry);
+      if (readEntry.checksum != entry.checksum) {
+        stale = true;
+      }
+    }
+
+    if (samples > 0) {
+      sampleOffset = (sampleOffset + samples) % known.size();
+    }
+
+    if (stale) {
+      changed = true;
+    } else {
+      for (Entry entry : known) {
+        if (!newEntries.containsKey(entry.objectHandle)) {
+          newEntries.put(entry.objectHandle, entry);
+        }
+      }
+    }
+
+    for (long handle : handles) {
+      if (!newEntries.containsKey(handle)) {
+        newEntries.put(handle, read(session, handle));
+        readCount++;
+        changed = true;
+      }
+    }
+
+    for (Entry entry : newEntries.values()) {
+      if (entry.object == null) {
+        entry.object = PKCS11Object.getInstance(session, entry.objectHandle,
+            decode(entry.values));
+      }
+    }
+
+    entries = newEntries;
+    if (changed) {
+      save(tokenFile, tokenKey, newEntries);
+    }
+    return readCount;
+  }
+
+  /**
+   * Gets the number of cached objects.
+   *
+   * @return The number of objects.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Gets all cached objects.
+   *
+   * @return The objects, never null.
+   */
+  public List<PKCS11Object> getObjects() {
+    Map<Long, Entry> snapshot = entries;
+    List<PKCS11Object> objects = new ArrayList<>(snapshot.size());
+    for (Entry entry : snapshot.values()) {
+      objects.add(entry.object);
+    }
+    return Collections.unmodifiableList(objects);
+  }
+
+  /**
+   * Gets the cached object with the given handle.
+   *
+   * @param objectHandle
+   *          The object handle.
+   * @return The object, or null if not cached.
+   */
+  public PKCS11Object getObject(long objectHandle) {
+    Entry entry = entries.get(objectHandle);
+    return (entry == null) ? null : entry.object;
+  }
+
+  private static long[] findHandles(Session session) throws TokenException {
+    GenericTemplate template = new GenericTemplate();
+    BooleanAttribute token = new BooleanAttribute(Attribute.TOKEN);
+    token.setBooleanValue(Boolean.TRUE);
+    template.addAttribute(token);
+    BooleanAttribute privateObject = new BooleanAttribute(Attribute.PRIVATE);
+    privateObject.setBooleanValue(Boolean.FALSE);
+    template.addAttribute(privateObject);
+
+    long[] handles = new long[0];
+    session.findObjectsInit(template);
+    try {
+      while (true) {
+        long[] found = session.findObjectHandles(1000);
+        if (found.length == 0) {
+          break;
+        }
+        int len = handles.length;
+        handles = Arrays.copyOf(handles, len + found.length);
+        System.arraycopy(found, 0, handles, len, found.length);
+      }
+    } finally {
+      session.findObjectsFinal();
+    }
+    return handles;
+  }
+
+  private static Entry read(Session session, long objectHandle)
+      throws TokenException {
+    PKCS11Object object = PKCS11Object.getInstance(session, objectHandle);
+    byte[] values = encode(PKCS11Object.getSetAttributes(object));
+    return new Entry(objectHandle, (values == null) ? 0 : checksum(values),
+        values, object);
+  }
+
+  private static int checksum(byte[] values) {
+    CRC32 crc = new CRC32();
+    crc.update(values, 0, values.length);
+    return (int) crc.getValue();
+  }
+
+  private static String fileName(String[] tokenKey) {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    for (String value : tokenKey) {
+      md.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+      md.update((byte) 0);
+    }
+
+    byte[] hash = md.digest();
+    StringBuilder sb = new StringBuilder(48);
+    sb.append("pkcs11-");
+    for (int i = 0; i < 16; i++) {
+      sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(hash[i] & 0xF, 16));
+    }
+    return sb.append(".cache").toString();
+  }
+
+  /**
+   * Loads the entries from the given file.
+   *
+   * @return The entries, empty if the file does not exist, is corrupt or
+   *         belongs to another token.
+   */
+  private static Map<Long, Entry> load(Path file, String[] tokenKey) {
+    if (!Files.isRegularFile(file)) {
+      return Collections.emptyMap();
+    }
+
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        return Collections.emptyMap();
+      }
+
+      for (String value : tokenKey) {
+        if (!String.valueOf(value).equals(getString(buffer))) {
+          return Collections.emptyMap();
+        }
+      }
+
+      int count = buffer.getInt();
+      Map<Long, Entry> entries = new HashMap<>(count * 4 / 3 + 1);
+      for (int i = 0; i < count; i++) {
+        long objectHandle = buffer.getLong();
+        int checksum = buffer.getInt();
+        int len = buffer.getInt();
+        if (len < 0 || len > buffer.remaining()) {
+          return Collections.emptyMap();
+        }
+        byte[] values = new byte[len];
+        buffer.get(values);
+        if (checksum(values) != checksum) {
+          return Collections.emptyMap();
+        }
+        entries.put(objectHandle,
+            new Entry(objectHandle, checksum, values, null));
+      }
+      return entries;
+    } catch (IOException | RuntimeException ex) {
+      return Collections.emptyMap();
+    }
+  }
+
+  private static void save(Path file, String[] tokenKey,
+      Map<Long, Entry> entries) throws IOException {
+    List<Entry> storedEntries = new ArrayList<>(entries.size());
+    for (Entry entry : entries.values()) {
+      if (entry.values != null) {
+        storedEntries.add(entry);
+      }
+    }
+
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(
+        64 + storedEntries.size() * 512);
+    DataOutputStream out = new DataOutputStream(bout);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    for (String value : tokenKey) {
+      putString(out, String.valueOf(value));
+    }
+    out.writeInt(storedEntries.size());
+    for (Entry entry : storedEntries) {
+      out.writeLong(entry.objectHandle);
+      out.writeInt(entry.checksum);
+      out.writeInt(entry.values.length);
+      out.write(entry.values);
+    }
+    out.flush();
+
+    Files.createDirectories(file.getParent());
+    Path tmpFile = Files.createTempFile(file.getParent(),
+        file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tmpFile, bout.toByteArray());
+      Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+  /**
+   * Encodes the values of the given attributes.
+   *
+   * @return The encoded values, or null if a value cannot be encoded.
+   */
+  private static byte[] encode(CK_ATTRIBUTE[] attributes) {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bout);
+    try {
+      return encode(out, attributes) ? bout.toByteArray() : null;
+    } catch (IOException ex) {
+      // cannot happen with a ByteArrayOutputStream
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static boolean encode(DataOutputStream out,
+      CK_ATTRIBUTE[] attributes) throws IOException {
+    out.writeInt(attributes.length);
+    for (CK_ATTRIBUTE attribute : attributes) {
+      out.writeLong(attribute.type);
+      Object value = attribute.pValue;
+      if (value == null) {
+        out.writeByte(TAG_NULL);
+      } else if (value instanceof Boolean) {
+        out.writeByte(TAG_BOOLEAN);
+        out.writeBoolean((Boolean) value);
+      } else if (value instanceof Long) {
+        out.writeByte(TAG_LONG);
+        out.writeLong((Long) value);
+      } else if (value instanceof byte[]) {
+        byte[] bytes = (byte[]) value;
+        out.writeByte(TAG_BYTES);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } else if (value instanceof char[]) {
+        out.writeByte(TAG_CHARS);
+        putChars(out, (char[]) value);
+      } else if (value instanceof CK_DATE) {
+        CK_DATE date = (CK_DATE) value;
+        out.writeByte(TAG_DATE);
+        putChars(out, date.year);
+        putChars(out, date.month);
+        putChars(out, date.day);
+      } else if (value instanceof long[]) {
+        long[] longs = (long[]) value;
+        out.writeByte(TAG_LONGS);
+        out.writeInt(longs.length);
+        for (long l : longs) {
+          out.writeLong(l);
+        }
+      } else if (value instanceof CK_ATTRIBUTE[]) {
+        out.writeByte(TAG_ATTRIBUTES);
+        if (!encode(out, (CK_ATTRIBUTE[]) value)) {
+          return false;
+        }
+      } else {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static CK_ATTRIBUTE[] decode(byte[] values) {
+    return decode(ByteBuffer.wrap(values));
+  }
+
+  private static CK_ATTRIBUTE[] decode(ByteBuffer buffer) {
+    CK_ATTRIBUTE[] attributes = new CK_ATTRIBUTE[buffer.getInt()];
+    for (int i = 0; i < attributes.length; i++) {
+      CK_ATTRIBUTE attribute = new CK_ATTRIBUTE();
+      attribute.type = buffer.getLong();
+      byte tag = buffer.get();
+      switch (tag) {
+        case TAG_NULL:
+          break;
+        case TAG_BOOLEAN:
+          attribute.pValue = buffer.get() != 0;
+          break;
+        case TAG_LONG:
+          attribute.pValue = buffer.getLong();
+          break;
+        case TAG_BYTES:
+          byte[] bytes = new byte[buffer.getInt()];
+          buffer.get(bytes);
+          attribute.pValue = bytes;
+          break;
+        case TAG_CHARS:
+          attribute.pValue = getChars(buffer);
+          break;
+        case TAG_DATE:
+          attribute.pValue = new CK_DATE(getChars(buffer), getChars(buffer),
+              getChars(buffer));
+          break;
+        case TAG_LONGS:
+          long[] longs = new long[buffer.getInt()];
+          for (int j = 0; j < longs.length; j++) {
+            longs[j] = buffer.getLong();
+          }
+          attribute.pValue = longs;
+          break;
+        case TAG_ATTRIBUTES:
+          attribute.pValue = decode(buffer);
+          break;
+        default:
+          throw new IllegalArgumentException("invalid tag " + tag);
+      }
+      attributes[i] = attribute;
+    }
+    return attributes;
+  }
+
+  private static void putChars(DataOutputStream out, char[] chars)
+      throws IOException {
+    if (chars == null) {
+      out.writeInt(-1);
+      return;
+    }
+
+    out.writeInt(chars.length);
+    for (char c : chars) {
+      out.writeChar(c);
+    }
+  }
+
+  private static char[] getChars(ByteBuffer buffer) {
+    int len = buffer.getInt();
+    if (len == -1) {
+      return null;
+    }
+
+    char[] chars = new char[len];
+    for (int i = 0; i < len; i++) {
+      chars[i] = buffer.getChar();
+    }
+    return chars;
+  }
+
+  private static void putString(DataOutputStream out, String value)
+      throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
@@ -42,12 +42,17 @@
 
 package iaik.pkcs.pkcs11;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Vector;
-
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import iaik.pkcs.pkcs11.SessionInterceptor.Invocation;
+import iaik.pkcs.pkcs11.SessionInterceptor.Operation;
+import iaik.pkcs.pkcs11.objects.Attribute;
 import iaik.pkcs.pkcs11.objects.Key;
 import iaik.pkcs.pkcs11.objects.KeyPair;
 import iaik.pkcs.pkcs11.objects.PKCS11Object;
@@ -80,6 +85,7 @@ import iaik.pkcs.pkcs11.parameters.TLSPRFParameters;
 import iaik.pkcs.pkcs11.parameters.VersionParameters;
 import iaik.pkcs.pkcs11.parameters.X942DH1KeyDerivationParameters;
 import iaik.pkcs.pkcs11.parameters.X942DH2KeyDerivationParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
@@ -90,7 +96,6 @@ import sun.security.pkcs11.wrapper.CK_SSL3_KEY_MAT_OUT;
 import sun.security.pkcs11.wrapper.CK_SSL3_KEY_MAT_PARAMS;
 import sun.security.pkcs11.wrapper.CK_SSL3_MASTER_KEY_DERIVE_PARAMS;
 import sun.security.pkcs11.wrapper.CK_VERSION;
-import sun.security.pkcs11.wrapper.PKCS11;
 
 /**
  * Session objects are used to perform cryptographic operations on a token. The
@@ -200,28 +205,21 @@ public class Session {
 
   }
 
-  private static final Method encrypt0;
-
-  private static final Method encrypt1;
-
-  private static final Method decrypt0;
-
-  private static final Method decrypt1;
+  private static final MethodType TYPE_NEW_CK_MECHANISM =
+      MethodType.methodType(CK_MECHANISM.class, long.class, Object.class);
 
-  private static final Field field_CK_MECHANISM_pParameter;
+  private static final MethodHandle setter_CK_MECHANISM_pssParameter;
 
-  private static final Method method_CK_MECHANISM_setParameter;
+  private static final MethodHandle constructor_CK_MECHANISM_CCM;
 
-  private static final Constructor<?> constructor_CK_MECHANISM_CCM;
+  private static final MethodHandle constructor_CK_MECHANISM_GCM;
 
-  private static final Constructor<?> constructor_CK_MECHANISM_GCM;
+  private static final MethodHandle constructor_CK_MECHANISM_TLS12KeyMat;
 
-  private static final Constructor<?> constructor_CK_MECHANISM_TLS12KeyMat;
-
-  private static final Constructor<?>
+  private static final MethodHandle
       constructor_CK_MECHANISM_TLS12MasterKeyDerive;
 
-  private static final Constructor<?> constructor_CK_MECHANISM_TLSMac;
+  private static final MethodHandle constructor_CK_MECHANISM_TLSMac;
 
   /**
    * A reference to the underlying PKCS#11 module to perform the operations.
@@ -231,7 +229,7 @@ public class Session {
   /**
    * A reference to the underlying PKCS#11 module to perform the operations.
    */
-  private PKCS11 pkcs11Module;
+  private PKCS11Backend pkcs11Module;
 
   /**
    * The session handle to perform the operations with.
@@ -243,36 +241,41 @@ public class Session {
    */
   private Token token;
 
-  static {
-    Class<?> clazz = PKCS11.class;
-    decrypt0 = Util.getMethod(clazz, "C_Decrypt",
-        long.class, byte[].class, int.class, int.class,
-        byte[].class, int.class, int.class);
-
-    encrypt0 = Util.getMethod(clazz, "C_Encrypt",
-        long.class, byte[].class, int.class, int.class,
-        byte[].class, int.class, int.class);
-
-    if (decrypt0 == null) {
-      decrypt1 = Util.getMethod(clazz, "C_Decrypt",
-          long.class, long.class, byte[].class, int.class, int.class,
-          long.class, byte[].class, int.class, int.class);
-    } else {
-      decrypt1 = null;
-    }
+  /**
+   * True, if the returned objects read their attributes on first access.
+   */
+  private volatile boolean deferAttributeReading;
 
-    if (encrypt0 == null) {
-      encrypt1 = Util.getMethod(clazz, "C_Encrypt",
-          long.class, long.class, byte[].class, int.class, int.class,
-          long.class, byte[].class, int.class, int.class);
-    } else {
-      encrypt1 = null;
-    }
+  /**
+   * The interceptors of the sessions of the token.
+   */
+  private final SessionInterceptorChain interceptorChain;
 
-    clazz = CK_MECHANISM.class;
-    field_CK_MECHANISM_pParameter = Util.getField(clazz, "pParameter");
-    method_CK_MECHANISM_setParameter = Util.getMethod(clazz, "setParameter",
-        CK_RSA_PKCS_PSS_PARAMS.class);
+  /**
+   * The mechanism codes given to the init operations, indexed by the ordinal
+   * of the init operation.
+   */
+  private final long[] initMechanisms = new long[OPERATION_COUNT];
+
+  /**
+   * The key handles given to the init operations, indexed by the ordinal of
+   * the init operation.
+   */
+  private final long[] initKeyHandles = new long[OPERATION_COUNT];
+
+  private static final int OPERATION_COUNT = Operation.values().length;
+
+  static {
+    Class<?> clazz = CK_MECHANISM.class;
+    MethodHandle setter = Util.unreflectSetter(
+        Util.getField(clazz, "pParameter"));
+    if (setter == null) {
+      setter = Util.unreflect(Util.getMethod(clazz, "setParameter",
+          CK_RSA_PKCS_PSS_PARAMS.class));
+    }
+    setter_CK_MECHANISM_pssParameter = (setter == null) ? null
+        : setter.asType(MethodType.methodType(void.class, CK_MECHANISM.class,
+            CK_RSA_PKCS_PSS_PARAMS.class));
 
     constructor_CK_MECHANISM_CCM =
         getConstructofOfCK_MECHANISM(CCMParameters.CLASS_CK_PARAMS);
@@ -292,7 +295,7 @@ public class Session {
         getConstructofOfCK_MECHANISM(TLSMacParameters.CLASS_CK_PARAMS);
   }
 
-  private static Constructor<?> getConstructofOfCK_MECHANISM(
+  private static MethodHandle getConstructofOfCK_MECHANISM(
       String paramsClassName) {
     Class<?> paramsClass;
     try {
@@ -301,7 +304,10 @@ public class Session {
       return null;
     }
 
-    return Util.getConstructor(CK_MECHANISM.class, long.class, paramsClass);
+    MethodHandle constructor = Util.unreflectConstructor(
+        Util.getConstructor(CK_MECHANISM.class, long.class, paramsClass));
+    return (constructor == null) ? null
+        : constructor.asType(TYPE_NEW_CK_MECHANISM);
   }
 
   /**
@@ -315,8 +321,10 @@ public class Session {
   protected Session(Token token, long sessionHandle) {
     this.token = Util.requireNonNull("token", token);
     this.module = token.getSlot().getModule();
-    this.pkcs11Module = module.getPKCS11Module();
+    this.pkcs11Module = module.getBackend();
     this.sessionHandle = sessionHandle;
+    this.interceptorChain = module.getSessionInterceptorChain(
+        token.getTokenID());
   }
 
   /**
@@ -451,6 +459,33 @@ public class Session {
     return token;
   }
 
+  /**
+   * Sets whether the objects returned by createObject, copyObject,
+   * getAttributeValues, findObjects, generateKey, generateKeyPair, unwrapKey
+   * and deriveKey read their attributes on the first access instead of
+   * immediately. Then only the object handle and the attributes which
+   * determine the class of the object are read; see
+   * {@link PKCS11Object#getInstance(Session, long, boolean)}. This session
+   * must remain open until the attributes are read. Default is false.
+   *
+   * @param deferAttributeReading
+   *          True to defer reading the attributes of returned objects.
+   */
+  public void setDeferAttributeReading(boolean deferAttributeReading) {
+    this.deferAttributeReading = deferAttributeReading;
+  }
+
+  /**
+   * Checks whether the returned objects read their attributes on the first
+   * access.
+   *
+   * @return True, if reading the attributes is deferred.
+   * @see #setDeferAttributeReading(boolean)
+   */
+  public boolean isDeferAttributeReading() {
+    return deferAttributeReading;
+  }
+
   /**
    * Get the current operation state. This state can be used later to restore
    * the operation to exactly this state.
@@ -519,11 +554,16 @@ public class Session {
   public void login(boolean userType, char[] pin) throws TokenException {
     long tmpUserType = (userType == UserType.SO)
         ? PKCS11Constants.CKU_SO : PKCS11Constants.CKU_USER;
+    Invocation invocation = before(Operation.LOGIN, 0);
     try {
       pkcs11Module.C_Login(sessionHandle, tmpUserType, pin);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
+    clearKeyHandles();
   }
 
   /**
@@ -541,11 +581,16 @@ public class Session {
    *              If login fails.
    */
   public void login(long userType, char[] pin) throws TokenException {
+    Invocation invocation = before(Operation.LOGIN, 0);
     try {
       pkcs11Module.C_Login(sessionHandle, userType, pin);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
+    clearKeyHandles();
   }
 
   /**
@@ -555,10 +600,126 @@ public class Session {
    *              If logging out the session fails.
    */
   public void logout() throws TokenException {
+    Invocation invocation = before(Operation.LOGOUT, 0);
     try {
       pkcs11Module.C_Logout(sessionHandle);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, 0);
+    clearKeyHandles();
+  }
+
+  /**
+   * Calls the interceptors before an operation.
+   *
+   * @param operation
+   *          The operation.
+   * @param mechanismCode
+   *          The code of the mechanism of the operation.
+   * @param keyHandle
+   *          The handle of the key of the operation.
+   * @param inputLength
+   *          The length of the input.
+   * @return The invocation, or null if there is no interceptor.
+   * @exception TokenException
+   *              If an interceptor vetoed the operation.
+   */
+  private Invocation before(Operation operation, long mechanismCode,
+      long keyHandle, int inputLength) throws TokenException {
+    SessionInterceptor[] interceptors = interceptorChain.get();
+    if (interceptors == null) {
+      return null;
+    }
+
+    Invocation invocation = new Invocation(interceptors, this, operation,
+        mechanismCode, keyHandle, inputLength);
+    invocation.enter();
+    return invocation;
+  }
+
+  private Invocation before(Operation operation, int inputLength)
+      throws TokenException {
+    return before(operation, Invocation.NONE, Invocation.NONE, inputLength);
+  }
+
+  /**
+   * Calls the interceptors before an operation which continues the
+   * operation started by the given init operation.
+   *
+   * @param operation
+   *          The operation.
+   * @param init
+   *          The init operation.
+   * @param inputLength
+   *          The length of the input.
+   * @return The invocation, or null if there is no interceptor.
+   * @exception TokenException
+   *              If an interceptor vetoed the operation.
+   */
+  private Invocation before(Operation operation, Operation init,
+      int inputLength) throws TokenException {
+    if (interceptorChain.get() == null) {
+      return null;
+    }
+    return before(operation, initMechanisms[init.ordinal()],
+        initKeyHandles[init.ordinal()], inputLength);
+  }
+
+  private static void succeeded(Invocation invocation, int outputLength) {
+    if (invocation != null) {
+      invocation.succeeded(outputLength);
+    }
+  }
+
+  private static <T extends Exception> T failed(Invocation invocation,
+      T ex) {
+    if (invocation != null) {
+      invocation.failed(ex);
+    }
+    return ex;
+  }
+
+  private void initialized(Operation init, long mechanismCode,
+      long keyHandle) {
+    initMechanisms[init.ordinal()] = mechanismCode;
+    initKeyHandles[init.ordinal()] = keyHandle;
+  }
+
+  /**
+   * Gets the key handle cache of the token, if it has been created.
+   */
+  private KeyHandleCache keyHandleCache() {
+    return module.getKeyHandleCacheIfPresent(token.getTokenID());
+  }
+
+  /**
+   * Clears the key handle cache of the token, if it has been created.
+   */
+  private void clearKeyHandles() {
+    KeyHandleCache cache = keyHandleCache();
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Removes the cached key handle lookups for the class of the given object,
+   * which has just been created or modified. If the class is unknown, all
+   * lookups are removed.
+   */
+  private void invalidateKeyHandles(PKCS11Object object) {
+    KeyHandleCache cache = keyHandleCache();
+    if (cache != null) {
+      Long objectClass = (object == null) ? null
+          : object.getObjectClass().getLongValue();
+      if (objectClass == null) {
+        cache.clear();
+      } else {
+        cache.invalidateClass(objectClass);
+      }
     }
   }
 
@@ -602,13 +763,20 @@ public class Session {
       throws TokenException {
     CK_ATTRIBUTE[] ckAttributes = PKCS11Object.getSetAttributes(templateObject);
     long objectHandle;
+    Invocation invocation = before(Operation.CREATE_OBJECT, 0);
     try {
       objectHandle = pkcs11Module.C_CreateObject(sessionHandle, ckAttributes);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
 
-    return PKCS11Object.getInstance(this, objectHandle);
+    PKCS11Object newObject = PKCS11Object.getInstance(this, objectHandle,
+        deferAttributeReading);
+    invalidateKeyHandles(newObject);
+    return newObject;
   }
 
   /**
@@ -634,14 +802,22 @@ public class Session {
     long sourceObjectHandle = sourceObject.getObjectHandle();
     CK_ATTRIBUTE[] ckAttributes = PKCS11Object.getSetAttributes(templateObject);
     long newObjectHandle;
+    Invocation invocation = before(Operation.COPY_OBJECT, Invocation.NONE,
+        sourceObjectHandle, 0);
     try {
       newObjectHandle = pkcs11Module.C_CopyObject(sessionHandle,
           sourceObjectHandle, ckAttributes);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
 
-    return PKCS11Object.getInstance(this, newObjectHandle);
+    PKCS11Object newObject = PKCS11Object.getInstance(this, newObjectHandle,
+        deferAttributeReading);
+    invalidateKeyHandles(newObject);
+    return newObject;
   }
 
   /**
@@ -669,17 +845,29 @@ public class Session {
     long objectToUpdateHandle = objectToUpdate.getObjectHandle();
     CK_ATTRIBUTE[] ckAttributesTemplates =
         PKCS11Object.getSetAttributes(templateObject);
+    Invocation invocation = before(Operation.SET_ATTRIBUTE_VALUE,
+        Invocation.NONE, objectToUpdateHandle, ckAttributesTemplates.length);
     try {
       pkcs11Module.C_SetAttributeValue(sessionHandle,
           objectToUpdateHandle, ckAttributesTemplates);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, 0);
+
+    KeyHandleCache cache = keyHandleCache();
+    if (cache != null) {
+      cache.invalidateHandle(objectToUpdateHandle);
+      invalidateKeyHandles(objectToUpdate);
     }
   }
 
   /**
    * Reads all the attributes of the given PKCS11Object from the token and
-   * returns a new PKCS11Object that contains all these attributes. The
+   * returns a new PKCS11Object that contains all these attributes, on first
+   * access if {@link #setDeferAttributeReading(boolean)} is set. The
    * given objectToRead and the returned PKCS11Object are different Java
    * objects. This method just uses the object handle of the given object,
    * it does not modify anything in this object.
@@ -694,7 +882,41 @@ public class Session {
   public PKCS11Object getAttributeValues(PKCS11Object objectToRead)
       throws TokenException {
     long objectHandle = objectToRead.getObjectHandle();
-    return PKCS11Object.getInstance(this, objectHandle);
+    return PKCS11Object.getInstance(this, objectHandle,
+        deferAttributeReading);
+  }
+
+  /**
+   * Reads the values of the given attributes of an object with one
+   * C_GetAttributeValue call. The classes of the objects read their
+   * attributes with this method, so that the interceptors see each call as
+   * {@link Operation#GET_ATTRIBUTE_VALUE}. Applications should use
+   * {@link PKCS11Object#getInstance(Session, long)} or
+   * {@link #findObjectAttributes(PKCS11Object, long[])} instead, which
+   * handle invalid and sensitive attributes.
+   *
+   * @param objectHandle
+   *          The handle of the object.
+   * @param template
+   *          The attributes to read. Receive the values.
+   * @exception TokenException
+   *              If an interceptor vetoed the call, or if the call failed;
+   *              e.g. with CKR_ATTRIBUTE_TYPE_INVALID if the object has not
+   *              all of the attributes.
+   */
+  public void getAttributeValue(long objectHandle, CK_ATTRIBUTE[] template)
+      throws TokenException {
+    Invocation invocation = before(Operation.GET_ATTRIBUTE_VALUE,
+        Invocation.NONE, objectHandle, template.length);
+    try {
+      pkcs11Module.C_GetAttributeValue(sessionHandle, objectHandle,
+          template);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, 0);
   }
 
   /**
@@ -709,10 +931,20 @@ public class Session {
    */
   public void destroyObject(PKCS11Object object) throws TokenException {
     long objectHandle = object.getObjectHandle();
+    Invocation invocation = before(Operation.DESTROY_OBJECT, Invocation.NONE,
+        objectHandle, 0);
     try {
       pkcs11Module.C_DestroyObject(sessionHandle, objectHandle);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, 0);
+
+    KeyHandleCache cache = keyHandleCache();
+    if (cache != null) {
+      cache.invalidateHandle(objectHandle);
     }
   }
 
@@ -750,11 +982,16 @@ public class Session {
   public void findObjectsInit(PKCS11Object templateObject)
       throws TokenException {
     CK_ATTRIBUTE[] ckAttributes = PKCS11Object.getSetAttributes(templateObject);
+    Invocation invocation = before(Operation.FIND_OBJECTS_INIT,
+        (ckAttributes == null) ? 0 : ckAttributes.length);
     try {
       pkcs11Module.C_FindObjectsInit(sessionHandle, ckAttributes);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
   }
 
   /**
@@ -775,21 +1012,14 @@ public class Session {
    *              the Exception is raised during object parsing.
    */
   public PKCS11Object[] findObjects(int maxObjectCount) throws TokenException {
-    Vector<PKCS11Object> foundObjects = new Vector<>();
-    long[] objectHandles;
-    try {
-      objectHandles = pkcs11Module.C_FindObjects(sessionHandle, maxObjectCount);
-    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
-    }
+    long[] objectHandles = findObjectHandles(maxObjectCount);
 
     try {
+      PKCS11Object[] objectArray = new PKCS11Object[objectHandles.length];
       for (int i = 0; i < objectHandles.length; i++) {
-        PKCS11Object object = PKCS11Object.getInstance(this, objectHandles[i]);
-        foundObjects.addElement(object);
+        objectArray[i] = PKCS11Object.getInstance(this, objectHandles[i],
+            deferAttributeReading);
       }
-      PKCS11Object[] objectArray = new PKCS11Object[foundObjects.size()];
-      foundObjects.copyInto(objectArray);
 
       return objectArray;
     } catch (TokenException e) {
@@ -798,6 +1028,181 @@ public class Session {
     }
   }
 
+  /**
+   * Finds objects that match the template object passed to findObjectsInit,
+   * and returns only their handles. In contrast to
+   * {@link #findObjects(int)}, no attribute of the found objects is read.
+   * The application must call findObjectsInit before calling this method.
+   *
+   * @param maxObjectCount
+   *          Specifies how many handles to return with this call.
+   * @return An array of handles of found objects. The maximum size of this
+   *         array is maxObjectCount, the minimum length is 0. Never returns
+   *         null.
+   * @exception TokenException
+   *              If C_FindObjects failed.
+   */
+  public long[] findObjectHandles(int maxObjectCount) throws TokenException {
+    long[] objectHandles;
+    Invocation invocation = before(Operation.FIND_OBJECTS, maxObjectCount);
+    try {
+      objectHandles = pkcs11Module.C_FindObjects(sessionHandle, maxObjectCount);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, (objectHandles == null) ? 0 : objectHandles.length);
+
+    return (objectHandles == null) ? new long[0] : objectHandles;
+  }
+
+  /**
+   * Returns a stream of the handles of all objects that match the given
+   * template. The find operation is started when the first handle is
+   * consumed, handles are fetched lazily page by page, and the find operation
+   * is finalized when the last handle has been consumed or the stream is
+   * closed. Hence, streams that are not consumed completely, e.g. by
+   * <code>findFirst()</code>, should be closed; for instance with
+   * try-with-resources.
+   * <pre><code>
+   *   try (LongStream handles = session.streamObjectHandles(template, 100)) {
+   *     long count = handles.count();
+   *   }
+   * </code></pre>
+   * No other find operation may be started in this session until the stream
+   * is exhausted or closed. Errors are thrown as
+   * {@link TokenRuntimeException}.
+   *
+   * @param template
+   *          The object that serves as a template for searching. May be null
+   *          to find all objects that this session can see.
+   * @param pageSize
+   *          The maximal number of handles fetched by one C_FindObjects call.
+   * @return The stream of object handles.
+   * @see FindObjectsSpliterator
+   */
+  public LongStream streamObjectHandles(PKCS11Object template, int pageSize) {
+    FindObjectsSpliterator spliterator =
+        new FindObjectsSpliterator(this, template, pageSize);
+    return StreamSupport.longStream(spliterator, false)
+        .onClose(spliterator::close);
+  }
+
+  /**
+   * Finds all objects that match the given template and reads only the given
+   * attributes of them. Each object costs exactly one C_GetAttributeValue
+   * call, unless the object misses one of the attributes or one of them is
+   * sensitive; then the attributes are read in halves until these are found,
+   * see {@link PKCS11Object#getAttributeValues(Session, long,
+   * iaik.pkcs.pkcs11.objects.Attribute[])}. No {@link PKCS11Object} is
+   * created for the found objects.
+   * <pre><code>
+   *   ProjectionResult result = session.findObjectAttributes(
+   *       new X509PublicKeyCertificate(),
+   *       new long[]{PKCS11Constants.CKA_ID, PKCS11Constants.CKA_LABEL});
+   *   for (int i = 0; i &lt; result.size(); i++) {
+   *     byte[] id = result.getByteArrayValue(i, PKCS11Constants.CKA_ID);
+   *     ...
+   *   }
+   * </code></pre>
+   * This method runs a complete find operation, so no other find operation
+   * may be active in this session.
+   *
+   * @param template
+   *          The object that serves as a template for searching. May be null
+   *          to find all objects that this session can see.
+   * @param attributeTypes
+   *          The types of the attributes to read; e.g.
+   *          PKCS11Constants.CKA_ID.
+   * @return The handles of the found objects and the values of the
+   *         requested attributes.
+   * @exception TokenException
+   *              If finding the objects or reading the attributes failed.
+   */
+  public ProjectionResult findObjectAttributes(PKCS11Object template,
+      long[] attributeTypes) throws TokenException {
+    Util.requireNonNull("attributeTypes", attributeTypes);
+    final int pageSize = 256;
+
+    long[] objectHandles = new long[pageSize];
+    int count = 0;
+    findObjectsInit(template);
+    try {
+      long[] page;
+      while ((page = findObjectHandles(pageSize)).length > 0) {
+        if (count + page.length > objectHandles.length) {
+          objectHandles = Arrays.copyOf(objectHandles,
+              Math.max(2 * objectHandles.length, count + page.length));
+        }
+        System.arraycopy(page, 0, objectHandles, count, page.length);
+        count += page.length;
+      }
+    } catch (TokenException | RuntimeException | Error ex) {
+      // do not let a failing C_FindObjectsFinal mask the original exception
+      try {
+        findObjectsFinal();
+      } catch (TokenException | RuntimeException ex2) {
+        ex.addSuppressed(ex2);
+      }
+      throw ex;
+    }
+    findObjectsFinal();
+
+    if (count != objectHandles.length) {
+      objectHandles = Arrays.copyOf(objectHandles, count);
+    }
+
+    Object[][] columns = new Object[attributeTypes.length][count];
+    ProjectionResult.Status[][] statuses =
+        new ProjectionResult.Status[attributeTypes.length][count];
+    ProjectedAttribute[] attributes =
+        new ProjectedAttribute[attributeTypes.length];
+    for (int i = 0; i < count; i++) {
+      for (int j = 0; j < attributeTypes.length; j++) {
+        attributes[j] = new ProjectedAttribute(attributeTypes[j]);
+      }
+
+      // one call per object, unreadable attributes are found by bisection
+      PKCS11Object.getAttributeValues(this, objectHandles[i], attributes);
+      for (int j = 0; j < attributeTypes.length; j++) {
+        ProjectedAttribute attribute = attributes[j];
+        if (!attribute.isPresent()) {
+          statuses[j][i] = ProjectionResult.Status.INVALID;
+        } else if (attribute.isSensitive()) {
+          statuses[j][i] = ProjectionResult.Status.SENSITIVE;
+        } else {
+          statuses[j][i] = ProjectionResult.Status.PRESENT;
+          columns[j][i] = attribute.getValue();
+        }
+      }
+    }
+
+    return new ProjectionResult(objectHandles, attributeTypes.clone(),
+        columns, statuses);
+  }
+
+  /**
+   * An attribute of any type, which receives the plain value read by
+   * {@link #findObjectAttributes(PKCS11Object, long[])}.
+   */
+  private static final class ProjectedAttribute extends Attribute {
+
+    ProjectedAttribute(long type) {
+      super(type);
+    }
+
+    Object getValue() {
+      return getCkValue();
+    }
+
+    @Override
+    public void setValue(Object value) {
+      throw new UnsupportedOperationException("read-only attribute");
+    }
+
+  }
+
   /**
    * Finalizes a find operation. The application must call this method to
    * finalize a find operation before attempting to start any other operation.
@@ -806,11 +1211,15 @@ public class Session {
    *              If finalizing the current find operation was not possible.
    */
   public void findObjectsFinal() throws TokenException {
+    Invocation invocation = before(Operation.FIND_OBJECTS_FINAL, 0);
     try {
       pkcs11Module.C_FindObjectsFinal(sessionHandle);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
   }
 
   /**
@@ -832,12 +1241,49 @@ public class Session {
    *              If initializing this operation failed.
    */
   public void encryptInit(Mechanism mechanism, Key key) throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.ENCRYPT_INIT, mechanismCode,
+        keyHandle, 0);
     try {
       CK_MECHANISM mech = toCkMechanism(mechanism);
-      pkcs11Module.C_EncryptInit(sessionHandle, mech, key.getObjectHandle());
+      pkcs11Module.C_EncryptInit(sessionHandle, mech, keyHandle);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    initialized(Operation.ENCRYPT_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Initializes a new encryption operation with a prepared mechanism; see
+   * {@link #encryptInit(Mechanism, Key)}.
+   *
+   * @param mechanism
+   *          The prepared mechanism to use.
+   * @param key
+   *          The encryption key to use.
+   * @exception TokenException
+   *              If initializing this operation failed.
+   */
+  public void encryptInit(PreparedMechanism mechanism, Key key)
+      throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.ENCRYPT_INIT, mechanismCode,
+        keyHandle, 0);
+    try {
+      pkcs11Module.C_EncryptInit(sessionHandle,
+          mechanism.getCkMechanism(), keyHandle);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    initialized(Operation.ENCRYPT_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
   }
 
   /**
@@ -867,30 +1313,20 @@ public class Session {
       byte[] out, int outOfs, int outLen) throws TokenException {
     Util.requireNonNull("in", in);
     Util.requireNonNull("out", out);
+
+    int len;
+    Invocation invocation = before(Operation.ENCRYPT, Operation.ENCRYPT_INIT,
+        inLen);
     try {
-      if (encrypt0 != null) {
-        return (int) encrypt0.invoke(pkcs11Module,
-            sessionHandle, in, inOfs, inLen, out, outOfs, outLen);
-      } else if (encrypt1 != null) {
-        return (int) encrypt1.invoke(pkcs11Module,
-            sessionHandle, 0, in, inOfs, inLen, 0, out, outOfs, outLen);
-      } else {
-        throw new IllegalStateException("could not find C_ENCRYPT method");
-      }
-    } catch (IllegalAccessException ex) {
-      throw new TokenException("", ex);
-    } catch (InvocationTargetException ex) {
-      Throwable cause = ex.getCause();
-      if (cause instanceof sun.security.pkcs11.wrapper.PKCS11Exception) {
-        throw new PKCS11Exception(
-            ((sun.security.pkcs11.wrapper.PKCS11Exception) cause)
-                .getErrorCode());
-      } else if (cause instanceof RuntimeException) {
-        throw (RuntimeException) cause;
-      } else {
-        throw new TokenException("Error " + ex.getMessage(), ex);
-      }
+      len = pkcs11Module.C_Encrypt(sessionHandle, 0, in, inOfs, inLen,
+          0, out, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
   }
 
   /**
@@ -921,12 +1357,38 @@ public class Session {
     Util.requireNonNull("in", in);
     Util.requireNonNull("out", out);
 
+    int len;
+    Invocation invocation = before(Operation.ENCRYPT_UPDATE,
+        Operation.ENCRYPT_INIT, inLen);
     try {
-      return pkcs11Module.C_EncryptUpdate(sessionHandle, 0, in, inOfs,
+      len = pkcs11Module.C_EncryptUpdate(sessionHandle, 0, in, inOfs,
           inLen, 0, out, outOfs, outLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
+  }
+
+  /**
+   * Encrypts the remaining bytes of the buffer in and writes the encrypted
+   * data to the buffer out. The positions of both buffers are advanced. If a
+   * buffer is direct, its native address is passed to the PKCS#11 module
+   * and the data is not copied.
+   *
+   * @param in
+   *          buffer containing the to-be-encrypted data
+   * @param out
+   *          buffer for the encrypted data
+   * @return the length of encrypted data for this update
+   * @exception TokenException
+   *              If encrypting the data failed.
+   */
+  public int encryptUpdate(ByteBuffer in, ByteBuffer out)
+      throws TokenException {
+    return cryptUpdate(true, in, out);
   }
 
   /**
@@ -949,12 +1411,33 @@ public class Session {
       throws TokenException {
     Util.requireNonNull("out", out);
 
+    int len;
+    Invocation invocation = before(Operation.ENCRYPT_FINAL,
+        Operation.ENCRYPT_INIT, 0);
     try {
-      return pkcs11Module.C_EncryptFinal(sessionHandle, 0,
+      len = pkcs11Module.C_EncryptFinal(sessionHandle, 0,
           out, outOfs, outLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
+  }
+
+  /**
+   * This method finalizes an encryption operation and writes the final
+   * result to the buffer out, whose position is advanced.
+   *
+   * @param out
+   *          buffer for the encrypted data
+   * @return the length of the last part of the encrypted data
+   * @exception TokenException
+   *              If calculating the final result failed.
+   */
+  public int encryptFinal(ByteBuffer out) throws TokenException {
+    return cryptFinal(true, out);
   }
 
   /**
@@ -976,12 +1459,49 @@ public class Session {
    *              If initializing this operation failed.
    */
   public void decryptInit(Mechanism mechanism, Key key) throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.DECRYPT_INIT, mechanismCode,
+        keyHandle, 0);
     try {
-      pkcs11Module.C_DecryptInit(sessionHandle, toCkMechanism(mechanism),
-          key.getObjectHandle());
+      pkcs11Module.C_DecryptInit(sessionHandle,
+          toCkMechanism(mechanism), keyHandle);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    initialized(Operation.DECRYPT_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Initializes a new decryption operation with a prepared mechanism; see
+   * {@link #decryptInit(Mechanism, Key)}.
+   *
+   * @param mechanism
+   *          The prepared mechanism to use.
+   * @param key
+   *          The decryption key to use.
+   * @exception TokenException
+   *              If initializing this operation failed.
+   */
+  public void decryptInit(PreparedMechanism mechanism, Key key)
+      throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.DECRYPT_INIT, mechanismCode,
+        keyHandle, 0);
+    try {
+      pkcs11Module.C_DecryptInit(sessionHandle,
+          mechanism.getCkMechanism(), keyHandle);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    initialized(Operation.DECRYPT_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
   }
 
   /**
@@ -1012,30 +1532,19 @@ public class Session {
     Util.requireNonNull("in", in);
     Util.requireNonNull("out", out);
 
+    int len;
+    Invocation invocation = before(Operation.DECRYPT, Operation.DECRYPT_INIT,
+        inLen);
     try {
-      if (decrypt0 != null) {
-        return (int) decrypt0.invoke(pkcs11Module,
-            sessionHandle, in, inOfs, inLen, out, outOfs, outLen);
-      } else if (decrypt1 != null) {
-        return (int) decrypt1.invoke(pkcs11Module,
-            sessionHandle, 0, in, inOfs, inLen, 0, out, outOfs, outLen);
-      } else {
-        throw new IllegalStateException("could not find C_DECRYPT method");
-      }
-    } catch (IllegalAccessException ex) {
-      throw new TokenException("", ex);
-    } catch (InvocationTargetException ex) {
-      Throwable cause = ex.getCause();
-      if (cause instanceof sun.security.pkcs11.wrapper.PKCS11Exception) {
-        throw new PKCS11Exception(
-            ((sun.security.pkcs11.wrapper.PKCS11Exception) cause)
-                .getErrorCode());
-      } else if (cause instanceof RuntimeException) {
-        throw (RuntimeException) cause;
-      } else {
-        throw new TokenException("Error " + ex.getMessage(), ex);
-      }
+      len = pkcs11Module.C_Decrypt(sessionHandle, 0, in, inOfs, inLen,
+          0, out, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
   }
 
   /**
@@ -1066,12 +1575,38 @@ public class Session {
     Util.requireNonNull("in", in);
     Util.requireNonNull("out", out);
 
+    int len;
+    Invocation invocation = before(Operation.DECRYPT_UPDATE,
+        Operation.DECRYPT_INIT, inLen);
     try {
-      return pkcs11Module.C_DecryptUpdate(sessionHandle, 0, in, inOfs,
+      len = pkcs11Module.C_DecryptUpdate(sessionHandle, 0, in, inOfs,
           inLen, 0, out, outOfs, outLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
+  }
+
+  /**
+   * Decrypts the remaining bytes of the buffer in and writes the decrypted
+   * data to the buffer out. The positions of both buffers are advanced. If a
+   * buffer is direct, its native address is passed to the PKCS#11 module
+   * and the data is not copied.
+   *
+   * @param in
+   *          buffer containing the to-be-decrypted data
+   * @param out
+   *          buffer for the decrypted data
+   * @return the length of decrypted data for this update
+   * @exception TokenException
+   *              If decrypting the data failed.
+   */
+  public int decryptUpdate(ByteBuffer in, ByteBuffer out)
+      throws TokenException {
+    return cryptUpdate(false, in, out);
   }
 
   /**
@@ -1094,12 +1629,106 @@ public class Session {
       throws TokenException {
     Util.requireNonNull("out", out);
 
+    int len;
+    Invocation invocation = before(Operation.DECRYPT_FINAL,
+        Operation.DECRYPT_INIT, 0);
     try {
-      return pkcs11Module.C_DecryptFinal(sessionHandle, 0,
+      len = pkcs11Module.C_DecryptFinal(sessionHandle, 0,
           out, outOfs, outLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
+  }
+
+  /**
+   * This method finalizes a decryption operation and writes the final
+   * result to the buffer out, whose position is advanced.
+   *
+   * @param out
+   *          buffer for the decrypted data
+   * @return the length of this last part of decrypted data
+   * @exception TokenException
+   *              If calculating the final result failed.
+   */
+  public int decryptFinal(ByteBuffer out) throws TokenException {
+    return cryptFinal(false, out);
+  }
+
+  private int cryptUpdate(boolean encrypt, ByteBuffer in, ByteBuffer out)
+      throws TokenException {
+    Util.requireNonNull("in", in);
+    Util.requireNonNull("out", out);
+    if (out.isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+
+    int inLen = in.remaining();
+    long inAddr = directAddress(in);
+    byte[] inArray = (inAddr == 0) ? inputArray(in) : null;
+    int inOfs = (inAddr == 0 && in.hasArray()) ? bufferOffset(in) : 0;
+
+    int outLen = out.remaining();
+    long outAddr = directAddress(out);
+    byte[] outArray = (outAddr == 0) ? outputArray(out) : null;
+    int outOfs = (outAddr == 0 && out.hasArray()) ? bufferOffset(out) : 0;
+
+    int len;
+    Invocation invocation = before(
+        encrypt ? Operation.ENCRYPT_UPDATE : Operation.DECRYPT_UPDATE,
+        encrypt ? Operation.ENCRYPT_INIT : Operation.DECRYPT_INIT, inLen);
+    try {
+      len = encrypt
+          ? pkcs11Module.C_EncryptUpdate(sessionHandle, inAddr, inArray,
+              inOfs, inLen, outAddr, outArray, outOfs, outLen)
+          : pkcs11Module.C_DecryptUpdate(sessionHandle, inAddr, inArray,
+              inOfs, inLen, outAddr, outArray, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, len);
+
+    in.position(in.limit());
+    advance(out, outAddr, outArray, len);
+    return len;
+  }
+
+  private int cryptFinal(boolean encrypt, ByteBuffer out)
+      throws TokenException {
+    Util.requireNonNull("out", out);
+    if (out.isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+
+    int outLen = out.remaining();
+    long outAddr = directAddress(out);
+    byte[] outArray = (outAddr == 0) ? outputArray(out) : null;
+    int outOfs = (outAddr == 0 && out.hasArray()) ? bufferOffset(out) : 0;
+
+    int len;
+    Invocation invocation = before(
+        encrypt ? Operation.ENCRYPT_FINAL : Operation.DECRYPT_FINAL,
+        encrypt ? Operation.ENCRYPT_INIT : Operation.DECRYPT_INIT, 0);
+    try {
+      len = encrypt
+          ? pkcs11Module.C_EncryptFinal(sessionHandle, outAddr, outArray,
+              outOfs, outLen)
+          : pkcs11Module.C_DecryptFinal(sessionHandle, outAddr, outArray,
+              outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, len);
+
+    advance(out, outAddr, outArray, len);
+    return len;
   }
 
   /**
@@ -1117,11 +1746,42 @@ public class Session {
    *              If initializing this operation failed.
    */
   public void digestInit(Mechanism mechanism) throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    Invocation invocation = before(Operation.DIGEST_INIT, mechanismCode,
+        Invocation.NONE, 0);
     try {
       pkcs11Module.C_DigestInit(sessionHandle, toCkMechanism(mechanism));
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    initialized(Operation.DIGEST_INIT, mechanismCode, Invocation.NONE);
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Initializes a new digesting operation with a prepared mechanism; see
+   * {@link #digestInit(Mechanism)}.
+   *
+   * @param mechanism
+   *          The prepared mechanism to use.
+   * @exception TokenException
+   *              If initializing this operation failed.
+   */
+  public void digestInit(PreparedMechanism mechanism) throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    Invocation invocation = before(Operation.DIGEST_INIT, mechanismCode,
+        Invocation.NONE, 0);
+    try {
+      pkcs11Module.C_DigestInit(sessionHandle, mechanism.getCkMechanism());
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    initialized(Operation.DIGEST_INIT, mechanismCode, Invocation.NONE);
+    succeeded(invocation, 0);
   }
 
   /**
@@ -1148,8 +1808,23 @@ public class Session {
    */
   public int digest(byte[] in, int inOfs, int inLen, byte[] digest,
       int digestOfs, int digestLen) throws TokenException {
-    digestUpdate(in, inOfs, inLen);
-    return digestFinal(digest, digestOfs, digestLen);
+    Util.requireNonNull("in", in);
+    Util.requireNonNull("digest", digest);
+
+    int len;
+    Invocation invocation = before(Operation.DIGEST, Operation.DIGEST_INIT,
+        inLen);
+    try {
+      pkcs11Module.C_DigestUpdate(sessionHandle, 0, in, inOfs, inLen);
+      len = pkcs11Module.C_DigestFinal(sessionHandle,
+          digest, digestOfs, digestLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, len);
+    return len;
   }
 
   /**
@@ -1179,13 +1854,20 @@ public class Session {
     Util.requireNonNull("in", in);
     Util.requireNonNull("digest", digest);
 
+    int len;
+    Invocation invocation = before(Operation.DIGEST,
+        mechanism.getMechanismCode(), Invocation.NONE, inLen);
     try {
-      return pkcs11Module.C_DigestSingle(sessionHandle,
+      len = pkcs11Module.C_DigestSingle(sessionHandle,
           toCkMechanism(mechanism),
           in, inOfs, inLen, digest, digestOfs, digestLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
   }
 
   /**
@@ -1208,11 +1890,47 @@ public class Session {
       throws TokenException {
     Util.requireNonNull("part", part);
 
+    Invocation invocation = before(Operation.DIGEST_UPDATE,
+        Operation.DIGEST_INIT, partLen);
     try {
       pkcs11Module.C_DigestUpdate(sessionHandle, 0, part, partOfs, partLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Digests the remaining bytes of the buffer part and advances its
+   * position. If the buffer is direct, its native address is passed to the
+   * PKCS#11 module and the data is not copied.
+   *
+   * @param part
+   *          buffer containing the to-be-digested data
+   * @exception TokenException
+   *              If digesting the data failed.
+   */
+  public void digestUpdate(ByteBuffer part) throws TokenException {
+    Util.requireNonNull("part", part);
+
+    int len = part.remaining();
+    long addr = directAddress(part);
+    byte[] array = (addr == 0) ? inputArray(part) : null;
+    int ofs = (addr == 0 && part.hasArray()) ? bufferOffset(part) : 0;
+
+    Invocation invocation = before(Operation.DIGEST_UPDATE,
+        Operation.DIGEST_INIT, len);
+    try {
+      pkcs11Module.C_DigestUpdate(sessionHandle, addr, array, ofs, len);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
+    part.position(part.limit());
   }
 
   /**
@@ -1226,11 +1944,17 @@ public class Session {
    *              If digesting the key failed.
    */
   public void digestKey(SecretKey key) throws TokenException {
+    Invocation invocation = before(Operation.DIGEST_KEY,
+        initMechanisms[Operation.DIGEST_INIT.ordinal()],
+        key.getObjectHandle(), 0);
     try {
       pkcs11Module.C_DigestKey(sessionHandle, key.getObjectHandle());
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
   }
 
   /**
@@ -1254,12 +1978,19 @@ public class Session {
       throws TokenException {
     Util.requireNonNull("digest", digest);
 
+    int len;
+    Invocation invocation = before(Operation.DIGEST_FINAL,
+        Operation.DIGEST_INIT, 0);
     try {
-      return pkcs11Module.C_DigestFinal(sessionHandle,
+      len = pkcs11Module.C_DigestFinal(sessionHandle,
           digest, digestOfs, digestLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
   }
 
   /**
@@ -1282,12 +2013,49 @@ public class Session {
    *              If initializing this operation failed.
    */
   public void signInit(Mechanism mechanism, Key key) throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.SIGN_INIT, mechanismCode,
+        keyHandle, 0);
     try {
-      pkcs11Module.C_SignInit(sessionHandle, toCkMechanism(mechanism),
-          key.getObjectHandle());
+      pkcs11Module.C_SignInit(sessionHandle,
+          toCkMechanism(mechanism), keyHandle);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    initialized(Operation.SIGN_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Initializes a new signing operation with a prepared mechanism; see
+   * {@link #signInit(Mechanism, Key)}.
+   *
+   * @param mechanism
+   *          The prepared mechanism to use.
+   * @param key
+   *          The signing key to use.
+   * @exception TokenException
+   *              If initializing this operation failed.
+   */
+  public void signInit(PreparedMechanism mechanism, Key key)
+      throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.SIGN_INIT, mechanismCode,
+        keyHandle, 0);
+    try {
+      pkcs11Module.C_SignInit(sessionHandle,
+          mechanism.getCkMechanism(), keyHandle);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    initialized(Operation.SIGN_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
   }
 
   /**
@@ -1305,11 +2073,18 @@ public class Session {
   public byte[] sign(byte[] data) throws TokenException {
     Util.requireNonNull("data", data);
 
+    byte[] signature;
+    Invocation invocation = before(Operation.SIGN, Operation.SIGN_INIT,
+        data.length);
     try {
-      return pkcs11Module.C_Sign(sessionHandle, data);
+      signature = pkcs11Module.C_Sign(sessionHandle, data);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, signature.length);
+    return signature;
   }
 
   /**
@@ -1332,11 +2107,47 @@ public class Session {
       throws TokenException {
     Util.requireNonNull("in", in);
 
+    Invocation invocation = before(Operation.SIGN_UPDATE, Operation.SIGN_INIT,
+        inLen);
     try {
       pkcs11Module.C_SignUpdate(sessionHandle, 0, in, inOfs, inLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Signs the remaining bytes of the buffer in and advances its position.
+   * If the buffer is direct, its native address is passed to the PKCS#11
+   * module and the data is not copied.
+   *
+   * @param in
+   *          buffer containing the to-be-signed data
+   * @exception TokenException
+   *              If signing the data failed.
+   */
+  public void signUpdate(ByteBuffer in) throws TokenException {
+    Util.requireNonNull("in", in);
+
+    int len = in.remaining();
+    long addr = directAddress(in);
+    byte[] array = (addr == 0) ? inputArray(in) : null;
+    int ofs = (addr == 0 && in.hasArray()) ? bufferOffset(in) : 0;
+
+    Invocation invocation = before(Operation.SIGN_UPDATE, Operation.SIGN_INIT,
+        len);
+    try {
+      pkcs11Module.C_SignUpdate(sessionHandle, addr, array, ofs, len);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, 0);
+    in.position(in.limit());
   }
 
   /**
@@ -1353,11 +2164,18 @@ public class Session {
    *              If calculating the final signature value failed.
    */
   public byte[] signFinal(int expectedLen) throws TokenException {
+    byte[] signature;
+    Invocation invocation = before(Operation.SIGN_FINAL, Operation.SIGN_INIT,
+        0);
     try {
-      return pkcs11Module.C_SignFinal(sessionHandle, expectedLen);
+      signature = pkcs11Module.C_SignFinal(sessionHandle, expectedLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, signature.length);
+    return signature;
   }
 
   /**
@@ -1381,12 +2199,49 @@ public class Session {
    */
   public void signRecoverInit(Mechanism mechanism, Key key)
       throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.SIGN_RECOVER_INIT, mechanismCode,
+        keyHandle, 0);
     try {
       pkcs11Module.C_SignRecoverInit(sessionHandle,
-          toCkMechanism(mechanism), key.getObjectHandle());
+          toCkMechanism(mechanism), keyHandle);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    initialized(Operation.SIGN_RECOVER_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Initializes a new signing with data recovery operation with a prepared
+   * mechanism; see {@link #signRecoverInit(Mechanism, Key)}.
+   *
+   * @param mechanism
+   *          The prepared mechanism to use.
+   * @param key
+   *          The signing key to use.
+   * @exception TokenException
+   *              If initializing this operation failed.
+   */
+  public void signRecoverInit(PreparedMechanism mechanism, Key key)
+      throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.SIGN_RECOVER_INIT, mechanismCode,
+        keyHandle, 0);
+    try {
+      pkcs11Module.C_SignRecoverInit(sessionHandle,
+          mechanism.getCkMechanism(), keyHandle);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    initialized(Operation.SIGN_RECOVER_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
   }
 
   /**
@@ -1416,12 +2271,19 @@ public class Session {
     Util.requireNonNull("in", in);
     Util.requireNonNull("out", out);
 
+    int len;
+    Invocation invocation = before(Operation.SIGN_RECOVER,
+        Operation.SIGN_RECOVER_INIT, inLen);
     try {
-      return pkcs11Module.C_SignRecover(sessionHandle, in, inOfs, inLen,
+      len = pkcs11Module.C_SignRecover(sessionHandle, in, inOfs, inLen,
           out, outOfs, outLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
   }
 
   /**
@@ -1444,12 +2306,49 @@ public class Session {
    *              If initializing this operation failed.
    */
   public void verifyInit(Mechanism mechanism, Key key) throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.VERIFY_INIT, mechanismCode,
+        keyHandle, 0);
     try {
-      pkcs11Module.C_VerifyInit(sessionHandle, toCkMechanism(mechanism),
-          key.getObjectHandle());
+      pkcs11Module.C_VerifyInit(sessionHandle,
+          toCkMechanism(mechanism), keyHandle);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    initialized(Operation.VERIFY_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Initializes a new verification operation with a prepared mechanism; see
+   * {@link #verifyInit(Mechanism, Key)}.
+   *
+   * @param mechanism
+   *          The prepared mechanism to use.
+   * @param key
+   *          The verification key to use.
+   * @exception TokenException
+   *              If initializing this operation failed.
+   */
+  public void verifyInit(PreparedMechanism mechanism, Key key)
+      throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.VERIFY_INIT, mechanismCode,
+        keyHandle, 0);
+    try {
+      pkcs11Module.C_VerifyInit(sessionHandle,
+          mechanism.getCkMechanism(), keyHandle);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    initialized(Operation.VERIFY_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
   }
 
   /**
@@ -1471,11 +2370,16 @@ public class Session {
   public void verify(byte[] data, byte[] signature) throws TokenException {
     Util.requireNonNull("signature", signature);
 
+    Invocation invocation = before(Operation.VERIFY, Operation.VERIFY_INIT,
+        (data == null) ? 0 : data.length);
     try {
       pkcs11Module.C_Verify(sessionHandle, data, signature);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
   }
 
   /**
@@ -1497,11 +2401,47 @@ public class Session {
       throws TokenException {
     Util.requireNonNull("in", in);
 
+    Invocation invocation = before(Operation.VERIFY_UPDATE,
+        Operation.VERIFY_INIT, inLen);
     try {
       pkcs11Module.C_VerifyUpdate(sessionHandle, 0, in, inOfs, inLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Feeds the remaining bytes of the buffer in into the verification and
+   * advances its position. If the buffer is direct, its native address is
+   * passed to the PKCS#11 module and the data is not copied.
+   *
+   * @param in
+   *          buffer containing the to-be-verified data
+   * @exception TokenException
+   *              If verifying (e.g. digesting) the data failed.
+   */
+  public void verifyUpdate(ByteBuffer in) throws TokenException {
+    Util.requireNonNull("in", in);
+
+    int len = in.remaining();
+    long addr = directAddress(in);
+    byte[] array = (addr == 0) ? inputArray(in) : null;
+    int ofs = (addr == 0 && in.hasArray()) ? bufferOffset(in) : 0;
+
+    Invocation invocation = before(Operation.VERIFY_UPDATE,
+        Operation.VERIFY_INIT, len);
+    try {
+      pkcs11Module.C_VerifyUpdate(sessionHandle, addr, array, ofs, len);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
+    in.position(in.limit());
   }
 
   /**
@@ -1522,11 +2462,16 @@ public class Session {
   public void verifyFinal(byte[] signature) throws TokenException {
     Util.requireNonNull("signature", signature);
 
+    Invocation invocation = before(Operation.VERIFY_FINAL,
+        Operation.VERIFY_INIT, signature.length);
     try {
       pkcs11Module.C_VerifyFinal(sessionHandle, signature);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
   }
 
   /**
@@ -1549,12 +2494,49 @@ public class Session {
    */
   public void verifyRecoverInit(Mechanism mechanism, Key key)
       throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.VERIFY_RECOVER_INIT, mechanismCode,
+        keyHandle, 0);
     try {
       pkcs11Module.C_VerifyRecoverInit(sessionHandle,
-          toCkMechanism(mechanism), key.getObjectHandle());
+          toCkMechanism(mechanism), keyHandle);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    initialized(Operation.VERIFY_RECOVER_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
+  }
+
+  /**
+   * Initializes a new verification with data recovery operation with a
+   * prepared mechanism; see {@link #verifyRecoverInit(Mechanism, Key)}.
+   *
+   * @param mechanism
+   *          The prepared mechanism to use.
+   * @param key
+   *          The verification key to use.
+   * @exception TokenException
+   *              If initializing this operation failed.
+   */
+  public void verifyRecoverInit(PreparedMechanism mechanism, Key key)
+      throws TokenException {
+    long mechanismCode = mechanism.getMechanismCode();
+    long keyHandle = key.getObjectHandle();
+    Invocation invocation = before(Operation.VERIFY_RECOVER_INIT, mechanismCode,
+        keyHandle, 0);
+    try {
+      pkcs11Module.C_VerifyRecoverInit(sessionHandle,
+          mechanism.getCkMechanism(), keyHandle);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    initialized(Operation.VERIFY_RECOVER_INIT, mechanismCode, keyHandle);
+    succeeded(invocation, 0);
   }
 
   /**
@@ -1584,12 +2566,19 @@ public class Session {
     Util.requireNonNull("in", in);
     Util.requireNonNull("out", out);
 
+    int len;
+    Invocation invocation = before(Operation.VERIFY_RECOVER,
+        Operation.VERIFY_RECOVER_INIT, inLen);
     try {
-      return pkcs11Module.C_VerifyRecover(sessionHandle,
+      len = pkcs11Module.C_VerifyRecover(sessionHandle,
           in, inOfs, inLen, out, outOfs, outLen);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, len);
+    return len;
   }
 
   /**
@@ -1691,14 +2680,22 @@ public class Session {
     CK_ATTRIBUTE[] ckAttributes = PKCS11Object.getSetAttributes(template);
 
     long objectHandle;
+    Invocation invocation = before(Operation.GENERATE_KEY,
+        mechanism.getMechanismCode(), Invocation.NONE, 0);
     try {
       objectHandle = pkcs11Module.C_GenerateKey(sessionHandle,
           toCkMechanism(mechanism), ckAttributes);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
 
-    return PKCS11Object.getInstance(this, objectHandle);
+    PKCS11Object newObject = PKCS11Object.getInstance(this, objectHandle,
+        deferAttributeReading);
+    invalidateKeyHandles(newObject);
+    return newObject;
   }
 
   /**
@@ -1730,18 +2727,27 @@ public class Session {
         PKCS11Object.getSetAttributes(privateKeyTemplate);
 
     long[] objectHandles;
+    Invocation invocation = before(Operation.GENERATE_KEY_PAIR,
+        mechanism.getMechanismCode(), Invocation.NONE, 0);
     try {
       objectHandles = pkcs11Module.C_GenerateKeyPair(sessionHandle,
           toCkMechanism(mechanism), ckPublicKeyAttributes,
           ckPrivateKeyAttributes);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
 
     PublicKey publicKey =
-        (PublicKey) PKCS11Object.getInstance(this, objectHandles[0]);
+        (PublicKey) PKCS11Object.getInstance(this, objectHandles[0],
+            deferAttributeReading);
     PrivateKey privateKey =
-        (PrivateKey) PKCS11Object.getInstance(this, objectHandles[1]);
+        (PrivateKey) PKCS11Object.getInstance(this, objectHandles[1],
+            deferAttributeReading);
+    invalidateKeyHandles(publicKey);
+    invalidateKeyHandles(privateKey);
 
     return new KeyPair(publicKey, privateKey);
   }
@@ -1762,12 +2768,20 @@ public class Session {
    */
   public byte[] wrapKey(Mechanism mechanism, Key wrappingKey, Key key)
       throws TokenException {
+    byte[] wrappedKey;
+    Invocation invocation = before(Operation.WRAP_KEY,
+        mechanism.getMechanismCode(), wrappingKey.getObjectHandle(), 0);
     try {
-      return pkcs11Module.C_WrapKey(sessionHandle, toCkMechanism(mechanism),
-          wrappingKey.getObjectHandle(), key.getObjectHandle());
+      wrappedKey = pkcs11Module.C_WrapKey(sessionHandle,
+          toCkMechanism(mechanism), wrappingKey.getObjectHandle(),
+          key.getObjectHandle());
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, wrappedKey.length);
+    return wrappedKey;
   }
 
   /**
@@ -1796,15 +2810,24 @@ public class Session {
     CK_ATTRIBUTE[] ckAttributes = PKCS11Object.getSetAttributes(keyTemplate);
 
     long objectHandle;
+    Invocation invocation = before(Operation.UNWRAP_KEY,
+        mechanism.getMechanismCode(), unwrappingKey.getObjectHandle(),
+        wrappedKey.length);
     try {
       objectHandle = pkcs11Module.C_UnwrapKey(sessionHandle,
           toCkMechanism(mechanism), unwrappingKey.getObjectHandle(),
           wrappedKey, ckAttributes);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     }
+    succeeded(invocation, 0);
 
-    return (Key) PKCS11Object.getInstance(this, objectHandle);
+    Key newKey = (Key) PKCS11Object.getInstance(this, objectHandle,
+        deferAttributeReading);
+    invalidateKeyHandles(newKey);
+    return newKey;
   }
 
   /**
@@ -1832,11 +2855,22 @@ public class Session {
     CK_ATTRIBUTE[] ckAttributes = PKCS11Object.getSetAttributes(template);
 
     long objectHandle;
+    Invocation invocation = before(Operation.DERIVE_KEY,
+        mechanism.getMechanismCode(), baseKey.getObjectHandle(), 0);
     try {
       objectHandle = pkcs11Module.C_DeriveKey(sessionHandle,
           toCkMechanism(mechanism), baseKey.getObjectHandle(), ckAttributes);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
+    }
+    succeeded(invocation, 0);
+
+    KeyHandleCache cache = keyHandleCache();
+    if (cache != null) {
+      // all derive mechanisms create secret keys
+      cache.invalidateClass(PKCS11Constants.CKO_SECRET_KEY);
     }
 
     /*
@@ -1859,7 +2893,8 @@ public class Session {
       version.setPKCS11ParamsObject(
           ((CK_SSL3_MASTER_KEY_DERIVE_PARAMS)
               (ckMechanism.pParameter)).pVersion);
-      return (Key) PKCS11Object.getInstance(this, objectHandle);
+      return (Key) PKCS11Object.getInstance(this, objectHandle,
+          deferAttributeReading);
     } else if ((ckMechanism.mechanism
           == PKCS11Constants.CKM_TLS12_MASTER_KEY_DERIVE)
         && (params instanceof TLS12MasterKeyDeriveParameters)) {
@@ -1869,7 +2904,8 @@ public class Session {
       CK_VERSION ckVersion =
           TLS12MasterKeyDeriveParameters.getPVersion(ckMechanism.pParameter);
       version.setPKCS11ParamsObject(ckVersion);
-      return (Key) PKCS11Object.getInstance(this, objectHandle);
+      return (Key) PKCS11Object.getInstance(this, objectHandle,
+          deferAttributeReading);
     } else if ((ckMechanism.mechanism
             == PKCS11Constants.CKM_SSL3_KEY_AND_MAC_DERIVE
           || ckMechanism.mechanism
@@ -1907,7 +2943,8 @@ public class Session {
        */
       return null;
     } else {
-      return (Key) PKCS11Object.getInstance(this, objectHandle);
+      return (Key) PKCS11Object.getInstance(this, objectHandle,
+          deferAttributeReading);
     }
   }
 
@@ -1939,11 +2976,15 @@ public class Session {
   public byte[] generateRandom(int numberOfBytesToGenerate)
       throws TokenException {
     byte[] randomBytesBuffer = new byte[numberOfBytesToGenerate];
+    Invocation invocation = before(Operation.GENERATE_RANDOM, 0);
     try {
       pkcs11Module.C_GenerateRandom(sessionHandle, randomBytesBuffer);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      throw new PKCS11Exception(ex);
+      throw failed(invocation, new PKCS11Exception(ex));
+    } catch (RuntimeException ex) {
+      throw failed(invocation, ex);
     } // fill the buffer with random bytes
+    succeeded(invocation, numberOfBytesToGenerate);
     return randomBytesBuffer;
   }
 
@@ -1985,9 +3026,56 @@ public class Session {
         "\nToken: ", token);
   }
 
+  /**
+   * Returns the native address of a direct buffer at its position, or 0 if
+   * the buffer is not direct or the backend does not accept addresses.
+   */
+  private long directAddress(ByteBuffer buffer) {
+    return pkcs11Module.supportsDirectBuffers()
+        ? Util.directAddress(buffer) : 0;
+  }
+
+  /**
+   * Returns the backing array of a heap buffer, or a copy of the remaining
+   * bytes of a read-only or direct buffer whose address is not available.
+   */
+  private static byte[] inputArray(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      return buffer.array();
+    }
+
+    byte[] array = new byte[buffer.remaining()];
+    buffer.duplicate().get(array);
+    return array;
+  }
+
+  private static byte[] outputArray(ByteBuffer buffer) {
+    return buffer.hasArray() ? buffer.array() : new byte[buffer.remaining()];
+  }
+
+  private static int bufferOffset(ByteBuffer buffer) {
+    return buffer.arrayOffset() + buffer.position();
+  }
+
+  /**
+   * Advances the position of the output buffer by len, after copying the
+   * output if it has been written to a temporary array.
+   */
+  private static void advance(ByteBuffer out, long outAddr, byte[] outArray,
+      int len) {
+    if (outAddr == 0 && !out.hasArray()) {
+      out.put(outArray, 0, len);
+    } else {
+      out.position(out.position() + len);
+    }
+  }
+
   private static CK_MECHANISM toCkMechanism(Mechanism mechanism) {
-    long code = mechanism.getMechanismCode();
-    Parameters params = mechanism.getParameters();
+    return toCkMechanism(mechanism.getMechanismCode(),
+        mechanism.getParameters());
+  }
+
+  static CK_MECHANISM toCkMechanism(long code, Parameters params) {
     if (params == null) {
       return new CK_MECHANISM(code);
     } else if (params instanceof AesCtrParameters) {
@@ -2030,18 +3118,16 @@ public class Session {
       CK_MECHANISM mech = new CK_MECHANISM(code);
       CK_RSA_PKCS_PSS_PARAMS pParams =
           ((RSAPkcsPssParameters) params).getPKCS11ParamsObject();
+      if (setter_CK_MECHANISM_pssParameter == null) {
+        throw new IllegalStateException(
+            "could not construct CK_MECHANISM for RSAPkcsPssParams");
+      }
+
       try {
-        if (field_CK_MECHANISM_pParameter != null) {
-          field_CK_MECHANISM_pParameter.set(mech, pParams);
-        } else if (method_CK_MECHANISM_setParameter != null) {
-          method_CK_MECHANISM_setParameter.invoke(mech, pParams);
-        } else {
-          throw new IllegalStateException(
-              "could not construct CK_MECHANISM for RSAPkcsPssParams");
-        }
-      } catch (IllegalAccessException | InvocationTargetException ex) {
+        setter_CK_MECHANISM_pssParameter.invokeExact(mech, pParams);
+      } catch (Throwable th) {
         throw new IllegalStateException(
-            "could not construct CK_MECHANISM for RSAPkcsPssParams", ex);
+            "could not construct CK_MECHANISM for RSAPkcsPssParams", th);
       }
       return mech;
     } else if (params instanceof SSL3KeyMaterialParameters) {
@@ -2069,7 +3155,7 @@ public class Session {
 //      return new CK_MECHANISM(code,
 //          ((X942DH2KeyDerivationParameters) params).getPKCS11ParamsObject());
     } else {
-      Constructor<?> constructor;
+      MethodHandle constructor;
       if (params instanceof CCMParameters) {
         constructor = constructor_CK_MECHANISM_CCM;
       } else if (params instanceof GCMParameters) {
@@ -2088,12 +3174,11 @@ public class Session {
         throw new IllegalArgumentException("could not find constructor");
       }
       try {
-        return (CK_MECHANISM) constructor.newInstance(
+        return (CK_MECHANISM) constructor.invokeExact(
             code, params.getPKCS11ParamsObject());
-      } catch (InstantiationException | IllegalAccessException
-          | IllegalArgumentException | InvocationTargetException ex) {
+      } catch (Throwable th) {
         throw new IllegalArgumentException(
-            "could not construct CK_MECHANISM", ex);
+            "could not construct CK_MECHANISM", th);
       }
     }
 
@@ -0,0 +1,370 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+/**
+ * An interceptor which is called before and after the operations of the
+ * sessions of a module or a token; e.g. to log, trace or meter the
+ * operations, or to veto them. Interceptors are registered with
+ * {@link Module#addSessionInterceptor(SessionInterceptor)} for all tokens
+ * of a module, or with
+ * {@link Token#addSessionInterceptor(SessionInterceptor)} for one token.
+ * <p>
+ * The interceptors of the module are called before those of the token, in
+ * the order in which they have been registered. The method
+ * {@link #after(Invocation)} is called in reverse order for all interceptors
+ * whose method {@link #before(Invocation)} has returned normally, also if
+ * the operation or a subsequent interceptor failed.
+ * <pre><code>
+ *   token.addSessionInterceptor(new SessionInterceptor() {
+ *     public void after(Invocation invocation) {
+ *       System.out.println(invocation.getOperation() + ": "
+ *           + invocation.getDurationNanos() + " ns");
+ *     }
+ *   });
+ * </code></pre>
+ * If no interceptor is registered, the session calls the PKCS#11 module
+ * directly and no {@link Invocation} is created. Interceptors are called in
+ * the thread which calls the session and must be thread-safe.
+ *
+ * @version 1.0
+ */
+public interface SessionInterceptor {
+
+  /**
+   * The intercepted operations of a session.
+   */
+  enum Operation {
+    LOGIN,
+    LOGOUT,
+    FIND_OBJECTS_INIT,
+    FIND_OBJECTS,
+    FIND_OBJECTS_FINAL,
+    CREATE_OBJECT,
+    COPY_OBJECT,
+    DESTROY_OBJECT,
+    GET_ATTRIBUTE_VALUE,
+    SET_ATTRIBUTE_VALUE,
+    ENCRYPT_INIT,
+    ENCRYPT,
+    ENCRYPT_UPDATE,
+    ENCRYPT_FINAL,
+    DECRYPT_INIT,
+    DECRYPT,
+    DECRYPT_UPDATE,
+    DECRYPT_FINAL,
+    DIGEST_INIT,
+    DIGEST,
+    DIGEST_UPDATE,
+    DIGEST_KEY,
+    DIGEST_FINAL,
+    SIGN_INIT,
+    SIGN,
+    SIGN_UPDATE,
+    SIGN_FINAL,
+    SIGN_RECOVER_INIT,
+    SIGN_RECOVER,
+    VERIFY_INIT,
+    VERIFY,
+    VERIFY_UPDATE,
+    VERIFY_FINAL,
+    VERIFY_RECOVER_INIT,
+    VERIFY_RECOVER,
+    GENERATE_KEY,
+    GENERATE_KEY_PAIR,
+    WRAP_KEY,
+    UNWRAP_KEY,
+    DERIVE_KEY,
+    GENERATE_RANDOM
+  }
+
+  /**
+   * Called before the operation is executed. Throwing an exception vetoes
+   * the operation: it is not executed and the exception is thrown to the
+   * caller of the session.
+   *
+   * @param invocation
+   *          The operation to be executed.
+   * @exception TokenException
+   *              To veto the operation.
+   */
+  default void before(Invocation invocation) throws TokenException {
+  }
+
+  /**
+   * Called after the operation has been executed or has failed, see
+   * {@link Invocation#getException()}.
+   *
+   * @param invocation
+   *          The executed operation.
+   */
+  default void after(Invocation invocation) {
+  }
+
+  /**
+   * An intercepted operation. The sizes are in bytes; for find operations
+   * the input length is the number of attributes in the template or the
+   * maximum number of objects to find, and the output length is the number
+   * of found objects. For the attribute operations the input length is the
+   * number of attributes to read or to set; reading the attributes of an
+   * object may take several calls, see
+   * {@link iaik.pkcs.pkcs11.objects.PKCS11Object#getAttributeValues(
+   * Session, long, iaik.pkcs.pkcs11.objects.Attribute[])}. An object is
+   * passed to all interceptors of one call and is not shared across threads.
+   *
+   * @version 1.0
+   */
+  final class Invocation {
+
+    /**
+     * The value of the mechanism code and the key handle if the operation
+     * uses no mechanism or no key.
+     */
+    public static final long NONE = -1;
+
+    private final SessionInterceptor[] chain;
+
+    private final Session session;
+
+    private final Operation operation;
+
+    private final long mechanismCode;
+
+    private final long keyHandle;
+
+    private final int inputLength;
+
+    private int outputLength;
+
+    private int entered;
+
+    private long startNanos;
+
+    private long durationNanos;
+
+    private Exception exception;
+
+    private Object attachment;
+
+    Invocation(SessionInterceptor[] chain, Session session,
+        Operation operation, long mechanismCode, long keyHandle,
+        int inputLength) {
+      this.chain = chain;
+      this.session = session;
+      this.operation = operation;
+      this.mechanismCode = mechanismCode;
+      this.keyHandle = keyHandle;
+      this.inputLength = inputLength;
+    }
+
+    /**
+     * Calls the method {@link SessionInterceptor#before(Invocation)} of all
+     * interceptors and starts the timing of the operation.
+     *
+     * @exception TokenException
+     *              If an interceptor vetoed the operation.
+     */
+    void enter() throws TokenException {
+      try {
+        while (entered < chain.length) {
+          chain[entered].before(this);
+          entered++;
+        }
+      } catch (TokenException ex) {
+        throw failed(ex);
+      } catch (RuntimeException ex) {
+        throw failed(ex);
+      }
+      startNanos = System.nanoTime();
+    }
+
+    /**
+     * Records the success of the operation and calls the method
+     * {@link SessionInterceptor#after(Invocation)} of the interceptors.
+     *
+     * @param outputLength
+     *          The output length of the operation.
+     */
+    void succeeded(int outputLength) {
+      durationNanos = System.nanoTime() - startNanos;
+      this.outputLength = outputLength;
+      exit();
+    }
+
+    /**
+     * Records the failure of the operation and calls the method
+     * {@link SessionInterceptor#after(Invocation)} of the interceptors.
+     *
+     * @param ex
+     *          The exception of the operation.
+     * @return the given exception.
+     */
+    <T extends Exception> T failed(T ex) {
+      if (entered == chain.length) {
+        // the operation itself has failed
+        durationNanos = System.nanoTime() - startNanos;
+      }
+      exception = ex;
+      exit();
+      return ex;
+    }
+
+    private void exit() {
+      while (entered > 0) {
+        chain[--entered].after(this);
+      }
+    }
+
+    /**
+     * Gets the session which executes the operation.
+     *
+     * @return The session.
+     */
+    public Session getSession() {
+      return session;
+    }
+
+    /**
+     * Gets the operation.
+     *
+     * @return The operation.
+     */
+    public Operation getOperation() {
+      return operation;
+    }
+
+    /**
+     * Gets the code of the mechanism of the operation. For update and final
+     * operations, this is the mechanism given to the init operation.
+     *
+     * @return The mechanism code, or {@link #NONE}.
+     */
+    public long getMechanismCode() {
+      return mechanismCode;
+    }
+
+    /**
+     * Gets the handle of the key the operation uses; e.g. the wrapping key
+     * for {@link Operation#WRAP_KEY} or the base key for
+     * {@link Operation#DERIVE_KEY}. For update and final operations, this is
+     * the key given to the init operation. For
+     * {@link Operation#COPY_OBJECT}, {@link Operation#DESTROY_OBJECT} and
+     * the attribute operations, it is the handle of the copied, destroyed,
+     * read or modified object.
+     *
+     * @return The key handle, or {@link #NONE}.
+     */
+    public long getKeyHandle() {
+      return keyHandle;
+    }
+
+    /**
+     * Gets the length of the input of the operation.
+     *
+     * @return The input length.
+     */
+    public int getInputLength() {
+      return inputLength;
+    }
+
+    /**
+     * Gets the length of the output of the operation. Only valid in
+     * {@link SessionInterceptor#after(Invocation)}, if the operation
+     * succeeded.
+     *
+     * @return The output length.
+     */
+    public int getOutputLength() {
+      return outputLength;
+    }
+
+    /**
+     * Gets the duration of the operation, without the time spent in the
+     * interceptors. Only valid in
+     * {@link SessionInterceptor#after(Invocation)}; 0 if an interceptor
+     * vetoed the operation.
+     *
+     * @return The duration in nanoseconds.
+     */
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    /**
+     * Gets the exception thrown by the operation or by an interceptor.
+     *
+     * @return The exception, or null if the operation succeeded.
+     */
+    public Exception getException() {
+      return exception;
+    }
+
+    /**
+     * Gets the object which an interceptor has attached to this invocation.
+     *
+     * @return The attached object, or null.
+     */
+    public Object getAttachment() {
+      return attachment;
+    }
+
+    /**
+     * Attaches an object to this invocation; e.g. a trace span started in
+     * {@link SessionInterceptor#before(Invocation)} and finished in
+     * {@link SessionInterceptor#after(Invocation)}.
+     *
+     * @param attachment
+     *          The object to attach.
+     */
+    public void setAttachment(Object attachment) {
+      this.attachment = attachment;
+    }
+
+    @Override
+    public String toString() {
+      return operation + " in session " + session.getSessionHandle();
+    }
+
+  }
+
+}
@@ -0,0 +1,118 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.util.Arrays;
+
+/**
+ * The interceptors of the sessions of one token: those registered with the
+ * module followed by those registered with the token. The chain is replaced
+ * as a whole on each change, so that sessions can read it without locking.
+ *
+ * @version 1.0
+ */
+final class SessionInterceptorChain {
+
+  static final SessionInterceptor[] EMPTY = new SessionInterceptor[0];
+
+  /**
+   * The interceptors registered with the token. Guarded by the module.
+   */
+  private SessionInterceptor[] tokenInterceptors = EMPTY;
+
+  /**
+   * The interceptors to call, or null if there is none.
+   */
+  private volatile SessionInterceptor[] interceptors;
+
+  /**
+   * Gets the interceptors to call.
+   *
+   * @return The interceptors, or null if there is none.
+   */
+  SessionInterceptor[] get() {
+    return interceptors;
+  }
+
+  SessionInterceptor[] getTokenInterceptors() {
+    return tokenInterceptors;
+  }
+
+  void update(SessionInterceptor[] moduleInterceptors,
+      SessionInterceptor[] tokenInterceptors) {
+    this.tokenInterceptors = tokenInterceptors;
+    int len = moduleInterceptors.length + tokenInterceptors.length;
+    if (len == 0) {
+      interceptors = null;
+    } else {
+      SessionInterceptor[] chain =
+          Arrays.copyOf(moduleInterceptors, len);
+      System.arraycopy(tokenInterceptors, 0, chain,
+          moduleInterceptors.length, tokenInterceptors.length);
+      interceptors = chain;
+    }
+  }
+
+  static SessionInterceptor[] add(SessionInterceptor[] interceptors,
+      SessionInterceptor interceptor) {
+    SessionInterceptor[] res =
+        Arrays.copyOf(interceptors, interceptors.length + 1);
+    res[interceptors.length] = interceptor;
+    return res;
+  }
+
+  static SessionInterceptor[] remove(SessionInterceptor[] interceptors,
+      SessionInterceptor interceptor) {
+    for (int i = 0; i < interceptors.length; i++) {
+      if (interceptors[i] == interceptor) {
+        SessionInterceptor[] res =
+            new SessionInterceptor[interceptors.length - 1];
+        System.arraycopy(interceptors, 0, res, 0, i);
+        System.arraycopy(interceptors, i + 1, res, i, res.length - i);
+        return res;
+      }
+    }
+    return interceptors;
+  }
+
+}
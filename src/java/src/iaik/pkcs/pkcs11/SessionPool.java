@@ -0,0 +1,921 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * A pool of sessions of one token. The pool consists of two sub-pools, one for
+ * read-only and one for read-write sessions, each with its own minimal and
+ * maximal size. The maximal sizes are bounded by the maximal session counts
+ * the token reports in its {@link TokenInfo}.
+ * <p>
+ * If a PIN is given, the user is logged in once when the first session is
+ * opened. Since all sessions of an application share the login state of the
+ * token, the other sessions need no login. If the token loses the login
+ * state, e.g. because all sessions have been closed, the pool logs in again.
+ * <p>
+ * Borrowing a session does not block as long as idle sessions are available
+ * or new sessions may be opened; otherwise the caller waits up to the borrow
+ * timeout. Sessions which have not been used for longer than the validation
+ * interval are checked with C_GetSessionInfo before they are handed out.
+ * Sessions which have been idle for longer than the idle timeout are closed,
+ * as long as the sub-pool keeps its minimal size; this happens when sessions
+ * are returned, or explicitly via {@link #evictIdleSessions()}.
+ * <p>
+ * Operations passed to {@link #execute(boolean, SessionCallback)}, and the
+ * convenience methods {@link #sign(Mechanism, Key, byte[])},
+ * {@link #verify(Mechanism, Key, byte[], byte[])},
+ * {@link #digest(Mechanism, byte[], int)}, {@link #generateRandom(int)} and
+ * {@link #findObjectHandles(PKCS11Object, int)}, survive a restart or
+ * fail-over of the token: if the token reports that the session is lost
+ * (see {@link #isSessionLost(long)}), all idle sessions are discarded and the
+ * operation is retried with a new session; if the token reports that the user
+ * is not logged in, the pool logs in again with the PIN obtained from the
+ * {@link PinCallback} and retries the operation. New sessions are only opened
+ * via the permits of the pool, so the session limits are never exceeded.
+ * <pre><code>
+ *   SessionPool pool = new SessionPool(token, pin, 1, 10, 0, 2);
+ *   try (PooledSession pooled = pool.borrowSession(false)) {
+ *     Session session = pooled.getSession();
+ *     ...
+ *   }
+ *   ...
+ *   pool.close();
+ * </code></pre>
+ * This class is thread-safe.
+ *
+ * @version 1.0
+ */
+public class SessionPool implements AutoCloseable {
+
+  /**
+   * Provides the PIN to log in to the token. The callback is retained by the
+   * pool and called each time the pool needs to log in.
+   */
+  public interface PinCallback {
+
+    /**
+     * Get the PIN. The pool overwrites the returned array after the login.
+     *
+     * @return The PIN.
+     * @exception TokenException
+     *              If the PIN is not available.
+     */
+    char[] getPin() throws TokenException;
+
+  }
+
+  /**
+   * An operation on a session. Operations executed via
+   * {@link SessionPool#execute(boolean, SessionCallback)} may be executed
+   * more than once and must therefore be idempotent.
+   *
+   * @param <T>
+   *          The type of the result.
+   */
+  public interface SessionCallback<T> {
+
+    /**
+     * Executes the operation.
+     *
+     * @param session
+     *          The session to use.
+     * @return The result.
+     * @exception TokenException
+     *              If executing the operation failed.
+     */
+    T execute(Session session) throws TokenException;
+
+  }
+
+  /**
+   * The sessions of one type, read-only or read-write.
+   */
+  private final class SubPool {
+
+    private final boolean rwSession;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    /**
+     * One permit for each session that may be borrowed, idle or not yet
+     * opened.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The idle sessions. The most recently returned session is the first one.
+     */
+    private final ConcurrentLinkedDeque<PooledSession> idleSessions =
+        new ConcurrentLinkedDeque<>();
+
+    /**
+     * The number of open sessions, idle or borrowed.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private SubPool(boolean rwSession, int minSize, int maxSize) {
+      this.rwSession = rwSession;
+      this.maxSize = maxSize;
+      this.minSize = Math.min(minSize, maxSize);
+      this.permits = new Semaphore(maxSize);
+    }
+
+  }
+
+  private final Token token;
+
+  private final long userType;
+
+  private final PinCallback pinCallback;
+
+  private final SubPool roPool;
+
+  private final SubPool rwPool;
+
+  /**
+   * The number of open sessions in both sub-pools.
+   */
+  private final AtomicInteger openSessions = new AtomicInteger();
+
+  /**
+   * False, if the token may have lost the login state.
+   */
+  private volatile boolean loggedIn;
+
+  private volatile boolean closed;
+
+  private volatile long borrowTimeout = 5000;
+
+  private volatile long idleTimeout = 10 * 60 * 1000;
+
+  private volatile long validationInterval = 30 * 1000;
+
+  private volatile int maxRetries = 2;
+
+  /**
+   * Creates a new pool and opens the minimal number of sessions. The user is
+   * logged in with the given PIN.
+   *
+   * @param token
+   *          The token to open the sessions with.
+   * @param pin
+   *          The user PIN. May be null if no login is required.
+   * @param minRoSessions
+   *          The minimal number of read-only sessions.
+   * @param maxRoSessions
+   *          The maximal number of read-only sessions.
+   * @param minRwSessions
+   *          The minimal number of read-write sessions.
+   * @param maxRwSessions
+   *          The maximal number of read-write sessions.
+   * @exception TokenException
+   *              If getting the token info or opening the sessions failed.
+   */
+  public SessionPool(Token token, char[] pin, int minRoSessions,
+      int maxRoSessions, int minRwSessions, int maxRwSessions)
+      throws TokenException {
+    this(token, PKCS11Constants.CKU_USER, pin, minRoSessions, maxRoSessions,
+        minRwSessions, maxRwSessions);
+  }
+
+  /**
+   * Creates a new pool and opens the minimal number of sessions.
+   *
+   * @param token
+   *          The token to open the sessions with.
+   * @param userType
+   *          PKCS11Constants.CKU_SO for the security officer or
+   *          PKCS11Constants.CKU_USER to login the user.
+   * @param pin
+   *          The PIN. May be null if no login is required.
+   * @param minRoSessions
+   *          The minimal number of read-only sessions.
+   * @param maxRoSessions
+   *          The maximal number of read-only sessions.
+   * @param minRwSessions
+   *          The minimal number of read-write sessions.
+   * @param maxRwSessions
+   *          The maximal number of read-write sessions.
+   * @exception TokenException
+   *              If getting the token info or opening the sessions failed.
+   */
+  public SessionPool(Token token, long userType, char[] pin,
+      int minRoSessions, int maxRoSessions, int minRwSessions,
+      int maxRwSessions) throws TokenException {
+    this(token, userType, toPinCallback(pin), minRoSessions, maxRoSessions,
+        minRwSessions, maxRwSessions);
+  }
+
+  /**
+   * Creates a new pool and opens the minimal number of sessions.
+   *
+   * @param token
+   *          The token to open the sessions with.
+   * @param userType
+   *          PKCS11Constants.CKU_SO for the security officer or
+   *          PKCS11Constants.CKU_USER to login the user.
+   * @param pinCallback
+   *          Provides the PIN each time the pool logs in. May be null if no
+   *          login is required.
+   * @param minRoSessions
+   *          The minimal number of read-only sessions.
+   * @param maxRoSessions
+   *          The maximal number of read-only sessions.
+   * @param minRwSessions
+   *          The minimal number of read-write sessions.
+   * @param maxRwSessions
+   *          The maximal number of read-write sessions.
+   * @exception TokenException
+   *              If getting the token info or opening the sessions failed.
+   */
+  public SessionPool(Token token, long userType, PinCallback pinCallback,
+      int minRoSessions, int maxRoSessions, int minRwSessions,
+      int maxRwSessions) throws TokenException {
+    this.token = Util.requireNonNull("token", token);
+    this.userType = userType;
+    this.pinCallback = pinCallback;
+    if (minRoSessions < 0 || maxRoSessions < 0 || minRwSessions < 0
+        || maxRwSessions < 0) {
+      throw new IllegalArgumentException("negative session count");
+    }
+
+    // ulMaxRwSessionCount bounds the read-write sessions, ulMaxSessionCount
+    // the read-only and read-write sessions together
+    TokenInfo tokenInfo = token.getTokenInfo();
+    long tokenMaxRw = tokenInfo.getMaxRwSessionCount();
+    if (isLimited(tokenMaxRw)) {
+      maxRwSessions = (int) Math.min(maxRwSessions, tokenMaxRw);
+    }
+
+    long tokenMax = tokenInfo.getMaxSessionCount();
+    if (isLimited(tokenMax)) {
+      maxRwSessions = (int) Math.min(maxRwSessions, tokenMax);
+      maxRoSessions = (int) Math.max(0,
+          Math.min(maxRoSessions, tokenMax - maxRwSessions));
+    }
+
+    this.roPool = new SubPool(false, minRoSessions, maxRoSessions);
+    this.rwPool = new SubPool(true, minRwSessions, maxRwSessions);
+
+    try {
+      fill(rwPool);
+      fill(roPool);
+    } catch (TokenException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  private static PinCallback toPinCallback(char[] pin) {
+    if (pin == null) {
+      return null;
+    }
+
+    final char[] retainedPin = pin.clone();
+    return () -> retainedPin.clone();
+  }
+
+  private static boolean isLimited(long count) {
+    return count != TokenInfo.EFFECTIVELY_INFINITE
+        && count != TokenInfo.UNAVAILABLE_INFORMATION
+        && count <= Integer.MAX_VALUE;
+  }
+
+  private void fill(SubPool pool) throws TokenException {
+    while (pool.size.get() < pool.minSize) {
+      pool.idleSessions.addLast(openSession(pool));
+    }
+  }
+
+  /**
+   * Get the token of this pool.
+   *
+   * @return The token.
+   */
+  public Token getToken() {
+    return token;
+  }
+
+  /**
+   * Get the maximal number of sessions of the given type, after applying the
+   * limits of the token.
+   *
+   * @param rwSession
+   *          True for read-write sessions, false for read-only sessions.
+   * @return The maximal number of sessions.
+   */
+  public int getMaxSessions(boolean rwSession) {
+    return (rwSession ? rwPool : roPool).maxSize;
+  }
+
+  /**
+   * Get the number of open sessions of the given type, idle or borrowed.
+   *
+   * @param rwSession
+   *          True for read-write sessions, false for read-only sessions.
+   * @return The number of open sessions.
+   */
+  public int getOpenSessions(boolean rwSession) {
+    return (rwSession ? rwPool : roPool).size.get();
+  }
+
+  /**
+   * Get the number of idle sessions of the given type.
+   *
+   * @param rwSession
+   *          True for read-write sessions, false for read-only sessions.
+   * @return The number of idle sessions.
+   */
+  public int getIdleSessions(boolean rwSession) {
+    return (rwSession ? rwPool : roPool).idleSessions.size();
+  }
+
+  /**
+   * Set the time to wait in {@link #borrowSession(boolean)} for a session.
+   * Default is 5 seconds.
+   *
+   * @param millis
+   *          The timeout in milliseconds.
+   */
+  public void setBorrowTimeout(long millis) {
+    this.borrowTimeout = millis;
+  }
+
+  /**
+   * Set the time after which idle sessions are closed. Default is 10 minutes.
+   *
+   * @param millis
+   *          The timeout in milliseconds.
+   */
+  public void setIdleTimeout(long millis) {
+    this.idleTimeout = millis;
+  }
+
+  /**
+   * Set the time after which an idle session is validated before it is
+   * borrowed. Default is 30 seconds; 0 validates every session on borrow.
+   *
+   * @param millis
+   *          The interval in milliseconds.
+   */
+  public void setValidationInterval(long millis) {
+    this.validationInterval = millis;
+  }
+
+  /**
+   * Set how often an operation is retried after the session has been lost or
+   * the user has been logged out. Default is 2.
+   *
+   * @param maxRetries
+   *          The maximal number of retries.
+   */
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  /**
+   * Borrows a session and waits up to the borrow timeout if none is
+   * available.
+   *
+   * @param rwSession
+   *          True for a read-write session, false for a read-only session.
+   * @return The borrowed session.
+   * @exception TokenException
+   *              If no session is available within the borrow timeout, or
+   *              opening a new session failed.
+   */
+  public PooledSession borrowSession(boolean rwSession) throws TokenException {
+    return borrowSession(rwSession, borrowTimeout);
+  }
+
+  /**
+   * Borrows a session and waits up to the given timeout if none is available.
+   *
+   * @param rwSession
+   *          True for a read-write session, false for a read-only session.
+   * @param timeoutMillis
+   *          The time to wait in milliseconds.
+   * @return The borrowed session.
+   * @exception TokenException
+   *              If no session is available within the timeout, or opening a
+   *              new session failed.
+   */
+  public PooledSession borrowSession(boolean rwSession, long timeoutMillis)
+      throws TokenException {
+    assertNotClosed();
+    SubPool pool = rwSession ? rwPool : roPool;
+    if (pool.maxSize == 0) {
+      throw new IllegalStateException("pool contains no "
+          + (rwSession ? "read-write" : "read-only") + " sessions");
+    }
+
+    if (!pool.permits.tryAcquire()) {
+      boolean acquired;
+      try {
+        acquired = pool.permits.tryAcquire(timeoutMillis,
+            TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new TokenException("interrupted while waiting for a session",
+            ex);
+      }
+
+      if (!acquired) {
+        throw new TokenException("no " + (rwSession ? "RW" : "RO")
+            + " session available within " + timeoutMillis + " ms");
+      }
+    }
+
+    try {
+      PooledSession pooled;
+      while ((pooled = pool.idleSessions.pollFirst()) != null) {
+        if (validate(pooled)) {
+          break;
+        }
+        closeSession(pool, pooled);
+      }
+
+      if (pooled == null) {
+        pooled = openSession(pool);
+      }
+
+      pooled.setBorrowed();
+      return pooled;
+    } catch (TokenException | RuntimeException ex) {
+      pool.permits.release();
+      throw ex;
+    }
+  }
+
+  /**
+   * Returns a borrowed session.
+   *
+   * @param pooled
+   *          The borrowed session.
+   * @param reusable
+   *          False, if the session shall be closed.
+   */
+  void returnSession(PooledSession pooled, boolean reusable) {
+    if (!pooled.clearBorrowed()) {
+      // already returned
+      return;
+    }
+
+    SubPool pool = pooled.isRwSession() ? rwPool : roPool;
+    long now = System.currentTimeMillis();
+    if (reusable && !closed) {
+      pooled.lastUsed = now;
+      pool.idleSessions.addFirst(pooled);
+    } else {
+      closeSession(pool, pooled);
+    }
+    pool.permits.release();
+
+    evictIdleSessions(pool, now);
+    if (closed) {
+      closeIdleSessions(pool);
+    }
+  }
+
+  /**
+   * Closes all sessions which have been idle for longer than the idle timeout,
+   * as long as the sub-pools keep their minimal sizes. Applications with a
+   * scheduler may call this method periodically; otherwise idle sessions are
+   * evicted when sessions are returned.
+   */
+  public void evictIdleSessions() {
+    long now = System.currentTimeMillis();
+    evictIdleSessions(roPool, now);
+    evictIdleSessions(rwPool, now);
+  }
+
+  private void evictIdleSessions(SubPool pool, long now) {
+    PooledSession oldest;
+    while (pool.size.get() > pool.minSize
+        && (oldest = pool.idleSessions.peekLast()) != null
+        && now - oldest.lastUsed > idleTimeout) {
+      if (pool.idleSessions.removeLastOccurrence(oldest)) {
+        closeSession(pool, oldest);
+      }
+    }
+  }
+
+  private boolean validate(PooledSession pooled) {
+    long now = System.currentTimeMillis();
+    if (now - pooled.lastUsed < validationInterval) {
+      return true;
+    }
+
+    try {
+      State state = pooled.getSession().getSessionInfo().getState();
+      if (pinCallback != null && !isLoggedIn(state)) {
+        // the token has lost the login state
+        login(pooled.getSession());
+      }
+      pooled.lastUsed = now;
+      return true;
+    } catch (TokenException ex) {
+      return false;
+    }
+  }
+
+  private static boolean isLoggedIn(State state) {
+    return State.RO_USER_FUNCTIONS.equals(state)
+        || State.RW_USER_FUNCTIONS.equals(state)
+        || State.RW_SO_FUNCTIONS.equals(state);
+  }
+
+  private PooledSession openSession(SubPool pool) throws TokenException {
+    Session session = token.openSession(Token.SessionType.SERIAL_SESSION,
+        pool.rwSession, null, null);
+    // the login state of the token is lost when the last session is closed
+    boolean first = openSessions.getAndIncrement() == 0;
+    pool.size.incrementAndGet();
+    if (pinCallback != null && (first || !loggedIn)) {
+      try {
+        login(session);
+      } catch (TokenException ex) {
+        closeSession(pool, session);
+        throw ex;
+      }
+    }
+
+    return new PooledSession(this, session, pool.rwSession);
+  }
+
+  private void login(Session session) throws TokenException {
+    char[] pin = pinCallback.getPin();
+    try {
+      session.login(userType, pin);
+    } catch (PKCS11Exception ex) {
+      // login state is shared by all sessions, another one was faster
+      if (ex.getErrorCode() != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN) {
+        throw ex;
+      }
+    } finally {
+      if (pin != null) {
+        Arrays.fill(pin, '\0');
+      }
+    }
+    loggedIn = true;
+  }
+
+  /**
+   * Executes an operation with a borrowed session. If the session is lost or
+   * the user is logged out while the operation is executed, the operation is
+   * retried up to {@link #setMaxRetries(int)} times, so it must be
+   * idempotent.
+   *
+   * @param <T>
+   *          The type of the result.
+   * @param rwSession
+   *          True for a read-write session, false for a read-only session.
+   * @param operation
+   *          The operation.
+   * @return The result of the operation.
+   * @exception TokenException
+   *              If the operation failed, or no session is available.
+   */
+  public <T> T execute(boolean rwSession, SessionCallback<T> operation)
+      throws TokenException {
+    return execute(rwSession, true, operation);
+  }
+
+  /**
+   * Executes an operation with a borrowed session. If the user is logged out
+   * while the operation is executed, the operation is retried up to
+   * {@link #setMaxRetries(int)} times. If the session is lost, the operation
+   * is only retried if it is idempotent, since it is unknown whether the
+   * token has executed it.
+   *
+   * @param <T>
+   *          The type of the result.
+   * @param rwSession
+   *          True for a read-write session, false for a read-only session.
+   * @param idempotent
+   *          True, if the operation may be executed more than once, e.g.
+   *          signing; false otherwise, e.g. generating a token object.
+   * @param operation
+   *          The operation.
+   * @return The result of the operation.
+   * @exception TokenException
+   *              If the operation failed, or no session is available.
+   */
+  public <T> T execute(boolean rwSession, boolean idempotent,
+      SessionCallback<T> operation) throws TokenException {
+    Util.requireNonNull("operation", operation);
+    for (int retry = 0;; retry++) {
+      PooledSession pooled = borrowSession(rwSession);
+      try {
+        T result = operation.execute(pooled.getSession());
+        pooled.close();
+        return result;
+      } catch (TokenException | RuntimeException ex) {
+        // the error code may be in an encapsulated exception; e.g.
+        // Session.findObjects wraps the exceptions of reading attributes
+        long errorCode = getErrorCode(ex);
+        if (isSessionLost(errorCode)) {
+          pooled.invalidate();
+          // the other sessions are most probably lost as well
+          loggedIn = false;
+          closeIdleSessions(roPool);
+          closeIdleSessions(rwPool);
+          if (!idempotent) {
+            throw ex;
+          }
+        } else if (errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN
+            && pinCallback != null) {
+          try {
+            login(pooled.getSession());
+          } catch (TokenException ex2) {
+            pooled.invalidate();
+            ex2.addSuppressed(ex);
+            throw ex2;
+          }
+          pooled.close();
+        } else {
+          pooled.close();
+          throw ex;
+        }
+
+        if (retry >= maxRetries) {
+          throw ex;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns true, if the error code indicates that the session has been lost,
+   * e.g. because the token has been restarted or removed. Such sessions
+   * cannot be used anymore.
+   *
+   * @param errorCode
+   *          The error code returned by the token.
+   * @return true, if the session has been lost.
+   */
+  public static boolean isSessionLost(long errorCode) {
+    return errorCode == PKCS11Constants.CKR_SESSION_HANDLE_INVALID
+        || errorCode == PKCS11Constants.CKR_SESSION_CLOSED
+        || errorCode == PKCS11Constants.CKR_DEVICE_REMOVED
+        || errorCode == PKCS11Constants.CKR_TOKEN_NOT_PRESENT;
+  }
+
+  /**
+   * Returns true, if the given exception or one of its encapsulated
+   * exceptions or causes reports that the session has been lost; see
+   * {@link #isSessionLost(long)}.
+   *
+   * @param exception
+   *          The exception thrown by an operation.
+   * @return true, if the session has been lost.
+   */
+  public static boolean isSessionLost(Throwable exception) {
+    return isSessionLost(getErrorCode(exception));
+  }
+
+  /**
+   * Returns the error code of the first PKCS#11 exception among the given
+   * exception and its encapsulated exceptions and causes, or -1 if there is
+   * none.
+   */
+  private static long getErrorCode(Throwable exception) {
+    // bounded, since the chain may contain a cycle
+    Throwable th = exception;
+    for (int i = 0; th != null && i < 16; i++) {
+      if (th instanceof PKCS11Exception) {
+        return ((PKCS11Exception) th).getErrorCode();
+      } else if (th instanceof sun.security.pkcs11.wrapper.PKCS11Exception) {
+        return ((sun.security.pkcs11.wrapper.PKCS11Exception) th)
+            .getErrorCode();
+      }
+
+      Throwable encapsulated = null;
+      if (th instanceof TokenException) {
+        encapsulated = ((TokenException) th).getEncapsulatedException();
+      } else if (th instanceof TokenRuntimeException) {
+        encapsulated =
+            ((TokenRuntimeException) th).getEncapsulatedException();
+      }
+      th = (encapsulated != null) ? encapsulated : th.getCause();
+    }
+    return -1;
+  }
+
+  /**
+   * Signs the data with a borrowed read-only session. The operation is
+   * retried if the session has been lost.
+   *
+   * @param mechanism
+   *          The signature mechanism.
+   * @param key
+   *          The signing key.
+   * @param data
+   *          The data to sign.
+   * @return The signature.
+   * @exception TokenException
+   *              If signing failed.
+   */
+  public byte[] sign(Mechanism mechanism, Key key, byte[] data)
+      throws TokenException {
+    return execute(false, session -> {
+      session.signInit(mechanism, key);
+      return session.sign(data);
+    });
+  }
+
+  /**
+   * Verifies the signature with a borrowed read-only session. The operation
+   * is retried if the session has been lost.
+   *
+   * @param mechanism
+   *          The signature mechanism.
+   * @param key
+   *          The verification key.
+   * @param data
+   *          The signed data.
+   * @param signature
+   *          The signature.
+   * @exception TokenException
+   *              If the signature is invalid or verifying failed.
+   */
+  public void verify(Mechanism mechanism, Key key, byte[] data,
+      byte[] signature) throws TokenException {
+    execute(false, session -> {
+      session.verifyInit(mechanism, key);
+      session.verify(data, signature);
+      return null;
+    });
+  }
+
+  /**
+   * Digests the data with a borrowed read-only session. The operation is
+   * retried if the session has been lost.
+   *
+   * @param mechanism
+   *          The digest mechanism.
+   * @param data
+   *          The data to digest.
+   * @param maxDigestLen
+   *          The maximal length of the digest.
+   * @return The digest.
+   * @exception TokenException
+   *              If digesting failed.
+   */
+  public byte[] digest(Mechanism mechanism, byte[] data, int maxDigestLen)
+      throws TokenException {
+    return execute(false, session -> {
+      byte[] digest = new byte[maxDigestLen];
+      int len = session.digestSingle(mechanism, data, 0, data.length,
+          digest, 0, maxDigestLen);
+      return (len == maxDigestLen) ? digest : Arrays.copyOf(digest, len);
+    });
+  }
+
+  /**
+   * Generates random bytes with a borrowed read-only session. The operation
+   * is retried if the session has been lost.
+   *
+   * @param numberOfBytesToGenerate
+   *          The number of random bytes to generate.
+   * @return The random bytes.
+   * @exception TokenException
+   *              If generating the random bytes failed.
+   */
+  public byte[] generateRandom(int numberOfBytesToGenerate)
+      throws TokenException {
+    return execute(false,
+        session -> session.generateRandom(numberOfBytesToGenerate));
+  }
+
+  /**
+   * Finds the handles of the objects matching the template with a borrowed
+   * read-only session. The operation is retried if the session has been
+   * lost.
+   *
+   * @param template
+   *          The search template. May be null to find all objects.
+   * @param maxObjectCount
+   *          The maximal number of handles to return.
+   * @return The object handles.
+   * @exception TokenException
+   *              If finding the objects failed.
+   */
+  public long[] findObjectHandles(PKCS11Object template, int maxObjectCount)
+      throws TokenException {
+    return execute(false, session -> {
+      session.findObjectsInit(template);
+      try {
+        return session.findObjectHandles(maxObjectCount);
+      } finally {
+        session.findObjectsFinal();
+      }
+    });
+  }
+
+  private void closeSession(SubPool pool, PooledSession pooled) {
+    closeSession(pool, pooled.getSession());
+  }
+
+  private void closeSession(SubPool pool, Session session) {
+    pool.size.decrementAndGet();
+    openSessions.decrementAndGet();
+    try {
+      session.closeSession();
+    } catch (TokenException ex) {
+      // the session is unusable anyway
+    }
+  }
+
+  private void closeIdleSessions(SubPool pool) {
+    PooledSession pooled;
+    while ((pooled = pool.idleSessions.pollFirst()) != null) {
+      closeSession(pool, pooled);
+    }
+  }
+
+  private void assertNotClosed() {
+    if (closed) {
+      throw new IllegalStateException("session pool has been closed");
+    }
+  }
+
+  /**
+   * Closes all idle sessions. Borrowed sessions are closed when they are
+   * returned. The pool cannot be used anymore.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    closeIdleSessions(roPool);
+    closeIdleSessions(rwPool);
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    return Util.concatObjects("Session Pool of Token: ", token.getTokenID(),
+        "\nRO Sessions: ", roPool.size.get(), " (", roPool.minSize, "..",
+        roPool.maxSize, ", idle ", roPool.idleSessions.size(),
+        ")\nRW Sessions: ", rwPool.size.get(), " (", rwPool.minSize, "..",
+        rwPool.maxSize, ", idle ", rwPool.idleSessions.size(), ")");
+  }
+
+}
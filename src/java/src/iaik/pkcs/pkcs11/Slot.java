@@ -165,7 +165,7 @@ public class Slot {
   public SlotInfo getSlotInfo() throws TokenException {
     CK_SLOT_INFO ckSlotInfo;
     try {
-      ckSlotInfo = module.getPKCS11Module().C_GetSlotInfo(slotID);
+      ckSlotInfo = module.getBackend().C_GetSlotInfo(slotID);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
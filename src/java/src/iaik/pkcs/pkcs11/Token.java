@@ -208,6 +208,42 @@ public class Token {
     return slot.getSlotID();
   }
 
+  /**
+   * Get the cache which resolves the class, key type and CKA_ID or CKA_LABEL
+   * of the objects of this token to their handles. All Token objects of the
+   * same slot share the cache.
+   *
+   * @return The key handle cache of this token.
+   */
+  public KeyHandleCache getKeyHandleCache() {
+    return slot.getModule().getKeyHandleCache(slot.getSlotID());
+  }
+
+  /**
+   * Registers an interceptor which is called for the operations of the
+   * sessions of this token, including sessions already open. All Token
+   * objects of the same slot share the interceptors.
+   *
+   * @param interceptor
+   *          The interceptor to add.
+   * @see Module#addSessionInterceptor(SessionInterceptor)
+   */
+  public void addSessionInterceptor(SessionInterceptor interceptor) {
+    slot.getModule().addSessionInterceptor(slot.getSlotID(), interceptor);
+  }
+
+  /**
+   * Removes an interceptor added by
+   * {@link #addSessionInterceptor(SessionInterceptor)}.
+   *
+   * @param interceptor
+   *          The interceptor to remove.
+   */
+  public void removeSessionInterceptor(SessionInterceptor interceptor) {
+    slot.getModule().removeSessionInterceptor(slot.getSlotID(),
+        interceptor);
+  }
+
   /**
    * Get information about this token.
    *
@@ -218,7 +254,7 @@ public class Token {
   public TokenInfo getTokenInfo() throws TokenException {
     CK_TOKEN_INFO ckTokenInfo;
     try {
-      ckTokenInfo = slot.getModule().getPKCS11Module()
+      ckTokenInfo = slot.getModule().getBackend()
         .C_GetTokenInfo(slot.getSlotID());
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
@@ -240,7 +276,7 @@ public class Token {
   public Mechanism[] getMechanismList() throws TokenException {
     long[] mechanismIdList;
     try {
-      mechanismIdList = slot.getModule().getPKCS11Module()
+      mechanismIdList = slot.getModule().getBackend()
         .C_GetMechanismList(slot.getSlotID());
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
@@ -269,7 +305,7 @@ public class Token {
     long mechanismCode = mechanism.getMechanismCode();
     CK_MECHANISM_INFO ckMechanismInfo;
     try {
-      ckMechanismInfo = slot.getModule().getPKCS11Module()
+      ckMechanismInfo = slot.getModule().getBackend()
         .C_GetMechanismInfo(slot.getSlotID(), mechanismCode);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
@@ -313,7 +349,7 @@ public class Token {
   public void initToken(char[] pin, String label)
     throws TokenException {
     char[] labelChars = Util.toPaddedCharArray(label, 32, ' ');
-    slot.getModule().getPKCS11Module().C_InitToken(slot.getSlotID(), pin,
+    slot.getModule().getBackend().C_InitToken(slot.getSlotID(), pin,
          labelChars, useUtf8Encoding);
   }
   */
@@ -368,7 +404,7 @@ public class Token {
 
     long sessionHandle;
     try {
-      sessionHandle = slot.getModule().getPKCS11Module()
+      sessionHandle = slot.getModule().getBackend()
         .C_OpenSession(slot.getSlotID(), flags, application, ckNotify);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
@@ -389,7 +425,7 @@ public class Token {
   /* public void closeAllSessions()
     throws TokenException {
     try {
-      slot.getModule().getPKCS11Module().C_CloseSession(slot.getSlotID());
+      slot.getModule().getBackend().C_CloseSession(slot.getSlotID());
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
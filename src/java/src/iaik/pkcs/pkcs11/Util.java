@@ -42,10 +42,14 @@
 
 package iaik.pkcs.pkcs11;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -69,6 +73,43 @@ import sun.security.pkcs11.wrapper.CK_DATE;
  */
 public class Util {
 
+  /**
+   * Reads the field Buffer.address via sun.misc.Unsafe.getLong(Object, long),
+   * bound to the Unsafe instance. Null if not available.
+   */
+  private static final MethodHandle BUFFER_ADDRESS_GETTER;
+
+  private static final long BUFFER_ADDRESS_OFFSET;
+
+  static {
+    MethodHandle getter = null;
+    long offset = -1;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+
+      Method objectFieldOffset = unsafeClass.getMethod("objectFieldOffset",
+          Field.class);
+      offset = (Long) objectFieldOffset.invoke(unsafe,
+          Buffer.class.getDeclaredField("address"));
+      getter = MethodHandles.lookup().unreflect(
+          unsafeClass.getMethod("getLong", Object.class, long.class))
+          .bindTo(unsafe);
+
+      // check that the address is read correctly
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1);
+      if ((long) getter.invokeExact((Object) buffer, offset) == 0) {
+        getter = null;
+      }
+    } catch (Throwable th) {
+      getter = null;
+    }
+    BUFFER_ADDRESS_GETTER = getter;
+    BUFFER_ADDRESS_OFFSET = offset;
+  }
+
   public static <T> T requireNonNull(String paramName, T param) {
     if (param == null) {
       throw new NullPointerException(
@@ -441,4 +482,89 @@ public class Util {
     }
   }
 
+  /**
+   * Converts the given method to a method handle. The handle is resolved
+   * once and can then be invoked without boxing the arguments.
+   *
+   * @param method
+   *          The method. May be null.
+   * @return The method handle, or null if method is null or not accessible.
+   */
+  public static MethodHandle unreflect(Method method) {
+    if (method == null) {
+      return null;
+    }
+
+    try {
+      return MethodHandles.lookup().unreflect(method);
+    } catch (Throwable th) {
+      return null;
+    }
+  }
+
+  /**
+   * Converts the given constructor to a method handle whose return type is
+   * Object, so that it can be invoked with invokeExact without knowing the
+   * class at compile time.
+   *
+   * @param constructor
+   *          The constructor. May be null.
+   * @return The method handle, or null if constructor is null or not
+   *         accessible.
+   */
+  public static MethodHandle unreflectConstructor(Constructor<?> constructor) {
+    if (constructor == null) {
+      return null;
+    }
+
+    try {
+      MethodHandle handle = MethodHandles.lookup().unreflectConstructor(
+          constructor);
+      return handle.asType(handle.type().changeReturnType(Object.class));
+    } catch (Throwable th) {
+      return null;
+    }
+  }
+
+  /**
+   * Converts the given field to a method handle which sets the field.
+   *
+   * @param field
+   *          The field. May be null.
+   * @return The method handle, or null if field is null or not accessible.
+   */
+  public static MethodHandle unreflectSetter(Field field) {
+    if (field == null) {
+      return null;
+    }
+
+    try {
+      return MethodHandles.lookup().unreflectSetter(field);
+    } catch (Throwable th) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the native address of the current position of a direct buffer.
+   *
+   * @param buffer
+   *          The buffer. Must not be null.
+   * @return The native address, or 0 if the buffer is not direct or its
+   *         address cannot be read on this JVM.
+   */
+  public static long directAddress(ByteBuffer buffer) {
+    if (BUFFER_ADDRESS_GETTER == null || !buffer.isDirect()) {
+      return 0;
+    }
+
+    try {
+      long address = (long) BUFFER_ADDRESS_GETTER.invokeExact(
+          (Object) buffer, BUFFER_ADDRESS_OFFSET);
+      return (address == 0) ? 0 : address + buffer.position();
+    } catch (Throwable th) {
+      return 0;
+    }
+  }
+
 }
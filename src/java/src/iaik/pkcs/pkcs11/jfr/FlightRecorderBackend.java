@@ -0,0 +1,1033 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.jfr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+
+/**
+ * A {@link PKCS11Backend} which emits Java Flight Recorder events for the
+ * calls to another backend: opening and closing sessions, login and logout,
+ * finding objects, reading attributes, initializing and finishing
+ * cryptographic operations and generating keys. The events have the
+ * category "PKCS#11" and the names iaik.pkcs11.*; see the subclasses of
+ * {@link PKCS11Event}. Multi-part update calls emit no events.
+ * <p>
+ * The mechanism of an event for a call which finishes an operation, e.g.
+ * C_SignFinal, is the one passed to the function which initialized the
+ * operation in the same session, if the event was enabled at that time.
+ * <p>
+ * While no recording is running the events are not instrumented, and the
+ * calls cost nearly nothing more than those of the decorated backend. The
+ * jdk.jfr API is needed at runtime (Java 11, or Java 8 update 262 and
+ * later); applications which run on older runtimes as well must not
+ * reference this class but use {@link FlightRecording}. To record the calls
+ * to a module, create it with
+ * <pre><code>
+ *   Module.getInstance(moduleName,
+ *       FlightRecorderBackend.factory(JniBackend.FACTORY))
+ * </code></pre>
+ *
+ * @version 1.0
+ */
+public class FlightRecorderBackend implements PKCS11Backend {
+
+  private static final long NONE = -1;
+
+  private static final int OP_ENCRYPT = 0;
+
+  private static final int OP_DECRYPT = 1;
+
+  private static final int OP_DIGEST = 2;
+
+  private static final int OP_SIGN = 3;
+
+  private static final int OP_SIGN_RECOVER = 4;
+
+  private static final int OP_VERIFY = 5;
+
+  private static final int OP_VERIFY_RECOVER = 6;
+
+  private static final int OPERATIONS = 7;
+
+  private final PKCS11Backend backend;
+
+  /**
+   * The mechanisms of the active operations, per session handle.
+   */
+  private final ConcurrentMap<Long, long[]> sessions =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Creates a backend which emits events for the calls to the given
+   * backend.
+   *
+   * @param backend
+   *          The backend to be recorded.
+   */
+  public FlightRecorderBackend(PKCS11Backend backend) {
+    this.backend = Util.requireNonNull("backend", backend);
+  }
+
+  /**
+   * Gets a factory which emits events for the calls to the backends created
+   * by the given factory.
+   *
+   * @param backendFactory
+   *          The factory of the backends to be recorded.
+   * @return the factory.
+   */
+  public static Factory factory(Factory backendFactory) {
+    Util.requireNonNull("backendFactory", backendFactory);
+    return (pkcs11ModuleName, initArgs) -> new FlightRecorderBackend(
+        backendFactory.connect(pkcs11ModuleName, initArgs));
+  }
+
+  /**
+   * Gets the recorded backend.
+   *
+   * @return the recorded backend.
+   */
+  public PKCS11Backend getBackend() {
+    return backend;
+  }
+
+  private static long mechanismCode(CK_MECHANISM mechanism) {
+    return (mechanism == null) ? NONE : mechanism.mechanism;
+  }
+
+  private static String mechanismName(long mechanismCode) {
+    return (mechanismCode == NONE)
+        ? null : Functions.mechanismCodeToString(mechanismCode);
+  }
+
+  private static int length(byte[] bytes) {
+    return (bytes == null) ? 0 : bytes.length;
+  }
+
+  private static int length(CK_ATTRIBUTE[] template) {
+    return (template == null) ? 0 : template.length;
+  }
+
+  /**
+   * Remembers the mechanism of an initialized operation for the event of
+   * the call which finishes it. Nothing is remembered if that event is not
+   * enabled.
+   */
+  private void initialized(long hSession, int operation,
+      CK_MECHANISM mechanism, long ckr) {
+    if (!new CryptoFinalEvent().isEnabled()) {
+      return;
+    }
+
+    long[] mechanismCodes = sessions.get(hSession);
+    if (mechanismCodes == null) {
+      mechanismCodes = new long[OPERATIONS];
+      long[] previous = sessions.putIfAbsent(hSession, mechanismCodes);
+      if (previous != null) {
+        mechanismCodes = previous;
+      }
+    }
+    mechanismCodes[operation] =
+        (ckr == PKCS11Constants.CKR_OK) ? mechanismCode(mechanism) : NONE;
+  }
+
+  // The commit methods are only called if event.shouldCommit() is true, so
+  // that the events do not escape and are not allocated otherwise.
+
+  private static void commit(LoginEvent event, String function,
+      long hSession, long userType, long ckr) {
+    event.function = function;
+    event.sessionHandle = hSession;
+    event.userType = userType;
+    event.result = Functions.errorCodeToString(ckr);
+    event.commit();
+  }
+
+  private static void commit(FindObjectsEvent event, String function,
+      long hSession, int attributeCount, int objectCount, long ckr) {
+    event.function = function;
+    event.sessionHandle = hSession;
+    event.attributeCount = attributeCount;
+    event.objectCount = objectCount;
+    event.result = Functions.errorCodeToString(ckr);
+    event.commit();
+  }
+
+  private static void commit(CryptoInitEvent event, String function,
+      long hSession, CK_MECHANISM mechanism, long hKey, long ckr) {
+    event.function = function;
+    event.sessionHandle = hSession;
+    event.mechanism = mechanismName(mechanismCode(mechanism));
+    event.keyHandle = hKey;
+    event.result = Functions.errorCodeToString(ckr);
+    event.commit();
+  }
+
+  private void commit(CryptoFinalEvent event, String function, long hSession,
+      int operation, long inputLength, long outputLength, long ckr) {
+    long[] mechanismCodes = sessions.get(hSession);
+    commitFinal(event, function, hSession,
+        (mechanismCodes == null) ? NONE : mechanismCodes[operation],
+        inputLength, outputLength, ckr);
+  }
+
+  private static void commitFinal(CryptoFinalEvent event, String function,
+      long hSession, long mechanismCode, long inputLength, long outputLength,
+      long ckr) {
+    event.function = function;
+    event.sessionHandle = hSession;
+    event.mechanism = mechanismName(mechanismCode);
+    event.inputLength = inputLength;
+    event.outputLength = outputLength;
+    event.result = Functions.errorCodeToString(ckr);
+    event.commit();
+  }
+
+  private static void commit(GenerateKeyEvent event, String function,
+      long hSession, CK_MECHANISM mechanism, int attributeCount, long ckr) {
+    event.function = function;
+    event.sessionHandle = hSession;
+    event.mechanism = mechanismName(mechanismCode(mechanism));
+    event.attributeCount = attributeCount;
+    event.result = Functions.errorCodeToString(ckr);
+    event.commit();
+  }
+
+  @Override
+  public void C_Finalize(Object pReserved)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    try {
+      backend.C_Finalize(pReserved);
+    } finally {
+      sessions.clear();
+    }
+  }
+
+  @Override
+  public CK_INFO C_GetInfo()
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_GetInfo();
+  }
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_GetSlotList(tokenPresent);
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_GetSlotInfo(slotID);
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_GetTokenInfo(slotID);
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_GetMechanismList(slotID);
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_GetMechanismInfo(slotID, type);
+  }
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object pApplication,
+      CK_NOTIFY notify)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    OpenSessionEvent event = new OpenSessionEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    long hSession = 0;
+    try {
+      hSession = backend.C_OpenSession(slotID, flags, pApplication, notify);
+      return hSession;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        event.function = "C_OpenSession";
+        event.sessionHandle = hSession;
+        event.slotId = slotID;
+        event.flags = flags;
+        event.result = Functions.errorCodeToString(ckr);
+        event.commit();
+      }
+    }
+  }
+
+  @Override
+  public void C_CloseSession(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CloseSessionEvent event = new CloseSessionEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_CloseSession(hSession);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      sessions.remove(hSession);
+      if (event.shouldCommit()) {
+        event.function = "C_CloseSession";
+        event.sessionHandle = hSession;
+        event.result = Functions.errorCodeToString(ckr);
+        event.commit();
+      }
+    }
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_GetSessionInfo(hSession);
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_GetOperationState(hSession);
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] pOperationState,
+      long hEncryptionKey, long hAuthenticationKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    backend.C_SetOperationState(hSession, pOperationState, hEncryptionKey,
+        hAuthenticationKey);
+  }
+
+  @Override
+  public void C_Login(long hSession, long userType, char[] pPin)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    LoginEvent event = new LoginEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_Login(hSession, userType, pPin);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_Login", hSession, userType, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_Logout(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    LoginEvent event = new LoginEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_Logout(hSession);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_Logout", hSession, -1, ckr);
+      }
+    }
+  }
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_CreateObject(hSession, pTemplate);
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_CopyObject(hSession, hObject, pTemplate);
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    backend.C_DestroyObject(hSession, hObject);
+  }
+
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    GetAttributeValueEvent event = new GetAttributeValueEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_GetAttributeValue(hSession, hObject, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        event.function = "C_GetAttributeValue";
+        event.sessionHandle = hSession;
+        event.objectHandle = hObject;
+        event.attributeCount = (pTemplate == null) ? 0 : pTemplate.length;
+        event.result = Functions.errorCodeToString(ckr);
+        event.commit();
+      }
+    }
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    backend.C_SetAttributeValue(hSession, hObject, pTemplate);
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    FindObjectsEvent event = new FindObjectsEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_FindObjectsInit(hSession, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_FindObjectsInit", hSession,
+            (pTemplate == null) ? 0 : pTemplate.length, 0, ckr);
+      }
+    }
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    FindObjectsEvent event = new FindObjectsEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    long[] handles = null;
+    try {
+      handles = backend.C_FindObjects(hSession, ulMaxObjectCount);
+      return handles;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_FindObjects", hSession, 0,
+            (handles == null) ? 0 : handles.length, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    FindObjectsEvent event = new FindObjectsEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_FindObjectsFinal(hSession);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_FindObjectsFinal", hSession, 0, 0, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoInitEvent event = new CryptoInitEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_EncryptInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      initialized(hSession, OP_ENCRYPT, pMechanism, ckr);
+      if (event.shouldCommit()) {
+        commit(event, "C_EncryptInit", hSession, pMechanism, hKey, ckr);
+      }
+    }
+  }
+
+  @Override
+  public int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    int len = 0;
+    try {
+      len = backend.C_Encrypt(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_Encrypt", hSession, OP_ENCRYPT,
+            inLen, len, ckr);
+      }
+    }
+  }
+
+  @Override
+  public int C_EncryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_EncryptUpdate(hSession, directIn, in, inOfs, inLen,
+        directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_EncryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    int len = 0;
+    try {
+      len = backend.C_EncryptFinal(hSession, directOut, out, outOfs,
+          outLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_EncryptFinal", hSession, OP_ENCRYPT,
+            0, len, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoInitEvent event = new CryptoInitEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_DecryptInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      initialized(hSession, OP_DECRYPT, pMechanism, ckr);
+      if (event.shouldCommit()) {
+        commit(event, "C_DecryptInit", hSession, pMechanism, hKey, ckr);
+      }
+    }
+  }
+
+  @Override
+  public int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    int len = 0;
+    try {
+      len = backend.C_Decrypt(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_Decrypt", hSession, OP_DECRYPT,
+            inLen, len, ckr);
+      }
+    }
+  }
+
+  @Override
+  public int C_DecryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_DecryptUpdate(hSession, directIn, in, inOfs, inLen,
+        directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_DecryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    int len = 0;
+    try {
+      len = backend.C_DecryptFinal(hSession, directOut, out, outOfs,
+          outLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_DecryptFinal", hSession, OP_DECRYPT,
+            0, len, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM pMechanism)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoInitEvent event = new CryptoInitEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_DigestInit(hSession, pMechanism);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      initialized(hSession, OP_DIGEST, pMechanism, ckr);
+      if (event.shouldCommit()) {
+        commit(event, "C_DigestInit", hSession, pMechanism, 0, ckr);
+      }
+    }
+  }
+
+  @Override
+  public int C_DigestSingle(long hSession, CK_MECHANISM pMechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    int len = 0;
+    try {
+      len = backend.C_DigestSingle(hSession, pMechanism, in, inOfs, inLen,
+          digest, digestOfs, digestLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commitFinal(event, "C_DigestSingle", hSession,
+            mechanismCode(pMechanism), inLen, len, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    backend.C_DigestUpdate(hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    backend.C_DigestKey(hSession, hKey);
+  }
+
+  @Override
+  public int C_DigestFinal(long hSession, byte[] pDigest, int digestOfs,
+      int digestLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    int len = 0;
+    try {
+      len = backend.C_DigestFinal(hSession, pDigest, digestOfs, digestLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_DigestFinal", hSession, OP_DIGEST,
+            0, len, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoInitEvent event = new CryptoInitEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_SignInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      initialized(hSession, OP_SIGN, pMechanism, ckr);
+      if (event.shouldCommit()) {
+        commit(event, "C_SignInit", hSession, pMechanism, hKey, ckr);
+      }
+    }
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] pData)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    byte[] signature = null;
+    try {
+      signature = backend.C_Sign(hSession, pData);
+      return signature;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_Sign", hSession, OP_SIGN,
+            length(pData), length(signature), ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    backend.C_SignUpdate(hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession, int expectedLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    byte[] signature = null;
+    try {
+      signature = backend.C_SignFinal(hSession, expectedLen);
+      return signature;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_SignFinal", hSession, OP_SIGN,
+            0, length(signature), ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoInitEvent event = new CryptoInitEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_SignRecoverInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      initialized(hSession, OP_SIGN_RECOVER, pMechanism, ckr);
+      if (event.shouldCommit()) {
+        commit(event, "C_SignRecoverInit", hSession, pMechanism, hKey, ckr);
+      }
+    }
+  }
+
+  @Override
+  public int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    int len = 0;
+    try {
+      len = backend.C_SignRecover(hSession, in, inOfs, inLen, out, outOfs,
+          outLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_SignRecover", hSession, OP_SIGN_RECOVER,
+            inLen, len, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoInitEvent event = new CryptoInitEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_VerifyInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      initialized(hSession, OP_VERIFY, pMechanism, ckr);
+      if (event.shouldCommit()) {
+        commit(event, "C_VerifyInit", hSession, pMechanism, hKey, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_Verify(hSession, pData, pSignature);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_Verify", hSession, OP_VERIFY,
+            length(pData) + length(pSignature), 0, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    backend.C_VerifyUpdate(hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] pSignature)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_VerifyFinal(hSession, pSignature);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_VerifyFinal", hSession, OP_VERIFY,
+            length(pSignature), 0, ckr);
+      }
+    }
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoInitEvent event = new CryptoInitEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      backend.C_VerifyRecoverInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      initialized(hSession, OP_VERIFY_RECOVER, pMechanism, ckr);
+      if (event.shouldCommit()) {
+        commit(event, "C_VerifyRecoverInit", hSession, pMechanism, hKey, ckr);
+      }
+    }
+  }
+
+  @Override
+  public int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CryptoFinalEvent event = new CryptoFinalEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    int len = 0;
+    try {
+      len = backend.C_VerifyRecover(hSession, in, inOfs, inLen, out,
+          outOfs, outLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_VerifyRecover", hSession, OP_VERIFY_RECOVER,
+            inLen, len, ckr);
+      }
+    }
+  }
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    GenerateKeyEvent event = new GenerateKeyEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      return backend.C_GenerateKey(hSession, pMechanism, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_GenerateKey", hSession, pMechanism,
+            length(pTemplate), ckr);
+      }
+    }
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pPublicKeyTemplate, CK_ATTRIBUTE[] pPrivateKeyTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    GenerateKeyEvent event = new GenerateKeyEvent();
+    event.begin();
+    long ckr = PKCS11Constants.CKR_OK;
+    try {
+      return backend.C_GenerateKeyPair(hSession, pMechanism,
+          pPublicKeyTemplate, pPrivateKeyTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      ckr = ex.getErrorCode();
+      throw ex;
+    } finally {
+      if (event.shouldCommit()) {
+        commit(event, "C_GenerateKeyPair", hSession, pMechanism,
+            length(pPublicKeyTemplate) + length(pPrivateKeyTemplate), ckr);
+      }
+    }
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hWrappingKey, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_WrapKey(hSession, pMechanism, hWrappingKey, hKey);
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hUnwrappingKey, byte[] pWrappedKey, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_UnwrapKey(hSession, pMechanism, hUnwrappingKey,
+        pWrappedKey, pTemplate);
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM pMechanism, long hBaseKey,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return backend.C_DeriveKey(hSession, pMechanism, hBaseKey, pTemplate);
+  }
+
+  @Override
+  public void C_SeedRandom(long hSession, byte[] pSeed)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    backend.C_SeedRandom(hSession, pSeed);
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    backend.C_GenerateRandom(hSession, randomData);
+  }
+  @Override
+  public boolean supportsDirectBuffers() {
+    return backend.supportsDirectBuffers();
+  }
+
+  @Override
+  public String toString() {
+    return "FlightRecorderBackend of " + backend;
+  }
+
+}
@@ -0,0 +1,132 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.jfr;
+
+import java.lang.invoke.MethodHandle;
+
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend.Factory;
+
+/**
+ * Creates {@link FlightRecorderBackend}s if the runtime provides the jdk.jfr
+ * API (Java 11, or Java 8 update 262 and later). This class does not
+ * reference jdk.jfr itself; it loads the backend via a method handle, so
+ * that applications may call it on any Java 8 runtime. To record the calls
+ * to a module where possible, create it with
+ * <pre><code>
+ *   Module.getInstance(moduleName,
+ *       FlightRecording.factory(JniBackend.FACTORY))
+ * </code></pre>
+ *
+ * @version 1.0
+ */
+public final class FlightRecording {
+
+  private static final String CLASS_EVENT = "jdk.jfr.Event";
+
+  private static final String CLASS_BACKEND =
+      "iaik.pkcs.pkcs11.jfr.FlightRecorderBackend";
+
+  /**
+   * The constructor FlightRecorderBackend(PKCS11Backend), null if jdk.jfr
+   * is not available.
+   */
+  private static final MethodHandle BACKEND_CONSTRUCTOR;
+
+  static {
+    MethodHandle constructor = null;
+    try {
+      // load the backend only if it can be linked
+      Class.forName(CLASS_EVENT, false,
+          FlightRecording.class.getClassLoader());
+      constructor = Util.unreflectConstructor(
+          Util.getConstructor(CLASS_BACKEND, PKCS11Backend.class));
+    } catch (ClassNotFoundException ex) {
+      // jdk.jfr is not available
+    }
+    BACKEND_CONSTRUCTOR = constructor;
+  }
+
+  private FlightRecording() {
+  }
+
+  /**
+   * Checks whether the runtime provides the jdk.jfr API.
+   *
+   * @return True, if {@link FlightRecorderBackend} can be used.
+   */
+  public static boolean isAvailable() {
+    return BACKEND_CONSTRUCTOR != null;
+  }
+
+  /**
+   * Gets a factory which emits events for the calls to the backends created
+   * by the given factory, like {@link FlightRecorderBackend#factory(Factory)}.
+   * If the runtime does not provide the jdk.jfr API, the given factory is
+   * returned and no events are emitted.
+   *
+   * @param backendFactory
+   *          The factory of the backends to be recorded.
+   * @return the factory.
+   */
+  public static Factory factory(Factory backendFactory) {
+    Util.requireNonNull("backendFactory", backendFactory);
+    if (BACKEND_CONSTRUCTOR == null) {
+      return backendFactory;
+    }
+
+    return (pkcs11ModuleName, initArgs) -> newBackend(
+        backendFactory.connect(pkcs11ModuleName, initArgs));
+  }
+
+  private static PKCS11Backend newBackend(PKCS11Backend backend) {
+    try {
+      return (PKCS11Backend) (Object) BACKEND_CONSTRUCTOR.invokeExact(backend);
+    } catch (Throwable th) {
+      throw new IllegalStateException(
+          "Could not create new instance of " + CLASS_BACKEND, th);
+    }
+  }
+
+}
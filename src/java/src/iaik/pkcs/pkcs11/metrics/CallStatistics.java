@@ -0,0 +1,203 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import iaik.pkcs.pkcs11.wrapper.Functions;
+
+/**
+ * The statistics of the calls of one PKCS#11 function with one mechanism on
+ * one slot: the number of calls, the failed calls per error code and a
+ * histogram of the latencies. Instances are created and updated by
+ * {@link MeteredBackend}.
+ *
+ * @version 1.0
+ */
+public final class CallStatistics implements CallStatisticsMXBean {
+
+  /**
+   * Slot ID and mechanism code of calls which have no slot or mechanism.
+   */
+  public static final long NONE = -1;
+
+  private final String function;
+
+  private final long slotId;
+
+  private final long mechanismCode;
+
+  private final LatencyHistogram latencies = new LatencyHistogram();
+
+  private final ConcurrentMap<Long, LongAdder> errors =
+      new ConcurrentHashMap<>();
+
+  CallStatistics(String function, long slotId, long mechanismCode) {
+    this.function = function;
+    this.slotId = slotId;
+    this.mechanismCode = mechanismCode;
+  }
+
+  void record(long nanos) {
+    latencies.record(nanos);
+  }
+
+  void recordError(long errorCode) {
+    LongAdder counter = errors.get(errorCode);
+    if (counter == null) {
+      counter = errors.computeIfAbsent(errorCode, k -> new LongAdder());
+    }
+    counter.increment();
+  }
+
+  @Override
+  public String getFunction() {
+    return function;
+  }
+
+  @Override
+  public long getSlotId() {
+    return slotId;
+  }
+
+  /**
+   * Gets the code of the mechanism.
+   *
+   * @return the code of the mechanism, or {@link #NONE} if the function is
+   *         called without a mechanism.
+   */
+  public long getMechanismCode() {
+    return mechanismCode;
+  }
+
+  @Override
+  public String getMechanism() {
+    return (mechanismCode == NONE)
+        ? null : Functions.mechanismCodeToString(mechanismCode);
+  }
+
+  @Override
+  public long getCount() {
+    return latencies.getCount();
+  }
+
+  @Override
+  public long getErrorCount() {
+    long count = 0;
+    for (LongAdder counter : errors.values()) {
+      count += counter.sum();
+    }
+    return count;
+  }
+
+  @Override
+  public Map<String, Long> getErrors() {
+    Map<String, Long> map = new TreeMap<>();
+    for (Map.Entry<Long, LongAdder> entry : errors.entrySet()) {
+      map.put(Functions.errorCodeToString(entry.getKey()),
+          entry.getValue().sum());
+    }
+    return map;
+  }
+
+  /**
+   * Gets the histogram of the latencies.
+   *
+   * @return the histogram of the latencies.
+   */
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+
+  @Override
+  public double getMeanMicros() {
+    return latencies.getMean() / 1000;
+  }
+
+  @Override
+  public double getP50Micros() {
+    return latencies.getValueAtPercentile(50) / 1000.0;
+  }
+
+  @Override
+  public double getP99Micros() {
+    return latencies.getValueAtPercentile(99) / 1000.0;
+  }
+
+  @Override
+  public double getP999Micros() {
+    return latencies.getValueAtPercentile(99.9) / 1000.0;
+  }
+
+  @Override
+  public double getMaxMicros() {
+    return latencies.getMax() / 1000.0;
+  }
+
+  @Override
+  public void reset() {
+    latencies.reset();
+    errors.clear();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(function);
+    if (slotId != NONE) {
+      sb.append(", slot ").append(slotId);
+    }
+    if (mechanismCode != NONE) {
+      sb.append(", ").append(getMechanism());
+    }
+    sb.append(": ").append(latencies);
+    if (!errors.isEmpty()) {
+      sb.append(", errors=").append(getErrors());
+    }
+    return sb.toString();
+  }
+
+}
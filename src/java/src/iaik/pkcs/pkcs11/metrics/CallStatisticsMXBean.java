@@ -0,0 +1,140 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link CallStatistics}, the statistics of the
+ * calls of one PKCS#11 function with one mechanism on one slot. Latencies
+ * are in microseconds.
+ *
+ * @version 1.0
+ */
+public interface CallStatisticsMXBean {
+
+  /**
+   * Gets the name of the function.
+   *
+   * @return the name of the function; e.g. C_Sign.
+   */
+  String getFunction();
+
+  /**
+   * Gets the ID of the slot.
+   *
+   * @return the slot ID, or -1 if the function is not called for a slot.
+   */
+  long getSlotId();
+
+  /**
+   * Gets the name of the mechanism.
+   *
+   * @return the name of the mechanism, or null if the function is called
+   *         without a mechanism.
+   */
+  String getMechanism();
+
+  /**
+   * Gets the number of calls.
+   *
+   * @return the number of calls.
+   */
+  long getCount();
+
+  /**
+   * Gets the number of calls which failed with a PKCS#11 error.
+   *
+   * @return the number of failed calls.
+   */
+  long getErrorCount();
+
+  /**
+   * Gets the number of failed calls per error code.
+   *
+   * @return the number of failed calls by the name of the error code; e.g.
+   *         CKR_KEY_HANDLE_INVALID.
+   */
+  Map<String, Long> getErrors();
+
+  /**
+   * Gets the mean latency.
+   *
+   * @return the mean latency in microseconds.
+   */
+  double getMeanMicros();
+
+  /**
+   * Gets the median latency.
+   *
+   * @return the 50th percentile of the latencies in microseconds.
+   */
+  double getP50Micros();
+
+  /**
+   * Gets the 99th percentile of the latencies.
+   *
+   * @return the 99th percentile of the latencies in microseconds.
+   */
+  double getP99Micros();
+
+  /**
+   * Gets the 99.9th percentile of the latencies.
+   *
+   * @return the 99.9th percentile of the latencies in microseconds.
+   */
+  double getP999Micros();
+
+  /**
+   * Gets the largest latency.
+   *
+   * @return the largest latency in microseconds.
+   */
+  double getMaxMicros();
+
+  /**
+   * Removes the recorded calls.
+   */
+  void reset();
+
+}
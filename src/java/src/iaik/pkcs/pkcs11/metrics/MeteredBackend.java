@@ -0,0 +1,1347 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+
+/**
+ * A {@link PKCS11Backend} which measures the calls to another backend. Every
+ * call is counted with its latency and error code in the
+ * {@link CallStatistics} of the function, the slot and the mechanism. The
+ * mechanism of the calls which continue an operation, e.g. C_SignUpdate, is
+ * the one passed to the function which initialized the operation in the
+ * same session.
+ * <p>
+ * The statistics are registered as MXBeans with the names
+ * <code>iaik.pkcs.pkcs11:type=CallStatistics,module=&lt;module name&gt;,
+ * function=&lt;function&gt;[,slot=&lt;slot ID&gt;]
+ * [,mechanism=&lt;mechanism&gt;]</code> when they are created, and are
+ * unregistered by C_Finalize.
+ * <p>
+ * Recording a call takes two reads of System.nanoTime(), one lookup of the
+ * session and increments of atomic counters; no lock is taken. To measure
+ * the calls to a module, create it with
+ * <pre><code>
+ *   Module.getInstance(moduleName, MeteredBackend.factory(JniBackend.FACTORY))
+ * </code></pre>
+ *
+ * @version 1.0
+ */
+public class MeteredBackend implements PKCS11Backend {
+
+  private static final class Function {
+
+    private static int count;
+
+    private final int id;
+
+    private final String name;
+
+    private final int operation;
+
+    private Function(String name, int operation) {
+      this.id = count++;
+      this.name = name;
+      this.operation = operation;
+    }
+
+  }
+
+  private static final class Key {
+
+    private final int function;
+
+    private final long slotId;
+
+    private final long mechanismCode;
+
+    private Key(int function, long slotId, long mechanismCode) {
+      this.function = function;
+      this.slotId = slotId;
+      this.mechanismCode = mechanismCode;
+    }
+
+    @Override
+    public int hashCode() {
+      return function * 31 + Long.hashCode(slotId * 31 + mechanismCode);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) obj;
+      return function == other.function && slotId == other.slotId
+          && mechanismCode == other.mechanismCode;
+    }
+
+  }
+
+  /**
+   * The slot of a session and the mechanisms of its active operations. A
+   * session is used by one thread at a time, the fields are not
+   * synchronized.
+   */
+  private static final class SessionState {
+
+    private final long slotId;
+
+    private final long[] mechanismCodes = new long[OPERATIONS];
+
+    private final CallStatistics[] statistics =
+        new CallStatistics[FUNCTIONS];
+
+    private SessionState(long slotId) {
+      this.slotId = slotId;
+      for (int i = 0; i < OPERATIONS; i++) {
+        mechanismCodes[i] = CallStatistics.NONE;
+      }
+    }
+
+  }
+
+  private static final String DOMAIN = "iaik.pkcs.pkcs11";
+
+  private static final int NO_OPERATION = -1;
+
+  private static final int OP_ENCRYPT = 0;
+
+  private static final int OP_DECRYPT = 1;
+
+  private static final int OP_DIGEST = 2;
+
+  private static final int OP_SIGN = 3;
+
+  private static final int OP_SIGN_RECOVER = 4;
+
+  private static final int OP_VERIFY = 5;
+
+  private static final int OP_VERIFY_RECOVER = 6;
+
+  private static final int OPERATIONS = 7;
+
+  private static final Function FINALIZE =
+      new Function("C_Finalize", NO_OPERATION);
+  private static final Function GET_INFO =
+      new Function("C_GetInfo", NO_OPERATION);
+  private static final Function GET_SLOT_LIST =
+      new Function("C_GetSlotList", NO_OPERATION);
+  private static final Function GET_SLOT_INFO =
+      new Function("C_GetSlotInfo", NO_OPERATION);
+  private static final Function GET_TOKEN_INFO =
+      new Function("C_GetTokenInfo", NO_OPERATION);
+  private static final Function GET_MECHANISM_LIST =
+      new Function("C_GetMechanismList", NO_OPERATION);
+  private static final Function GET_MECHANISM_INFO =
+      new Function("C_GetMechanismInfo", NO_OPERATION);
+  private static final Function OPEN_SESSION =
+      new Function("C_OpenSession", NO_OPERATION);
+  private static final Function CLOSE_SESSION =
+      new Function("C_CloseSession", NO_OPERATION);
+  private static final Function GET_SESSION_INFO =
+      new Function("C_GetSessionInfo", NO_OPERATION);
+  private static final Function GET_OPERATION_STATE =
+      new Function("C_GetOperationState", NO_OPERATION);
+  private static final Function SET_OPERATION_STATE =
+      new Function("C_SetOperationState", NO_OPERATION);
+  private static final Function LOGIN =
+      new Function("C_Login", NO_OPERATION);
+  private static final Function LOGOUT =
+      new Function("C_Logout", NO_OPERATION);
+  private static final Function CREATE_OBJECT =
+      new Function("C_CreateObject", NO_OPERATION);
+  private static final Function COPY_OBJECT =
+      new Function("C_CopyObject", NO_OPERATION);
+  private static final Function DESTROY_OBJECT =
+      new Function("C_DestroyObject", NO_OPERATION);
+  private static final Function GET_ATTRIBUTE_VALUE =
+      new Function("C_GetAttributeValue", NO_OPERATION);
+  private static final Function SET_ATTRIBUTE_VALUE =
+      new Function("C_SetAttributeValue", NO_OPERATION);
+  private static final Function FIND_OBJECTS_INIT =
+      new Function("C_FindObjectsInit", NO_OPERATION);
+  private static final Function FIND_OBJECTS =
+      new Function("C_FindObjects", NO_OPERATION);
+  private static final Function FIND_OBJECTS_FINAL =
+      new Function("C_FindObjectsFinal", NO_OPERATION);
+  private static final Function ENCRYPT_INIT =
+      new Function("C_EncryptInit", OP_ENCRYPT);
+  private static final Function ENCRYPT =
+      new Function("C_Encrypt", OP_ENCRYPT);
+  private static final Function ENCRYPT_UPDATE =
+      new Function("C_EncryptUpdate", OP_ENCRYPT);
+  private static final Function ENCRYPT_FINAL =
+      new Function("C_EncryptFinal", OP_ENCRYPT);
+  private static final Function DECRYPT_INIT =
+      new Function("C_DecryptInit", OP_DECRYPT);
+  private static final Function DECRYPT =
+      new Function("C_Decrypt", OP_DECRYPT);
+  private static final Function DECRYPT_UPDATE =
+      new Function("C_DecryptUpdate", OP_DECRYPT);
+  private static final Function DECRYPT_FINAL =
+      new Function("C_DecryptFinal", OP_DECRYPT);
+  private static final Function DIGEST_INIT =
+      new Function("C_DigestInit", OP_DIGEST);
+  private static final Function DIGEST_SINGLE =
+      new Function("C_DigestSingle", NO_OPERATION);
+  private static final Function DIGEST_UPDATE =
+      new Function("C_DigestUpdate", OP_DIGEST);
+  private static final Function DIGEST_KEY =
+      new Function("C_DigestKey", OP_DIGEST);
+  private static final Function DIGEST_FINAL =
+      new Function("C_DigestFinal", OP_DIGEST);
+  private static final Function SIGN_INIT =
+      new Function("C_SignInit", OP_SIGN);
+  private static final Function SIGN =
+      new Function("C_Sign", OP_SIGN);
+  private static final Function SIGN_UPDATE =
+      new Function("C_SignUpdate", OP_SIGN);
+  private static final Function SIGN_FINAL =
+      new Function("C_SignFinal", OP_SIGN);
+  private static final Function SIGN_RECOVER_INIT =
+      new Function("C_SignRecoverInit", OP_SIGN_RECOVER);
+  private static final Function SIGN_RECOVER =
+      new Function("C_SignRecover", OP_SIGN_RECOVER);
+  private static final Function VERIFY_INIT =
+      new Function("C_VerifyInit", OP_VERIFY);
+  private static final Function VERIFY =
+      new Function("C_Verify", OP_VERIFY);
+  private static final Function VERIFY_UPDATE =
+      new Function("C_VerifyUpdate", OP_VERIFY);
+  private static final Function VERIFY_FINAL =
+      new Function("C_VerifyFinal", OP_VERIFY);
+  private static final Function VERIFY_RECOVER_INIT =
+      new Function("C_VerifyRecoverInit", OP_VERIFY_RECOVER);
+  private static final Function VERIFY_RECOVER =
+      new Function("C_VerifyRecover", OP_VERIFY_RECOVER);
+  private static final Function GENERATE_KEY =
+      new Function("C_GenerateKey", NO_OPERATION);
+  private static final Function GENERATE_KEY_PAIR =
+      new Function("C_GenerateKeyPair", NO_OPERATION);
+  private static final Function WRAP_KEY =
+      new Function("C_WrapKey", NO_OPERATION);
+  private static final Function UNWRAP_KEY =
+      new Function("C_UnwrapKey", NO_OPERATION);
+  private static final Function DERIVE_KEY =
+      new Function("C_DeriveKey", NO_OPERATION);
+  private static final Function SEED_RANDOM =
+      new Function("C_SeedRandom", NO_OPERATION);
+  private static final Function GENERATE_RANDOM =
+      new Function("C_GenerateRandom", NO_OPERATION);
+
+  private static final int FUNCTIONS = Function.count;
+
+  private final PKCS11Backend backend;
+
+  private final String moduleName;
+
+  private final MBeanServer mbeanServer;
+
+  private final ConcurrentMap<Key, CallStatistics> statistics =
+      new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<Long, SessionState> sessions =
+      new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<ObjectName, CallStatistics> registered =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Creates a backend which measures the calls to the given backend.
+   *
+   * @param backend
+   *          The backend to be measured.
+   * @param moduleName
+   *          The name of the module, used in the names of the MXBeans.
+   * @param mbeanServer
+   *          The server to register the MXBeans. May be null, then the
+   *          statistics are only available via {@link #getStatistics()}.
+   */
+  public MeteredBackend(PKCS11Backend backend, String moduleName,
+      MBeanServer mbeanServer) {
+    this.backend = Util.requireNonNull("backend", backend);
+    this.moduleName = Util.requireNonNull("moduleName", moduleName);
+    this.mbeanServer = mbeanServer;
+  }
+
+  /**
+   * Gets a factory which measures the calls to the backends created by the
+   * given factory and registers the statistics in the platform MBean
+   * server.
+   *
+   * @param backendFactory
+   *          The factory of the backends to be measured.
+   * @return the factory.
+   */
+  public static Factory factory(Factory backendFactory) {
+    Util.requireNonNull("backendFactory", backendFactory);
+    return (pkcs11ModuleName, initArgs) -> new MeteredBackend(
+        backendFactory.connect(pkcs11ModuleName, initArgs), pkcs11ModuleName,
+        ManagementFactory.getPlatformMBeanServer());
+  }
+
+  /**
+   * Gets the measured backend.
+   *
+   * @return the measured backend.
+   */
+  public PKCS11Backend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Gets the statistics of all functions which have been called.
+   *
+   * @return the statistics.
+   */
+  public List<CallStatistics> getStatistics() {
+    return new ArrayList<>(statistics.values());
+  }
+
+  /**
+   * Gets the statistics of the given function.
+   *
+   * @param function
+   *          The name of the function; e.g. C_Sign.
+   * @return the statistics of the function, per slot and mechanism.
+   */
+  public List<CallStatistics> getStatistics(String function) {
+    Util.requireNonNull("function", function);
+    List<CallStatistics> list = new ArrayList<>();
+    for (CallStatistics entry : statistics.values()) {
+      if (entry.getFunction().equals(function)) {
+        list.add(entry);
+      }
+    }
+    return list;
+  }
+
+  private CallStatistics statistics(Function function) {
+    return statistics(function, CallStatistics.NONE, CallStatistics.NONE);
+  }
+
+  private CallStatistics statistics(Function function, long slotId,
+      long mechanismCode) {
+    Key key = new Key(function.id, slotId, mechanismCode);
+    CallStatistics entry = statistics.get(key);
+    if (entry != null) {
+      return entry;
+    }
+
+    entry = new CallStatistics(function.name, slotId, mechanismCode);
+    CallStatistics previous = statistics.putIfAbsent(key, entry);
+    if (previous != null) {
+      return previous;
+    }
+
+    register(entry);
+    return entry;
+  }
+
+  private CallStatistics statistics(Function function, long hSession) {
+    SessionState state = sessions.get(hSession);
+    if (state == null) {
+      return statistics(function, CallStatistics.NONE,
+          CallStatistics.NONE);
+    }
+
+    long mechanismCode = (function.operation == NO_OPERATION)
+        ? CallStatistics.NONE : state.mechanismCodes[function.operation];
+    return statistics(function, state, mechanismCode);
+  }
+
+  private CallStatistics statistics(Function function, long hSession,
+      CK_MECHANISM mechanism) {
+    long mechanismCode =
+        (mechanism == null) ? CallStatistics.NONE : mechanism.mechanism;
+    SessionState state = sessions.get(hSession);
+    if (state == null) {
+      return statistics(function, CallStatistics.NONE, mechanismCode);
+    }
+
+    if (function.operation != NO_OPERATION) {
+      state.mechanismCodes[function.operation] = mechanismCode;
+    }
+    return statistics(function, state, mechanismCode);
+  }
+
+  private CallStatistics statistics(Function function, SessionState state,
+      long mechanismCode) {
+    // most calls of a session use the same mechanism as the previous call
+    // of the same function
+    CallStatistics entry = state.statistics[function.id];
+    if (entry == null || entry.getMechanismCode() != mechanismCode) {
+      entry = statistics(function, state.slotId, mechanismCode);
+      state.statistics[function.id] = entry;
+    }
+    return entry;
+  }
+
+  private void register(CallStatistics entry) {
+    if (mbeanServer == null) {
+      return;
+    }
+
+    StringBuilder sb = new StringBuilder(DOMAIN);
+    sb.append(":type=CallStatistics,module=")
+        .append(ObjectName.quote(moduleName))
+        .append(",function=").append(entry.getFunction());
+    if (entry.getSlotId() != CallStatistics.NONE) {
+      sb.append(",slot=").append(entry.getSlotId());
+    }
+    if (entry.getMechanismCode() != CallStatistics.NONE) {
+      sb.append(",mechanism=").append(ObjectName.quote(entry.getMechanism()));
+    }
+
+    try {
+      ObjectName name = new ObjectName(sb.toString());
+      mbeanServer.registerMBean(entry, name);
+      registered.put(name, entry);
+    } catch (JMException ex) {
+      // e.g. another module with the same name is measured; the statistics
+      // are still available via getStatistics()
+    }
+  }
+
+  private void unregister() {
+    for (ObjectName name : registered.keySet()) {
+      try {
+        mbeanServer.unregisterMBean(name);
+      } catch (JMException ex) {
+        // already unregistered
+      }
+    }
+    registered.clear();
+  }
+
+  @Override
+  public void C_Finalize(Object pReserved)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(FINALIZE);
+    long start = System.nanoTime();
+    try {
+      backend.C_Finalize(pReserved);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+      sessions.clear();
+      unregister();
+    }
+  }
+
+  @Override
+  public CK_INFO C_GetInfo()
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(GET_INFO);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetInfo();
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(GET_SLOT_LIST);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetSlotList(tokenPresent);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics =
+        statistics(GET_SLOT_INFO, slotID, CallStatistics.NONE);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetSlotInfo(slotID);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics =
+        statistics(GET_TOKEN_INFO, slotID, CallStatistics.NONE);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetTokenInfo(slotID);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics =
+        statistics(GET_MECHANISM_LIST, slotID, CallStatistics.NONE);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetMechanismList(slotID);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(GET_MECHANISM_INFO, slotID, type);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetMechanismInfo(slotID, type);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object pApplication,
+      CK_NOTIFY notify)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics =
+        statistics(OPEN_SESSION, slotID, CallStatistics.NONE);
+    long start = System.nanoTime();
+    try {
+      long hSession = backend.C_OpenSession(slotID, flags, pApplication,
+          notify);
+      sessions.put(hSession, new SessionState(slotID));
+      return hSession;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_CloseSession(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(CLOSE_SESSION, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_CloseSession(hSession);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+      sessions.remove(hSession);
+    }
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(GET_SESSION_INFO, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetSessionInfo(hSession);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(GET_OPERATION_STATE, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetOperationState(hSession);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] pOperationState,
+      long hEncryptionKey, long hAuthenticationKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(SET_OPERATION_STATE, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_SetOperationState(hSession, pOperationState, hEncryptionKey,
+          hAuthenticationKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_Login(long hSession, long userType, char[] pPin)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(LOGIN, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_Login(hSession, userType, pPin);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_Logout(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(LOGOUT, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_Logout(hSession);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(CREATE_OBJECT, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_CreateObject(hSession, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(COPY_OBJECT, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_CopyObject(hSession, hObject, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DESTROY_OBJECT, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_DestroyObject(hSession, hObject);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(GET_ATTRIBUTE_VALUE, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_GetAttributeValue(hSession, hObject, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(SET_ATTRIBUTE_VALUE, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_SetAttributeValue(hSession, hObject, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(FIND_OBJECTS_INIT, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_FindObjectsInit(hSession, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(FIND_OBJECTS, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_FindObjects(hSession, ulMaxObjectCount);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(FIND_OBJECTS_FINAL, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_FindObjectsFinal(hSession);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(ENCRYPT_INIT, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_EncryptInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(ENCRYPT, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_Encrypt(hSession, directIn, in, inOfs, inLen, directOut,
+          out, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_EncryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(ENCRYPT_UPDATE, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_EncryptUpdate(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_EncryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(ENCRYPT_FINAL, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_EncryptFinal(hSession, directOut, out, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DECRYPT_INIT, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_DecryptInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DECRYPT, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_Decrypt(hSession, directIn, in, inOfs, inLen, directOut,
+          out, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_DecryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DECRYPT_UPDATE, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_DecryptUpdate(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_DecryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DECRYPT_FINAL, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_DecryptFinal(hSession, directOut, out, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM pMechanism)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DIGEST_INIT, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_DigestInit(hSession, pMechanism);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_DigestSingle(long hSession, CK_MECHANISM pMechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DIGEST_SINGLE, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      return backend.C_DigestSingle(hSession, pMechanism, in, inOfs, inLen,
+          digest, digestOfs, digestLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DIGEST_UPDATE, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_DigestUpdate(hSession, directIn, in, inOfs, inLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DIGEST_KEY, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_DigestKey(hSession, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_DigestFinal(long hSession, byte[] pDigest, int digestOfs,
+      int digestLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DIGEST_FINAL, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_DigestFinal(hSession, pDigest, digestOfs, digestLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(SIGN_INIT, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_SignInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] pData)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(SIGN, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_Sign(hSession, pData);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(SIGN_UPDATE, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_SignUpdate(hSession, directIn, in, inOfs, inLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession, int expectedLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(SIGN_FINAL, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_SignFinal(hSession, expectedLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics =
+        statistics(SIGN_RECOVER_INIT, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_SignRecoverInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(SIGN_RECOVER, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_SignRecover(hSession, in, inOfs, inLen, out, outOfs,
+          outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(VERIFY_INIT, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(VERIFY, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_Verify(hSession, pData, pSignature);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(VERIFY_UPDATE, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyUpdate(hSession, directIn, in, inOfs, inLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] pSignature)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(VERIFY_FINAL, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyFinal(hSession, pSignature);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics =
+        statistics(VERIFY_RECOVER_INIT, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyRecoverInit(hSession, pMechanism, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(VERIFY_RECOVER, hSession);
+    long start = System.nanoTime();
+    try {
+      return backend.C_VerifyRecover(hSession, in, inOfs, inLen, out, outOfs,
+          outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(GENERATE_KEY, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GenerateKey(hSession, pMechanism, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pPublicKeyTemplate, CK_ATTRIBUTE[] pPrivateKeyTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics =
+        statistics(GENERATE_KEY_PAIR, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      return backend.C_GenerateKeyPair(hSession, pMechanism, pPublicKeyTemplate,
+          pPrivateKeyTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hWrappingKey, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(WRAP_KEY, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      return backend.C_WrapKey(hSession, pMechanism, hWrappingKey, hKey);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hUnwrappingKey, byte[] pWrappedKey, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(UNWRAP_KEY, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      return backend.C_UnwrapKey(hSession, pMechanism, hUnwrappingKey,
+          pWrappedKey, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM pMechanism, long hBaseKey,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(DERIVE_KEY, hSession, pMechanism);
+    long start = System.nanoTime();
+    try {
+      return backend.C_DeriveKey(hSession, pMechanism, hBaseKey, pTemplate);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_SeedRandom(long hSession, byte[] pSeed)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(SEED_RANDOM, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_SeedRandom(hSession, pSeed);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    CallStatistics statistics = statistics(GENERATE_RANDOM, hSession);
+    long start = System.nanoTime();
+    try {
+      backend.C_GenerateRandom(hSession, randomData);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      statistics.recordError(ex.getErrorCode());
+      throw ex;
+    } finally {
+      statistics.record(System.nanoTime() - start);
+    }
+  }
+  @Override
+  public boolean supportsDirectBuffers() {
+    return backend.supportsDirectBuffers();
+  }
+
+  @Override
+  public String toString() {
+    return "MeteredBackend of " + moduleName + ": " + backend;
+  }
+
+}
@@ -220,16 +220,31 @@ public abstract class Attribute {
    */
   protected boolean sensitive;
 
+  /**
+   * The PKCS#11 type of this attribute.
+   */
+  protected long type;
+
   /**
    * The CK_ATTRIBUTE that is used to hold the PKCS#11 type of this attribute
-   * and the value.
+   * and the value. It is allocated when a value is set or read, hence it is
+   * null as long as the attribute has no value. Up to version 1.4.6 this
+   * field was protected and never null; subclasses use
+   * {@link #getCkAttribute()}, {@link #getCkValue()} and
+   * {@link #setCkValue(Object)} instead.
    */
-  protected CK_ATTRIBUTE ckAttribute;
+  private CK_ATTRIBUTE ckAttribute;
+
+  /**
+   * The object whose attributes are read on the first access to this
+   * attribute, null if the value of this attribute is known.
+   */
+  volatile PKCS11Object deferredOwner;
 
   /**
    * Empty constructor.
-   * Attention! If you use this constructor, you must set ckAttribute to
-   * ensure that the class invariant is not violated.
+   * Attention! If you use this constructor, you must set the type or the
+   * CK_ATTRIBUTE to ensure that the class invariant is not violated.
    */
   protected Attribute() { /* left empty intentionally */
   }
@@ -245,8 +260,7 @@ public abstract class Attribute {
     Util.requireNonNull("type", type);
     present = false;
     sensitive = false;
-    ckAttribute = new CK_ATTRIBUTE();
-    ckAttribute.type = type.longValue();
+    this.type = type.longValue();
   }
 
   /**
@@ -378,7 +392,7 @@ public abstract class Attribute {
    * @return The class of the attribute type, or null if there is no such
    *         type.
    */
-  protected static synchronized Class<?> getAttributeClass(Long type) {
+  public static synchronized Class<?> getAttributeClass(Long type) {
     Util.requireNonNull("type", type);
 
     if (attributeClasses == null) {
@@ -499,6 +513,7 @@ public abstract class Attribute {
    *          True, if attribute is present.
    */
   public void setPresent(boolean present) {
+    readIfDeferred();
     this.present = present;
   }
 
@@ -510,6 +525,7 @@ public abstract class Attribute {
    *          True, if attribute is sensitive.
    */
   public void setSensitive(boolean sensitive) {
+    readIfDeferred();
     this.sensitive = sensitive;
   }
 
@@ -536,6 +552,7 @@ public abstract class Attribute {
    */
   protected void setCkAttribute(CK_ATTRIBUTE ckAttribute) {
     this.ckAttribute = Util.requireNonNull("ckAttribute", ckAttribute);
+    this.type = ckAttribute.type;
   }
 
   /**
@@ -545,6 +562,7 @@ public abstract class Attribute {
    *         object.
    */
   public boolean isPresent() {
+    readIfDeferred();
     return present;
   }
 
@@ -554,27 +572,76 @@ public abstract class Attribute {
    * @return True, if this attribute is sensitive in the associated object.
    */
   public boolean isSensitive() {
+    readIfDeferred();
     return sensitive;
   }
 
+  /**
+   * Reads the attributes of the object this attribute belongs to, if their
+   * reading has been deferred. The accessors of the attribute value call
+   * this method first.
+   */
+  protected final void readIfDeferred() {
+    PKCS11Object owner = deferredOwner;
+    if (owner != null) {
+      owner.readDeferredAttributes();
+    }
+  }
+
   /**
    * Get the CK_ATTRIBUTE object of this Attribute that contains the attribute
-   * type and value .
+   * type and value. It is allocated on the first call if this attribute has
+   * no value yet, so the result is never null.
    *
    * @return The CK_ATTRIBUTE of this Attribute.
    */
   protected CK_ATTRIBUTE getCkAttribute() {
+    readIfDeferred();
+    if (ckAttribute == null) {
+      ckAttribute = new CK_ATTRIBUTE();
+      ckAttribute.type = type;
+    }
     return ckAttribute;
   }
 
+  /**
+   * Get the value held by the CK_ATTRIBUTE of this attribute. Unlike
+   * {@link #getCkAttribute()}, this method neither allocates the
+   * CK_ATTRIBUTE nor reads deferred attributes.
+   *
+   * @return The value, or null if this attribute has no value.
+   */
+  protected final Object getCkValue() {
+    return (ckAttribute == null) ? null : ckAttribute.pValue;
+  }
+
+  /**
+   * Set the value held by the CK_ATTRIBUTE of this attribute. The
+   * CK_ATTRIBUTE is allocated only for a non-null value.
+   *
+   * @param value
+   *          The new value. May be null.
+   */
+  protected final void setCkValue(Object value) {
+    if (ckAttribute == null) {
+      if (value == null) {
+        return;
+      }
+      ckAttribute = new CK_ATTRIBUTE();
+      ckAttribute.type = type;
+    }
+    ckAttribute.pValue = value;
+  }
+
   /**
    * Get a string representation of the value of this attribute.
    *
    * @return A string representation of the value of this attribute.
    */
   protected String getValueString() {
-    if ((ckAttribute != null) && (ckAttribute.pValue != null)) {
-      return ckAttribute.pValue.toString();
+    Object value = getCkValue();
+    if (value != null) {
+      return value.toString();
     } else {
       return "<NULL_PTR>";
     }
@@ -604,10 +671,11 @@ public abstract class Attribute {
    * @return A string representation of this attribute.
    */
   public String toString(boolean withName) {
+    readIfDeferred();
     StringBuilder sb = new StringBuilder(32);
 
     if (withName) {
-      String typeName = getAttributeName(Long.valueOf(ckAttribute.type));
+      String typeName = getAttributeName(Long.valueOf(type));
       sb.append(typeName).append(": ");
     }
     if (present) {
@@ -631,7 +699,10 @@ public abstract class Attribute {
    */
   protected void setType(Long type) {
     Util.requireNonNull("type", type);
-    ckAttribute.type = type.longValue();
+    this.type = type.longValue();
+    if (ckAttribute != null) {
+      ckAttribute.type = this.type;
+    }
   }
 
   /**
@@ -640,7 +711,7 @@ public abstract class Attribute {
    * @return The PKCS#11 type of this attribute.
    */
   protected Long getType() {
-    return Long.valueOf(ckAttribute.type);
+    return Long.valueOf(type);
   }
 
   /**
@@ -654,6 +725,7 @@ public abstract class Attribute {
    *         otherwise.
    */
   public boolean equals(Object otherObject) {
+    readIfDeferred();
     if (this == otherObject) {
       return true;
     } else if (!(otherObject instanceof Attribute)) {
@@ -669,12 +741,11 @@ public abstract class Attribute {
       return false;
     }
 
-    if (this.ckAttribute.type != other.ckAttribute.type) {
+    if (this.type != other.type) {
       return false;
     }
 
-    return Util.objEquals(this.ckAttribute.pValue,
-        other.ckAttribute.pValue);
+    return Util.objEquals(this.getCkValue(), other.getCkValue());
   }
 
   /**
@@ -685,9 +756,10 @@ public abstract class Attribute {
    */
   @Override
   public int hashCode() {
-    int valueHashCode = (ckAttribute.pValue != null)
-        ? ckAttribute.pValue.hashCode() : 0;
-    return ((int) ckAttribute.type) ^ valueHashCode;
+    readIfDeferred();
+    Object value = getCkValue();
+    int valueHashCode = (value != null) ? value.hashCode() : 0;
+    return ((int) type) ^ valueHashCode;
   }
 
 }
@@ -43,7 +43,6 @@
 package iaik.pkcs.pkcs11.objects;
 
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
 
 import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
@@ -85,19 +84,16 @@ public class AttributeArray extends Attribute {
    *          The AttributeArray value to set. May be null.
    */
   public void setAttributeArrayValue(PKCS11Object value) {
+    readIfDeferred();
     template = value;
 
     List<CK_ATTRIBUTE> attributeList = new ArrayList<>();
-    Enumeration<Attribute> attributeEnumeration
-        = template.attributeTable.elements();
-    while (attributeEnumeration.hasMoreElements()) {
-      Attribute attribute = attributeEnumeration.nextElement();
+    for (Attribute attribute : template.attributeTable) {
       if (attribute.present) {
         attributeList.add(attribute.getCkAttribute());
       }
     }
-    ckAttribute.pValue = (CK_ATTRIBUTE[])
-        attributeList.toArray(new CK_ATTRIBUTE[0]);
+    setCkValue(attributeList.toArray(new CK_ATTRIBUTE[0]));
     present = true;
   }
 
@@ -107,16 +103,17 @@ public class AttributeArray extends Attribute {
    * @return The attribute array value of this attribute or null.
    */
   public PKCS11Object getAttributeArrayValue() {
+    readIfDeferred();
     if (template != null) {
       return template;
     }
 
-    if (!(ckAttribute.pValue != null
-        && ((CK_ATTRIBUTE[]) ckAttribute.pValue).length > 0)) {
+    if (!(getCkValue() != null
+        && ((CK_ATTRIBUTE[]) getCkValue()).length > 0)) {
       return null;
     }
 
-    CK_ATTRIBUTE[] attributesArray = (CK_ATTRIBUTE[]) ckAttribute.pValue;
+    CK_ATTRIBUTE[] attributesArray = (CK_ATTRIBUTE[]) getCkValue();
     GenericTemplate template = new GenericTemplate();
     for (int i = 0; i < attributesArray.length; i++) {
       Long type = Long.valueOf(attributesArray[i].type);
@@ -172,6 +169,7 @@ public class AttributeArray extends Attribute {
    */
   @Override
   public boolean equals(Object otherObject) {
+    readIfDeferred();
     if (this == otherObject) {
       return true;
     } else if (!(otherObject instanceof AttributeArray)) {
@@ -207,6 +205,7 @@ public class AttributeArray extends Attribute {
    */
   @Override
   public int hashCode() {
+    readIfDeferred();
     if (template == null) {
       template = getAttributeArrayValue();
     }
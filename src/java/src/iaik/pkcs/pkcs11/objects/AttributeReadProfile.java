@@ -0,0 +1,124 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.objects;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Objects of this class remember which attribute types a token cannot read
+ * for objects of a certain kind. The profile is learned while reading
+ * attributes: an attribute type which the token answered with
+ * CKR_ATTRIBUTE_TYPE_INVALID is no longer requested for objects of this
+ * kind but marked as not present, so that the attributes of each object are
+ * read with one C_GetAttributeValue call without any retry. Objects of this
+ * kind which do have such an attribute get it only by reading it explicitly
+ * or after {@link #clear()}. Sensitive attributes are not recorded,
+ * since their readability depends on the CKA_SENSITIVE and CKA_EXTRACTABLE
+ * attributes of each object.
+ * <p>
+ * Profiles are kept per module, token, object class and key, certificate or
+ * hardware feature type, see
+ * {@link iaik.pkcs.pkcs11.Module#getAttributeReadProfile(long, long, long)}.
+ * This class is thread-safe.
+ *
+ * @version 1.0
+ */
+public class AttributeReadProfile {
+
+  private final Set<Long> invalidTypes =
+      Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+  /**
+   * Checks whether the token reported the given attribute type as invalid.
+   *
+   * @param type
+   *          The attribute type; e.g. PKCS11Constants.CKA_ID.
+   * @return True, if the attribute type is known to be invalid.
+   */
+  public boolean isInvalid(long type) {
+    return invalidTypes.contains(type);
+  }
+
+  /**
+   * Records that the token answered the given attribute type, requested
+   * alone, with CKR_ATTRIBUTE_TYPE_INVALID.
+   *
+   * @param type
+   *          The attribute type.
+   */
+  public void addInvalid(long type) {
+    invalidTypes.add(type);
+  }
+
+  /**
+   * Forgets everything learned so far, so that all attributes are requested
+   * again; e.g. after a firmware update of the token, or to read attributes
+   * which only some objects of this kind have.
+   */
+  public void clear() {
+    invalidTypes.clear();
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(100);
+    sb.append("Invalid attributes: ");
+    boolean first = true;
+    for (Long type : invalidTypes) {
+      if (!first) {
+        sb.append(", ");
+      }
+      sb.append("0x").append(Long.toHexString(type));
+      first = false;
+    }
+    return sb.toString();
+  }
+
+}
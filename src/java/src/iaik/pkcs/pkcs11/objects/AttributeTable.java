@@ -0,0 +1,348 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.objects;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact table of the attributes of an object, keyed by the attribute
+ * type. The types are kept sorted in a primitive array, so that a lookup is
+ * a binary search without boxing the type, and the attributes are iterated
+ * in the order of their types. Compared with a Hashtable, this saves the
+ * entry and key objects of each attribute.
+ * <p>
+ * This class is not thread-safe; like the attribute objects, it is guarded
+ * by the object it belongs to.
+ *
+ * @version 1.0
+ */
+public final class AttributeTable implements Iterable<Attribute> {
+
+  private static final int DEFAULT_CAPACITY = 8;
+
+  private long[] types;
+
+  private Attribute[] attributes;
+
+  private int size;
+
+  /**
+   * Creates an empty table.
+   */
+  public AttributeTable() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates an empty table with the given initial capacity.
+   *
+   * @param capacity
+   *          The number of attributes the table can hold without growing.
+   */
+  public AttributeTable(int capacity) {
+    types = new long[capacity];
+    attributes = new Attribute[capacity];
+  }
+
+  /**
+   * Gets the attribute of the given type.
+   *
+   * @param type
+   *          The attribute type; e.g. PKCS11Constants.CKA_LABEL.
+   * @return The attribute, or null if this table has no attribute of the
+   *         given type.
+   */
+  public Attribute get(long type) {
+    int index = Arrays.binarySearch(types, 0, size, type);
+    return (index < 0) ? null : attributes[index];
+  }
+
+  /**
+   * Checks whether this table contains an attribute of the given type.
+   *
+   * @param type
+   *          The attribute type.
+   * @return True, if this table contains an attribute of the given type.
+   */
+  public boolean containsKey(long type) {
+    return Arrays.binarySearch(types, 0, size, type) >= 0;
+  }
+
+  /**
+   * Puts the attribute into this table, replacing any attribute of the same
+   * type.
+   *
+   * @param type
+   *          The attribute type.
+   * @param attribute
+   *          The attribute. Must not be null.
+   * @return The replaced attribute, or null.
+   */
+  public Attribute put(long type, Attribute attribute) {
+    if (attribute == null) {
+      throw new NullPointerException("attribute must not be null");
+    }
+
+    int index = Arrays.binarySearch(types, 0, size, type);
+    if (index >= 0) {
+      Attribute old = attributes[index];
+      attributes[index] = attribute;
+      return old;
+    }
+
+    index = -(index + 1);
+    if (size == types.length) {
+      int newCapacity = Math.max(DEFAULT_CAPACITY, size * 2);
+      types = Arrays.copyOf(types, newCapacity);
+      attributes = Arrays.copyOf(attributes, newCapacity);
+    }
+
+    System.arraycopy(types, index, types, index + 1, size - index);
+    System.arraycopy(attributes, index, attributes, index + 1, size - index);
+    types[index] = type;
+    attributes[index] = attribute;
+    size++;
+    return null;
+  }
+
+  /**
+   * Puts all attributes of the other table into this table.
+   *
+   * @param other
+   *          The other table.
+   */
+  public void putAll(AttributeTable other) {
+    for (int i = 0; i < other.size; i++) {
+      put(other.types[i], other.attributes[i]);
+    }
+  }
+
+  /**
+   * Removes the attribute of the given type.
+   *
+   * @param type
+   *          The attribute type.
+   * @return The removed attribute, or null.
+   */
+  public Attribute remove(long type) {
+    int index = Arrays.binarySearch(types, 0, size, type);
+    if (index < 0) {
+      return null;
+    }
+
+    Attribute old = attributes[index];
+    int tail = size - index - 1;
+    System.arraycopy(types, index + 1, types, index, tail);
+    System.arraycopy(attributes, index + 1, attributes, index, tail);
+    size--;
+    attributes[size] = null;
+    return old;
+  }
+
+  /**
+   * Removes all attributes.
+   */
+  public void clear() {
+    Arrays.fill(attributes, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * Shrinks the arrays to the number of attributes. Called once all
+   * attributes of an object have been allocated.
+   */
+  void trimToSize() {
+    if (size < types.length) {
+      types = Arrays.copyOf(types, size);
+      attributes = Arrays.copyOf(attributes, size);
+    }
+  }
+
+  /**
+   * Gets the number of attributes in this table.
+   *
+   * @return The number of attributes.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Checks whether this table is empty.
+   *
+   * @return True, if this table contains no attribute.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gets the type at the given position. The positions are ordered by the
+   * attribute type.
+   *
+   * @param index
+   *          The position, between 0 (inclusive) and {@link #size()}
+   *          (exclusive).
+   * @return The attribute type at the given position.
+   */
+  public long typeAt(int index) {
+    checkIndex(index);
+    return types[index];
+  }
+
+  /**
+   * Gets the attribute at the given position. The positions are ordered by
+   * the attribute type.
+   *
+   * @param index
+   *          The position, between 0 (inclusive) and {@link #size()}
+   *          (exclusive).
+   * @return The attribute at the given position.
+   */
+  public Attribute attributeAt(int index) {
+    checkIndex(index);
+    return attributes[index];
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(
+          "index " + index + " out of range [0, " + size + ")");
+    }
+  }
+
+  /**
+   * Copies this table into a Hashtable whose key is the attribute type as
+   * Long.
+   *
+   * @return The new Hashtable.
+   */
+  public Hashtable<Long, Attribute> toHashtable() {
+    Hashtable<Long, Attribute> table = new Hashtable<>(size * 4 / 3 + 1);
+    for (int i = 0; i < size; i++) {
+      table.put(types[i], attributes[i]);
+    }
+    return table;
+  }
+
+  /**
+   * Returns an iterator over the attributes in the order of their types.
+   * The iterator does not support removal.
+   *
+   * @return The iterator.
+   */
+  @Override
+  public Iterator<Attribute> iterator() {
+    return new Iterator<Attribute>() {
+
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        return index < size;
+      }
+
+      @Override
+      public Attribute next() {
+        if (index >= size) {
+          throw new NoSuchElementException();
+        }
+        return attributes[index++];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("remove");
+      }
+
+    };
+  }
+
+  /**
+   * Compares the types and attributes of both tables.
+   *
+   * @param otherObject
+   *          The other object to compare to.
+   * @return True, if the other object is an AttributeTable with equal types
+   *         and attributes.
+   */
+  @Override
+  public boolean equals(Object otherObject) {
+    if (this == otherObject) {
+      return true;
+    } else if (!(otherObject instanceof AttributeTable)) {
+      return false;
+    }
+
+    AttributeTable other = (AttributeTable) otherObject;
+    if (size != other.size) {
+      return false;
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (types[i] != other.types[i]
+          || !attributes[i].equals(other.attributes[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The hash code is computed like the one of a map with the same entries.
+   *
+   * @return The hash code of this object.
+   */
+  @Override
+  public int hashCode() {
+    int hashCode = 0;
+    for (int i = 0; i < size; i++) {
+      hashCode += Long.hashCode(types[i]) ^ attributes[i].hashCode();
+    }
+    return hashCode;
+  }
+
+}
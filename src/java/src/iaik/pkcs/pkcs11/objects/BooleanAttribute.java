@@ -70,7 +70,8 @@ public class BooleanAttribute extends Attribute {
    *          The boolean value to set. May be null.
    */
   public void setBooleanValue(Boolean value) {
-    ckAttribute.pValue = value;
+    readIfDeferred();
+    setCkValue(value);
     present = true;
   }
 
@@ -80,7 +81,8 @@ public class BooleanAttribute extends Attribute {
    * @return The boolean value of this attribute or null.
    */
   public Boolean getBooleanValue() {
-    return (Boolean) ckAttribute.pValue;
+    readIfDeferred();
+    return (Boolean) getCkValue();
   }
 
   @Override
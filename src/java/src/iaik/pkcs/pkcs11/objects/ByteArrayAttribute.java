@@ -74,7 +74,8 @@ public class ByteArrayAttribute extends Attribute {
    *          The byte-array value to set. May be null.
    */
   public void setByteArrayValue(byte[] value) {
-    ckAttribute.pValue = value;
+    readIfDeferred();
+    setCkValue(value);
     present = true;
   }
 
@@ -84,7 +85,8 @@ public class ByteArrayAttribute extends Attribute {
    * @return The byte-array value of this attribute or null.
    */
   public byte[] getByteArrayValue() {
-    return (byte[]) ckAttribute.pValue;
+    readIfDeferred();
+    return (byte[]) getCkValue();
   }
 
   /**
@@ -94,8 +96,8 @@ public class ByteArrayAttribute extends Attribute {
    */
   @Override
   protected String getValueString() {
-    return ((ckAttribute != null) && (ckAttribute.pValue != null))
-      ? Util.toHex((byte[]) ckAttribute.pValue) : "<NULL_PTR>";
+    return (getCkValue() != null)
+      ? Util.toHex((byte[]) getCkValue()) : "<NULL_PTR>";
   }
 
   /**
@@ -109,6 +111,7 @@ public class ByteArrayAttribute extends Attribute {
    */
   @Override
   public boolean equals(Object otherObject) {
+    readIfDeferred();
     if (this == otherObject) {
       return true;
     }
@@ -131,12 +134,12 @@ public class ByteArrayAttribute extends Attribute {
     }
 
     /* In the original implementation, the type will not be compared.
-    if (this.ckAttribute.type != other.ckAttribute.type) {
+    if (this.type != other.type) {
       return false;
     }*/
 
-    return Arrays.equals((byte[]) this.ckAttribute.pValue,
-        (byte[]) other.ckAttribute.pValue);
+    return Arrays.equals((byte[]) this.getCkValue(),
+        (byte[]) other.getCkValue());
   }
 
   /**
@@ -147,8 +150,9 @@ public class ByteArrayAttribute extends Attribute {
    */
   @Override
   public int hashCode() {
-    return (ckAttribute.pValue != null)
-        ? Util.hashCode((byte[]) ckAttribute.pValue) : 0;
+    readIfDeferred();
+    return (getCkValue() != null)
+        ? Util.hashCode((byte[]) getCkValue()) : 0;
   }
 
   @Override
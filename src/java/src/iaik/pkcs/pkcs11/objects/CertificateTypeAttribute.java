@@ -66,9 +66,9 @@ public class CertificateTypeAttribute extends LongAttribute {
    */
   @Override
   protected String getValueString() {
-    if ((ckAttribute != null) && (ckAttribute.pValue != null)) {
+    if (getCkValue() != null) {
       return Certificate.getCertificateTypeName(
-        (Long) ckAttribute.pValue);
+        (Long) getCkValue());
     } else {
       return "<NULL_PTR>";
     }
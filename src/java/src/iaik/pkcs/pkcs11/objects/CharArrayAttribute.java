@@ -74,7 +74,8 @@ public class CharArrayAttribute extends Attribute {
    *          The char-array value to set. May be null.
    */
   public void setCharArrayValue(char[] value) {
-    ckAttribute.pValue = value;
+    readIfDeferred();
+    setCkValue(value);
     present = true;
   }
 
@@ -84,7 +85,8 @@ public class CharArrayAttribute extends Attribute {
    * @return The char-array value of this attribute or null.
    */
   public char[] getCharArrayValue() {
-    return (char[]) ckAttribute.pValue;
+    readIfDeferred();
+    return (char[]) getCkValue();
   }
 
   /**
@@ -96,8 +98,8 @@ public class CharArrayAttribute extends Attribute {
   protected String getValueString() {
     String valueString;
 
-    if ((ckAttribute != null) && (ckAttribute.pValue != null)) {
-      valueString = new String((char[]) ckAttribute.pValue);
+    if (getCkValue() != null) {
+      valueString = new String((char[]) getCkValue());
     } else {
       valueString = "<NULL_PTR>";
     }
@@ -116,6 +118,7 @@ public class CharArrayAttribute extends Attribute {
    */
   @Override
   public boolean equals(Object otherObject) {
+    readIfDeferred();
     if (this == otherObject) {
       return true;
     }
@@ -137,12 +140,12 @@ public class CharArrayAttribute extends Attribute {
       return false;
     }
 
-    if (this.ckAttribute.type != other.ckAttribute.type) {
+    if (this.type != other.type) {
       return false;
     }
 
-    return Arrays.equals((char[]) this.ckAttribute.pValue,
-        (char[]) other.ckAttribute.pValue);
+    return Arrays.equals((char[]) this.getCkValue(),
+        (char[]) other.getCkValue());
   }
 
   /**
@@ -153,8 +156,9 @@ public class CharArrayAttribute extends Attribute {
    */
   @Override
   public int hashCode() {
-    return (ckAttribute.pValue != null) ?
-        Util.hashCode((char[]) ckAttribute.pValue) : 0;
+    readIfDeferred();
+    return (getCkValue() != null) ?
+        Util.hashCode((char[]) getCkValue()) : 0;
   }
 
   @Override
@@ -215,25 +215,6 @@ public class DHPrivateKey extends PrivateKey {
     return valueBits;
   }
 
-  /**
-   * Read the values of the attributes of this object from the token.
-   *
-   * @param session
-   *          The session to use for reading attributes. This session must
-   *          have the appropriate rights; i.e. it must be a user-session, if
-   *          it is a private object.
-   * @exception TokenException
-   *              If getting the attributes failed.
-   */
-  @Override
-  public void readAttributes(Session session) throws TokenException {
-    super.readAttributes(session);
-
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
-        prime, base, valueBits });
-    PKCS11Object.getAttributeValue(session, objectHandle, value);
-  }
-
   /**
    * Returns a string representation of the current object. The
    * output is only for debugging purposes and should not be used for other
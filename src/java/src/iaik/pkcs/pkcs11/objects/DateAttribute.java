@@ -76,7 +76,8 @@ public class DateAttribute extends Attribute {
    *          The date value to set. May be null.
    */
   public void setDateValue(Date value) {
-    ckAttribute.pValue = Util.convertToCkDate(value);
+    readIfDeferred();
+    setCkValue(Util.convertToCkDate(value));
     present = true;
   }
 
@@ -86,7 +87,8 @@ public class DateAttribute extends Attribute {
    * @return The date value of this attribute or null.
    */
   public Date getDateValue() {
-    return Util.convertToDate((CK_DATE) ckAttribute.pValue);
+    readIfDeferred();
+    return Util.convertToDate((CK_DATE) getCkValue());
   }
 
   /**
@@ -100,6 +102,7 @@ public class DateAttribute extends Attribute {
    */
   @Override
   public boolean equals(Object otherObject) {
+    readIfDeferred();
     if (this == otherObject) {
       return true;
     } else if (!(otherObject instanceof DateAttribute)) {
@@ -113,12 +116,12 @@ public class DateAttribute extends Attribute {
       return false;
     } else if (this.sensitive != other.sensitive) {
       return false;
-    } else if (this.ckAttribute.type != other.ckAttribute.type) {
+    } else if (this.type != other.type) {
       return false;
     }
 
-    return equals((CK_DATE) this.ckAttribute.pValue,
-        (CK_DATE) other.ckAttribute.pValue);
+    return equals((CK_DATE) this.getCkValue(),
+        (CK_DATE) other.getCkValue());
   }
 
   /**
@@ -129,11 +132,12 @@ public class DateAttribute extends Attribute {
    */
   @Override
   public int hashCode() {
-    if ((ckAttribute.pValue == null)) {
-      return (int) ckAttribute.type;
+    readIfDeferred();
+    if ((getCkValue() == null)) {
+      return (int) type;
     }
 
-    return ((int) ckAttribute.type) ^ hashCode((CK_DATE) ckAttribute.pValue);
+    return ((int) type) ^ hashCode((CK_DATE) getCkValue());
   }
 
   @Override
@@ -190,6 +190,7 @@ public class DomainParameters extends Storage {
     getAttributeValue(session, objectHandle, keyTypeAttribute);
 
     Long keyType = keyTypeAttribute.getLongValue();
+    setInstanceSubType(keyType);
 
     PKCS11Object newObject;
 
@@ -334,23 +335,6 @@ public class DomainParameters extends Storage {
     return local;
   }
 
-  /**
-   * Read the values of the attributes of this object from the token.
-   *
-   * @param session
-   *          The session to use for reading attributes. This session must
-   *          have the appropriate rights; i.e. it must be a user-session, if
-   *          it is a private object.
-   * @exception TokenException
-   *              If getting the attributes failed.
-   */
-  @Override
-  public void readAttributes(Session session) throws TokenException {
-    super.readAttributes(session);
-
-    PKCS11Object.getAttributeValue(session, objectHandle, local);
-  }
-
   /**
    * Returns a string representation of the current object. The
    * output is only for debugging purposes and should not be used for other
@@ -42,8 +42,6 @@
 
 package iaik.pkcs.pkcs11.objects;
 
-import java.util.Enumeration;
-
 //import java.util.Collection;
 import iaik.pkcs.pkcs11.Session;
 import iaik.pkcs.pkcs11.TokenException;
@@ -81,7 +79,7 @@ public class GenericTemplate extends PKCS11Object {
   public void addAttribute(Attribute attribute) {
     Util.requireNonNull("attribute", attribute);
     //attributes.addElement(attribute);
-    attributeTable.put(attribute.getType(), attribute);
+    attributeTable.put(attribute.type, attribute);
   }
 
   /**
@@ -108,12 +106,9 @@ public class GenericTemplate extends PKCS11Object {
    */
   public void addAllPresentAttributes(PKCS11Object object) {
     Util.requireNonNull("object", object);
-    Enumeration<Attribute> attributeEnumaeration =
-        object.attributeTable.elements();
-    while (attributeEnumaeration.hasMoreElements()) {
-      Attribute attribute = attributeEnumaeration.nextElement();
+    for (Attribute attribute : object.attributeTable) {
       if (attribute.isPresent()) {
-        attributeTable.put(attribute.getType(), attribute);
+        attributeTable.put(attribute.type, attribute);
       }
     }
   }
@@ -129,7 +124,7 @@ public class GenericTemplate extends PKCS11Object {
    */
   public boolean containsAttribute(Attribute attribute) {
     Util.requireNonNull("attribute", attribute);
-    return attributeTable.containsKey(attribute.getType());
+    return attributeTable.containsKey(attribute.type);
   }
 
   /**
@@ -184,12 +179,19 @@ public class GenericTemplate extends PKCS11Object {
     }
 
     super.readAttributes(session);
+  }
 
-    Enumeration<Attribute> attributeEnumeration = attributeTable.elements();
-    while (attributeEnumeration.hasMoreElements()) {
-      Attribute attribute = attributeEnumeration.nextElement();
-      PKCS11Object.getAttributeValue(session, objectHandle, attribute);
-    }
+  /**
+   * A template may contain any attributes of any kind of object, hence no
+   * profile is used.
+   *
+   * @param session
+   *          The session used to read the attributes.
+   * @return Always null.
+   */
+  @Override
+  protected AttributeReadProfile getAttributeReadProfile(Session session) {
+    return null;
   }
 
   /**
@@ -207,7 +209,7 @@ public class GenericTemplate extends PKCS11Object {
   public Attribute removeAttribute(Attribute attribute) {
     Util.requireNonNull("attribute", attribute);
 
-    return (Attribute) attributeTable.remove(attribute.getType());
+    return attributeTable.remove(attribute.type);
   }
 
   /**
@@ -223,9 +225,9 @@ public class GenericTemplate extends PKCS11Object {
    */
   public void removeAllAttributes(PKCS11Object object) {
     Util.requireNonNull("object", object);
-    Enumeration<Long> keysToRemove = object.attributeTable.keys();
-    while (keysToRemove.hasMoreElements()) {
-      attributeTable.remove(keysToRemove.nextElement());
+    AttributeTable table = object.attributeTable;
+    for (int i = 0; i < table.size(); i++) {
+      attributeTable.remove(table.typeAt(i));
     }
   }
 
@@ -243,12 +245,10 @@ public class GenericTemplate extends PKCS11Object {
    */
   public void removeAllPresentAttributes(PKCS11Object object) {
     Util.requireNonNull("object", object);
-    Enumeration<Long> keysToRemove = object.attributeTable.keys();
-    while (keysToRemove.hasMoreElements()) {
-      Long key = keysToRemove.nextElement();
-      Attribute attribute = object.attributeTable.get(key);
-      if (attribute.isPresent()) {
-        attributeTable.remove(key);
+    AttributeTable table = object.attributeTable;
+    for (int i = 0; i < table.size(); i++) {
+      if (table.attributeAt(i).isPresent()) {
+        attributeTable.remove(table.typeAt(i));
       }
     }
   }
@@ -262,9 +262,7 @@ public class GenericTemplate extends PKCS11Object {
    */
   protected void setAllPresentFlags(boolean present) {
     // make a deep clone of all attributes
-    Enumeration<Attribute> attributesEnumeration = attributeTable.elements();
-    while (attributesEnumeration.hasMoreElements()) {
-      Attribute attribute = attributesEnumeration.nextElement();
+    for (Attribute attribute : attributeTable) {
       attribute.setPresent(present);
     }
   }
@@ -299,10 +297,8 @@ public class GenericTemplate extends PKCS11Object {
   public String toString(boolean newline, boolean withName, String indent) {
     StringBuilder sb = new StringBuilder(1024);
 
-    Enumeration<Attribute> attributesEnumeration = attributeTable.elements();
     boolean firstAttribute = !newline;
-    while (attributesEnumeration.hasMoreElements()) {
-      Attribute attribute = attributesEnumeration.nextElement();
+    for (Attribute attribute : attributeTable) {
       if (attribute.isPresent()) {
         if (!firstAttribute) {
           sb.append("\n");
@@ -227,6 +227,7 @@ public class HardwareFeature extends PKCS11Object {
     getAttributeValue(session, objectHandle, hardwareFeatureTypeAttribute);
 
     Long hardwareFeatureType = hardwareFeatureTypeAttribute.getLongValue();
+    setInstanceSubType(hardwareFeatureType);
 
     PKCS11Object newObject;
 
@@ -66,9 +66,9 @@ public class HardwareFeatureTypeAttribute extends LongAttribute {
    */
   @Override
   protected String getValueString() {
-    if ((ckAttribute != null) && (ckAttribute.pValue != null)) {
+    if (getCkValue() != null) {
       return HardwareFeature
-        .getHardwareFeatureTypeName((Long) ckAttribute.pValue);
+        .getHardwareFeatureTypeName((Long) getCkValue());
     } else {
       return "<NULL_PTR>";
     }
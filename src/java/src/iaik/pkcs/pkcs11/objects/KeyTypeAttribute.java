@@ -66,8 +66,8 @@ public class KeyTypeAttribute extends LongAttribute {
    */
   @Override
   protected String getValueString() {
-    if ((ckAttribute != null) && (ckAttribute.pValue != null)) {
-      return Key.getKeyTypeName((Long) ckAttribute.pValue);
+    if (getCkValue() != null) {
+      return Key.getKeyTypeName((Long) getCkValue());
     } else {
       return "<NULL_PTR>";
     }
@@ -78,7 +78,8 @@ public class LongAttribute extends Attribute {
    *          The long value to set. May be null.
    */
   public void setLongValue(Long value) {
-    ckAttribute.pValue = value;
+    readIfDeferred();
+    setCkValue(value);
     present = true;
   }
 
@@ -88,7 +89,8 @@ public class LongAttribute extends Attribute {
    * @return The long value of this attribute or null.
    */
   public Long getLongValue() {
-    return (Long) ckAttribute.pValue;
+    readIfDeferred();
+    return (Long) getCkValue();
   }
 
   /**
@@ -102,9 +104,9 @@ public class LongAttribute extends Attribute {
   protected String getValueString(int radix) {
     String valueString;
 
-    if ((ckAttribute != null) && (ckAttribute.pValue != null)) {
+    if (getCkValue() != null) {
       valueString = Long.toString(
-          ((Long) ckAttribute.pValue).longValue(), radix);
+          ((Long) getCkValue()).longValue(), radix);
     } else {
       valueString = "<NULL_PTR>";
     }
@@ -122,6 +124,7 @@ public class LongAttribute extends Attribute {
    * @return A string representation of the value of this attribute.
    */
   public String toString(int radix) {
+    readIfDeferred();
     if (present) {
       if (sensitive) {
         return "<Value is sensitive>";
@@ -135,27 +135,6 @@ public class Mechanism extends PKCS11Object {
         && this.mechanismType.equals(other.mechanismType);
   }
 
-  /**
-   * Read the values of the attributes of this object from the token.
-   *
-   * @param session
-   *          The session to use for reading attributes. This session must
-   *          have the appropriate rights; i.e. it must be a user-session, if
-   *          it is a private object.
-   * @exception TokenException
-   *              If getting the attributes failed.
-   */
-  @Override
-  public void readAttributes(Session session) throws TokenException {
-    super.readAttributes(session);
-
-    /*
-     * read multiple attributes at once might cause a performance gain
-     * but we only have one attribute here.
-     */
-    PKCS11Object.getAttributeValue(session, objectHandle, mechanismType);
-  }
-
   /**
    * Returns the mechanism type of this mechanism object.
    * @return returns the mechanism type of this mechanism object.
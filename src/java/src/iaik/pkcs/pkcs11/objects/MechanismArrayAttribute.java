@@ -77,6 +77,7 @@ public class MechanismArrayAttribute extends Attribute {
    *          The MechanismArrayAttribute value to set. May be null.
    */
   public void setMechanismAttributeArrayValue(Mechanism[] value) {
+    readIfDeferred();
 
     long[] values = null;
     if (value != null) {
@@ -85,7 +86,7 @@ public class MechanismArrayAttribute extends Attribute {
         values[i] = value[i].getMechanismCode();
       }
     }
-    ckAttribute.pValue = values;
+    setCkValue(values);
     present = true;
   }
 
@@ -96,9 +97,10 @@ public class MechanismArrayAttribute extends Attribute {
    * @return The mechanism attribute array value of this attribute or null.
    */
   public Mechanism[] getMechanismAttributeArrayValue() {
+    readIfDeferred();
     Mechanism[] mechanisms = null;
-    if (ckAttribute.pValue != null) {
-      long[] values = (long[]) ckAttribute.pValue;
+    if (getCkValue() != null) {
+      long[] values = (long[]) getCkValue();
       if (values != null && values.length > 0) {
         mechanisms = new Mechanism[values.length];
         for (int i = 0; i < values.length; i++) {
@@ -140,6 +142,7 @@ public class MechanismArrayAttribute extends Attribute {
    */
   @Override
   public boolean equals(Object otherObject) {
+    readIfDeferred();
     if (this == otherObject) {
       return true;
     } else if (!(otherObject instanceof MechanismArrayAttribute)) {
@@ -155,8 +158,8 @@ public class MechanismArrayAttribute extends Attribute {
       return false;
     }
 
-    return Arrays.equals((long[]) this.ckAttribute.pValue,
-        (long[]) other.ckAttribute.pValue);
+    return Arrays.equals((long[]) this.getCkValue(),
+        (long[]) other.getCkValue());
   }
 
   /**
@@ -167,8 +170,9 @@ public class MechanismArrayAttribute extends Attribute {
    */
   @Override
   public int hashCode() {
-    return (ckAttribute.pValue != null)
-        ? Util.hashCode((long[]) ckAttribute.pValue) : 0;
+    readIfDeferred();
+    return (getCkValue() != null)
+        ? Util.hashCode((long[]) getCkValue()) : 0;
   }
 
   @Override
@@ -82,8 +82,9 @@ public class MechanismAttribute extends LongAttribute {
    *          The mechanism value to set. May be <code>null</code>.
    */
   public void setMechanism(Mechanism mechanism) {
-    ckAttribute.pValue = (mechanism != null)
-        ? Long.valueOf(mechanism.getMechanismCode()) : null;
+    readIfDeferred();
+    setCkValue((mechanism != null)
+        ? Long.valueOf(mechanism.getMechanismCode()) : null);
     present = true;
   }
 
@@ -93,8 +94,9 @@ public class MechanismAttribute extends LongAttribute {
    * @return The long value of this attribute or null.
    */
   public Mechanism getMechanism() {
-    return ((ckAttribute != null) && (ckAttribute.pValue != null))
-        ? new Mechanism(((Long) ckAttribute.pValue).longValue())
+    readIfDeferred();
+    return (getCkValue() != null)
+        ? new Mechanism(((Long) getCkValue()).longValue())
         : null;
   }
 
@@ -105,11 +107,11 @@ public class MechanismAttribute extends LongAttribute {
    */
   @Override
   protected String getValueString() {
-    if ((ckAttribute != null) && (ckAttribute.pValue != null)) {
-      if (((Long) ckAttribute.pValue).longValue()
+    if (getCkValue() != null) {
+      if (((Long) getCkValue()).longValue()
           != PKCS11Constants.CK_UNAVAILABLE_INFORMATION) {
         return Functions.mechanismCodeToString(
-            ((Long) ckAttribute.pValue).longValue());
+            ((Long) getCkValue()).longValue());
       } else {
         return "<Information unavailable>";
       }
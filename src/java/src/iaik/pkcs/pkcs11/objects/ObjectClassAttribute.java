@@ -66,8 +66,8 @@ public class ObjectClassAttribute extends LongAttribute {
    */
   @Override
   protected String getValueString() {
-    if ((ckAttribute != null) && (ckAttribute.pValue != null)) {
-      return PKCS11Object.getObjectClassName((Long) ckAttribute.pValue);
+    if (getCkValue() != null) {
+      return PKCS11Object.getObjectClassName((Long) getCkValue());
     } else {
       return "<NULL_PTR>";
     }
@@ -42,8 +42,12 @@
 
 package iaik.pkcs.pkcs11.objects;
 
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 //import java.util.Collections;
@@ -54,7 +58,6 @@ import iaik.pkcs.pkcs11.Util;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
-import sun.security.pkcs11.wrapper.PKCS11;
 
 /**
  * An object of this class represents an object as defined by PKCS#11.
@@ -174,6 +177,57 @@ public class PKCS11Object {
    */
   protected static VendorDefinedObjectBuilder vendorObjectBuilder;
 
+  /**
+   * The state of the construction of an object by the getInstance methods,
+   * which the constructors of the sub-classes do not pass on.
+   */
+  private static final class Construction {
+
+    /**
+     * True if the constructor shall not read the attributes, see
+     * {@link PKCS11Object#getInstance(Session, long, boolean)}.
+     */
+    private final boolean deferReading;
+
+    /**
+     * The values to take the attributes from instead of reading them from
+     * the token, or null, see
+     * {@link PKCS11Object#getInstance(Session, long, CK_ATTRIBUTE[])}. The
+     * key is the attribute type.
+     */
+    private final Map<Long, CK_ATTRIBUTE> knownValues;
+
+    /**
+     * The object class read from the token, -1 if it is not known yet. With
+     * the sub type, it selects the attribute read profile before the
+     * attributes of the new object have been read.
+     */
+    private final long objectClass;
+
+    /**
+     * The key, certificate or hardware feature type read from the token, -1
+     * if it is unknown.
+     */
+    private long subType = -1L;
+
+    private Construction(boolean deferReading,
+        Map<Long, CK_ATTRIBUTE> knownValues, long objectClass) {
+      this.deferReading = deferReading;
+      this.knownValues = knownValues;
+      this.objectClass = objectClass;
+    }
+
+  }
+
+  /**
+   * The construction running on the current thread, or null. It is saved
+   * and restored around nested constructions, and cleared while the
+   * interceptors of the session or the vendor-defined object builder run,
+   * so that objects they construct do not inherit it.
+   */
+  private static final ThreadLocal<Construction> construction =
+      new ThreadLocal<>();
+
   /**
    * A table holding string representations for all known key types. Table key
    * is the key type as Long object.
@@ -183,9 +237,11 @@ public class PKCS11Object {
   /**
    * Contains all attribute objects an object possesses. No matter if an
    * attribute is set present or not, it is part of this collection.
-   * The key of this table is the attribute type as Long.
+   * The key of this table is the attribute type. Up to version 1.4.6 this
+   * field was a Hashtable; subclasses register their attributes with
+   * {@link AttributeTable#put(long, Attribute)} as before.
    */
-  protected Hashtable<Long, Attribute> attributeTable;
+  protected AttributeTable attributeTable;
 
   /**
    * The class type of this object. One of ObjectClass, or one that has a
@@ -198,14 +254,28 @@ public class PKCS11Object {
    */
   protected long objectHandle = -1;
 
+  /**
+   * The session to read the attributes with on first access, null if the
+   * attributes are not deferred.
+   */
+  private volatile Session deferredSession;
+
+  /**
+   * True while the thread holding the monitor of this object reads the
+   * attributes. The attributes it reads keep their deferred marker until
+   * the read has succeeded, so that other threads wait for the read.
+   */
+  private boolean readingAttributes;
+
   /**
    * The default constructor. An application use this constructor to
    * instantiate an object that serves as a template. It may also be useful
    * for working with vendor-defined objects.
    */
   public PKCS11Object() {
-    attributeTable = new Hashtable<>(32);
+    attributeTable = new AttributeTable();
     allocateAttributes();
+    attributeTable.trimToSize();
   }
 
   /**
@@ -226,10 +296,14 @@ public class PKCS11Object {
    */
   protected PKCS11Object(Session session, long objectHandle)
       throws TokenException {
-    this.attributeTable = new Hashtable<>(32);
+    this.attributeTable = new AttributeTable();
     allocateAttributes();
+    attributeTable.trimToSize();
     this.objectHandle = objectHandle;
-    readAttributes(session);
+    Construction current = construction.get();
+    if (current == null || !current.deferReading) {
+      readAttributes(session);
+    }
   }
 
   /**
@@ -263,36 +337,234 @@ public class PKCS11Object {
 
     PKCS11Object newObject;
 
-    if (objectClassAttribute.isPresent() && (objectClass != null)) {
-      if (objectClass.equals(ObjectClass.PRIVATE_KEY)) {
-        newObject = PrivateKey.getInstance(session, objectHandle);
-      } else if (objectClass.equals(ObjectClass.PUBLIC_KEY)) {
-        newObject = PublicKey.getInstance(session, objectHandle);
-      } else if (objectClass.equals(ObjectClass.CERTIFICATE)) {
-        newObject = Certificate.getInstance(session, objectHandle);
-      } else if (objectClass.equals(ObjectClass.SECRET_KEY)) {
-        newObject = SecretKey.getInstance(session, objectHandle);
-      } else if (objectClass.equals(ObjectClass.DATA)) {
-        newObject = Data.getInstance(session, objectHandle);
-      } else if (objectClass.equals(ObjectClass.DOMAIN_PARAMETERS)) {
-        newObject = DomainParameters.getInstance(session, objectHandle);
-      } else if (objectClass.equals(ObjectClass.MECHANISM)) {
-        newObject = Mechanism.getInstance(session, objectHandle);
-      } else if (objectClass.equals(ObjectClass.HW_FEATURE)) {
-        newObject = HardwareFeature.getInstance(session, objectHandle);
-      } else if ((objectClass.longValue()
-              & ObjectClass.VENDOR_DEFINED.longValue()) != 0L) {
-        newObject = getUnknownObject(session, objectHandle);
+    Construction current = construction.get();
+    Construction previous = enter(new Construction(
+        current != null && current.deferReading,
+        (current == null) ? null : current.knownValues,
+        (objectClassAttribute.isPresent() && (objectClass != null))
+            ? objectClass.longValue() : -1L));
+    try {
+      if (objectClassAttribute.isPresent() && (objectClass != null)) {
+        if (objectClass.equals(ObjectClass.PRIVATE_KEY)) {
+          newObject = PrivateKey.getInstance(session, objectHandle);
+        } else if (objectClass.equals(ObjectClass.PUBLIC_KEY)) {
+          newObject = PublicKey.getInstance(session, objectHandle);
+        } else if (objectClass.equals(ObjectClass.CERTIFICATE)) {
+          newObject = Certificate.getInstance(session, objectHandle);
+        } else if (objectClass.equals(ObjectClass.SECRET_KEY)) {
+          newObject = SecretKey.getInstance(session, objectHandle);
+        } else if (objectClass.equals(ObjectClass.DATA)) {
+          newObject = Data.getInstance(session, objectHandle);
+        } else if (objectClass.equals(ObjectClass.DOMAIN_PARAMETERS)) {
+          newObject = DomainParameters.getInstance(session, objectHandle);
+        } else if (objectClass.equals(ObjectClass.MECHANISM)) {
+          newObject = Mechanism.getInstance(session, objectHandle);
+        } else if (objectClass.equals(ObjectClass.HW_FEATURE)) {
+          newObject = HardwareFeature.getInstance(session, objectHandle);
+        } else if ((objectClass.longValue()
+                & ObjectClass.VENDOR_DEFINED.longValue()) != 0L) {
+          newObject = getUnknownObject(session, objectHandle);
+        } else {
+          newObject = getUnknownObject(session, objectHandle);
+        }
       } else {
         newObject = getUnknownObject(session, objectHandle);
       }
-    } else {
-      newObject = getUnknownObject(session, objectHandle);
+    } finally {
+      leave(previous);
+    }
+
+    return newObject;
+  }
+
+  /**
+   * Like {@link #getInstance(Session, long)}, but if deferred is true, only
+   * the attributes which determine the class of the returned object (object
+   * class, key type, certificate type or hardware feature type) are read.
+   * The other attributes are read on the first access to any of them, all
+   * at once with the given session. If that read fails, the accessor throws
+   * an IllegalStateException whose cause is the TokenException. Objects
+   * built by the vendor-defined object builder and objects constructed by
+   * the interceptors of the session are read completely.
+   *
+   * @param session
+   *          The session to use for reading attributes. This session must
+   *          have the appropriate rights; i.e. it must be a user-session, if
+   *          it is a private object. If deferred, it must remain open until
+   *          the attributes are read.
+   * @param objectHandle
+   *          The object handle as given from the PKCS#111 module.
+   * @param deferred
+   *          True to defer reading the attributes until their first access.
+   * @return The object representing the PKCS#11 object.
+   *         The returned object can be casted to the
+   *         according sub-class.
+   * @exception TokenException
+   *              If getting the attributes failed.
+   */
+  public static PKCS11Object getInstance(Session session, long objectHandle,
+      boolean deferred) throws TokenException {
+    if (!deferred) {
+      return getInstance(session, objectHandle);
     }
 
+    PKCS11Object newObject;
+    Construction previous = enter(new Construction(true, null, -1L));
+    try {
+      newObject = getInstance(session, objectHandle);
+    } finally {
+      leave(previous);
+    }
+    newObject.deferAttributes(session);
     return newObject;
   }
 
+  /**
+   * Like {@link #getInstance(Session, long)}, but the attributes are taken
+   * from the given values, which have been read before; e.g. with
+   * {@link #getSetAttributes(PKCS11Object)} from an object stored in a cache.
+   * The token is not called. The attributes whose types are not among the
+   * given values are not present.
+   *
+   * @param session
+   *          The session the object belongs to.
+   * @param objectHandle
+   *          The object handle as given from the PKCS#111 module.
+   * @param attributeValues
+   *          The values of the attributes of the object.
+   * @return The object representing the PKCS#11 object.
+   *         The returned object can be casted to the
+   *         according sub-class.
+   * @exception TokenException
+   *              If the object could not be constructed.
+   */
+  public static PKCS11Object getInstance(Session session, long objectHandle,
+      CK_ATTRIBUTE[] attributeValues) throws TokenException {
+    Util.requireNonNull("attributeValues", attributeValues);
+
+    Map<Long, CK_ATTRIBUTE> values =
+        new HashMap<>(attributeValues.length * 4 / 3 + 1);
+    for (CK_ATTRIBUTE value : attributeValues) {
+      values.put(value.type, value);
+    }
+
+    Construction previous = enter(new Construction(false, values, -1L));
+    try {
+      return getInstance(session, objectHandle);
+    } finally {
+      leave(previous);
+    }
+  }
+
+  /**
+   * Sets the given construction for the current thread.
+   *
+   * @return The construction to restore with {@link #leave(Construction)}.
+   */
+  private static Construction enter(Construction newConstruction) {
+    Construction previous = construction.get();
+    if (newConstruction == null) {
+      construction.remove();
+    } else {
+      construction.set(newConstruction);
+    }
+    return previous;
+  }
+
+  /**
+   * Restores the construction returned by {@link #enter(Construction)}.
+   */
+  private static void leave(Construction previous) {
+    if (previous == null) {
+      construction.remove();
+    } else {
+      construction.set(previous);
+    }
+  }
+
+  /**
+   * Reads attribute values with the given session, whose interceptors run
+   * outside of the construction of the current thread.
+   */
+  private static void callGetAttributeValue(Session session,
+      long objectHandle, CK_ATTRIBUTE[] template) throws TokenException {
+    Construction previous = enter(null);
+    try {
+      session.getAttributeValue(objectHandle, template);
+    } finally {
+      leave(previous);
+    }
+  }
+
+  /**
+   * Sets the value of the given attribute from the given known values.
+   */
+  private static void setKnownValue(Map<Long, CK_ATTRIBUTE> values,
+      Attribute attribute) {
+    CK_ATTRIBUTE value = values.get(attribute.type);
+    if (value == null) {
+      attribute.setPresent(false);
+      return;
+    }
+
+    // copy, so that modifying the attribute does not modify the known value
+    CK_ATTRIBUTE ckAttribute = new CK_ATTRIBUTE();
+    ckAttribute.type = value.type;
+    ckAttribute.pValue = value.pValue;
+    attribute.setCkAttribute(ckAttribute);
+    attribute.setPresent(true);
+    attribute.setSensitive(false);
+  }
+
+  /**
+   * Marks the attributes which have not been set as to be read on first
+   * access.
+   */
+  private void deferAttributes(Session session) {
+    deferredSession = session;
+    for (Attribute attribute : attributeTable) {
+      if (!attribute.present) {
+        attribute.deferredOwner = this;
+      }
+    }
+  }
+
+  /**
+   * Checks whether reading the attributes of this object has been deferred
+   * and not yet happened.
+   *
+   * @return True, if the attributes will be read on first access.
+   */
+  public boolean isDeferred() {
+    return deferredSession != null;
+  }
+
+  /**
+   * Reads the deferred attributes, if not yet done. Called by the
+   * attributes on their first access.
+   */
+  void readDeferredAttributes() {
+    if (deferredSession == null) {
+      return;
+    }
+
+    synchronized (this) {
+      Session session = deferredSession;
+      // the attributes are accessed by the read in process of this thread
+      if (session == null || readingAttributes) {
+        return;
+      }
+
+      try {
+        readAttributes(session);
+      } catch (TokenException ex) {
+        // the attributes remain deferred and are read on the next access
+        throw new IllegalStateException("could not read the attributes of "
+            + "object " + objectHandle, ex);
+      }
+    }
+  }
+
   /**
    * Try to create an object which has no or an unknown object class
    * attribute. This implementation will try to use a vendor defined object
@@ -315,7 +587,14 @@ public class PKCS11Object {
     PKCS11Object newObject;
     if (vendorObjectBuilder != null) {
       try {
-        newObject = vendorObjectBuilder.build(session, objectHandle);
+        // the builder constructs its objects outside of the construction of
+        // the current thread
+        Construction previous = enter(null);
+        try {
+          newObject = vendorObjectBuilder.build(session, objectHandle);
+        } finally {
+          leave(previous);
+        }
       } catch (PKCS11Exception ex) {
         // we can just treat it like some unknown type of object
         newObject = new PKCS11Object(session, objectHandle);
@@ -439,12 +718,38 @@ public class PKCS11Object {
    * Return the table that contains all attributes of this object.
    * The key to this table is the attribute type as Long object.
    *
+   * <p>The table is a copy, use {@link #getAttribute(long)} or
+   * {@link #attributeCount()} and {@link #attributeAt(int)} to access the
+   * attributes without copying.
+   *
    * @return The table of all attributes of this object. Key is the attribute
    *         type as Long. This table is unmodifiable.
    */
-  @SuppressWarnings("unchecked")
   public Hashtable<Long, Attribute> getAttributeTable() {
-    return (Hashtable<Long, Attribute>) attributeTable.clone();
+    return attributeTable.toHashtable();
+  }
+
+  /**
+   * Gets the number of attributes of this object, no matter if they are
+   * present or not.
+   *
+   * @return The number of attributes.
+   */
+  public int attributeCount() {
+    return attributeTable.size();
+  }
+
+  /**
+   * Gets the attribute at the given position. The positions are ordered by
+   * the attribute type.
+   *
+   * @param index
+   *        the position, between 0 (inclusive) and
+   *        {@link #attributeCount()} (exclusive)
+   * @return the attribute
+   */
+  public Attribute attributeAt(int index) {
+    return attributeTable.attributeAt(index);
   }
 
   /**
@@ -482,7 +787,7 @@ public class PKCS11Object {
    * @return the attribute
    */
   public Attribute getAttribute(long attribute) {
-    return (Attribute) attributeTable.get(Long.valueOf(attribute));
+    return attributeTable.get(attribute);
   }
 
   /**
@@ -540,20 +845,33 @@ public class PKCS11Object {
    * @return An collection of CK_ATTRIBUTE objects.
    */
   public Vector<CK_ATTRIBUTE> getSetAttributes() {
-    Vector<CK_ATTRIBUTE> attributeCollection =
-        new Vector<>(attributeTable.size());
+    return new Vector<>(Arrays.asList(getSetCkAttributes()));
+  }
 
-    Enumeration<Attribute> attributeEnumeration =
-        attributeTable.elements();
-    while (attributeEnumeration.hasMoreElements()) {
-      Attribute attribute = attributeEnumeration.nextElement();
-      if (attribute.isPresent()) {
-        CK_ATTRIBUTE ckAttribute = attribute.getCkAttribute();
-        attributeCollection.addElement(ckAttribute);
+  /**
+   * Returns the PKCS#11 attributes of this object like
+   * {@link #getSetAttributes()}, but as array.
+   *
+   * @return An array of CK_ATTRIBUTE objects.
+   */
+  private CK_ATTRIBUTE[] getSetCkAttributes() {
+    int size = attributeTable.size();
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (attributeTable.attributeAt(i).isPresent()) {
+        count++;
       }
     }
 
-    return attributeCollection;
+    CK_ATTRIBUTE[] ckAttributes = new CK_ATTRIBUTE[count];
+    count = 0;
+    for (int i = 0; i < size; i++) {
+      Attribute attribute = attributeTable.attributeAt(i);
+      if (attribute.isPresent()) {
+        ckAttributes[count++] = attribute.getCkAttribute();
+      }
+    }
+    return ckAttributes;
   }
 
   /**
@@ -573,12 +891,7 @@ public class PKCS11Object {
    */
   public static CK_ATTRIBUTE[] getSetAttributes(PKCS11Object object)
       throws PKCS11Exception {
-    Vector<CK_ATTRIBUTE> setAttributes = (object != null)
-        ? object.getSetAttributes() : null;
-    CK_ATTRIBUTE[] ckAttributes = (setAttributes != null)
-        ? Util.convertAttributesVectorToArray(setAttributes) : null;
-
-    return ckAttributes;
+    return (object != null) ? object.getSetCkAttributes() : null;
   }
 
   /**
@@ -594,6 +907,15 @@ public class PKCS11Object {
 
   /**
    * Read the values of the attributes of this object from the token.
+   * The attribute table already contains all attributes of the concrete
+   * class, so all of them are fetched at once with a single
+   * C_GetAttributeValue call. List-valued attributes (allowed mechanisms,
+   * wrap and unwrap templates) and the key material of private and secret
+   * keys are fetched with at most one further call; the key material is not
+   * requested at all if the key is sensitive or not extractable, since the
+   * token will never reveal it. If the reading of the attributes has been
+   * deferred, the attributes are marked as read only after all of them
+   * have been read; accessors called meanwhile wait for the values.
    *
    * @param session
    *          The session to use for reading attributes. This session must
@@ -605,8 +927,93 @@ public class PKCS11Object {
   public void readAttributes(Session session)
       throws TokenException {
     Util.requireNonNull("session", session);
-    // no attributes that we need to read, subclasses set the CLASS
-    // attribute
+    if (deferredSession == null) {
+      readAttributes0(session);
+      return;
+    }
+
+    synchronized (this) {
+      readingAttributes = true;
+      try {
+        readAttributes0(session);
+      } finally {
+        readingAttributes = false;
+      }
+
+      // the values are complete; release the waiting accessors
+      deferredSession = null;
+      for (Attribute attribute : attributeTable) {
+        attribute.deferredOwner = null;
+      }
+    }
+  }
+
+  private void readAttributes0(Session session) throws TokenException {
+    List<Attribute> attributes = new ArrayList<>(attributeTable.size());
+    List<Attribute> keyMaterial = new ArrayList<>(8);
+    List<Attribute> deferredAttributes = new ArrayList<>(8);
+
+    for (Attribute attribute : attributeTable) {
+      if (attribute instanceof MechanismArrayAttribute
+          || attribute instanceof AttributeArray) {
+        // many tokens do not support these attributes, read them apart so
+        // that they do not break the batch of the common attributes
+        deferredAttributes.add(attribute);
+      } else if (isKeyMaterial(attribute)) {
+        keyMaterial.add(attribute);
+      } else {
+        attributes.add(attribute);
+      }
+    }
+
+    AttributeReadProfile profile = getAttributeReadProfile(session);
+    if (!attributes.isEmpty()) {
+      getAttributeValues(session, objectHandle, profile,
+          attributes.toArray(new Attribute[attributes.size()]));
+    }
+
+    if (!keyMaterial.isEmpty()) {
+      if (isKeyMaterialRevealed()) {
+        deferredAttributes.addAll(keyMaterial);
+      } else {
+        // the token would answer with CKR_ATTRIBUTE_SENSITIVE
+        for (Attribute attribute : keyMaterial) {
+          attribute.setPresent(true);
+          attribute.setSensitive(true);
+        }
+      }
+    }
+
+    if (!deferredAttributes.isEmpty()) {
+      Attribute[] attrs =
+          deferredAttributes.toArray(new Attribute[deferredAttributes.size()]);
+      getAttributeValues(session, objectHandle, profile, attrs);
+    }
+  }
+
+  /**
+   * Checks whether the given attribute holds secret key material, which the
+   * token does not reveal if the key is sensitive or not extractable. This
+   * implementation returns always false; the private and secret key classes
+   * override it.
+   *
+   * @param attribute
+   *          The attribute to check.
+   * @return True, if the attribute holds secret key material.
+   */
+  protected boolean isKeyMaterial(Attribute attribute) {
+    return false;
+  }
+
+  /**
+   * Checks whether the token may reveal the key material of this object.
+   * This method is called after all other attributes have been read. This
+   * implementation returns always true.
+   *
+   * @return False, if the key material is known to be sensitive.
+   */
+  protected boolean isKeyMaterialRevealed() {
+    return true;
   }
 
   /**
@@ -645,10 +1052,8 @@ public class PKCS11Object {
   public String toString(boolean newline, boolean withName, String indent) {
     StringBuilder sb = new StringBuilder(1024);
 
-    Enumeration<Attribute> attributesEnumeration = attributeTable.elements();
     boolean firstAttribute = !newline;
-    while (attributesEnumeration.hasMoreElements()) {
-      Attribute attribute = attributesEnumeration.nextElement();
+    for (Attribute attribute : attributeTable) {
       if (attribute.isPresent()) {
         if (!firstAttribute) {
           sb.append("\n");
@@ -685,27 +1090,31 @@ public class PKCS11Object {
    *          The object specifying the attribute type
    *          (see {@link Attribute#getType()}) and receiving the attribute
    *          value (see {@link Attribute#setCkAttribute(CK_ATTRIBUTE)}).
-   * @exception PKCS11Exception
-   *              If getting the attribute failed.
+   * @exception TokenException
+   *              If getting the attribute failed or an interceptor of the
+   *              session vetoed it.
    */
   protected static void getAttributeValue(Session session, long objectHandle,
-      Attribute attribute) throws PKCS11Exception {
+      Attribute attribute) throws TokenException {
     Util.requireNonNull("session", session);
 
-    PKCS11 pkcs11Module = session.getModule().getPKCS11Module();
-    long sessionHandle = session.getSessionHandle();
-    long attributeCode = attribute.getCkAttribute().type;
+    Construction current = construction.get();
+    if (current != null && current.knownValues != null) {
+      setKnownValue(current.knownValues, attribute);
+      return;
+    }
+
+    long attributeCode = attribute.type;
 
     try {
       CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[1];
       attributeTemplateList[0] = new CK_ATTRIBUTE();
       attributeTemplateList[0].type = attributeCode;
-      pkcs11Module.C_GetAttributeValue(sessionHandle, objectHandle,
-          attributeTemplateList);
+      callGetAttributeValue(session, objectHandle, attributeTemplateList);
       attribute.setCkAttribute(attributeTemplateList[0]);
       attribute.setPresent(true);
       attribute.setSensitive(false);
-    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+    } catch (PKCS11Exception ex) {
       if (ex.getErrorCode()
           == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID) {
         // this means, that some requested attributes are missing, but
@@ -721,7 +1130,7 @@ public class PKCS11Object {
         attribute.setSensitive(true);
       } else {
         // there was a different error that we should propagate
-        throw new PKCS11Exception(ex);
+        throw ex;
       }
     }
   }
@@ -729,8 +1138,10 @@ public class PKCS11Object {
   /**
    * This method reads the attributes in a similar way as
    * {@link #getAttributeValue}, but a complete array at once. This can lead
-   * to performance improvements. If reading all attributes at once fails, it
-   * tries to read each attributes individually.
+   * to performance improvements. If reading all attributes at once fails
+   * because of an invalid or sensitive attribute, the array is split in
+   * halves which are read separately, until the offending attributes are
+   * found.
    *
    * @param session
    *          The session to use for reading the attributes.
@@ -740,38 +1151,196 @@ public class PKCS11Object {
    *          The objects specifying the attribute types
    *          (see {@link Attribute#getType()}) and receiving the attribute
    *          values (see {@link Attribute#setCkAttribute(CK_ATTRIBUTE)}).
-   * @exception PKCS11Exception
-   *              If getting the attributes failed.
+   * @exception TokenException
+   *              If getting the attributes failed or an interceptor of the
+   *              session vetoed it.
+   */
+  public static void getAttributeValues(Session session, long objectHandle,
+      Attribute[] attributes) throws TokenException {
+    getAttributeValues(session, objectHandle, null, attributes);
+  }
+
+  /**
+   * This method reads the attributes like
+   * {@link #getAttributeValues(Session, long, Attribute[])}, but uses and
+   * updates the given profile. Attributes known to be invalid for this kind
+   * of object are not requested but marked as not present, so that the
+   * batch of the other attributes is read with one call and without any
+   * retry. An object of this kind which has such an attribute nevertheless
+   * gets it only by reading it explicitly with
+   * {@link #getAttributeValues(Session, long, Attribute[])}, or after the
+   * profile has been cleared, see {@link AttributeReadProfile#clear()}.
+   *
+   * @param session
+   *          The session to use for reading the attributes.
+   * @param objectHandle
+   *          The handle of the object which contains the attributes.
+   * @param profile
+   *          The profile of the unreadable attributes of the token for this
+   *          kind of object. May be null.
+   * @param attributes
+   *          The objects specifying the attribute types
+   *          (see {@link Attribute#getType()}) and receiving the attribute
+   *          values (see {@link Attribute#setCkAttribute(CK_ATTRIBUTE)}).
+   * @exception TokenException
+   *              If getting the attributes failed or an interceptor of the
+   *              session vetoed it.
    */
   protected static void getAttributeValues(Session session, long objectHandle,
-      Attribute[] attributes) throws PKCS11Exception {
+      AttributeReadProfile profile, Attribute[] attributes)
+      throws TokenException {
     Util.requireNonNull("session", session);
     Util.requireNonNull("attributes", attributes);
 
-    PKCS11 pkcs11Module = session.getModule().getPKCS11Module();
-    long sessionHandle = session.getSessionHandle();
+    List<Attribute> readableAttributes = new ArrayList<>(attributes.length);
+    for (Attribute attribute : attributes) {
+      if (profile != null && profile.isInvalid(attribute.type)) {
+        attribute.setPresent(false);
+        attribute.setSensitive(false);
+      } else {
+        readableAttributes.add(attribute);
+      }
+    }
+
+    readAttributeValues(session, objectHandle, profile, readableAttributes,
+        0, readableAttributes.size());
+  }
+
+  private static void readAttributeValues(Session session, long objectHandle,
+      AttributeReadProfile profile, List<Attribute> attributes,
+      int fromIndex, int toIndex) throws TokenException {
+    int count = toIndex - fromIndex;
+    if (count < 1) {
+      return;
+    }
+
+    Construction current = construction.get();
+    if (current != null && current.knownValues != null) {
+      for (int i = fromIndex; i < toIndex; i++) {
+        setKnownValue(current.knownValues, attributes.get(i));
+      }
+      return;
+    }
+
+    CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[count];
+    for (int i = 0; i < count; i++) {
+      CK_ATTRIBUTE attribute = new CK_ATTRIBUTE();
+      attribute.type = attributes.get(fromIndex + i).type;
+      attributeTemplateList[i] = attribute;
+    }
 
     try {
-      CK_ATTRIBUTE[] attributeTemplateList
-        = new CK_ATTRIBUTE[attributes.length];
-      for (int i = 0; i < attributes.length; i++) {
-        CK_ATTRIBUTE attribute = new CK_ATTRIBUTE();
-        attribute.type = attributes[i].getCkAttribute().type;
-        attributeTemplateList[i] = attribute;
+      callGetAttributeValue(session, objectHandle, attributeTemplateList);
+    } catch (PKCS11Exception ex) {
+      long errorCode = ex.getErrorCode();
+      if (errorCode != PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID
+          && errorCode != PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE) {
+        // unexpected error, try to read values separately
+        for (int i = fromIndex; i < toIndex; i++) {
+          getAttributeValue(session, objectHandle, attributes.get(i));
+        }
+        return;
+      }
+
+      if (count > 1) {
+        // the token does not tell which attribute is unreadable, find it by
+        // bisection
+        int middleIndex = fromIndex + count / 2;
+        readAttributeValues(session, objectHandle, profile, attributes,
+            fromIndex, middleIndex);
+        readAttributeValues(session, objectHandle, profile, attributes,
+            middleIndex, toIndex);
+        return;
+      }
+
+      Attribute attribute = attributes.get(fromIndex);
+      long type = attribute.type;
+      if (errorCode == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID) {
+        attribute.setPresent(false);
+        if (profile != null) {
+          profile.addInvalid(type);
+        }
+      } else {
+        // whether an attribute is sensitive depends on the CKA_SENSITIVE
+        // and CKA_EXTRACTABLE of the object, do not record it
+        attribute.setPresent(true);
+        attribute.setSensitive(true);
       }
-      pkcs11Module.C_GetAttributeValue(sessionHandle, objectHandle,
-            attributeTemplateList);
-      for (int i = 0; i < attributes.length; i++) {
-        attributes[i].setCkAttribute(attributeTemplateList[i]);
-        attributes[i].setPresent(true);
-        attributes[i].setSensitive(false);
+      return;
+    }
+
+    for (int i = 0; i < count; i++) {
+      Attribute attribute = attributes.get(fromIndex + i);
+      attribute.setCkAttribute(attributeTemplateList[i]);
+      attribute.setPresent(true);
+      attribute.setSensitive(false);
+    }
+  }
+
+  /**
+   * Gets the profile of the unreadable attributes to be used when reading the
+   * attributes of this object. The profile is kept per token, object class
+   * and key, certificate or hardware feature type of this object.
+   *
+   * @param session
+   *          The session used to read the attributes.
+   * @return The profile, or null if no profile shall be used, because the
+   *         kind of this object is not known yet.
+   */
+  protected AttributeReadProfile getAttributeReadProfile(Session session) {
+    long objectClassValue;
+    long subType;
+    Construction current = construction.get();
+    if (current != null && current.objectClass != -1L) {
+      objectClassValue = current.objectClass;
+      subType = current.subType;
+    } else {
+      // the values are set by the constructors of the sub-classes; do not
+      // use the getters, they would read deferred attributes
+      Object value = (objectClass == null) ? null : objectClass.getCkValue();
+      if (!(value instanceof Long)) {
+        return null;
       }
-    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      // try to read values separately
-      for (int i = 0; i < attributes.length; i++) {
-        getAttributeValue(session, objectHandle, attributes[i]);
+      objectClassValue = (Long) value;
+      subType = getSubType();
+    }
+
+    return session.getModule().getAttributeReadProfile(
+        session.getToken().getTokenID(), objectClassValue, subType);
+  }
+
+  /**
+   * Gets the key, certificate or hardware feature type of this object.
+   *
+   * @return The type, or -1 if this object has none or it is not known.
+   */
+  private long getSubType() {
+    long[] types = {PKCS11Constants.CKA_KEY_TYPE,
+      PKCS11Constants.CKA_CERTIFICATE_TYPE,
+      PKCS11Constants.CKA_HW_FEATURE_TYPE};
+    for (long type : types) {
+      Attribute attribute = attributeTable.get(type);
+      if (attribute != null) {
+        Object value = attribute.getCkValue();
+        return (value instanceof Long) ? (Long) value : -1L;
       }
     }
+    return -1L;
+  }
+
+  /**
+   * The getInstance methods of the sub-classes call this method with the key,
+   * certificate or hardware feature type they have read, so that the object
+   * under construction reads its attributes with the profile of its kind.
+   *
+   * @param subType
+   *          The type read from the token. May be null.
+   */
+  protected static void setInstanceSubType(Long subType) {
+    Construction current = construction.get();
+    if (current != null && subType != null) {
+      current.subType = subType;
+    }
   }
 
 }
@@ -184,6 +184,7 @@ public class PrivateKey extends Key {
     getAttributeValue(session, objectHandle, keyTypeAttribute);
 
     Long keyType = keyTypeAttribute.getLongValue();
+    setInstanceSubType(keyType);
 
     PKCS11Object newObject;
 
@@ -475,24 +476,35 @@ public class PrivateKey extends Key {
   }
 
   /**
-   * Read the values of the attributes of this object from the token.
+   * Checks whether the given attribute holds private key material; i.e. the
+   * private value or one of the private RSA components.
    *
-   * @param session
-   *          The session to use for reading attributes. This session must
-   *          have the appropriate rights; i.e. it must be a user-session, if
-   *          it is a private object.
-   * @exception TokenException
-   *              If getting the attributes failed.
+   * @param attribute
+   *          The attribute to check.
+   * @return True, if the attribute holds private key material.
+   */
+  @Override
+  protected boolean isKeyMaterial(Attribute attribute) {
+    long type = attribute.type;
+    return type == PKCS11Constants.CKA_VALUE
+        || type == PKCS11Constants.CKA_PRIVATE_EXPONENT
+        || type == PKCS11Constants.CKA_PRIME_1
+        || type == PKCS11Constants.CKA_PRIME_2
+        || type == PKCS11Constants.CKA_EXPONENT_1
+        || type == PKCS11Constants.CKA_EXPONENT_2
+        || type == PKCS11Constants.CKA_COEFFICIENT;
+  }
+
+  /**
+   * The private key material is not revealed if this key is sensitive or not
+   * extractable.
+   *
+   * @return False, if this key is sensitive or not extractable.
    */
   @Override
-  public void readAttributes(Session session) throws TokenException {
-    super.readAttributes(session);
-
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
-        subject, sensitive, secondaryAuth, authPinFlags, decrypt,
-        sign, signRecover, unwrap, extractable, alwaysSensitive,
-        neverExtractable, wrapWithTrusted, alwaysAuthenticate });
-    PKCS11Object.getAttributeValue(session, objectHandle, unwrapTemplate);
+  protected boolean isKeyMaterialRevealed() {
+    return !Boolean.TRUE.equals(sensitive.getBooleanValue())
+        && !Boolean.FALSE.equals(extractable.getBooleanValue());
   }
 
   /**
@@ -145,6 +145,7 @@ public class PublicKey extends Key {
     getAttributeValue(session, objectHandle, keyTypeAttribute);
 
     Long keyType = keyTypeAttribute.getLongValue();
+    setInstanceSubType(keyType);
 
     PKCS11Object newObject;
 
@@ -344,25 +345,6 @@ public class PublicKey extends Key {
     return wrapTemplate;
   }
 
-  /**
-   * Read the values of the attributes of this object from the token.
-   *
-   * @param session
-   *          The session to use for reading attributes. This session must
-   *          have the appropriate rights; i.e. it must be a user-session, if
-   *          it is a private object.
-   * @exception TokenException
-   *              If getting the attributes failed.
-   */
-  @Override
-  public void readAttributes(Session session) throws TokenException {
-    super.readAttributes(session);
-
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
-        subject, encrypt, verify, verifyRecover, wrap, trusted });
-    PKCS11Object.getAttributeValue(session, objectHandle, wrapTemplate);
-  }
-
   /**
    * Returns a string representation of the current object. The
    * output is only for debugging purposes and should not be used for other
@@ -45,6 +45,7 @@ package iaik.pkcs.pkcs11.objects;
 import iaik.pkcs.pkcs11.Session;
 import iaik.pkcs.pkcs11.TokenException;
 import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 
 /**
@@ -186,6 +187,7 @@ public class SecretKey extends Key {
     getAttributeValue(session, objectHandle, keyTypeAttribute);
 
     Long keyType = keyTypeAttribute.getLongValue();
+    setInstanceSubType(keyType);
 
     PKCS11Object newObject;
 
@@ -470,25 +472,27 @@ public class SecretKey extends Key {
   }
 
   /**
-   * Read the values of the attributes of this object from the token.
+   * Checks whether the given attribute holds the key value.
    *
-   * @param session
-   *          The session to use for reading attributes. This session must
-   *          have the appropriate rights; i.e. it must be a user-session, if
-   *          it is a private object.
-   * @exception TokenException
-   *              If getting the attributes failed.
+   * @param attribute
+   *          The attribute to check.
+   * @return True, if the attribute is the CKA_VALUE attribute.
+   */
+  @Override
+  protected boolean isKeyMaterial(Attribute attribute) {
+    return attribute.type == PKCS11Constants.CKA_VALUE;
+  }
+
+  /**
+   * The key value is not revealed if this key is sensitive or not
+   * extractable.
+   *
+   * @return False, if this key is sensitive or not extractable.
    */
   @Override
-  public void readAttributes(Session session) throws TokenException {
-    super.readAttributes(session);
-
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
-        sensitive, encrypt, decrypt, sign, verify, wrap, unwrap,
-        extractable, alwaysSensitive, neverExtractable, checkValue,
-        wrapWithTrusted, trusted });
-    PKCS11Object.getAttributeValue(session, objectHandle, wrapTemplate);
-    PKCS11Object.getAttributeValue(session, objectHandle, unwrapTemplate);
+  protected boolean isKeyMaterialRevealed() {
+    return !Boolean.TRUE.equals(sensitive.getBooleanValue())
+        && !Boolean.FALSE.equals(extractable.getBooleanValue());
   }
 
   /**
@@ -17,8 +17,7 @@
 
 package iaik.pkcs.pkcs11.parameters;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
 
 import iaik.pkcs.pkcs11.Util;
 import iaik.pkcs.pkcs11.wrapper.Functions;
@@ -35,7 +34,7 @@ public class CCMParameters implements Parameters {
   public static final String CLASS_CK_PARAMS =
       "sun.security.pkcs11.wrapper.CK_CCM_PARAMS";
 
-  private static final Constructor<?> constructor;
+  private static final MethodHandle constructor;
 
   private final int dataLen;
   private final byte[] iv;
@@ -43,8 +42,9 @@ public class CCMParameters implements Parameters {
   private final int tagLen;
 
   static {
-    constructor = Util.getConstructor(CLASS_CK_PARAMS,
-        int.class, byte[].class, byte[].class, int.class);
+    constructor = Util.unreflectConstructor(
+        Util.getConstructor(CLASS_CK_PARAMS,
+            int.class, byte[].class, byte[].class, int.class));
   }
 
   public CCMParameters(int tagLen, byte[] iv, byte[] aad, int dataLen) {
@@ -58,6 +58,22 @@ public class CCMParameters implements Parameters {
     this.tagLen = tagLen;
   }
 
+  public byte[] getIv() {
+    return iv;
+  }
+
+  public byte[] getAad() {
+    return aad;
+  }
+
+  public int getTagLen() {
+    return tagLen;
+  }
+
+  public int getDataLen() {
+    return dataLen;
+  }
+
   @Override
   public String toString() {
     return Util.concatObjectsCap(100,
@@ -75,11 +91,10 @@ public class CCMParameters implements Parameters {
   @Override
   public Object getPKCS11ParamsObject() {
     try {
-      return constructor.newInstance(tagLen, iv, aad, dataLen);
-    } catch (SecurityException | InstantiationException | IllegalAccessException
-        | IllegalArgumentException | InvocationTargetException ex) {
+      return (Object) constructor.invokeExact(tagLen, iv, aad, dataLen);
+    } catch (Throwable th) {
       throw new IllegalStateException(
-          "Could not create new instance of " + CLASS_CK_PARAMS, ex);
+          "Could not create new instance of " + CLASS_CK_PARAMS, th);
     }
   }
 
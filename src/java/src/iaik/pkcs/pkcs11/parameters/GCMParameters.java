@@ -17,8 +17,7 @@
 
 package iaik.pkcs.pkcs11.parameters;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
 
 import iaik.pkcs.pkcs11.Util;
 import iaik.pkcs.pkcs11.wrapper.Functions;
@@ -35,15 +34,16 @@ public class GCMParameters implements Parameters {
   public static final String CLASS_CK_PARAMS =
       "sun.security.pkcs11.wrapper.CK_GCM_PARAMS";
 
-  private static final Constructor<?> constructor;
+  private static final MethodHandle constructor;
 
   private final byte[] iv;
   private final byte[] aad;
   private final int tagLen;
 
   static {
-    constructor = Util.getConstructor(CLASS_CK_PARAMS,
-        int.class, byte[].class, byte[].class);
+    constructor = Util.unreflectConstructor(
+        Util.getConstructor(CLASS_CK_PARAMS,
+            int.class, byte[].class, byte[].class));
   }
 
   public GCMParameters(int tagLen, byte[] iv, byte[] aad) {
@@ -57,6 +57,18 @@ public class GCMParameters implements Parameters {
     this.tagLen = tagLen;
   }
 
+  public byte[] getIv() {
+    return iv;
+  }
+
+  public byte[] getAad() {
+    return aad;
+  }
+
+  public int getTagLen() {
+    return tagLen;
+  }
+
   public String toString() {
     return Util.concatObjectsCap(100,
         "\n  iv: ", Functions.toHexString(iv),
@@ -72,11 +84,10 @@ public class GCMParameters implements Parameters {
   @Override
   public Object getPKCS11ParamsObject() {
     try {
-      return constructor.newInstance(tagLen << 3, iv, aad);
-    } catch (SecurityException | InstantiationException | IllegalAccessException
-        | IllegalArgumentException | InvocationTargetException ex) {
+      return (Object) constructor.invokeExact(tagLen << 3, iv, aad);
+    } catch (Throwable th) {
       throw new IllegalStateException(
-          "Could not create new instance of " + CLASS_CK_PARAMS, ex);
+          "Could not create new instance of " + CLASS_CK_PARAMS, th);
     }
   }
 
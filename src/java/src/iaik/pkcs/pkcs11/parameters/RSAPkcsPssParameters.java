@@ -42,9 +42,8 @@
 
 package iaik.pkcs.pkcs11.parameters;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
 
 import iaik.pkcs.pkcs11.Mechanism;
 import iaik.pkcs.pkcs11.Util;
@@ -63,15 +62,15 @@ public class RSAPkcsPssParameters extends RSAPkcsParameters {
   private static final String CLASS_CK_PARAMS =
       "sun.security.pkcs11.wrapper.CK_RSA_PKCS_PSS_PARAMS";
 
-  private static final Constructor<?> constructor;
+  private static final MethodHandle constructor;
 
-  private static final Constructor<?> constructorNoArgs;
+  private static final MethodHandle constructorNoArgs;
 
-  private static final Field hashAlgField;
+  private static final MethodHandle hashAlgSetter;
 
-  private static final Field mgfField;
+  private static final MethodHandle mgfSetter;
 
-  private static final Field sLenField;
+  private static final MethodHandle sLenSetter;
 
   /**
    * The length of the salt value in octets.
@@ -81,26 +80,34 @@ public class RSAPkcsPssParameters extends RSAPkcsParameters {
   static {
     Class<?> clazz = CK_RSA_PKCS_PSS_PARAMS.class;
 
-    constructor = Util.getConstructor(clazz,
-          String.class, String.class, String.class, int.class);
+    constructor = Util.unreflectConstructor(Util.getConstructor(clazz,
+          String.class, String.class, String.class, int.class));
 
     if (constructor != null) {
       constructorNoArgs = null;
     } else {
-      constructorNoArgs = Util.getConstructor(clazz);
+      constructorNoArgs =
+          Util.unreflectConstructor(Util.getConstructor(clazz));
     }
 
     if (constructorNoArgs != null) {
-      hashAlgField = Util.getField(clazz, "hashAlg");
-      mgfField = Util.getField(clazz, "mgf");
-      sLenField = Util.getField(clazz, "sLen");
+      hashAlgSetter = getLongSetter(clazz, "hashAlg");
+      mgfSetter = getLongSetter(clazz, "mgf");
+      sLenSetter = getLongSetter(clazz, "sLen");
     } else {
-      hashAlgField = null;
-      mgfField = null;
-      sLenField = null;
+      hashAlgSetter = null;
+      mgfSetter = null;
+      sLenSetter = null;
     }
   }
 
+  private static MethodHandle getLongSetter(Class<?> clazz, String name) {
+    MethodHandle setter = Util.unreflectSetter(Util.getField(clazz, name));
+    return (setter == null) ? null : setter.asType(
+        MethodType.methodType(void.class, CK_RSA_PKCS_PSS_PARAMS.class,
+            long.class));
+  }
+
   @Deprecated
   public RSAPkcsPssParameters(Mechanism hashAlg, long mgf, long saltLength) {
     this(hashAlg.getMechanismCode(), mgf, saltLength);
@@ -138,26 +145,24 @@ public class RSAPkcsPssParameters extends RSAPkcsParameters {
     if (constructorNoArgs != null) {
       try {
         CK_RSA_PKCS_PSS_PARAMS ret =
-            (CK_RSA_PKCS_PSS_PARAMS) constructorNoArgs.newInstance();
-        hashAlgField.set(ret, hashAlg);
-        mgfField.set(ret, mgf);
-        sLenField.set(ret, saltLength);
+            (CK_RSA_PKCS_PSS_PARAMS) (Object) constructorNoArgs.invokeExact();
+        hashAlgSetter.invokeExact(ret, hashAlg);
+        mgfSetter.invokeExact(ret, mgf);
+        sLenSetter.invokeExact(ret, saltLength);
         return ret;
-      } catch (InstantiationException | IllegalAccessException
-          | IllegalArgumentException | InvocationTargetException ex) {
+      } catch (Throwable th) {
         throw new IllegalStateException(
-            "Could not create new instance of " + CLASS_CK_PARAMS, ex);
+            "Could not create new instance of " + CLASS_CK_PARAMS, th);
       }
     } else {
       String hashAlgName = Functions.getHashAlgName(hashAlg);
       String mgfHashAlgName = Functions.getHashAlgName(mgf2HashAlgMap.get(mgf));
       try {
-        return (CK_RSA_PKCS_PSS_PARAMS) constructor.newInstance(
+        return (CK_RSA_PKCS_PSS_PARAMS) (Object) constructor.invokeExact(
             hashAlgName, "MGF1", mgfHashAlgName, (int) saltLength);
-      } catch (InstantiationException | IllegalAccessException
-          | IllegalArgumentException | InvocationTargetException ex) {
+      } catch (Throwable th) {
         throw new IllegalStateException(
-            "Could not create new instance of " + CLASS_CK_PARAMS, ex);
+            "Could not create new instance of " + CLASS_CK_PARAMS, th);
       }
     }
   }
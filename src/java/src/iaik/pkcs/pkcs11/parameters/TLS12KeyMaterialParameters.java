@@ -17,9 +17,9 @@
 
 package iaik.pkcs.pkcs11.parameters;
 
-import java.lang.reflect.Constructor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 
 import iaik.pkcs.pkcs11.Util;
 import sun.security.pkcs11.wrapper.CK_SSL3_KEY_MAT_OUT;
@@ -36,10 +36,12 @@ public class TLS12KeyMaterialParameters extends TLSKeyMaterialParameters {
   public static final String CLASS_CK_PARAMS =
       "sun.security.pkcs11.wrapper.CK_TLS12_KEY_MAT_PARAMS";
 
-  private static final Constructor<?> constructor;
+  private static final MethodHandle constructor;
 
   private static final Field field_pReturnedKeyMaterial;
 
+  private static final MethodHandle setter_pReturnedKeyMaterial;
+
   /**
    * <B>PKCS#11:</B>
    * <PRE>
@@ -49,9 +51,10 @@ public class TLS12KeyMaterialParameters extends TLSKeyMaterialParameters {
   public long prfHashMechanism;
 
   static {
-    constructor = Util.getConstructor(CLASS_CK_PARAMS,
-        int.class, int.class, int.class, boolean.class,
-        CK_SSL3_RANDOM_DATA.class, long.class);
+    constructor = Util.unreflectConstructor(
+        Util.getConstructor(CLASS_CK_PARAMS,
+            int.class, int.class, int.class, boolean.class,
+            CK_SSL3_RANDOM_DATA.class, long.class));
 
     Field field;
     try {
@@ -62,6 +65,11 @@ public class TLS12KeyMaterialParameters extends TLSKeyMaterialParameters {
       field = null;
     }
     field_pReturnedKeyMaterial = field;
+
+    MethodHandle setter = Util.unreflectSetter(field);
+    setter_pReturnedKeyMaterial = (setter == null) ? null : setter.asType(
+        MethodType.methodType(void.class, Object.class,
+            CK_SSL3_KEY_MAT_OUT.class));
   }
 
   public static CK_SSL3_KEY_MAT_OUT getPReturnedKeyMaterial(Object object) {
@@ -86,7 +94,7 @@ public class TLS12KeyMaterialParameters extends TLSKeyMaterialParameters {
       throw new IllegalStateException(
           CLASS_CK_PARAMS + " is not available in the JDK");
     }
-    if (field_pReturnedKeyMaterial == null) {
+    if (setter_pReturnedKeyMaterial == null) {
       throw new IllegalStateException(CLASS_CK_PARAMS
           + ".pReturnedKeyMaterialField is not available in the JDK");
     }
@@ -126,18 +134,16 @@ public class TLS12KeyMaterialParameters extends TLSKeyMaterialParameters {
   @Override
   public Object getPKCS11ParamsObject() {
     try {
-      Object params = constructor.newInstance(
+      Object params = (Object) constructor.invokeExact(
           (int) macSizeInBits,(int) keySizeInBits, (int) ivSizeInBits,
-          export, (CK_SSL3_RANDOM_DATA) randomInfo.getPKCS11ParamsObject(),
-          prfHashMechanism);
+          export, randomInfo.getPKCS11ParamsObject(), prfHashMechanism);
 
-      field_pReturnedKeyMaterial.set(params,
+      setter_pReturnedKeyMaterial.invokeExact(params,
           returnedKeyMaterial.getPKCS11ParamsObject());
       return params;
-    } catch (SecurityException | InstantiationException | IllegalAccessException
-        | IllegalArgumentException | InvocationTargetException ex) {
+    } catch (Throwable th) {
       throw new IllegalStateException(
-          "Could not create new instance of " + CLASS_CK_PARAMS, ex);
+          "Could not create new instance of " + CLASS_CK_PARAMS, th);
     }
   }
 
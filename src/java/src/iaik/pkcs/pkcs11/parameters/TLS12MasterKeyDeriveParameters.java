@@ -17,7 +17,7 @@
 
 package iaik.pkcs.pkcs11.parameters;
 
-import java.lang.reflect.Constructor;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 
@@ -37,7 +37,7 @@ extends TLSMasterKeyDeriveParameters {
   public static final String CLASS_CK_PARAMS =
       "sun.security.pkcs11.wrapper.CK_TLS12_MASTER_KEY_DERIVE_PARAMS";
 
-  private static final Constructor<?> constructor;
+  private static final MethodHandle constructor;
 
   private static final Field field_pVersion;
 
@@ -59,8 +59,8 @@ extends TLSMasterKeyDeriveParameters {
     }
 
     if (clazz != null) {
-      constructor = Util.getConstructor(clazz,
-          CK_SSL3_RANDOM_DATA.class, CK_VERSION.class, long.class);
+      constructor = Util.unreflectConstructor(Util.getConstructor(clazz,
+          CK_SSL3_RANDOM_DATA.class, CK_VERSION.class, long.class));
       field_pVersion = Util.getField(clazz, "pVersion");
     } else {
       constructor = null;
@@ -117,14 +117,15 @@ extends TLSMasterKeyDeriveParameters {
   @Override
   public Object getPKCS11ParamsObject() {
     try {
-      return constructor.newInstance(
-          randomInfo == null ? null : randomInfo.getPKCS11ParamsObject(),
-          version == null ? null : version.getPKCS11ParamsObject(),
-          prfHashMechanism);
-    } catch (SecurityException | InstantiationException | IllegalAccessException
-        | IllegalArgumentException | InvocationTargetException ex) {
+      CK_SSL3_RANDOM_DATA ckRandomInfo = (randomInfo == null) ? null
+          : randomInfo.getPKCS11ParamsObject();
+      CK_VERSION ckVersion = (version == null) ? null
+          : version.getPKCS11ParamsObject();
+      return (Object) constructor.invokeExact(
+          ckRandomInfo, ckVersion, prfHashMechanism);
+    } catch (Throwable th) {
       throw new IllegalStateException(
-          "Could not create new instance of " + CLASS_CK_PARAMS, ex);
+          "Could not create new instance of " + CLASS_CK_PARAMS, th);
     }
   }
 
@@ -17,8 +17,7 @@
 
 package iaik.pkcs.pkcs11.parameters;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
 
 import iaik.pkcs.pkcs11.Util;
 
@@ -33,7 +32,7 @@ public class TLSMacParameters implements Parameters {
   public static final String CLASS_CK_PARAMS =
       "sun.security.pkcs11.wrapper.CK_TLS_MAC_PARAMS";
 
-  private static final Constructor<?> constructor;
+  private static final MethodHandle constructor;
 
   /**
    * <B>PKCS#11:</B>
@@ -60,8 +59,9 @@ public class TLSMacParameters implements Parameters {
   public long serverOrClient;
 
   static {
-    constructor = Util.getConstructor(CLASS_CK_PARAMS,
-        long.class, long.class, long.class);
+    constructor = Util.unreflectConstructor(
+        Util.getConstructor(CLASS_CK_PARAMS,
+            long.class, long.class, long.class));
   }
 
   public TLSMacParameters(long prfMechanism,
@@ -79,11 +79,11 @@ public class TLSMacParameters implements Parameters {
   @Override
   public Object getPKCS11ParamsObject() {
     try {
-      return constructor.newInstance(prfMechanism, macLength, serverOrClient);
-    } catch (SecurityException | InstantiationException | IllegalAccessException
-        | IllegalArgumentException | InvocationTargetException ex) {
+      return (Object) constructor.invokeExact(
+          prfMechanism, macLength, serverOrClient);
+    } catch (Throwable th) {
       throw new IllegalStateException(
-          "Could not create new instance of " + CLASS_CK_PARAMS, ex);
+          "Could not create new instance of " + CLASS_CK_PARAMS, th);
     }
   }
 
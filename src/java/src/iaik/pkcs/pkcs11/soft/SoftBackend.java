@@ -0,0 +1,1455 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.soft;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Backend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_C_INITIALIZE_ARGS;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+import sun.security.pkcs11.wrapper.CK_VERSION;
+import sun.security.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * A {@link PKCS11Backend} with one in-memory token implemented in Java with
+ * the JCA providers of the JDK. It needs no native module, so that tests
+ * and benchmarks can run on any machine, and it can simulate the latency of
+ * a device, so that the overhead of the wrapper can be told apart from the
+ * time spent in the device.
+ * <p>
+ * The module name has the form <code>soft:[option[,option]...]</code> and
+ * is accepted by {@link iaik.pkcs.pkcs11.Module#getInstance(String)}. The
+ * options are:
+ * <ul>
+ *   <li><code>latency=&lt;microseconds&gt;</code>: the latency added to
+ *       each call, default 0.</li>
+ *   <li><code>pin=&lt;PIN&gt;</code>: the PIN of the user and the security
+ *       officer; if not set, any PIN is accepted.</li>
+ *   <li><code>label=&lt;label&gt;</code>: the label of the token.</li>
+ *   <li><code>maxSessions=&lt;count&gt;</code>: the maximal number of
+ *       sessions, default unlimited.</li>
+ *   <li><code>maxRwSessions=&lt;count&gt;</code>: the maximal number of
+ *       read-write sessions, default unlimited.</li>
+ * </ul>
+ * <pre><code>
+ *   Module module = Module.getInstance("soft:latency=200,pin=1234");
+ * </code></pre>
+ * The token supports sessions, session and token objects, find, key
+ * generation of AES, generic secret, RSA and EC keys, the digests MD5 and
+ * SHA-1/SHA-2, HMAC with SHA-1/SHA-2, RSA PKCS#1 v1.5 and raw RSA
+ * signatures, ECDSA, AES ECB/CBC/CBC-PAD and RSA PKCS#1 v1.5 encryption.
+ * Token objects live as long as the backend, i.e. until C_Finalize.
+ * Direct buffer addresses are not supported.
+ *
+ * @version 1.0
+ */
+public class SoftBackend implements PKCS11Backend {
+
+  /**
+   * The prefix of the module names of this backend.
+   */
+  public static final String MODULE_NAME_PREFIX = "soft:";
+
+  /**
+   * Creates the backend from the options in the module name.
+   */
+  public static final Factory FACTORY = SoftBackend::connect;
+
+  private static final long SLOT_ID = 0;
+
+  /**
+   * Latencies shorter than this are waited for by spinning, since parking
+   * is not precise enough.
+   */
+  private static final long SPIN_NANOS = 50000;
+
+  /**
+   * The constructor of sun.security.pkcs11.wrapper.PKCS11Exception with the
+   * type (long)Object; the JDK 8 constructor takes only the error code.
+   */
+  private static final MethodHandle newPKCS11Exception;
+
+  private static final Map<String, SoftBackend> INSTANCES = new HashMap<>();
+
+  private final String moduleName;
+
+  private final char[] pin;
+
+  private final String label;
+
+  private volatile long latencyNanos;
+
+  private volatile long maxSessionCount =
+      PKCS11Constants.CK_EFFECTIVELY_INFINITE;
+
+  private volatile long maxRwSessionCount =
+      PKCS11Constants.CK_EFFECTIVELY_INFINITE;
+
+  private final AtomicLong nextSessionHandle = new AtomicLong(1);
+
+  private final AtomicLong nextObjectHandle = new AtomicLong(1);
+
+  private final Map<Long, SoftSession> sessions = new ConcurrentHashMap<>();
+
+  private final ConcurrentSkipListMap<Long, SoftObject> objects =
+      new ConcurrentSkipListMap<>();
+
+  /**
+   * CKU_USER or CKU_SO if logged in, otherwise -1.
+   */
+  private volatile long loggedInUserType = -1;
+
+  static {
+    Class<?> clazz = PKCS11Exception.class;
+    MethodHandle handle = Util.unreflectConstructor(
+        Util.getConstructor(clazz, long.class, String.class));
+    if (handle != null) {
+      handle = MethodHandles.insertArguments(handle, 1, (Object) null);
+    } else {
+      handle = Util.unreflectConstructor(
+          Util.getConstructor(clazz, long.class));
+    }
+    newPKCS11Exception = handle;
+  }
+
+  /**
+   * Creates a backend with an empty token.
+   *
+   * @param moduleName
+   *          The module name; e.g. "soft:".
+   * @param pin
+   *          The PIN of the user and security officer. If null, any PIN is
+   *          accepted.
+   * @param label
+   *          The label of the token.
+   */
+  public SoftBackend(String moduleName, char[] pin, String label) {
+    this.moduleName = Util.requireNonNull("moduleName", moduleName);
+    this.pin = (pin == null) ? null : pin.clone();
+    this.label = Util.requireNonNull("label", label);
+  }
+
+  /**
+   * Returns the backend for the module name. Backends are kept per module
+   * name until C_Finalize, so that all Module instances of one name share
+   * the token.
+   *
+   * @param moduleName
+   *          The module name; e.g. "soft:latency=100".
+   * @param initArgs
+   *          The initialization arguments. Ignored.
+   * @return The backend.
+   * @exception IOException
+   *              If the module name is invalid.
+   * @exception TokenException
+   *              Never.
+   */
+  public static synchronized SoftBackend connect(String moduleName,
+      CK_C_INITIALIZE_ARGS initArgs) throws IOException, TokenException {
+    Util.requireNonNull("moduleName", moduleName);
+    SoftBackend backend = INSTANCES.get(moduleName);
+    if (backend != null) {
+      return backend;
+    }
+
+    if (!moduleName.startsWith(MODULE_NAME_PREFIX)) {
+      throw new IOException("module name does not start with "
+          + MODULE_NAME_PREFIX + ": " + moduleName);
+    }
+
+    long latencyMicros = 0;
+    long maxSessions = PKCS11Constants.CK_EFFECTIVELY_INFINITE;
+    long maxRwSessions = PKCS11Constants.CK_EFFECTIVELY_INFINITE;
+    char[] pin = null;
+    String label = "SoftToken";
+    String options = moduleName.substring(MODULE_NAME_PREFIX.length());
+    for (String option : options.split(",")) {
+      if (option.isEmpty()) {
+        continue;
+      }
+
+      int index = option.indexOf('=');
+      String name = (index == -1) ? option : option.substring(0, index);
+      String value = (index == -1) ? "" : option.substring(index + 1);
+      if ("latency".equals(name)) {
+        try {
+          latencyMicros = Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+          throw new IOException("invalid latency " + value);
+        }
+      } else if ("maxSessions".equals(name)) {
+        maxSessions = parseCount(name, value);
+      } else if ("maxRwSessions".equals(name)) {
+        maxRwSessions = parseCount(name, value);
+      } else if ("pin".equals(name)) {
+        pin = value.toCharArray();
+      } else if ("label".equals(name)) {
+        label = value;
+      } else {
+        throw new IOException("unknown option " + name + " in "
+            + moduleName);
+      }
+    }
+
+    backend = new SoftBackend(moduleName, pin, label);
+    backend.setLatency(latencyMicros, TimeUnit.MICROSECONDS);
+    backend.setSessionLimits(maxSessions, maxRwSessions);
+    INSTANCES.put(moduleName, backend);
+    return backend;
+  }
+
+  private static long parseCount(String name, String value)
+      throws IOException {
+    try {
+      long count = Long.parseLong(value);
+      if (count > 0) {
+        return count;
+      }
+    } catch (NumberFormatException ex) {
+      // handled below
+    }
+    throw new IOException("invalid " + name + " " + value);
+  }
+
+  /**
+   * Sets the latency which is added to each call.
+   *
+   * @param latency
+   *          The latency, 0 for none.
+   * @param unit
+   *          The unit of latency.
+   */
+  public void setLatency(long latency, TimeUnit unit) {
+    Util.requireNonNull("unit", unit);
+    if (latency < 0) {
+      throw new IllegalArgumentException("latency must not be negative");
+    }
+    this.latencyNanos = unit.toNanos(latency);
+  }
+
+  /**
+   * Sets the maximal numbers of sessions which the token reports in its
+   * token info and allows to be open at the same time.
+   *
+   * @param maxSessions
+   *          The maximal number of sessions, or
+   *          PKCS11Constants.CK_EFFECTIVELY_INFINITE.
+   * @param maxRwSessions
+   *          The maximal number of read-write sessions, or
+   *          PKCS11Constants.CK_EFFECTIVELY_INFINITE.
+   */
+  public void setSessionLimits(long maxSessions, long maxRwSessions) {
+    this.maxSessionCount = maxSessions;
+    this.maxRwSessionCount = maxRwSessions;
+  }
+
+  /**
+   * Returns the latency which is added to each call.
+   *
+   * @return the latency in nanoseconds.
+   */
+  public long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  /**
+   * Returns the number of objects in the token, including the session
+   * objects.
+   *
+   * @return the number of objects.
+   */
+  public int getObjectCount() {
+    return objects.size();
+  }
+
+  static PKCS11Exception error(long errorCode) {
+    try {
+      return (PKCS11Exception) (Object) newPKCS11Exception.invokeExact(
+          errorCode);
+    } catch (Throwable th) {
+      throw new IllegalStateException(
+          "could not create PKCS11Exception", th);
+    }
+  }
+
+  private static PKCS11Exception notSupported() {
+    return error(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+  }
+
+  /**
+   * Waits for the configured latency.
+   */
+  private void delay() {
+    long latency = latencyNanos;
+    if (latency <= 0) {
+      return;
+    }
+
+    long deadline = System.nanoTime() + latency;
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      if (remaining > SPIN_NANOS) {
+        LockSupport.parkNanos(remaining - SPIN_NANOS);
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+
+  private static char[] pad(String text, int len) {
+    char[] chars = new char[len];
+    Arrays.fill(chars, ' ');
+    text.getChars(0, Math.min(len, text.length()), chars, 0);
+    return chars;
+  }
+
+  private static void checkSlot(long slotID) throws PKCS11Exception {
+    if (slotID != SLOT_ID) {
+      throw error(PKCS11Constants.CKR_SLOT_ID_INVALID);
+    }
+  }
+
+  private SoftSession getSession(long hSession) throws PKCS11Exception {
+    SoftSession session = sessions.get(hSession);
+    if (session == null) {
+      throw error(PKCS11Constants.CKR_SESSION_HANDLE_INVALID);
+    }
+    return session;
+  }
+
+  private boolean isUserLoggedIn() {
+    return loggedInUserType == PKCS11Constants.CKU_USER;
+  }
+
+  private SoftObject getObject(long hObject, long errorCode)
+      throws PKCS11Exception {
+    SoftObject object = objects.get(hObject);
+    if (object == null || (object.isPrivate() && !isUserLoggedIn())) {
+      throw error(errorCode);
+    }
+    return object;
+  }
+
+  /* ---------------------------------------------------------------------
+   * General-purpose, slot and token management functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_Finalize(Object pReserved) throws PKCS11Exception {
+    delay();
+    synchronized (SoftBackend.class) {
+      INSTANCES.remove(moduleName);
+    }
+    sessions.clear();
+    objects.clear();
+    loggedInUserType = -1;
+  }
+
+  @Override
+  public CK_INFO C_GetInfo() throws PKCS11Exception {
+    delay();
+    return new CK_INFO(new CK_VERSION(2, 40), pad("xipki", 32), 0L,
+        pad("Software Token", 32), new CK_VERSION(1, 0));
+  }
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent) throws PKCS11Exception {
+    delay();
+    return new long[] {SLOT_ID};
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID) throws PKCS11Exception {
+    delay();
+    checkSlot(slotID);
+    return new CK_SLOT_INFO(pad("Software Slot", 64), pad("xipki", 32),
+        PKCS11Constants.CKF_TOKEN_PRESENT, new CK_VERSION(1, 0),
+        new CK_VERSION(1, 0));
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID) throws PKCS11Exception {
+    delay();
+    checkSlot(slotID);
+    long rwSessions = 0;
+    for (SoftSession session : sessions.values()) {
+      if (session.isRw()) {
+        rwSessions++;
+      }
+    }
+
+    long flags = PKCS11Constants.CKF_RNG
+        | PKCS11Constants.CKF_LOGIN_REQUIRED
+        | PKCS11Constants.CKF_USER_PIN_INITIALIZED
+        | PKCS11Constants.CKF_TOKEN_INITIALIZED;
+    long unavailable = PKCS11Constants.CK_UNAVAILABLE_INFORMATION;
+    return new CK_TOKEN_INFO(pad(label, 32), pad("xipki", 32),
+        pad("SoftToken", 16), pad("1", 16), flags,
+        maxSessionCount, sessions.size(), maxRwSessionCount, rwSessions,
+        255, 4,
+        unavailable, unavailable, unavailable, unavailable,
+        new CK_VERSION(1, 0), new CK_VERSION(1, 0), pad("", 16));
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID) throws PKCS11Exception {
+    delay();
+    checkSlot(slotID);
+    return SoftCrypto.getMechanisms();
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws PKCS11Exception {
+    delay();
+    checkSlot(slotID);
+    CK_MECHANISM_INFO info = SoftCrypto.getMechanismInfo(type);
+    if (info == null) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+    return new CK_MECHANISM_INFO(info.ulMinKeySize, info.ulMaxKeySize,
+        info.flags);
+  }
+
+  /* ---------------------------------------------------------------------
+   * Session management functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object pApplication,
+      CK_NOTIFY notify) throws PKCS11Exception {
+    delay();
+    checkSlot(slotID);
+    if ((flags & PKCS11Constants.CKF_SERIAL_SESSION) == 0) {
+      throw error(PKCS11Constants.CKR_SESSION_PARALLEL_NOT_SUPPORTED);
+    }
+
+    boolean rw = (flags & PKCS11Constants.CKF_RW_SESSION) != 0;
+    synchronized (sessions) {
+      checkSessionCount(rw);
+      long handle = nextSessionHandle.getAndIncrement();
+      sessions.put(handle, new SoftSession(handle, slotID, rw));
+      return handle;
+    }
+  }
+
+  private void checkSessionCount(boolean rw) throws PKCS11Exception {
+    long max = maxSessionCount;
+    if (max != PKCS11Constants.CK_EFFECTIVELY_INFINITE
+        && sessions.size() >= max) {
+      throw error(PKCS11Constants.CKR_SESSION_COUNT);
+    }
+
+    long maxRw = maxRwSessionCount;
+    if (rw && maxRw != PKCS11Constants.CK_EFFECTIVELY_INFINITE) {
+      long rwSessions = 0;
+      for (SoftSession session : sessions.values()) {
+        if (session.isRw()) {
+          rwSessions++;
+        }
+      }
+      if (rwSessions >= maxRw) {
+        throw error(PKCS11Constants.CKR_SESSION_COUNT);
+      }
+    }
+  }
+
+  @Override
+  public void C_CloseSession(long hSession) throws PKCS11Exception {
+    delay();
+    if (sessions.remove(hSession) == null) {
+      throw error(PKCS11Constants.CKR_SESSION_HANDLE_INVALID);
+    }
+
+    Iterator<SoftObject> it = objects.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().getSessionHandle() == hSession) {
+        it.remove();
+      }
+    }
+
+    if (sessions.isEmpty()) {
+      loggedInUserType = -1;
+    }
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    long userType = loggedInUserType;
+    long state;
+    if (userType == PKCS11Constants.CKU_SO) {
+      state = PKCS11Constants.CKS_RW_SO_FUNCTIONS;
+    } else if (userType == PKCS11Constants.CKU_USER) {
+      state = session.isRw() ? PKCS11Constants.CKS_RW_USER_FUNCTIONS
+          : PKCS11Constants.CKS_RO_USER_FUNCTIONS;
+    } else {
+      state = session.isRw() ? PKCS11Constants.CKS_RW_PUBLIC_SESSION
+          : PKCS11Constants.CKS_RO_PUBLIC_SESSION;
+    }
+
+    long flags = PKCS11Constants.CKF_SERIAL_SESSION;
+    if (session.isRw()) {
+      flags |= PKCS11Constants.CKF_RW_SESSION;
+    }
+    return new CK_SESSION_INFO(session.getSlotID(), state, flags, 0);
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession) throws PKCS11Exception {
+    delay();
+    throw notSupported();
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] pOperationState,
+      long hEncryptionKey, long hAuthenticationKey) throws PKCS11Exception {
+    delay();
+    throw notSupported();
+  }
+
+  @Override
+  public void C_Login(long hSession, long userType, char[] pPin)
+      throws PKCS11Exception {
+    delay();
+    getSession(hSession);
+    synchronized (this) {
+      long current = loggedInUserType;
+      if (userType == PKCS11Constants.CKU_CONTEXT_SPECIFIC) {
+        if (current == -1) {
+          throw error(PKCS11Constants.CKR_USER_NOT_LOGGED_IN);
+        }
+      } else if (userType != PKCS11Constants.CKU_USER
+          && userType != PKCS11Constants.CKU_SO) {
+        throw error(PKCS11Constants.CKR_USER_TYPE_INVALID);
+      } else if (current == userType) {
+        throw error(PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN);
+      } else if (current != -1) {
+        throw error(PKCS11Constants.CKR_USER_ANOTHER_ALREADY_LOGGED_IN);
+      } else if (userType == PKCS11Constants.CKU_SO) {
+        for (SoftSession session : sessions.values()) {
+          if (!session.isRw()) {
+            throw error(PKCS11Constants.CKR_SESSION_READ_ONLY_EXISTS);
+          }
+        }
+      }
+
+      if (pin != null && !Arrays.equals(pin, pPin)) {
+        throw error(PKCS11Constants.CKR_PIN_INCORRECT);
+      }
+
+      if (userType != PKCS11Constants.CKU_CONTEXT_SPECIFIC) {
+        loggedInUserType = userType;
+      }
+    }
+  }
+
+  @Override
+  public void C_Logout(long hSession) throws PKCS11Exception {
+    delay();
+    getSession(hSession);
+    synchronized (this) {
+      if (loggedInUserType == -1) {
+        throw error(PKCS11Constants.CKR_USER_NOT_LOGGED_IN);
+      }
+      loggedInUserType = -1;
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Object management functions
+   * ------------------------------------------------------------------- */
+
+  private static Map<Long, Object> toMap(CK_ATTRIBUTE[] template) {
+    Map<Long, Object> attributes = new LinkedHashMap<>();
+    if (template != null) {
+      for (CK_ATTRIBUTE attribute : template) {
+        attributes.put(attribute.type, SoftObject.copy(attribute.pValue));
+      }
+    }
+    return attributes;
+  }
+
+  /**
+   * Sets the values of the attributes which are missing in the template.
+   * Keys are sensitive and not extractable by default.
+   */
+  private static void applyDefaults(Map<Long, Object> attributes,
+      boolean local) {
+    Object value = attributes.get(PKCS11Constants.CKA_CLASS);
+    long objectClass = (value instanceof Long) ? (Long) value : -1;
+    boolean privateKey = objectClass == PKCS11Constants.CKO_PRIVATE_KEY;
+    boolean publicKey = objectClass == PKCS11Constants.CKO_PUBLIC_KEY;
+    boolean secretKey = objectClass == PKCS11Constants.CKO_SECRET_KEY;
+
+    attributes.putIfAbsent(PKCS11Constants.CKA_TOKEN, Boolean.FALSE);
+    attributes.putIfAbsent(PKCS11Constants.CKA_PRIVATE,
+        privateKey || secretKey);
+    attributes.putIfAbsent(PKCS11Constants.CKA_MODIFIABLE, Boolean.TRUE);
+    attributes.putIfAbsent(PKCS11Constants.CKA_LABEL, new char[0]);
+    attributes.putIfAbsent(PKCS11Constants.CKA_COPYABLE, Boolean.TRUE);
+    attributes.putIfAbsent(PKCS11Constants.CKA_DESTROYABLE, Boolean.TRUE);
+    if (objectClass == PKCS11Constants.CKO_CERTIFICATE) {
+      attributes.putIfAbsent(PKCS11Constants.CKA_TRUSTED, Boolean.FALSE);
+      attributes.putIfAbsent(PKCS11Constants.CKA_CERTIFICATE_CATEGORY, 0L);
+      attributes.putIfAbsent(PKCS11Constants.CKA_SUBJECT, new byte[0]);
+      attributes.putIfAbsent(PKCS11Constants.CKA_ID, new byte[0]);
+      attributes.putIfAbsent(PKCS11Constants.CKA_ISSUER, new byte[0]);
+      attributes.putIfAbsent(PKCS11Constants.CKA_SERIAL_NUMBER, new byte[0]);
+      return;
+    }
+
+    if (!(privateKey || publicKey || secretKey)) {
+      return;
+    }
+
+    attributes.putIfAbsent(PKCS11Constants.CKA_ID, new byte[0]);
+    attributes.putIfAbsent(PKCS11Constants.CKA_DERIVE, Boolean.FALSE);
+    attributes.put(PKCS11Constants.CKA_LOCAL, local);
+
+    if (publicKey) {
+      attributes.putIfAbsent(PKCS11Constants.CKA_SUBJECT, new byte[0]);
+      attributes.putIfAbsent(PKCS11Constants.CKA_ENCRYPT, Boolean.TRUE);
+      attributes.putIfAbsent(PKCS11Constants.CKA_VERIFY, Boolean.TRUE);
+      attributes.putIfAbsent(PKCS11Constants.CKA_VERIFY_RECOVER,
+          Boolean.FALSE);
+      attributes.putIfAbsent(PKCS11Constants.CKA_WRAP, Boolean.FALSE);
+      attributes.putIfAbsent(PKCS11Constants.CKA_TRUSTED, Boolean.FALSE);
+      return;
+    }
+
+    if (privateKey) {
+      attributes.putIfAbsent(PKCS11Constants.CKA_SUBJECT, new byte[0]);
+      attributes.putIfAbsent(PKCS11Constants.CKA_SIGN_RECOVER,
+          Boolean.FALSE);
+      attributes.putIfAbsent(PKCS11Constants.CKA_ALWAYS_AUTHENTICATE,
+          Boolean.FALSE);
+    } else {
+      attributes.putIfAbsent(PKCS11Constants.CKA_ENCRYPT, Boolean.TRUE);
+      attributes.putIfAbsent(PKCS11Constants.CKA_VERIFY, Boolean.TRUE);
+      attributes.putIfAbsent(PKCS11Constants.CKA_WRAP, Boolean.FALSE);
+      attributes.putIfAbsent(PKCS11Constants.CKA_TRUSTED, Boolean.FALSE);
+    }
+
+    attributes.putIfAbsent(PKCS11Constants.CKA_DECRYPT, Boolean.TRUE);
+    attributes.putIfAbsent(PKCS11Constants.CKA_SIGN, Boolean.TRUE);
+    attributes.putIfAbsent(PKCS11Constants.CKA_UNWRAP, Boolean.FALSE);
+    attributes.putIfAbsent(PKCS11Constants.CKA_WRAP_WITH_TRUSTED,
+        Boolean.FALSE);
+    attributes.putIfAbsent(PKCS11Constants.CKA_SENSITIVE, Boolean.TRUE);
+    attributes.putIfAbsent(PKCS11Constants.CKA_EXTRACTABLE, Boolean.FALSE);
+
+    boolean sensitive =
+        Boolean.TRUE.equals(attributes.get(PKCS11Constants.CKA_SENSITIVE));
+    boolean extractable =
+        Boolean.TRUE.equals(attributes.get(PKCS11Constants.CKA_EXTRACTABLE));
+    attributes.put(PKCS11Constants.CKA_ALWAYS_SENSITIVE, local && sensitive);
+    attributes.put(PKCS11Constants.CKA_NEVER_EXTRACTABLE,
+        local && !extractable);
+  }
+
+  /**
+   * Stores a new object after checking that the session may create it.
+   */
+  private long store(SoftSession session, Map<Long, Object> attributes)
+      throws PKCS11Exception {
+    boolean token =
+        Boolean.TRUE.equals(attributes.get(PKCS11Constants.CKA_TOKEN));
+    boolean privateObject =
+        Boolean.TRUE.equals(attributes.get(PKCS11Constants.CKA_PRIVATE));
+    if (token && !session.isRw()) {
+      throw error(PKCS11Constants.CKR_SESSION_READ_ONLY);
+    }
+    if (privateObject && !isUserLoggedIn()) {
+      throw error(PKCS11Constants.CKR_USER_NOT_LOGGED_IN);
+    }
+
+    long handle = nextObjectHandle.getAndIncrement();
+    objects.put(handle, new SoftObject(handle,
+        token ? 0 : session.getHandle(), attributes));
+    return handle;
+  }
+
+  private static void checkModifiable(SoftSession session, SoftObject object,
+      long permission) throws PKCS11Exception {
+    if (object.isTokenObject() && !session.isRw()) {
+      throw error(PKCS11Constants.CKR_SESSION_READ_ONLY);
+    }
+    if (!object.getBoolean(permission, true)) {
+      throw error(PKCS11Constants.CKR_ACTION_PROHIBITED);
+    }
+  }
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    Map<Long, Object> attributes = toMap(pTemplate);
+    if (!(attributes.get(PKCS11Constants.CKA_CLASS) instanceof Long)) {
+      throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+    }
+    applyDefaults(attributes, false);
+    return store(session, attributes);
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    SoftObject object =
+        getObject(hObject, PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+    if (!object.getBoolean(PKCS11Constants.CKA_COPYABLE, true)) {
+      throw error(PKCS11Constants.CKR_ACTION_PROHIBITED);
+    }
+
+    Map<Long, Object> attributes = object.copyAttributes();
+    attributes.putAll(toMap(pTemplate));
+    return store(session, attributes);
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    SoftObject object =
+        getObject(hObject, PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+    checkModifiable(session, object, PKCS11Constants.CKA_DESTROYABLE);
+    objects.remove(hObject);
+  }
+
+  /**
+   * Reads the attribute values. Like a native module, no value is returned
+   * if one of the attributes is sensitive or not present.
+   */
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    delay();
+    getSession(hSession);
+    SoftObject object =
+        getObject(hObject, PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+
+    long errorCode = PKCS11Constants.CKR_OK;
+    for (CK_ATTRIBUTE attribute : pTemplate) {
+      if (!object.has(attribute.type)) {
+        errorCode = PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID;
+      } else if (object.isSensitive(attribute.type)) {
+        errorCode = PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE;
+      }
+    }
+
+    if (errorCode != PKCS11Constants.CKR_OK) {
+      throw error(errorCode);
+    }
+
+    for (CK_ATTRIBUTE attribute : pTemplate) {
+      attribute.pValue = SoftObject.copy(object.get(attribute.type));
+    }
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    SoftObject object =
+        getObject(hObject, PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+    checkModifiable(session, object, PKCS11Constants.CKA_MODIFIABLE);
+
+    for (CK_ATTRIBUTE attribute : pTemplate) {
+      long type = attribute.type;
+      if (type == PKCS11Constants.CKA_CLASS
+          || type == PKCS11Constants.CKA_KEY_TYPE
+          || type == PKCS11Constants.CKA_TOKEN
+          || type == PKCS11Constants.CKA_PRIVATE
+          || type == PKCS11Constants.CKA_LOCAL
+          || object.isSensitive(type)) {
+        if (!SoftObject.valueEquals(object.get(type), attribute.pValue)) {
+          throw error(PKCS11Constants.CKR_ATTRIBUTE_READ_ONLY);
+        }
+      }
+    }
+
+    for (CK_ATTRIBUTE attribute : pTemplate) {
+      object.set(attribute.type, attribute.pValue);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    boolean userLoggedIn = isUserLoggedIn();
+    List<Long> handles = new ArrayList<>();
+    for (SoftObject object : objects.values()) {
+      if ((userLoggedIn || !object.isPrivate())
+          && object.matches(pTemplate)) {
+        handles.add(object.getHandle());
+      }
+    }
+
+    synchronized (session) {
+      if (session.foundHandles != null) {
+        throw error(PKCS11Constants.CKR_OPERATION_ACTIVE);
+      }
+
+      long[] found = new long[handles.size()];
+      for (int i = 0; i < found.length; i++) {
+        found[i] = handles.get(i);
+      }
+      session.foundHandles = found;
+      session.foundIndex = 0;
+    }
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      long[] found = session.foundHandles;
+      if (found == null) {
+        throw error(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+      }
+
+      int from = session.foundIndex;
+      int to = (int) Math.min(found.length, from + ulMaxObjectCount);
+      session.foundIndex = to;
+      return Arrays.copyOfRange(found, from, to);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession) throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      if (session.foundHandles == null) {
+        throw error(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+      }
+      session.foundHandles = null;
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Encryption and decryption functions
+   * ------------------------------------------------------------------- */
+
+  private static void checkNotDirect(long directIn, long directOut)
+      throws PKCS11Exception {
+    if (directIn != 0 || directOut != 0) {
+      throw error(PKCS11Constants.CKR_ARGUMENTS_BAD);
+    }
+  }
+
+  private static void checkNotActive(Object operation)
+      throws PKCS11Exception {
+    if (operation != null) {
+      throw error(PKCS11Constants.CKR_OPERATION_ACTIVE);
+    }
+  }
+
+  private static <T> T checkActive(T operation) throws PKCS11Exception {
+    if (operation == null) {
+      throw error(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+    }
+    return operation;
+  }
+
+  /**
+   * Tells whether the operation remains active after the error; only a too
+   * small output buffer does not terminate it.
+   */
+  private static boolean isRecoverable(PKCS11Exception ex) {
+    return ex.getErrorCode() == PKCS11Constants.CKR_BUFFER_TOO_SMALL;
+  }
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    SoftObject key = getObject(hKey, PKCS11Constants.CKR_KEY_HANDLE_INVALID);
+    synchronized (session) {
+      checkNotActive(session.encrypter);
+      session.encrypter = SoftCrypto.newCrypter(session, pMechanism, key, true);
+    }
+  }
+
+  @Override
+  public int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    delay();
+    checkNotDirect(directIn, directOut);
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Crypter crypter = checkActive(session.encrypter);
+      try {
+        int len = crypter.doFinal(in, inOfs, inLen, out, outOfs, outLen);
+        session.encrypter = null;
+        return len;
+      } catch (PKCS11Exception ex) {
+        if (!isRecoverable(ex)) {
+          session.encrypter = null;
+        }
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public int C_EncryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    delay();
+    checkNotDirect(directIn, directOut);
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Crypter crypter = checkActive(session.encrypter);
+      try {
+        return crypter.update(in, inOfs, inLen, out, outOfs, outLen);
+      } catch (PKCS11Exception ex) {
+        if (!isRecoverable(ex)) {
+          session.encrypter = null;
+        }
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public int C_EncryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    delay();
+    checkNotDirect(0, directOut);
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Crypter crypter = checkActive(session.encrypter);
+      try {
+        int len = crypter.doFinal(new byte[0], 0, 0, out, outOfs, outLen);
+        session.encrypter = null;
+        return len;
+      } catch (PKCS11Exception ex) {
+        if (!isRecoverable(ex)) {
+          session.encrypter = null;
+        }
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    SoftObject key = getObject(hKey, PKCS11Constants.CKR_KEY_HANDLE_INVALID);
+    synchronized (session) {
+      checkNotActive(session.decrypter);
+      session.decrypter =
+          SoftCrypto.newCrypter(session, pMechanism, key, false);
+    }
+  }
+
+  @Override
+  public int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    delay();
+    checkNotDirect(directIn, directOut);
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Crypter crypter = checkActive(session.decrypter);
+      try {
+        int len = crypter.doFinal(in, inOfs, inLen, out, outOfs, outLen);
+        session.decrypter = null;
+        return len;
+      } catch (PKCS11Exception ex) {
+        if (!isRecoverable(ex)) {
+          session.decrypter = null;
+        }
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public int C_DecryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    delay();
+    checkNotDirect(directIn, directOut);
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Crypter crypter = checkActive(session.decrypter);
+      try {
+        return crypter.update(in, inOfs, inLen, out, outOfs, outLen);
+      } catch (PKCS11Exception ex) {
+        if (!isRecoverable(ex)) {
+          session.decrypter = null;
+        }
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public int C_DecryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    delay();
+    checkNotDirect(0, directOut);
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Crypter crypter = checkActive(session.decrypter);
+      try {
+        int len = crypter.doFinal(new byte[0], 0, 0, out, outOfs, outLen);
+        session.decrypter = null;
+        return len;
+      } catch (PKCS11Exception ex) {
+        if (!isRecoverable(ex)) {
+          session.decrypter = null;
+        }
+        throw ex;
+      }
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Message digesting functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM pMechanism)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      checkNotActive(session.digester);
+      session.digester = SoftCrypto.newDigester(session, pMechanism);
+    }
+  }
+
+  @Override
+  public int C_DigestSingle(long hSession, CK_MECHANISM pMechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      checkNotActive(session.digester);
+      SoftCrypto.Digester digester =
+          SoftCrypto.newDigester(session, pMechanism);
+      if (digester.getDigestLength() > digestLen) {
+        throw error(PKCS11Constants.CKR_BUFFER_TOO_SMALL);
+      }
+      digester.update(in, inOfs, inLen);
+      byte[] result = digester.digest();
+      System.arraycopy(result, 0, digest, digestOfs, result.length);
+      return result.length;
+    }
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    delay();
+    checkNotDirect(directIn, 0);
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      checkActive(session.digester).update(in, inOfs, inLen);
+    }
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey) throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    SoftObject key = getObject(hKey, PKCS11Constants.CKR_KEY_HANDLE_INVALID);
+    synchronized (session) {
+      SoftCrypto.Digester digester = checkActive(session.digester);
+      if (key.isSensitive(PKCS11Constants.CKA_VALUE)) {
+        session.digester = null;
+        throw error(PKCS11Constants.CKR_KEY_INDIGESTIBLE);
+      }
+      digester.update(key);
+    }
+  }
+
+  @Override
+  public int C_DigestFinal(long hSession, byte[] pDigest, int digestOfs,
+      int digestLen) throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Digester digester = checkActive(session.digester);
+      if (digester.getDigestLength() > digestLen) {
+        throw error(PKCS11Constants.CKR_BUFFER_TOO_SMALL);
+      }
+      session.digester = null;
+      byte[] result = digester.digest();
+      System.arraycopy(result, 0, pDigest, digestOfs, result.length);
+      return result.length;
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Signing and MACing functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    SoftObject key = getObject(hKey, PKCS11Constants.CKR_KEY_HANDLE_INVALID);
+    synchronized (session) {
+      checkNotActive(session.signer);
+      session.signer = SoftCrypto.newSigner(session, pMechanism, key, true);
+    }
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] pData) throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Signer signer = checkActive(session.signer);
+      session.signer = null;
+      signer.update(pData, 0, pData.length);
+      return signer.sign();
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws PKCS11Exception {
+    delay();
+    checkNotDirect(directIn, 0);
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Signer signer = checkActive(session.signer);
+      try {
+        signer.update(in, inOfs, inLen);
+      } catch (PKCS11Exception ex) {
+        session.signer = null;
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession, int expectedLen)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Signer signer = checkActive(session.signer);
+      session.signer = null;
+      return signer.sign();
+    }
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey) throws PKCS11Exception {
+    delay();
+    throw notSupported();
+  }
+
+  @Override
+  public int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    delay();
+    throw notSupported();
+  }
+
+  /* ---------------------------------------------------------------------
+   * Functions for verifying signatures and MACs
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    SoftObject key = getObject(hKey, PKCS11Constants.CKR_KEY_HANDLE_INVALID);
+    synchronized (session) {
+      checkNotActive(session.verifier);
+      session.verifier = SoftCrypto.newSigner(session, pMechanism, key, false);
+    }
+  }
+
+  @Override
+  public void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Signer verifier = checkActive(session.verifier);
+      session.verifier = null;
+      verifier.update(pData, 0, pData.length);
+      verifier.verify(pSignature);
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    delay();
+    checkNotDirect(directIn, 0);
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Signer verifier = checkActive(session.verifier);
+      try {
+        verifier.update(in, inOfs, inLen);
+      } catch (PKCS11Exception ex) {
+        session.verifier = null;
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] pSignature)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    synchronized (session) {
+      SoftCrypto.Signer verifier = checkActive(session.verifier);
+      session.verifier = null;
+      verifier.verify(pSignature);
+    }
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey) throws PKCS11Exception {
+    delay();
+    throw notSupported();
+  }
+
+  @Override
+  public int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    delay();
+    throw notSupported();
+  }
+
+  /* ---------------------------------------------------------------------
+   * Key management functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    long mechanism = pMechanism.mechanism;
+    Map<Long, Object> attributes = toMap(pTemplate);
+
+    Object valueLen = attributes.get(PKCS11Constants.CKA_VALUE_LEN);
+    if (!(valueLen instanceof Long)) {
+      throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+    }
+    byte[] value = SoftCrypto.generateSecretKey(mechanism, (Long) valueLen);
+
+    attributes.put(PKCS11Constants.CKA_CLASS, PKCS11Constants.CKO_SECRET_KEY);
+    attributes.putIfAbsent(PKCS11Constants.CKA_KEY_TYPE,
+        mechanism == PKCS11Constants.CKM_AES_KEY_GEN
+            ? PKCS11Constants.CKK_AES : PKCS11Constants.CKK_GENERIC_SECRET);
+    attributes.put(PKCS11Constants.CKA_VALUE, value);
+    attributes.put(PKCS11Constants.CKA_KEY_GEN_MECHANISM, mechanism);
+    applyDefaults(attributes, true);
+    return store(session, attributes);
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pPublicKeyTemplate, CK_ATTRIBUTE[] pPrivateKeyTemplate)
+      throws PKCS11Exception {
+    delay();
+    SoftSession session = getSession(hSession);
+    long mechanism = pMechanism.mechanism;
+    Map<Long, Object> publicKey = toMap(pPublicKeyTemplate);
+    Map<Long, Object> privateKey = toMap(pPrivateKeyTemplate);
+
+    long keyType;
+    if (mechanism == PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN) {
+      keyType = PKCS11Constants.CKK_RSA;
+      Object modulusBits = publicKey.get(PKCS11Constants.CKA_MODULUS_BITS);
+      if (!(modulusBits instanceof Long)) {
+        throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+      }
+      Object exponent = publicKey.get(PKCS11Constants.CKA_PUBLIC_EXPONENT);
+      SoftCrypto.generateRsaKeyPair((Long) modulusBits,
+          (exponent instanceof byte[]) ? (byte[]) exponent : null,
+          publicKey, privateKey);
+    } else if (mechanism == PKCS11Constants.CKM_EC_KEY_PAIR_GEN) {
+      keyType = PKCS11Constants.CKK_EC;
+      Object ecParams = publicKey.get(PKCS11Constants.CKA_EC_PARAMS);
+      if (!(ecParams instanceof byte[])) {
+        ecParams = privateKey.get(PKCS11Constants.CKA_EC_PARAMS);
+      }
+      if (!(ecParams instanceof byte[])) {
+        throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+      }
+      SoftCrypto.generateEcKeyPair((byte[]) ecParams, publicKey, privateKey);
+    } else {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+
+    publicKey.put(PKCS11Constants.CKA_CLASS, PKCS11Constants.CKO_PUBLIC_KEY);
+    publicKey.put(PKCS11Constants.CKA_KEY_TYPE, keyType);
+    publicKey.put(PKCS11Constants.CKA_KEY_GEN_MECHANISM, mechanism);
+    applyDefaults(publicKey, true);
+
+    privateKey.put(PKCS11Constants.CKA_CLASS,
+        PKCS11Constants.CKO_PRIVATE_KEY);
+    privateKey.put(PKCS11Constants.CKA_KEY_TYPE, keyType);
+    privateKey.put(PKCS11Constants.CKA_KEY_GEN_MECHANISM, mechanism);
+    applyDefaults(privateKey, true);
+
+    long hPrivateKey = store(session, privateKey);
+    try {
+      return new long[] {store(session, publicKey), hPrivateKey};
+    } catch (PKCS11Exception ex) {
+      objects.remove(hPrivateKey);
+      throw ex;
+    }
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hWrappingKey, long hKey) throws PKCS11Exception {
+    delay();
+    throw notSupported();
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hUnwrappingKey, byte[] pWrappedKey, CK_ATTRIBUTE[] pTemplate)
+      throws PKCS11Exception {
+    delay();
+    throw notSupported();
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM pMechanism,
+      long hBaseKey, CK_ATTRIBUTE[] pTemplate) throws PKCS11Exception {
+    delay();
+    throw notSupported();
+  }
+
+  /* ---------------------------------------------------------------------
+   * Random number generation functions
+   * ------------------------------------------------------------------- */
+
+  @Override
+  public void C_SeedRandom(long hSession, byte[] pSeed)
+      throws PKCS11Exception {
+    delay();
+    getSession(hSession);
+    SoftCrypto.seedRandom(pSeed);
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData)
+      throws PKCS11Exception {
+    delay();
+    getSession(hSession);
+    SoftCrypto.generateRandom(randomData);
+  }
+
+  /**
+   * Returns false, the addresses of direct buffers cannot be accessed.
+   *
+   * @return false
+   */
+  @Override
+  public boolean supportsDirectBuffers() {
+    return false;
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    return "SoftBackend " + moduleName;
+  }
+
+}
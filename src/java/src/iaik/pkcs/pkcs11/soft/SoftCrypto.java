@@ -0,0 +1,892 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.soft;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * The mechanisms of the {@link SoftBackend}, implemented with the JCA
+ * providers of the JDK.
+ *
+ * @version 1.0
+ */
+final class SoftCrypto {
+
+  private static final long CKF_DIGEST = PKCS11Constants.CKF_DIGEST;
+
+  private static final long CKF_SIGN_VERIFY =
+      PKCS11Constants.CKF_SIGN | PKCS11Constants.CKF_VERIFY;
+
+  private static final long CKF_ENCRYPT_DECRYPT =
+      PKCS11Constants.CKF_ENCRYPT | PKCS11Constants.CKF_DECRYPT;
+
+  /**
+   * The operations of a session, which keep separate JCA engines.
+   */
+  static final int OPERATION_DIGEST = 0;
+
+  static final int OPERATION_SIGN = 1;
+
+  static final int OPERATION_VERIFY = 2;
+
+  static final int OPERATION_ENCRYPT = 3;
+
+  static final int OPERATION_DECRYPT = 4;
+
+  static final int OPERATION_COUNT = 5;
+
+  /**
+   * The mechanism infos, by mechanism code, in the order of the mechanism
+   * list.
+   */
+  private static final Map<Long, CK_MECHANISM_INFO> MECHANISM_INFOS =
+      new java.util.LinkedHashMap<>();
+
+  /**
+   * The JCA algorithm names of the digest, sign and cipher mechanisms.
+   */
+  private static final Map<Long, String> JCA_NAMES = new HashMap<>();
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  static {
+    addDigest(PKCS11Constants.CKM_MD5, "MD5");
+    addDigest(PKCS11Constants.CKM_SHA_1, "SHA-1");
+    addDigest(PKCS11Constants.CKM_SHA224, "SHA-224");
+    addDigest(PKCS11Constants.CKM_SHA256, "SHA-256");
+    addDigest(PKCS11Constants.CKM_SHA384, "SHA-384");
+    addDigest(PKCS11Constants.CKM_SHA512, "SHA-512");
+
+    addMac(PKCS11Constants.CKM_SHA_1_HMAC, "HmacSHA1");
+    addMac(PKCS11Constants.CKM_SHA224_HMAC, "HmacSHA224");
+    addMac(PKCS11Constants.CKM_SHA256_HMAC, "HmacSHA256");
+    addMac(PKCS11Constants.CKM_SHA384_HMAC, "HmacSHA384");
+    addMac(PKCS11Constants.CKM_SHA512_HMAC, "HmacSHA512");
+
+    long rsaSign = CKF_SIGN_VERIFY;
+    add(PKCS11Constants.CKM_RSA_PKCS, "RSA/ECB/PKCS1Padding", 512, 8192,
+        rsaSign | CKF_ENCRYPT_DECRYPT);
+    add(PKCS11Constants.CKM_RSA_X_509, "RSA/ECB/NoPadding", 512, 8192,
+        rsaSign);
+    add(PKCS11Constants.CKM_SHA1_RSA_PKCS, "SHA1withRSA", 512, 8192,
+        rsaSign);
+    add(PKCS11Constants.CKM_SHA224_RSA_PKCS, "SHA224withRSA", 512, 8192,
+        rsaSign);
+    add(PKCS11Constants.CKM_SHA256_RSA_PKCS, "SHA256withRSA", 512, 8192,
+        rsaSign);
+    add(PKCS11Constants.CKM_SHA384_RSA_PKCS, "SHA384withRSA", 512, 8192,
+        rsaSign);
+    add(PKCS11Constants.CKM_SHA512_RSA_PKCS, "SHA512withRSA", 512, 8192,
+        rsaSign);
+
+    add(PKCS11Constants.CKM_ECDSA, "NONEwithECDSA", 256, 521,
+        CKF_SIGN_VERIFY);
+    add(PKCS11Constants.CKM_ECDSA_SHA1, "SHA1withECDSA", 256, 521,
+        CKF_SIGN_VERIFY);
+    add(PKCS11Constants.CKM_ECDSA_SHA224, "SHA224withECDSA", 256, 521,
+        CKF_SIGN_VERIFY);
+    add(PKCS11Constants.CKM_ECDSA_SHA256, "SHA256withECDSA", 256, 521,
+        CKF_SIGN_VERIFY);
+    add(PKCS11Constants.CKM_ECDSA_SHA384, "SHA384withECDSA", 256, 521,
+        CKF_SIGN_VERIFY);
+    add(PKCS11Constants.CKM_ECDSA_SHA512, "SHA512withECDSA", 256, 521,
+        CKF_SIGN_VERIFY);
+
+    add(PKCS11Constants.CKM_AES_ECB, "AES/ECB/NoPadding", 16, 32,
+        CKF_ENCRYPT_DECRYPT);
+    add(PKCS11Constants.CKM_AES_CBC, "AES/CBC/NoPadding", 16, 32,
+        CKF_ENCRYPT_DECRYPT);
+    add(PKCS11Constants.CKM_AES_CBC_PAD, "AES/CBC/PKCS5Padding", 16, 32,
+        CKF_ENCRYPT_DECRYPT);
+
+    add(PKCS11Constants.CKM_AES_KEY_GEN, null, 16, 32,
+        PKCS11Constants.CKF_GENERATE);
+    add(PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN, null, 1, 512,
+        PKCS11Constants.CKF_GENERATE);
+    add(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN, null, 512, 8192,
+        PKCS11Constants.CKF_GENERATE_KEY_PAIR);
+    add(PKCS11Constants.CKM_EC_KEY_PAIR_GEN, null, 256, 521,
+        PKCS11Constants.CKF_GENERATE_KEY_PAIR);
+  }
+
+  private SoftCrypto() {
+  }
+
+  private static void addDigest(long mechanism, String jcaName) {
+    add(mechanism, jcaName, 0, 0, CKF_DIGEST);
+  }
+
+  private static void addMac(long mechanism, String jcaName) {
+    add(mechanism, jcaName, 1, 512, CKF_SIGN_VERIFY);
+  }
+
+  private static void add(long mechanism, String jcaName, long minKeySize,
+      long maxKeySize, long flags) {
+    MECHANISM_INFOS.put(mechanism,
+        new CK_MECHANISM_INFO(minKeySize, maxKeySize, flags));
+    if (jcaName != null) {
+      JCA_NAMES.put(mechanism, jcaName);
+    }
+  }
+
+  static long[] getMechanisms() {
+    long[] mechanisms = new long[MECHANISM_INFOS.size()];
+    int i = 0;
+    for (Long mechanism : MECHANISM_INFOS.keySet()) {
+      mechanisms[i++] = mechanism;
+    }
+    return mechanisms;
+  }
+
+  static CK_MECHANISM_INFO getMechanismInfo(long mechanism) {
+    return MECHANISM_INFOS.get(mechanism);
+  }
+
+  static void generateRandom(byte[] randomData) {
+    RANDOM.nextBytes(randomData);
+  }
+
+  static void seedRandom(byte[] seed) {
+    RANDOM.setSeed(seed);
+  }
+
+  private static boolean supports(long mechanism, long flag) {
+    CK_MECHANISM_INFO info = MECHANISM_INFOS.get(mechanism);
+    return info != null && (info.flags & flag) != 0;
+  }
+
+  static PKCS11Exception error(long errorCode) {
+    return SoftBackend.error(errorCode);
+  }
+
+  /* ---------------------------------------------------------------------
+   * Operations
+   * ------------------------------------------------------------------- */
+
+  /**
+   * A digest operation.
+   */
+  static final class Digester {
+
+    private final MessageDigest md;
+
+    private Digester(MessageDigest md) {
+      this.md = md;
+    }
+
+    void update(byte[] in, int ofs, int len) {
+      md.update(in, ofs, len);
+    }
+
+    void update(SoftObject secretKey) throws PKCS11Exception {
+      byte[] value = secretKey.getBytes(PKCS11Constants.CKA_VALUE);
+      if (secretKey.getObjectClass() != PKCS11Constants.CKO_SECRET_KEY
+          || value == null) {
+        throw error(PKCS11Constants.CKR_KEY_INDIGESTIBLE);
+      }
+      md.update(value);
+    }
+
+    int getDigestLength() {
+      return md.getDigestLength();
+    }
+
+    byte[] digest() {
+      return md.digest();
+    }
+
+  }
+
+  /**
+   * A sign or verify operation.
+   */
+  static final class Signer {
+
+    private final Signature signature;
+
+    private final Mac mac;
+
+    /**
+     * Raw RSA with or without PKCS#1 padding; the data is collected.
+     */
+    private final Cipher rsa;
+
+    private final ByteArrayOutputStream buffer;
+
+    /**
+     * The length of r and s of ECDSA signatures; 0 for other mechanisms.
+     */
+    private final int ecdsaLength;
+
+    private final int rsaLength;
+
+    private Signer(Signature signature, Mac mac, Cipher rsa, int ecdsaLength,
+        int rsaLength) {
+      this.signature = signature;
+      this.mac = mac;
+      this.rsa = rsa;
+      this.buffer = (rsa == null) ? null : new ByteArrayOutputStream(256);
+      this.ecdsaLength = ecdsaLength;
+      this.rsaLength = rsaLength;
+    }
+
+    void update(byte[] in, int ofs, int len) throws PKCS11Exception {
+      try {
+        if (mac != null) {
+          mac.update(in, ofs, len);
+        } else if (signature != null) {
+          signature.update(in, ofs, len);
+        } else {
+          buffer.write(in, ofs, len);
+        }
+      } catch (GeneralSecurityException ex) {
+        throw error(PKCS11Constants.CKR_FUNCTION_FAILED);
+      }
+    }
+
+    byte[] sign() throws PKCS11Exception {
+      try {
+        if (mac != null) {
+          return mac.doFinal();
+        } else if (signature != null) {
+          byte[] sig = signature.sign();
+          return (ecdsaLength == 0) ? sig : derToRaw(sig, ecdsaLength);
+        } else {
+          return rsa.doFinal(buffer.toByteArray());
+        }
+      } catch (GeneralSecurityException ex) {
+        throw error(PKCS11Constants.CKR_DATA_INVALID);
+      }
+    }
+
+    void verify(byte[] sig) throws PKCS11Exception {
+      boolean valid;
+      try {
+        if (mac != null) {
+          valid = MessageDigest.isEqual(mac.doFinal(), sig);
+        } else if (signature != null) {
+          if (ecdsaLength != 0) {
+            if (sig.length != 2 * ecdsaLength) {
+              throw error(PKCS11Constants.CKR_SIGNATURE_LEN_RANGE);
+            }
+            sig = rawToDer(sig);
+          }
+          valid = signature.verify(sig);
+        } else {
+          if (sig.length != rsaLength) {
+            throw error(PKCS11Constants.CKR_SIGNATURE_LEN_RANGE);
+          }
+          byte[] recovered = rsa.doFinal(sig);
+          valid = new BigInteger(1, recovered).equals(
+              new BigInteger(1, buffer.toByteArray()));
+        }
+      } catch (GeneralSecurityException ex) {
+        valid = false;
+      }
+
+      if (!valid) {
+        throw error(PKCS11Constants.CKR_SIGNATURE_INVALID);
+      }
+    }
+
+  }
+
+  /**
+   * An encrypt or decrypt operation.
+   */
+  static final class Crypter {
+
+    private final Cipher cipher;
+
+    private Crypter(Cipher cipher) {
+      this.cipher = cipher;
+    }
+
+    int update(byte[] in, int inOfs, int inLen, byte[] out, int outOfs,
+        int outLen) throws PKCS11Exception {
+      return crypt(false, in, inOfs, inLen, out, outOfs, outLen);
+    }
+
+    int doFinal(byte[] in, int inOfs, int inLen, byte[] out, int outOfs,
+        int outLen) throws PKCS11Exception {
+      return crypt(true, in, inOfs, inLen, out, outOfs, outLen);
+    }
+
+    private int crypt(boolean doFinal, byte[] in, int inOfs, int inLen,
+        byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+      // the cipher writes up to the end of the array, outLen may be smaller
+      boolean exactOut = out.length - outOfs == outLen;
+      byte[] target = exactOut ? out : new byte[outLen];
+      int targetOfs = exactOut ? outOfs : 0;
+
+      int len;
+      try {
+        len = doFinal
+            ? cipher.doFinal(in, inOfs, inLen, target, targetOfs)
+            : cipher.update(in, inOfs, inLen, target, targetOfs);
+      } catch (ShortBufferException ex) {
+        throw error(PKCS11Constants.CKR_BUFFER_TOO_SMALL);
+      } catch (GeneralSecurityException ex) {
+        throw error(doFinal ? PKCS11Constants.CKR_DATA_LEN_RANGE
+            : PKCS11Constants.CKR_FUNCTION_FAILED);
+      }
+
+      if (!exactOut) {
+        System.arraycopy(target, 0, out, outOfs, len);
+      }
+      return len;
+    }
+
+  }
+
+  static Digester newDigester(SoftSession session, CK_MECHANISM mechanism)
+      throws PKCS11Exception {
+    if (!supports(mechanism.mechanism, CKF_DIGEST)) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+
+    try {
+      String jcaName = JCA_NAMES.get(mechanism.mechanism);
+      MessageDigest md =
+          (MessageDigest) session.getEngine(OPERATION_DIGEST, jcaName);
+      if (md == null) {
+        md = MessageDigest.getInstance(jcaName);
+        session.putEngine(OPERATION_DIGEST, jcaName, md);
+      } else {
+        md.reset();
+      }
+      return new Digester(md);
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+  }
+
+  static Signer newSigner(SoftSession session, CK_MECHANISM mechanism,
+      SoftObject key, boolean sign) throws PKCS11Exception {
+    long code = mechanism.mechanism;
+    if (!supports(code, PKCS11Constants.CKF_SIGN)) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+    checkUsage(key, sign ? PKCS11Constants.CKA_SIGN
+        : PKCS11Constants.CKA_VERIFY);
+
+    String jcaName = JCA_NAMES.get(code);
+    int operation = sign ? OPERATION_SIGN : OPERATION_VERIFY;
+    try {
+      if (jcaName.startsWith("Hmac")) {
+        if (key.getObjectClass() != PKCS11Constants.CKO_SECRET_KEY) {
+          throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+        }
+        Mac mac = (Mac) session.getEngine(operation, jcaName);
+        if (mac == null) {
+          mac = Mac.getInstance(jcaName);
+          session.putEngine(operation, jcaName, mac);
+        }
+        mac.init(getSecretKey(key));
+        return new Signer(null, mac, null, 0, 0);
+      }
+
+      boolean rsa = jcaName.startsWith("RSA") || jcaName.endsWith("RSA");
+      java.security.Key jcaKey = getAsymmetricKey(key, sign,
+          rsa ? PKCS11Constants.CKK_RSA : PKCS11Constants.CKK_EC);
+
+      if (jcaName.startsWith("RSA")) {
+        Cipher cipher = getCipher(session, operation, jcaName);
+        // the RSA primitive of PKCS#1 signatures is the encryption with
+        // the private key
+        cipher.init(sign ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, jcaKey);
+        int rsaLength =
+            (bigInt(key, PKCS11Constants.CKA_MODULUS).bitLength() + 7) / 8;
+        return new Signer(null, null, cipher, 0, rsaLength);
+      }
+
+      Signature signature =
+          (Signature) session.getEngine(operation, jcaName);
+      if (signature == null) {
+        signature = Signature.getInstance(jcaName);
+        session.putEngine(operation, jcaName, signature);
+      }
+      int ecdsaLength = 0;
+      if (sign) {
+        signature.initSign((PrivateKey) jcaKey);
+      } else {
+        signature.initVerify((PublicKey) jcaKey);
+      }
+
+      if (!rsa) {
+        ECParameterSpec params = (jcaKey instanceof ECPrivateKey)
+            ? ((ECPrivateKey) jcaKey).getParams()
+            : ((ECPublicKey) jcaKey).getParams();
+        ecdsaLength = (params.getOrder().bitLength() + 7) / 8;
+      }
+      return new Signer(signature, null, null, ecdsaLength, 0);
+    } catch (GeneralSecurityException | ClassCastException ex) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    }
+  }
+
+  static Crypter newCrypter(SoftSession session, CK_MECHANISM mechanism,
+      SoftObject key, boolean encrypt) throws PKCS11Exception {
+    long code = mechanism.mechanism;
+    if (!supports(code, PKCS11Constants.CKF_ENCRYPT)) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+    checkUsage(key, encrypt ? PKCS11Constants.CKA_ENCRYPT
+        : PKCS11Constants.CKA_DECRYPT);
+
+    String jcaName = JCA_NAMES.get(code);
+    int mode = encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+    try {
+      Cipher cipher = getCipher(session,
+          encrypt ? OPERATION_ENCRYPT : OPERATION_DECRYPT, jcaName);
+      if (code == PKCS11Constants.CKM_RSA_PKCS) {
+        cipher.init(mode, getAsymmetricKey(key, !encrypt,
+            PKCS11Constants.CKK_RSA));
+      } else {
+        if (key.getObjectClass() != PKCS11Constants.CKO_SECRET_KEY
+            || key.getKeyType() != PKCS11Constants.CKK_AES) {
+          throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+        }
+
+        if (code == PKCS11Constants.CKM_AES_ECB) {
+          cipher.init(mode, getSecretKey(key));
+        } else {
+          Object iv = mechanism.pParameter;
+          if (!(iv instanceof byte[]) || ((byte[]) iv).length != 16) {
+            throw error(PKCS11Constants.CKR_MECHANISM_PARAM_INVALID);
+          }
+          cipher.init(mode, getSecretKey(key),
+              new IvParameterSpec((byte[]) iv));
+        }
+      }
+      return new Crypter(cipher);
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    }
+  }
+
+  private static Cipher getCipher(SoftSession session, int operation,
+      String jcaName) throws GeneralSecurityException {
+    Cipher cipher = (Cipher) session.getEngine(operation, jcaName);
+    if (cipher == null) {
+      cipher = Cipher.getInstance(jcaName);
+      session.putEngine(operation, jcaName, cipher);
+    }
+    return cipher;
+  }
+
+  private static void checkUsage(SoftObject key, long usage)
+      throws PKCS11Exception {
+    if (!key.getBoolean(usage, true)) {
+      throw error(PKCS11Constants.CKR_KEY_FUNCTION_NOT_PERMITTED);
+    }
+  }
+
+  /* ---------------------------------------------------------------------
+   * Keys
+   * ------------------------------------------------------------------- */
+
+  private static SecretKeySpec getSecretKey(SoftObject key)
+      throws PKCS11Exception {
+    java.security.Key jcaKey = key.getJcaKey();
+    if (jcaKey instanceof SecretKeySpec) {
+      return (SecretKeySpec) jcaKey;
+    }
+
+    byte[] value = key.getBytes(PKCS11Constants.CKA_VALUE);
+    if (key.getObjectClass() != PKCS11Constants.CKO_SECRET_KEY
+        || value == null || value.length == 0) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    }
+    SecretKeySpec secretKey = new SecretKeySpec(value,
+        key.getKeyType() == PKCS11Constants.CKK_AES ? "AES" : "RAW");
+    key.setJcaKey(secretKey);
+    return secretKey;
+  }
+
+  /**
+   * Converts the private or public key to a JCA key.
+   */
+  private static java.security.Key getAsymmetricKey(SoftObject key,
+      boolean privateKey, long keyType) throws PKCS11Exception {
+    long objectClass = key.getObjectClass();
+    if (key.getKeyType() != keyType || objectClass != (privateKey
+        ? PKCS11Constants.CKO_PRIVATE_KEY : PKCS11Constants.CKO_PUBLIC_KEY)) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    }
+
+    java.security.Key jcaKey = key.getJcaKey();
+    if (jcaKey != null) {
+      return jcaKey;
+    }
+
+    try {
+      if (keyType == PKCS11Constants.CKK_RSA) {
+        KeyFactory kf = KeyFactory.getInstance("RSA");
+        BigInteger modulus = bigInt(key, PKCS11Constants.CKA_MODULUS);
+        BigInteger publicExponent =
+            bigInt(key, PKCS11Constants.CKA_PUBLIC_EXPONENT);
+        if (!privateKey) {
+          jcaKey = kf.generatePublic(
+              new RSAPublicKeySpec(modulus, publicExponent));
+        } else if (key.has(PKCS11Constants.CKA_PRIME_1)) {
+          jcaKey = kf.generatePrivate(new RSAPrivateCrtKeySpec(modulus,
+              publicExponent,
+              bigInt(key, PKCS11Constants.CKA_PRIVATE_EXPONENT),
+              bigInt(key, PKCS11Constants.CKA_PRIME_1),
+              bigInt(key, PKCS11Constants.CKA_PRIME_2),
+              bigInt(key, PKCS11Constants.CKA_EXPONENT_1),
+              bigInt(key, PKCS11Constants.CKA_EXPONENT_2),
+              bigInt(key, PKCS11Constants.CKA_COEFFICIENT)));
+        } else {
+          jcaKey = kf.generatePrivate(new RSAPrivateKeySpec(modulus,
+              bigInt(key, PKCS11Constants.CKA_PRIVATE_EXPONENT)));
+        }
+      } else {
+        KeyFactory kf = KeyFactory.getInstance("EC");
+        ECParameterSpec params =
+            getEcParams(key.getBytes(PKCS11Constants.CKA_EC_PARAMS));
+        if (!privateKey) {
+          jcaKey = kf.generatePublic(new ECPublicKeySpec(decodePoint(
+              key.getBytes(PKCS11Constants.CKA_EC_POINT), params), params));
+        } else {
+          jcaKey = kf.generatePrivate(new ECPrivateKeySpec(
+              bigInt(key, PKCS11Constants.CKA_VALUE), params));
+        }
+      }
+    } catch (GeneralSecurityException | RuntimeException ex) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    }
+
+    key.setJcaKey(jcaKey);
+    return jcaKey;
+  }
+
+  private static BigInteger bigInt(SoftObject key, long type)
+      throws PKCS11Exception {
+    byte[] value = key.getBytes(type);
+    if (value == null) {
+      throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+    }
+    return new BigInteger(1, value);
+  }
+
+  static ECParameterSpec getEcParams(byte[] ecParams)
+      throws PKCS11Exception {
+    if (ecParams == null) {
+      throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+    }
+
+    try {
+      AlgorithmParameters params = AlgorithmParameters.getInstance("EC");
+      // the DER encoded OID of a named curve
+      params.init(ecParams);
+      return params.getParameterSpec(ECParameterSpec.class);
+    } catch (Exception ex) {
+      throw error(PKCS11Constants.CKR_DOMAIN_PARAMS_INVALID);
+    }
+  }
+
+  /**
+   * Decodes CKA_EC_POINT, which is the uncompressed point wrapped in a DER
+   * OCTET STRING; the raw point is accepted as well.
+   */
+  private static ECPoint decodePoint(byte[] encoded, ECParameterSpec params)
+      throws PKCS11Exception {
+    int fieldLen = (params.getCurve().getField().getFieldSize() + 7) / 8;
+    int pointLen = 1 + 2 * fieldLen;
+    if (encoded == null || encoded.length < pointLen) {
+      throw error(PKCS11Constants.CKR_ATTRIBUTE_VALUE_INVALID);
+    }
+
+    int ofs = encoded.length - pointLen;
+    if (encoded[ofs] != 0x04) {
+      throw error(PKCS11Constants.CKR_ATTRIBUTE_VALUE_INVALID);
+    }
+    return new ECPoint(
+        new BigInteger(1, Arrays.copyOfRange(encoded, ofs + 1,
+            ofs + 1 + fieldLen)),
+        new BigInteger(1, Arrays.copyOfRange(encoded, ofs + 1 + fieldLen,
+            ofs + pointLen)));
+  }
+
+  private static byte[] encodePoint(ECPoint point, ECParameterSpec params) {
+    int fieldLen = (params.getCurve().getField().getFieldSize() + 7) / 8;
+    int pointLen = 1 + 2 * fieldLen;
+    byte[] encoded = new byte[derHeaderLength(pointLen) + pointLen];
+    int ofs = writeDerHeader(encoded, 0, (byte) 0x04, pointLen);
+    encoded[ofs] = 0x04;
+    toUnsigned(point.getAffineX(), encoded, ofs + 1, fieldLen);
+    toUnsigned(point.getAffineY(), encoded, ofs + 1 + fieldLen, fieldLen);
+    return encoded;
+  }
+
+  static byte[] unsigned(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+    return (bytes.length > 1 && bytes[0] == 0)
+        ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+  }
+
+  private static void toUnsigned(BigInteger value, byte[] dest, int ofs,
+      int len) {
+    byte[] bytes = unsigned(value);
+    System.arraycopy(bytes, 0, dest, ofs + len - bytes.length, bytes.length);
+  }
+
+  /**
+   * Generates the value of a secret key.
+   */
+  static byte[] generateSecretKey(long mechanism, long valueLen)
+      throws PKCS11Exception {
+    if (mechanism == PKCS11Constants.CKM_AES_KEY_GEN) {
+      if (valueLen != 16 && valueLen != 24 && valueLen != 32) {
+        throw error(PKCS11Constants.CKR_KEY_SIZE_RANGE);
+      }
+    } else if (mechanism == PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN) {
+      if (valueLen < 1 || valueLen > 512) {
+        throw error(PKCS11Constants.CKR_KEY_SIZE_RANGE);
+      }
+    } else {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+
+    byte[] value = new byte[(int) valueLen];
+    RANDOM.nextBytes(value);
+    return value;
+  }
+
+  /**
+   * Generates an RSA key pair and puts the key material into the attributes
+   * of the public and private key.
+   */
+  static void generateRsaKeyPair(long modulusBits, byte[] publicExponent,
+      Map<Long, Object> publicKey, Map<Long, Object> privateKey)
+      throws PKCS11Exception {
+    if (modulusBits < 512 || modulusBits > 8192) {
+      throw error(PKCS11Constants.CKR_KEY_SIZE_RANGE);
+    }
+
+    BigInteger e = (publicExponent == null) ? RSAKeyGenParameterSpec.F4
+        : new BigInteger(1, publicExponent);
+    KeyPair keyPair;
+    try {
+      KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+      kpg.initialize(new RSAKeyGenParameterSpec((int) modulusBits, e),
+          RANDOM);
+      keyPair = kpg.generateKeyPair();
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_TEMPLATE_INCONSISTENT);
+    }
+
+    RSAPrivateCrtKey priv = (RSAPrivateCrtKey) keyPair.getPrivate();
+    byte[] modulus = unsigned(priv.getModulus());
+    byte[] exponent = unsigned(priv.getPublicExponent());
+    publicKey.put(PKCS11Constants.CKA_MODULUS, modulus);
+    publicKey.put(PKCS11Constants.CKA_PUBLIC_EXPONENT, exponent);
+    publicKey.put(PKCS11Constants.CKA_MODULUS_BITS, modulusBits);
+
+    privateKey.put(PKCS11Constants.CKA_MODULUS, modulus.clone());
+    privateKey.put(PKCS11Constants.CKA_PUBLIC_EXPONENT, exponent.clone());
+    privateKey.put(PKCS11Constants.CKA_PRIVATE_EXPONENT,
+        unsigned(priv.getPrivateExponent()));
+    privateKey.put(PKCS11Constants.CKA_PRIME_1, unsigned(priv.getPrimeP()));
+    privateKey.put(PKCS11Constants.CKA_PRIME_2, unsigned(priv.getPrimeQ()));
+    privateKey.put(PKCS11Constants.CKA_EXPONENT_1,
+        unsigned(priv.getPrimeExponentP()));
+    privateKey.put(PKCS11Constants.CKA_EXPONENT_2,
+        unsigned(priv.getPrimeExponentQ()));
+    privateKey.put(PKCS11Constants.CKA_COEFFICIENT,
+        unsigned(priv.getCrtCoefficient()));
+  }
+
+  /**
+   * Generates an EC key pair and puts the key material into the attributes
+   * of the public and private key.
+   */
+  static void generateEcKeyPair(byte[] ecParams, Map<Long, Object> publicKey,
+      Map<Long, Object> privateKey) throws PKCS11Exception {
+    ECParameterSpec params = getEcParams(ecParams);
+    KeyPair keyPair;
+    try {
+      KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+      kpg.initialize(params, RANDOM);
+      keyPair = kpg.generateKeyPair();
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_DOMAIN_PARAMS_INVALID);
+    }
+
+    publicKey.put(PKCS11Constants.CKA_EC_PARAMS, ecParams.clone());
+    publicKey.put(PKCS11Constants.CKA_EC_POINT, encodePoint(
+        ((ECPublicKey) keyPair.getPublic()).getW(), params));
+    privateKey.put(PKCS11Constants.CKA_EC_PARAMS, ecParams.clone());
+    privateKey.put(PKCS11Constants.CKA_VALUE,
+        unsigned(((ECPrivateKey) keyPair.getPrivate()).getS()));
+  }
+
+  /* ---------------------------------------------------------------------
+   * ECDSA signature encoding
+   * ------------------------------------------------------------------- */
+
+  /**
+   * Converts a DER encoded ECDSA signature to r || s.
+   */
+  private static byte[] derToRaw(byte[] der, int len)
+      throws GeneralSecurityException {
+    // SEQUENCE { INTEGER r, INTEGER s }
+    int[] ofs = new int[1];
+    readDerHeader(der, ofs, 0x30);
+    int rLen = readDerHeader(der, ofs, 0x02);
+    BigInteger r = new BigInteger(1,
+        Arrays.copyOfRange(der, ofs[0], ofs[0] + rLen));
+    ofs[0] += rLen;
+    int sLen = readDerHeader(der, ofs, 0x02);
+    BigInteger s = new BigInteger(1,
+        Arrays.copyOfRange(der, ofs[0], ofs[0] + sLen));
+
+    byte[] raw = new byte[2 * len];
+    toUnsigned(r, raw, 0, len);
+    toUnsigned(s, raw, len, len);
+    return raw;
+  }
+
+  /**
+   * Converts an ECDSA signature r || s to DER.
+   */
+  private static byte[] rawToDer(byte[] raw) {
+    int len = raw.length / 2;
+    byte[] r = new BigInteger(1, Arrays.copyOfRange(raw, 0, len))
+        .toByteArray();
+    byte[] s = new BigInteger(1, Arrays.copyOfRange(raw, len, raw.length))
+        .toByteArray();
+
+    int contentLen = derHeaderLength(r.length) + r.length
+        + derHeaderLength(s.length) + s.length;
+    byte[] der = new byte[derHeaderLength(contentLen) + contentLen];
+    int ofs = writeDerHeader(der, 0, (byte) 0x30, contentLen);
+    ofs = writeDerHeader(der, ofs, (byte) 0x02, r.length);
+    System.arraycopy(r, 0, der, ofs, r.length);
+    ofs = writeDerHeader(der, ofs + r.length, (byte) 0x02, s.length);
+    System.arraycopy(s, 0, der, ofs, s.length);
+    return der;
+  }
+
+  private static int readDerHeader(byte[] der, int[] ofs, int tag)
+      throws GeneralSecurityException {
+    int i = ofs[0];
+    if (i + 2 > der.length || (der[i++] & 0xFF) != tag) {
+      throw new GeneralSecurityException("invalid DER encoding");
+    }
+
+    int len = der[i++] & 0xFF;
+    if (len > 0x80) {
+      int numBytes = len & 0x7F;
+      len = 0;
+      for (int j = 0; j < numBytes; j++) {
+        len = (len << 8) | (der[i++] & 0xFF);
+      }
+    }
+
+    ofs[0] = i;
+    if (i + len > der.length) {
+      throw new GeneralSecurityException("invalid DER encoding");
+    }
+    return len;
+  }
+
+  private static int derHeaderLength(int len) {
+    return (len < 0x80) ? 2 : (len < 0x100) ? 3 : 4;
+  }
+
+  private static int writeDerHeader(byte[] dest, int ofs, byte tag,
+      int len) {
+    dest[ofs++] = tag;
+    if (len < 0x80) {
+      dest[ofs++] = (byte) len;
+    } else if (len < 0x100) {
+      dest[ofs++] = (byte) 0x81;
+      dest[ofs++] = (byte) len;
+    } else {
+      dest[ofs++] = (byte) 0x82;
+      dest[ofs++] = (byte) (len >> 8);
+      dest[ofs++] = (byte) len;
+    }
+    return ofs;
+  }
+
+}
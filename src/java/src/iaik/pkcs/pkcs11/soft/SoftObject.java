@@ -0,0 +1,243 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.soft;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_DATE;
+
+/**
+ * An object of the {@link SoftBackend}. The attribute values are kept as
+ * the wrapper passes them in CK_ATTRIBUTE: Boolean, Long, char[], byte[],
+ * CK_DATE, long[] or CK_ATTRIBUTE[].
+ *
+ * @version 1.0
+ */
+final class SoftObject {
+
+  private final long handle;
+
+  /**
+   * The handle of the session which owns this session object; 0 for token
+   * objects.
+   */
+  private final long sessionHandle;
+
+  private final Map<Long, Object> attributes;
+
+  /**
+   * The JCA key converted from the attributes; reset when an attribute
+   * changes.
+   */
+  private volatile java.security.Key jcaKey;
+
+  SoftObject(long handle, long sessionHandle, Map<Long, Object> attributes) {
+    this.handle = handle;
+    this.sessionHandle = sessionHandle;
+    this.attributes = attributes;
+  }
+
+  long getHandle() {
+    return handle;
+  }
+
+  long getSessionHandle() {
+    return sessionHandle;
+  }
+
+  synchronized boolean has(long type) {
+    return attributes.containsKey(type);
+  }
+
+  synchronized Object get(long type) {
+    return attributes.get(type);
+  }
+
+  synchronized void set(long type, Object value) {
+    attributes.put(type, copy(value));
+    jcaKey = null;
+  }
+
+  synchronized Map<Long, Object> copyAttributes() {
+    Map<Long, Object> copy = new LinkedHashMap<>(attributes.size() * 2);
+    for (Map.Entry<Long, Object> entry : attributes.entrySet()) {
+      copy.put(entry.getKey(), copy(entry.getValue()));
+    }
+    return copy;
+  }
+
+  boolean getBoolean(long type, boolean defaultValue) {
+    Object value = get(type);
+    return (value instanceof Boolean) ? (Boolean) value : defaultValue;
+  }
+
+  long getLong(long type) {
+    Object value = get(type);
+    return (value instanceof Long) ? (Long) value : -1;
+  }
+
+  byte[] getBytes(long type) {
+    Object value = get(type);
+    return (value instanceof byte[]) ? (byte[]) value : null;
+  }
+
+  long getObjectClass() {
+    return getLong(PKCS11Constants.CKA_CLASS);
+  }
+
+  long getKeyType() {
+    return getLong(PKCS11Constants.CKA_KEY_TYPE);
+  }
+
+  boolean isTokenObject() {
+    return getBoolean(PKCS11Constants.CKA_TOKEN, false);
+  }
+
+  boolean isPrivate() {
+    return getBoolean(PKCS11Constants.CKA_PRIVATE, false);
+  }
+
+  java.security.Key getJcaKey() {
+    return jcaKey;
+  }
+
+  void setJcaKey(java.security.Key jcaKey) {
+    this.jcaKey = jcaKey;
+  }
+
+  /**
+   * Checks whether the attribute holds key material which is not revealed
+   * because the key is sensitive or not extractable.
+   */
+  boolean isSensitive(long type) {
+    long objectClass = getObjectClass();
+    boolean keyMaterial;
+    if (objectClass == PKCS11Constants.CKO_SECRET_KEY) {
+      keyMaterial = type == PKCS11Constants.CKA_VALUE;
+    } else if (objectClass == PKCS11Constants.CKO_PRIVATE_KEY) {
+      keyMaterial = type == PKCS11Constants.CKA_VALUE
+          || type == PKCS11Constants.CKA_PRIVATE_EXPONENT
+          || type == PKCS11Constants.CKA_PRIME_1
+          || type == PKCS11Constants.CKA_PRIME_2
+          || type == PKCS11Constants.CKA_EXPONENT_1
+          || type == PKCS11Constants.CKA_EXPONENT_2
+          || type == PKCS11Constants.CKA_COEFFICIENT;
+    } else {
+      keyMaterial = false;
+    }
+
+    return keyMaterial && (getBoolean(PKCS11Constants.CKA_SENSITIVE, false)
+        || !getBoolean(PKCS11Constants.CKA_EXTRACTABLE, true));
+  }
+
+  /**
+   * Checks whether all attributes of the template have the same values in
+   * this object.
+   */
+  synchronized boolean matches(CK_ATTRIBUTE[] template) {
+    if (template == null) {
+      return true;
+    }
+
+    for (CK_ATTRIBUTE attribute : template) {
+      if (!attributes.containsKey(attribute.type)
+          || !valueEquals(attributes.get(attribute.type), attribute.pValue)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean valueEquals(Object a, Object b) {
+    if (a == b) {
+      return true;
+    } else if (a == null || b == null) {
+      return false;
+    } else if (a instanceof byte[] && b instanceof byte[]) {
+      return Arrays.equals((byte[]) a, (byte[]) b);
+    } else if (a instanceof char[] && b instanceof char[]) {
+      return Arrays.equals((char[]) a, (char[]) b);
+    } else if (a instanceof long[] && b instanceof long[]) {
+      return Arrays.equals((long[]) a, (long[]) b);
+    } else if (a instanceof CK_DATE && b instanceof CK_DATE) {
+      CK_DATE da = (CK_DATE) a;
+      CK_DATE db = (CK_DATE) b;
+      return Arrays.equals(da.year, db.year)
+          && Arrays.equals(da.month, db.month)
+          && Arrays.equals(da.day, db.day);
+    } else {
+      return a.equals(b);
+    }
+  }
+
+  /**
+   * Copies mutable values, so that neither the caller nor the store can
+   * change the values of the other.
+   */
+  static Object copy(Object value) {
+    if (value instanceof byte[]) {
+      return ((byte[]) value).clone();
+    } else if (value instanceof char[]) {
+      return ((char[]) value).clone();
+    } else if (value instanceof long[]) {
+      return ((long[]) value).clone();
+    } else if (value instanceof CK_DATE) {
+      return ((CK_DATE) value).clone();
+    } else if (value instanceof CK_ATTRIBUTE[]) {
+      CK_ATTRIBUTE[] template = (CK_ATTRIBUTE[]) value;
+      CK_ATTRIBUTE[] copy = new CK_ATTRIBUTE[template.length];
+      for (int i = 0; i < template.length; i++) {
+        copy[i] = new CK_ATTRIBUTE(template[i].type,
+            copy(template[i].pValue));
+      }
+      return copy;
+    } else {
+      return value;
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.soft;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A session of the {@link SoftBackend} with its active operations. Like a
+ * session of a native module, it must not be used by several threads
+ * concurrently; the backend synchronizes on it nonetheless.
+ *
+ * @version 1.0
+ */
+final class SoftSession {
+
+  private final long handle;
+
+  private final long slotID;
+
+  private final boolean rw;
+
+  /**
+   * The handles found by C_FindObjectsInit, null if no find operation is
+   * active.
+   */
+  long[] foundHandles;
+
+  int foundIndex;
+
+  SoftCrypto.Digester digester;
+
+  SoftCrypto.Signer signer;
+
+  SoftCrypto.Signer verifier;
+
+  SoftCrypto.Crypter encrypter;
+
+  SoftCrypto.Crypter decrypter;
+
+  /**
+   * The JCA engines of this session per operation and algorithm. They are
+   * reused, since looking up an engine costs more than most operations on
+   * small data.
+   */
+  private final List<Map<String, Object>> engines = new ArrayList<>(
+      Collections.nCopies(SoftCrypto.OPERATION_COUNT,
+          (Map<String, Object>) null));
+
+  SoftSession(long handle, long slotID, boolean rw) {
+    this.handle = handle;
+    this.slotID = slotID;
+    this.rw = rw;
+  }
+
+  long getHandle() {
+    return handle;
+  }
+
+  long getSlotID() {
+    return slotID;
+  }
+
+  boolean isRw() {
+    return rw;
+  }
+
+  Object getEngine(int operation, String algorithm) {
+    Map<String, Object> map = engines.get(operation);
+    return (map == null) ? null : map.get(algorithm);
+  }
+
+  void putEngine(int operation, String algorithm, Object engine) {
+    Map<String, Object> map = engines.get(operation);
+    if (map == null) {
+      map = new HashMap<>();
+      engines.set(operation, map);
+    }
+    map.put(algorithm, engine);
+  }
+
+}
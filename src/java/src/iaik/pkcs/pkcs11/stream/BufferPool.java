@@ -0,0 +1,116 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.stream;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pools the buffers of the streams, so that opening a stream does not
+ * allocate its chunk buffers again. Up to {@link #MAX_IDLE_BUFFERS} idle
+ * buffers are kept per size; further returned buffers are left to the
+ * garbage collector. Returned buffers are cleared, since they may contain
+ * plaintext.
+ *
+ * @version 1.0
+ */
+final class BufferPool {
+
+  private static final int MAX_IDLE_BUFFERS = 16;
+
+  private static final byte[] ZEROS = new byte[4096];
+
+  private static final ConcurrentMap<Integer, BlockingQueue<byte[]>> arrays =
+      new ConcurrentHashMap<>();
+
+  private static final ConcurrentMap<Integer, BlockingQueue<ByteBuffer>>
+      directBuffers = new ConcurrentHashMap<>();
+
+  private BufferPool() {
+  }
+
+  static byte[] takeArray(int size) {
+    BlockingQueue<byte[]> queue = arrays.get(size);
+    byte[] array = (queue == null) ? null : queue.poll();
+    return (array == null) ? new byte[size] : array;
+  }
+
+  static void returnArray(byte[] array) {
+    if (array == null) {
+      return;
+    }
+
+    Arrays.fill(array, (byte) 0);
+    arrays.computeIfAbsent(array.length,
+        size -> new ArrayBlockingQueue<>(MAX_IDLE_BUFFERS)).offer(array);
+  }
+
+  static ByteBuffer takeDirect(int size) {
+    BlockingQueue<ByteBuffer> queue = directBuffers.get(size);
+    ByteBuffer buffer = (queue == null) ? null : queue.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(size);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  static void returnDirect(ByteBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+
+    buffer.clear();
+    while (buffer.hasRemaining()) {
+      buffer.put(ZEROS, 0, Math.min(ZEROS.length, buffer.remaining()));
+    }
+    buffer.clear();
+    directBuffers.computeIfAbsent(buffer.capacity(),
+        size -> new ArrayBlockingQueue<>(MAX_IDLE_BUFFERS)).offer(buffer);
+  }
+
+}
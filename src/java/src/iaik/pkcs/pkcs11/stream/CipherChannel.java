@@ -0,0 +1,318 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.objects.Key;
+
+/**
+ * A channel which encrypts or decrypts the written data with a multi-part
+ * operation of the token and writes the result to an underlying channel,
+ * e.g. to encrypt a file channel into another one:
+ * <pre><code>
+ *   try (WritableByteChannel out = new CipherChannel(
+ *       FileChannel.open(target, WRITE, CREATE), pool, true, mechanism,
+ *       key)) {
+ *     source.transferTo(0, source.size(), out);
+ *   }
+ * </code></pre>
+ * The result is written from a pooled direct buffer, whose native address
+ * is passed to the token. Buffers with less remaining bytes than the chunk
+ * size are collected in a pooled direct buffer; larger ones are passed to
+ * the token directly in chunks. Closing the channel completes the operation
+ * and closes the underlying channel.
+ * <p>
+ * Mechanisms whose parts may produce more output than one block beyond the
+ * input, e.g. the decryption of AEAD mechanisms by some tokens, are not
+ * supported.
+ *
+ * @version 1.0
+ */
+public class CipherChannel implements WritableByteChannel {
+
+  private final StreamSession streamSession;
+
+  private final WritableByteChannel out;
+
+  private ByteBuffer inBuffer;
+
+  private ByteBuffer outBuffer;
+
+  private boolean closed;
+
+  /**
+   * Creates a channel which encrypts or decrypts in the given session. The
+   * session is not closed by this channel.
+   *
+   * @param out
+   *          The underlying channel for the result.
+   * @param session
+   *          The session.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public CipherChannel(WritableByteChannel out, Session session,
+      boolean encrypt, Mechanism mechanism, Key key) throws TokenException {
+    this(out, session, encrypt, mechanism, key,
+        StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a channel which encrypts or decrypts in the given session. The
+   * session is not closed by this channel.
+   *
+   * @param out
+   *          The underlying channel for the result.
+   * @param session
+   *          The session.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public CipherChannel(WritableByteChannel out, Session session,
+      boolean encrypt, Mechanism mechanism, Key key, int chunkSize)
+      throws TokenException {
+    this(Util.requireNonNull("out", out),
+        new StreamSession(encrypt ? StreamSession.Kind.ENCRYPT
+            : StreamSession.Kind.DECRYPT, session, chunkSize),
+        mechanism, key);
+  }
+
+  /**
+   * Creates a channel which encrypts or decrypts in a session borrowed from
+   * the pool. The session is returned when the channel is closed.
+   *
+   * @param out
+   *          The underlying channel for the result.
+   * @param pool
+   *          The session pool.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public CipherChannel(WritableByteChannel out, SessionPool pool,
+      boolean encrypt, Mechanism mechanism, Key key) throws TokenException {
+    this(out, pool, encrypt, mechanism, key,
+        StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a channel which encrypts or decrypts in a session borrowed from
+   * the pool. The session is returned when the channel is closed.
+   *
+   * @param out
+   *          The underlying channel for the result.
+   * @param pool
+   *          The session pool.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public CipherChannel(WritableByteChannel out, SessionPool pool,
+      boolean encrypt, Mechanism mechanism, Key key, int chunkSize)
+      throws TokenException {
+    this(Util.requireNonNull("out", out),
+        new StreamSession(encrypt ? StreamSession.Kind.ENCRYPT
+            : StreamSession.Kind.DECRYPT, pool, chunkSize),
+        mechanism, key);
+  }
+
+  private CipherChannel(WritableByteChannel out, StreamSession streamSession,
+      Mechanism mechanism, Key key) throws TokenException {
+    streamSession.init(mechanism, key);
+    this.out = out;
+    this.streamSession = streamSession;
+    int chunkSize = streamSession.getChunkSize();
+    this.inBuffer = BufferPool.takeDirect(chunkSize);
+    this.outBuffer = BufferPool.takeDirect(
+        chunkSize + StreamSession.MAX_BLOCK_SIZE);
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    } else if (streamSession.isReleased()) {
+      throw new IOException("operation has been aborted");
+    }
+
+    int len = src.remaining();
+    int chunkSize = inBuffer.capacity();
+    if (len >= chunkSize) {
+      flushBuffer();
+      int limit = src.limit();
+      try {
+        while (src.hasRemaining()) {
+          src.limit(src.position() + Math.min(src.remaining(), chunkSize));
+          update(src);
+          src.limit(limit);
+        }
+      } finally {
+        src.limit(limit);
+      }
+    } else {
+      if (len > inBuffer.remaining()) {
+        flushBuffer();
+      }
+      inBuffer.put(src);
+    }
+    return len;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  /**
+   * Completes the operation, writes its last part and closes the underlying
+   * channel. Calling this method more than once has no effect.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    try {
+      if (streamSession.isReleased()) {
+        // the operation has been aborted
+        return;
+      }
+
+      flushBuffer();
+      outBuffer.clear();
+      TokenException failure = null;
+      try {
+        streamSession.cryptFinal(outBuffer);
+      } catch (TokenException ex) {
+        failure = ex;
+        throw StreamSession.toIOException(ex);
+      } finally {
+        streamSession.releaseAfterFinal(failure);
+      }
+      outBuffer.flip();
+      writeFully(outBuffer);
+    } finally {
+      releaseBuffers();
+      out.close();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (inBuffer.position() > 0) {
+      inBuffer.flip();
+      update(inBuffer);
+      inBuffer.clear();
+    }
+  }
+
+  private void update(ByteBuffer in) throws IOException {
+    outBuffer.clear();
+    try {
+      streamSession.cryptUpdate(in, outBuffer);
+    } catch (TokenException ex) {
+      streamSession.release(false);
+      throw StreamSession.toIOException(ex);
+    }
+
+    outBuffer.flip();
+    try {
+      writeFully(outBuffer);
+    } catch (IOException ex) {
+      streamSession.release(false);
+      throw ex;
+    }
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private void releaseBuffers() {
+    BufferPool.returnDirect(inBuffer);
+    BufferPool.returnDirect(outBuffer);
+    inBuffer = null;
+    outBuffer = null;
+  }
+
+}
@@ -0,0 +1,347 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.objects.Key;
+
+/**
+ * A stream which reads the data of an underlying stream in chunks and
+ * returns it encrypted or decrypted with a multi-part operation of the
+ * token. At the end of the underlying stream, the operation is completed;
+ * e.g. the padding of CKM_AES_CBC_PAD is checked and removed.
+ * <p>
+ * Mechanisms whose parts may produce more output than one block beyond the
+ * input, e.g. the decryption of AEAD mechanisms by some tokens, are not
+ * supported.
+ *
+ * @version 1.0
+ */
+public class CipherInputStream extends InputStream {
+
+  private final StreamSession streamSession;
+
+  private final InputStream in;
+
+  private byte[] inBuffer;
+
+  private byte[] outBuffer;
+
+  private int outPos;
+
+  private int outLimit;
+
+  /**
+   * True, if the operation has been completed.
+   */
+  private boolean done;
+
+  private boolean closed;
+
+  /**
+   * Creates a stream which encrypts or decrypts in the given session. The
+   * session is not closed by this stream.
+   *
+   * @param in
+   *          The underlying stream providing the input.
+   * @param session
+   *          The session.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public CipherInputStream(InputStream in, Session session, boolean encrypt,
+      Mechanism mechanism, Key key) throws TokenException {
+    this(in, session, encrypt, mechanism, key,
+        StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a stream which encrypts or decrypts in the given session. The
+   * session is not closed by this stream.
+   *
+   * @param in
+   *          The underlying stream providing the input.
+   * @param session
+   *          The session.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public CipherInputStream(InputStream in, Session session, boolean encrypt,
+      Mechanism mechanism, Key key, int chunkSize) throws TokenException {
+    this(Util.requireNonNull("in", in),
+        new StreamSession(encrypt ? StreamSession.Kind.ENCRYPT
+            : StreamSession.Kind.DECRYPT, session, chunkSize),
+        mechanism, key);
+  }
+
+  /**
+   * Creates a stream which encrypts or decrypts in a session borrowed from
+   * the pool. The session is returned when the operation is completed or
+   * the stream is closed.
+   *
+   * @param in
+   *          The underlying stream providing the input.
+   * @param pool
+   *          The session pool.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public CipherInputStream(InputStream in, SessionPool pool, boolean encrypt,
+      Mechanism mechanism, Key key) throws TokenException {
+    this(in, pool, encrypt, mechanism, key, StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a stream which encrypts or decrypts in a session borrowed from
+   * the pool. The session is returned when the operation is completed or
+   * the stream is closed.
+   *
+   * @param in
+   *          The underlying stream providing the input.
+   * @param pool
+   *          The session pool.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public CipherInputStream(InputStream in, SessionPool pool, boolean encrypt,
+      Mechanism mechanism, Key key, int chunkSize) throws TokenException {
+    this(Util.requireNonNull("in", in),
+        new StreamSession(encrypt ? StreamSession.Kind.ENCRYPT
+            : StreamSession.Kind.DECRYPT, pool, chunkSize),
+        mechanism, key);
+  }
+
+  private CipherInputStream(InputStream in, StreamSession streamSession,
+      Mechanism mechanism, Key key) throws TokenException {
+    streamSession.init(mechanism, key);
+    this.in = in;
+    this.streamSession = streamSession;
+    int chunkSize = streamSession.getChunkSize();
+    this.inBuffer = BufferPool.takeArray(chunkSize);
+    this.outBuffer = BufferPool.takeArray(
+        chunkSize + StreamSession.MAX_BLOCK_SIZE);
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return outBuffer[outPos++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new IndexOutOfBoundsException();
+    } else if (len == 0) {
+      return 0;
+    }
+
+    if (!fill()) {
+      return -1;
+    }
+    int n = Math.min(len, outLimit - outPos);
+    System.arraycopy(outBuffer, outPos, b, off, n);
+    outPos += n;
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0 || !fill()) {
+      return 0;
+    }
+    int skipped = (int) Math.min(n, outLimit - outPos);
+    outPos += skipped;
+    return skipped;
+  }
+
+  /**
+   * Returns the number of processed bytes which can be read without calling
+   * the token or the underlying stream.
+   */
+  @Override
+  public int available() throws IOException {
+    ensureOpen();
+    return outLimit - outPos;
+  }
+
+  /**
+   * Closes the underlying stream. If the operation has not been completed
+   * yet, it is aborted. Calling this method more than once has no effect.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    try {
+      if (!done) {
+        streamSession.release(false);
+      }
+    } finally {
+      releaseBuffers();
+      in.close();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("stream has been closed");
+    }
+  }
+
+  /**
+   * Processes input until processed bytes are available, or the operation
+   * has been completed.
+   *
+   * @return true, if processed bytes are available; false at the end of the
+   *         stream.
+   */
+  private boolean fill() throws IOException {
+    ensureOpen();
+    while (outPos == outLimit) {
+      if (done) {
+        return false;
+      } else if (streamSession.isReleased()) {
+        throw new IOException("operation has been aborted");
+      }
+
+      outPos = 0;
+      outLimit = 0;
+      int inLen = readChunk();
+      if (inLen == -1) {
+        doFinal();
+      } else {
+        try {
+          outLimit = streamSession.cryptUpdate(inBuffer, 0, inLen, outBuffer,
+              0, outBuffer.length);
+        } catch (TokenException ex) {
+          streamSession.release(false);
+          throw StreamSession.toIOException(ex);
+        }
+      }
+    }
+    return true;
+  }
+
+  private int readChunk() throws IOException {
+    int len = 0;
+    try {
+      // read a whole chunk if possible, so that each call of the token
+      // processes as many bytes as possible
+      while (len < inBuffer.length) {
+        int n = in.read(inBuffer, len, inBuffer.length - len);
+        if (n == -1) {
+          break;
+        }
+        len += n;
+      }
+    } catch (IOException ex) {
+      streamSession.release(false);
+      throw ex;
+    }
+    return (len == 0) ? -1 : len;
+  }
+
+  private void doFinal() throws IOException {
+    TokenException failure = null;
+    try {
+      outLimit = streamSession.cryptFinal(outBuffer, 0, outBuffer.length);
+      done = true;
+    } catch (TokenException ex) {
+      failure = ex;
+      throw StreamSession.toIOException(ex);
+    } finally {
+      streamSession.releaseAfterFinal(failure);
+    }
+  }
+
+  private void releaseBuffers() {
+    BufferPool.returnArray(inBuffer);
+    BufferPool.returnArray(outBuffer);
+    inBuffer = null;
+    outBuffer = null;
+  }
+
+}
@@ -0,0 +1,334 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.objects.Key;
+
+/**
+ * A stream which encrypts or decrypts the written data with a multi-part
+ * operation of the token and writes the result to an underlying stream,
+ * e.g. to encrypt a large file with constant memory:
+ * <pre><code>
+ *   try (OutputStream out = new CipherOutputStream(
+ *       Files.newOutputStream(target), pool, true, mechanism, key)) {
+ *     Files.copy(source, out);
+ *   }
+ * </code></pre>
+ * Small writes are collected in a pooled buffer of the chunk size, larger
+ * ones are passed to the token in chunks. Closing the stream completes the
+ * operation, e.g. writes the padded last block of CKM_AES_CBC_PAD, and
+ * closes the underlying stream.
+ * <p>
+ * Mechanisms whose parts may produce more output than one block beyond the
+ * input, e.g. the decryption of AEAD mechanisms by some tokens, are not
+ * supported.
+ *
+ * @version 1.0
+ */
+public class CipherOutputStream extends OutputStream {
+
+  private final StreamSession streamSession;
+
+  private final OutputStream out;
+
+  private byte[] inBuffer;
+
+  private int count;
+
+  private byte[] outBuffer;
+
+  private boolean closed;
+
+  /**
+   * Creates a stream which encrypts or decrypts in the given session. The
+   * session is not closed by this stream.
+   *
+   * @param out
+   *          The underlying stream for the result.
+   * @param session
+   *          The session.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public CipherOutputStream(OutputStream out, Session session,
+      boolean encrypt, Mechanism mechanism, Key key) throws TokenException {
+    this(out, session, encrypt, mechanism, key,
+        StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a stream which encrypts or decrypts in the given session. The
+   * session is not closed by this stream.
+   *
+   * @param out
+   *          The underlying stream for the result.
+   * @param session
+   *          The session.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public CipherOutputStream(OutputStream out, Session session,
+      boolean encrypt, Mechanism mechanism, Key key, int chunkSize)
+      throws TokenException {
+    this(Util.requireNonNull("out", out),
+        new StreamSession(encrypt ? StreamSession.Kind.ENCRYPT
+            : StreamSession.Kind.DECRYPT, session, chunkSize),
+        mechanism, key);
+  }
+
+  /**
+   * Creates a stream which encrypts or decrypts in a session borrowed from
+   * the pool. The session is returned when the stream is closed.
+   *
+   * @param out
+   *          The underlying stream for the result.
+   * @param pool
+   *          The session pool.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public CipherOutputStream(OutputStream out, SessionPool pool,
+      boolean encrypt, Mechanism mechanism, Key key) throws TokenException {
+    this(out, pool, encrypt, mechanism, key,
+        StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a stream which encrypts or decrypts in a session borrowed from
+   * the pool. The session is returned when the stream is closed.
+   *
+   * @param out
+   *          The underlying stream for the result.
+   * @param pool
+   *          The session pool.
+   * @param encrypt
+   *          True to encrypt, false to decrypt.
+   * @param mechanism
+   *          The mechanism; e.g. CKM_AES_CBC_PAD.
+   * @param key
+   *          The key.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public CipherOutputStream(OutputStream out, SessionPool pool,
+      boolean encrypt, Mechanism mechanism, Key key, int chunkSize)
+      throws TokenException {
+    this(Util.requireNonNull("out", out),
+        new StreamSession(encrypt ? StreamSession.Kind.ENCRYPT
+            : StreamSession.Kind.DECRYPT, pool, chunkSize),
+        mechanism, key);
+  }
+
+  private CipherOutputStream(OutputStream out, StreamSession streamSession,
+      Mechanism mechanism, Key key) throws TokenException {
+    streamSession.init(mechanism, key);
+    this.out = out;
+    this.streamSession = streamSession;
+    int chunkSize = streamSession.getChunkSize();
+    this.inBuffer = BufferPool.takeArray(chunkSize);
+    this.outBuffer = BufferPool.takeArray(
+        chunkSize + StreamSession.MAX_BLOCK_SIZE);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    if (count == inBuffer.length) {
+      flushBuffer();
+    }
+    inBuffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    if (len >= inBuffer.length) {
+      flushBuffer();
+      while (len > 0) {
+        int partLen = Math.min(len, inBuffer.length);
+        update(b, off, partLen);
+        off += partLen;
+        len -= partLen;
+      }
+    } else {
+      if (len > inBuffer.length - count) {
+        flushBuffer();
+      }
+      System.arraycopy(b, off, inBuffer, count, len);
+      count += len;
+    }
+  }
+
+  /**
+   * Passes the collected data to the token and flushes the underlying
+   * stream. Data kept back by the token, e.g. an incomplete block, is
+   * written when the stream is closed.
+   */
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    flushBuffer();
+    out.flush();
+  }
+
+  /**
+   * Completes the operation, writes its last part and closes the underlying
+   * stream. Calling this method more than once has no effect.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    try {
+      if (streamSession.isReleased()) {
+        // the operation has been aborted
+        return;
+      }
+
+      flushBuffer();
+      TokenException failure = null;
+      int len;
+      try {
+        len = streamSession.cryptFinal(outBuffer, 0, outBuffer.length);
+      } catch (TokenException ex) {
+        failure = ex;
+        throw StreamSession.toIOException(ex);
+      } finally {
+        streamSession.releaseAfterFinal(failure);
+      }
+      if (len > 0) {
+        out.write(outBuffer, 0, len);
+      }
+    } finally {
+      releaseBuffers();
+      out.close();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("stream has been closed");
+    } else if (streamSession.isReleased()) {
+      throw new IOException("operation has been aborted");
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      update(inBuffer, 0, count);
+      count = 0;
+    }
+  }
+
+  private void update(byte[] b, int off, int len) throws IOException {
+    int outLen;
+    try {
+      outLen = streamSession.cryptUpdate(b, off, len, outBuffer, 0,
+          outBuffer.length);
+    } catch (TokenException ex) {
+      abort();
+      throw StreamSession.toIOException(ex);
+    }
+
+    if (outLen > 0) {
+      try {
+        out.write(outBuffer, 0, outLen);
+      } catch (IOException ex) {
+        abort();
+        throw ex;
+      }
+    }
+  }
+
+  private void abort() {
+    releaseBuffers();
+    streamSession.release(false);
+  }
+
+  private void releaseBuffers() {
+    BufferPool.returnArray(inBuffer);
+    BufferPool.returnArray(outBuffer);
+    inBuffer = null;
+    outBuffer = null;
+  }
+
+}
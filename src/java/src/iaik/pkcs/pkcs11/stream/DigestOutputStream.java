@@ -0,0 +1,164 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.stream;
+
+import java.util.Arrays;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+
+/**
+ * A stream which digests the written data with a multi-part digest
+ * operation of the token, e.g. to digest a large file with constant memory:
+ * <pre><code>
+ *   try (DigestOutputStream out = new DigestOutputStream(pool,
+ *       Mechanism.get(PKCS11Constants.CKM_SHA256))) {
+ *     Files.copy(path, out);
+ *     digest = out.digest();
+ *   }
+ * </code></pre>
+ *
+ * @version 1.0
+ */
+public class DigestOutputStream extends UpdateOutputStream {
+
+  private static final int MAX_DIGEST_LENGTH = 128;
+
+  /**
+   * Creates a stream which digests in the given session. The session is not
+   * closed by this stream.
+   *
+   * @param session
+   *          The session.
+   * @param mechanism
+   *          The digest mechanism.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public DigestOutputStream(Session session, Mechanism mechanism)
+      throws TokenException {
+    this(session, mechanism, StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a stream which digests in the given session. The session is not
+   * closed by this stream.
+   *
+   * @param session
+   *          The session.
+   * @param mechanism
+   *          The digest mechanism.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public DigestOutputStream(Session session, Mechanism mechanism,
+      int chunkSize) throws TokenException {
+    super(new StreamSession(StreamSession.Kind.DIGEST, session,
+        chunkSize), mechanism, null);
+  }
+
+  /**
+   * Creates a stream which digests in a session borrowed from the pool. The
+   * session is returned when the stream is closed.
+   *
+   * @param pool
+   *          The session pool.
+   * @param mechanism
+   *          The digest mechanism.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public DigestOutputStream(SessionPool pool, Mechanism mechanism)
+      throws TokenException {
+    this(pool, mechanism, StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a stream which digests in a session borrowed from the pool. The
+   * session is returned when the stream is closed.
+   *
+   * @param pool
+   *          The session pool.
+   * @param mechanism
+   *          The digest mechanism.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public DigestOutputStream(SessionPool pool, Mechanism mechanism,
+      int chunkSize) throws TokenException {
+    super(new StreamSession(StreamSession.Kind.DIGEST, pool,
+        chunkSize), mechanism, null);
+  }
+
+  /**
+   * Completes the digest operation. The stream cannot be written anymore.
+   *
+   * @return the message digest
+   * @exception TokenException
+   *              If digesting failed, or the stream has been closed.
+   */
+  public byte[] digest() throws TokenException {
+    beforeFinal();
+    TokenException failure = null;
+    try {
+      byte[] digest = new byte[MAX_DIGEST_LENGTH];
+      int len = streamSession.getSession().digestFinal(digest, 0,
+          digest.length);
+      return Arrays.copyOf(digest, len);
+    } catch (TokenException ex) {
+      failure = ex;
+      throw ex;
+    } finally {
+      streamSession.releaseAfterFinal(failure);
+    }
+  }
+
+}
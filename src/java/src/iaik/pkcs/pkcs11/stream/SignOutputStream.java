@@ -0,0 +1,161 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.stream;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+
+/**
+ * A stream which signs, or computes the MAC of, the written data with a
+ * multi-part sign operation of the token.
+ *
+ * @version 1.0
+ */
+public class SignOutputStream extends UpdateOutputStream {
+
+  /**
+   * Creates a stream which signs in the given session. The session is not
+   * closed by this stream.
+   *
+   * @param session
+   *          The session.
+   * @param mechanism
+   *          The signature mechanism; e.g. CKM_SHA256_RSA_PKCS.
+   * @param key
+   *          The signing key.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public SignOutputStream(Session session, Mechanism mechanism, Key key)
+      throws TokenException {
+    this(session, mechanism, key, StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a stream which signs in the given session. The session is not
+   * closed by this stream.
+   *
+   * @param session
+   *          The session.
+   * @param mechanism
+   *          The signature mechanism; e.g. CKM_SHA256_RSA_PKCS.
+   * @param key
+   *          The signing key.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If initializing the operation failed.
+   */
+  public SignOutputStream(Session session, Mechanism mechanism, Key key,
+      int chunkSize) throws TokenException {
+    super(new StreamSession(StreamSession.Kind.SIGN, session,
+        chunkSize), mechanism, key);
+  }
+
+  /**
+   * Creates a stream which signs in a session borrowed from the pool. The
+   * session is returned when the stream is closed.
+   *
+   * @param pool
+   *          The session pool.
+   * @param mechanism
+   *          The signature mechanism; e.g. CKM_SHA256_RSA_PKCS.
+   * @param key
+   *          The signing key.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public SignOutputStream(SessionPool pool, Mechanism mechanism, Key key)
+      throws TokenException {
+    this(pool, mechanism, key, StreamSession.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a stream which signs in a session borrowed from the pool. The
+   * session is returned when the stream is closed.
+   *
+   * @param pool
+   *          The session pool.
+   * @param mechanism
+   *          The signature mechanism; e.g. CKM_SHA256_RSA_PKCS.
+   * @param key
+   *          The signing key.
+   * @param chunkSize
+   *          The maximal number of bytes passed to the token in one call.
+   * @exception TokenException
+   *              If borrowing the session or initializing the operation
+   *              failed.
+   */
+  public SignOutputStream(SessionPool pool, Mechanism mechanism, Key key,
+      int chunkSize) throws TokenException {
+    super(new StreamSession(StreamSession.Kind.SIGN, pool,
+        chunkSize), mechanism, key);
+  }
+
+  /**
+   * Completes the sign operation. The stream cannot be written anymore.
+   *
+   * @param expectedLen
+   *          expected length of the signature value.
+   * @return the signature value
+   * @exception TokenException
+   *              If signing failed, or the stream has been closed.
+   */
+  public byte[] sign(int expectedLen) throws TokenException {
+    beforeFinal();
+    TokenException failure = null;
+    try {
+      return streamSession.getSession().signFinal(expectedLen);
+    } catch (TokenException ex) {
+      failure = ex;
+      throw ex;
+    } finally {
+      streamSession.releaseAfterFinal(failure);
+    }
+  }
+
+}
@@ -0,0 +1,276 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.PooledSession;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * The session of a stream and the multi-part operation running in it. A
+ * session borrowed from a pool is held until the stream is closed; it is
+ * returned to the pool if the operation has been completed, and invalidated
+ * otherwise, since a pending operation cannot be cancelled. An operation
+ * pending in a session of the application is terminated by calling its
+ * final function and discarding the result.
+ *
+ * @version 1.0
+ */
+final class StreamSession {
+
+  enum Kind {
+    ENCRYPT,
+    DECRYPT,
+    DIGEST,
+    SIGN,
+    VERIFY
+  }
+
+  /**
+   * The default number of bytes passed to the token in one call.
+   */
+  static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * The room reserved in output buffers for the data a cipher keeps back
+   * between two parts, at most one block.
+   */
+  static final int MAX_BLOCK_SIZE = 64;
+
+  private final Kind kind;
+
+  private final Session session;
+
+  private final PooledSession pooledSession;
+
+  private final int chunkSize;
+
+  private boolean released;
+
+  StreamSession(Kind kind, Session session, int chunkSize) {
+    this.kind = kind;
+    this.chunkSize = checkChunkSize(chunkSize);
+    this.session = Util.requireNonNull("session", session);
+    this.pooledSession = null;
+  }
+
+  StreamSession(Kind kind, SessionPool pool, int chunkSize)
+      throws TokenException {
+    this.kind = kind;
+    this.chunkSize = checkChunkSize(chunkSize);
+    this.pooledSession = Util.requireNonNull("pool", pool)
+        .borrowSession(false);
+    this.session = pooledSession.getSession();
+  }
+
+  private static int checkChunkSize(int chunkSize) {
+    if (chunkSize < MAX_BLOCK_SIZE) {
+      throw new IllegalArgumentException("chunkSize must be at least "
+          + MAX_BLOCK_SIZE);
+    }
+    // whole blocks, so that a cipher never keeps back more than one block
+    return chunkSize - chunkSize % MAX_BLOCK_SIZE;
+  }
+
+  static IOException toIOException(TokenException ex) {
+    return new IOException(ex.getMessage(), ex);
+  }
+
+  Session getSession() {
+    return session;
+  }
+
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  void init(Mechanism mechanism, Key key) throws TokenException {
+    try {
+      switch (kind) {
+        case ENCRYPT:
+          session.encryptInit(mechanism, key);
+          break;
+        case DECRYPT:
+          session.decryptInit(mechanism, key);
+          break;
+        case DIGEST:
+          session.digestInit(mechanism);
+          break;
+        case SIGN:
+          session.signInit(mechanism, key);
+          break;
+        default:
+          session.verifyInit(mechanism, key);
+          break;
+      }
+    } catch (TokenException | RuntimeException ex) {
+      // no operation is pending
+      release(true);
+      throw ex;
+    }
+  }
+
+  int cryptUpdate(byte[] in, int inOfs, int inLen, byte[] out, int outOfs,
+      int outLen) throws TokenException {
+    return (kind == Kind.ENCRYPT)
+        ? session.encryptUpdate(in, inOfs, inLen, out, outOfs, outLen)
+        : session.decryptUpdate(in, inOfs, inLen, out, outOfs, outLen);
+  }
+
+  int cryptUpdate(ByteBuffer in, ByteBuffer out) throws TokenException {
+    return (kind == Kind.ENCRYPT) ? session.encryptUpdate(in, out)
+        : session.decryptUpdate(in, out);
+  }
+
+  int cryptFinal(byte[] out, int outOfs, int outLen) throws TokenException {
+    return (kind == Kind.ENCRYPT)
+        ? session.encryptFinal(out, outOfs, outLen)
+        : session.decryptFinal(out, outOfs, outLen);
+  }
+
+  int cryptFinal(ByteBuffer out) throws TokenException {
+    return (kind == Kind.ENCRYPT) ? session.encryptFinal(out)
+        : session.decryptFinal(out);
+  }
+
+  void update(byte[] in, int inOfs, int inLen) throws TokenException {
+    if (kind == Kind.DIGEST) {
+      session.digestUpdate(in, inOfs, inLen);
+    } else if (kind == Kind.SIGN) {
+      session.signUpdate(in, inOfs, inLen);
+    } else {
+      session.verifyUpdate(in, inOfs, inLen);
+    }
+  }
+
+  void update(ByteBuffer in) throws TokenException {
+    if (kind == Kind.DIGEST) {
+      session.digestUpdate(in);
+    } else if (kind == Kind.SIGN) {
+      session.signUpdate(in);
+    } else {
+      session.verifyUpdate(in);
+    }
+  }
+
+  boolean isReleased() {
+    return released;
+  }
+
+  /**
+   * Releases the session. Calling this method more than once has no effect.
+   *
+   * @param completed
+   *          True, if no operation is pending in the session.
+   */
+  void release(boolean completed) {
+    if (released) {
+      return;
+    }
+    released = true;
+
+    if (pooledSession != null) {
+      if (completed) {
+        pooledSession.close();
+      } else {
+        pooledSession.invalidate();
+      }
+    } else if (!completed) {
+      try {
+        terminate();
+      } catch (TokenException | RuntimeException ex) {
+        // the operation has been terminated by the error
+      }
+    }
+  }
+
+  /**
+   * Releases the session after the final function of the operation has been
+   * called. Every error but CKR_BUFFER_TOO_SMALL terminates the operation.
+   *
+   * @param failure
+   *          The exception thrown by the final function, or null.
+   */
+  void releaseAfterFinal(Exception failure) {
+    boolean completed = true;
+    if (failure instanceof PKCS11Exception) {
+      long errorCode = ((PKCS11Exception) failure).getErrorCode();
+      completed = errorCode != PKCS11Constants.CKR_BUFFER_TOO_SMALL
+          && !SessionPool.isSessionLost(errorCode);
+    } else if (failure != null) {
+      completed = false;
+    }
+    release(completed);
+  }
+
+  private void terminate() throws TokenException {
+    switch (kind) {
+      case ENCRYPT:
+      case DECRYPT:
+        byte[] out = new byte[DEFAULT_CHUNK_SIZE + MAX_BLOCK_SIZE];
+        cryptFinal(out, 0, out.length);
+        break;
+      case DIGEST:
+        byte[] digest = new byte[MAX_BLOCK_SIZE * 2];
+        session.digestFinal(digest, 0, digest.length);
+        break;
+      case SIGN:
+        session.signFinal(0);
+        break;
+      default:
+        // an empty signature is invalid and terminates the operation
+        session.verifyFinal(new byte[0]);
+        break;
+    }
+  }
+
+}
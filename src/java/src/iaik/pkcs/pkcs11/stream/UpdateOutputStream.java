@@ -0,0 +1,228 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+
+/**
+ * A stream, and a channel, which feeds the written data into a multi-part
+ * digest, sign or verify operation. Small writes are collected in a pooled
+ * buffer of the chunk size; writes of at least the chunk size are passed to
+ * the token directly in chunks. The native address of direct byte buffers
+ * is passed to the token, so that their data is not copied.
+ * <p>
+ * The operation is completed by the method of the subclass which returns
+ * the result. Closing the stream before aborts the operation.
+ *
+ * @version 1.0
+ */
+public abstract class UpdateOutputStream extends OutputStream
+    implements WritableByteChannel {
+
+  final StreamSession streamSession;
+
+  private byte[] buffer;
+
+  private int count;
+
+  private boolean closed;
+
+  UpdateOutputStream(StreamSession streamSession, Mechanism mechanism,
+      Key key) throws TokenException {
+    streamSession.init(mechanism, key);
+    this.streamSession = streamSession;
+    this.buffer = BufferPool.takeArray(streamSession.getChunkSize());
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    if (count == buffer.length) {
+      flushBuffer();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (off < 0 || len < 0 || off > b.length - len) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    if (len >= buffer.length) {
+      flushBuffer();
+      update(b, off, len);
+    } else {
+      if (len > buffer.length - count) {
+        flushBuffer();
+      }
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    }
+  }
+
+  /**
+   * Feeds the remaining bytes of the buffer src into the operation.
+   *
+   * @param src
+   *          The buffer containing the data.
+   * @return the number of bytes written
+   * @exception IOException
+   *              If the stream has been closed, or the token failed.
+   */
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+
+    int len = src.remaining();
+    if (len < buffer.length) {
+      if (len > buffer.length - count) {
+        flushBuffer();
+      }
+      src.get(buffer, count, len);
+      count += len;
+      return len;
+    }
+
+    flushBuffer();
+    int limit = src.limit();
+    try {
+      while (src.hasRemaining()) {
+        src.limit(src.position() + Math.min(src.remaining(), buffer.length));
+        streamSession.update(src);
+        src.limit(limit);
+      }
+    } catch (TokenException ex) {
+      abort();
+      throw StreamSession.toIOException(ex);
+    } finally {
+      src.limit(limit);
+    }
+    return len;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  /**
+   * Closes this stream. If the operation has not been completed yet, it is
+   * aborted.
+   */
+  @Override
+  public void close() {
+    if (!closed) {
+      abort();
+    }
+  }
+
+  /**
+   * Passes the collected data to the token and marks this stream as
+   * completed. The caller must call the final function of the operation and
+   * then {@link StreamSession#releaseAfterFinal(Exception)}.
+   *
+   * @exception TokenException
+   *              If the token failed, or the stream has been closed.
+   */
+  final void beforeFinal() throws TokenException {
+    if (closed) {
+      throw new TokenException("stream has been closed");
+    }
+
+    try {
+      if (count > 0) {
+        streamSession.update(buffer, 0, count);
+        count = 0;
+      }
+    } catch (TokenException | RuntimeException ex) {
+      abort();
+      throw ex;
+    }
+
+    closed = true;
+    BufferPool.returnArray(buffer);
+    buffer = null;
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("stream has been closed");
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      update(buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  private void update(byte[] b, int off, int len) throws IOException {
+    try {
+      streamSession.update(b, off, len);
+    } catch (TokenException ex) {
+      abort();
+      throw StreamSession.toIOException(ex);
+    }
+  }
+
+  private void abort() {
+    closed = true;
+    BufferPool.returnArray(buffer);
+    buffer = null;
+    streamSession.release(false);
+  }
+
+}
@@ -0,0 +1,563 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.Util;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_C_INITIALIZE_ARGS;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+import sun.security.pkcs11.wrapper.PKCS11;
+
+/**
+ * The default {@link PKCS11Backend} which uses the JNI binding
+ * sun.security.pkcs11.wrapper.PKCS11 of the JDK.
+ *
+ * @version 1.0
+ */
+public class JniBackend implements PKCS11Backend {
+
+  /**
+   * Connects to a PKCS#11 module via
+   * sun.security.pkcs11.wrapper.PKCS11.getInstance().
+   */
+  public static final Factory FACTORY = JniBackend::connect;
+
+  /**
+   * The signature of C_Encrypt and C_Decrypt in the JDK 11+ wrapper. The
+   * JDK 8 to 10 wrapper has no addresses for direct buffers; they are
+   * ignored there.
+   */
+  private static final MethodType TYPE_CRYPT = MethodType.methodType(
+      int.class, PKCS11.class, long.class, long.class, byte[].class,
+      int.class, int.class, long.class, byte[].class, int.class, int.class);
+
+  private static final MethodHandle encrypt;
+
+  private static final MethodHandle decrypt;
+
+  private final PKCS11 pkcs11;
+
+  static {
+    encrypt = getCryptMethodHandle("C_Encrypt");
+    decrypt = getCryptMethodHandle("C_Decrypt");
+  }
+
+  /**
+   * Creates a backend which delegates to the given JNI binding.
+   *
+   * @param pkcs11
+   *          The JNI binding of the module.
+   */
+  public JniBackend(PKCS11 pkcs11) {
+    this.pkcs11 = Util.requireNonNull("pkcs11", pkcs11);
+  }
+
+  /**
+   * Connects to the PKCS#11 module and initializes it.
+   *
+   * @param pkcs11ModuleName
+   *          The name of the module; e.g. "slbck.dll".
+   * @param initArgs
+   *          The initialization arguments. May be null.
+   * @return The backend for the module.
+   * @exception IOException
+   *              If the module cannot be loaded.
+   * @exception TokenException
+   *              If initializing the module fails.
+   */
+  public static JniBackend connect(String pkcs11ModuleName,
+      CK_C_INITIALIZE_ARGS initArgs) throws IOException, TokenException {
+    final String functionList = "C_GetFunctionList";
+    final boolean omitInitialize = false;
+    try {
+      return new JniBackend(PKCS11.getInstance(pkcs11ModuleName,
+          functionList, initArgs, omitInitialize));
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
+    }
+  }
+
+  private static MethodHandle getCryptMethodHandle(String name) {
+    Class<?> clazz = PKCS11.class;
+    MethodHandle handle = Util.unreflect(Util.getMethod(clazz, name,
+        long.class, long.class, byte[].class, int.class, int.class,
+        long.class, byte[].class, int.class, int.class));
+    if (handle == null) {
+      handle = Util.unreflect(Util.getMethod(clazz, name,
+          long.class, byte[].class, int.class, int.class,
+          byte[].class, int.class, int.class));
+      if (handle != null) {
+        // accept and ignore directIn and then directOut
+        handle = MethodHandles.dropArguments(handle, 2, long.class);
+        handle = MethodHandles.dropArguments(handle, 6, long.class);
+      }
+    }
+
+    return (handle == null) ? null : handle.asType(TYPE_CRYPT);
+  }
+
+  /**
+   * Get the JNI binding of the module.
+   *
+   * @return The JNI binding.
+   */
+  // CHECKSTYLE:SKIP
+  public PKCS11 getPKCS11() {
+    return pkcs11;
+  }
+
+  @Override
+  public void C_Finalize(Object pReserved)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_Finalize(pReserved);
+  }
+
+  @Override
+  public CK_INFO C_GetInfo()
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GetInfo();
+  }
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GetSlotList(tokenPresent);
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GetSlotInfo(slotID);
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GetTokenInfo(slotID);
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GetMechanismList(slotID);
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GetMechanismInfo(slotID, type);
+  }
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object pApplication,
+      CK_NOTIFY notify) throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_OpenSession(slotID, flags, pApplication, notify);
+  }
+
+  @Override
+  public void C_CloseSession(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_CloseSession(hSession);
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GetSessionInfo(hSession);
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GetOperationState(hSession);
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] pOperationState,
+      long hEncryptionKey, long hAuthenticationKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_SetOperationState(hSession, pOperationState, hEncryptionKey,
+        hAuthenticationKey);
+  }
+
+  @Override
+  public void C_Login(long hSession, long userType, char[] pPin)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_Login(hSession, userType, pPin);
+  }
+
+  @Override
+  public void C_Logout(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_Logout(hSession);
+  }
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_CreateObject(hSession, pTemplate);
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_CopyObject(hSession, hObject, pTemplate);
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_DestroyObject(hSession, hObject);
+  }
+
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_GetAttributeValue(hSession, hObject, pTemplate);
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_SetAttributeValue(hSession, hObject, pTemplate);
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_FindObjectsInit(hSession, pTemplate);
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_FindObjects(hSession, ulMaxObjectCount);
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_FindObjectsFinal(hSession);
+  }
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_EncryptInit(hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return crypt(encrypt, hSession, directIn, in, inOfs, inLen, directOut, out,
+        outOfs, outLen);
+  }
+
+  @Override
+  public int C_EncryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_EncryptUpdate(hSession, directIn, in, inOfs, inLen,
+        directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_EncryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_EncryptFinal(hSession, directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_DecryptInit(hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return crypt(decrypt, hSession, directIn, in, inOfs, inLen, directOut, out,
+        outOfs, outLen);
+  }
+
+  @Override
+  public int C_DecryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_DecryptUpdate(hSession, directIn, in, inOfs, inLen,
+        directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_DecryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_DecryptFinal(hSession, directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM pMechanism)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_DigestInit(hSession, pMechanism);
+  }
+
+  @Override
+  public int C_DigestSingle(long hSession, CK_MECHANISM pMechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_DigestSingle(hSession, pMechanism, in, inOfs, inLen, digest,
+        digestOfs, digestLen);
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_DigestUpdate(hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_DigestKey(hSession, hKey);
+  }
+
+  @Override
+  public int C_DigestFinal(long hSession, byte[] pDigest, int digestOfs,
+      int digestLen) throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_DigestFinal(hSession, pDigest, digestOfs, digestLen);
+  }
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_SignInit(hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] pData)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_Sign(hSession, pData);
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_SignUpdate(hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession, int expectedLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_SignFinal(hSession, expectedLen);
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey) throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_SignRecoverInit(hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_SignRecover(hSession, in, inOfs, inLen, out, outOfs,
+        outLen);
+  }
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_VerifyInit(hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_Verify(hSession, pData, pSignature);
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_VerifyUpdate(hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] pSignature)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_VerifyFinal(hSession, pSignature);
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism,
+      long hKey) throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_VerifyRecoverInit(hSession, pMechanism, hKey);
+  }
+
+  @Override
+  public int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_VerifyRecover(hSession, in, inOfs, inLen, out, outOfs,
+        outLen);
+  }
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GenerateKey(hSession, pMechanism, pTemplate);
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pPublicKeyTemplate, CK_ATTRIBUTE[] pPrivateKeyTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_GenerateKeyPair(hSession, pMechanism, pPublicKeyTemplate,
+        pPrivateKeyTemplate);
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hWrappingKey, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_WrapKey(hSession, pMechanism, hWrappingKey, hKey);
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism,
+      long hUnwrappingKey, byte[] pWrappedKey, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_UnwrapKey(hSession, pMechanism, hUnwrappingKey, pWrappedKey,
+        pTemplate);
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM pMechanism, long hBaseKey,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    return pkcs11.C_DeriveKey(hSession, pMechanism, hBaseKey, pTemplate);
+  }
+
+  @Override
+  public void C_SeedRandom(long hSession, byte[] pSeed)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_SeedRandom(hSession, pSeed);
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    pkcs11.C_GenerateRandom(hSession, randomData);
+  }
+
+  private int crypt(MethodHandle handle, long hSession, long directIn,
+      byte[] in, int inOfs, int inLen, long directOut, byte[] out,
+      int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception {
+    if (handle == null) {
+      throw new UnsupportedOperationException(
+          "could not find C_Encrypt/C_Decrypt method");
+    }
+
+    try {
+      return (int) handle.invokeExact(pkcs11, hSession, directIn, in,
+          inOfs, inLen, directOut, out, outOfs, outLen);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception
+        | RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable th) {
+      if (th instanceof Exception) {
+        throw new PKCS11RuntimeException(th.getMessage(), (Exception) th);
+      }
+      PKCS11RuntimeException ex = new PKCS11RuntimeException(th.getMessage());
+      ex.initCause(th);
+      throw ex;
+    }
+  }
+
+  /**
+   * Returns the string representation of this object.
+   *
+   * @return the string representation of this object
+   */
+  @Override
+  public String toString() {
+    return pkcs11.toString();
+  }
+
+  @Override
+  public boolean equals(Object otherObject) {
+    if (this == otherObject) {
+      return true;
+    } else if (!(otherObject instanceof JniBackend)) {
+      return false;
+    }
+
+    return pkcs11.equals(((JniBackend) otherObject).pkcs11);
+  }
+
+  @Override
+  public int hashCode() {
+    return pkcs11.hashCode();
+  }
+}
@@ -0,0 +1,1008 @@
+// Copyright (c) 2002 Graz University of Technology. All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// 3. The end-user documentation included with the redistribution, if any, must
+//    include the following acknowledgment:
+//
+//    "This product includes software developed by IAIK of Graz University of
+//     Technology."
+//
+//    Alternately, this acknowledgment may appear in the software itself, if and
+//    wherever such third-party acknowledgments normally appear.
+//
+// 4. The names "Graz University of Technology" and "IAIK of Graz University of
+//    Technology" must not be used to endorse or promote products derived from
+//    this software without prior written permission.
+//
+// 5. Products derived from this software may not be called "IAIK PKCS Wrapper",
+//    nor may "IAIK" appear in their name, without prior written permission of
+//    Graz University of Technology.
+//
+// THIS SOFTWARE IS PROVIDED "AS IS" AND ANY EXPRESSED OR IMPLIED
+// WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+// PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE LICENSOR BE
+// LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+// OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+// PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+// OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+// ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+// POSSIBILITY OF SUCH DAMAGE.
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.io.IOException;
+
+import iaik.pkcs.pkcs11.TokenException;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_C_INITIALIZE_ARGS;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+
+/**
+ * The functions of a PKCS#11 module which are used by this wrapper. The
+ * classes Module, Slot, Token, Session and PKCS11Object call the module only
+ * through this interface, so that the binding to the native module can be
+ * replaced, e.g. by a faster binding, or decorated, e.g. to measure the
+ * calls. {@link JniBackend} is the default implementation which uses the
+ * JNI binding of the JDK.
+ * <p>
+ * The functions have the same signatures as those of
+ * sun.security.pkcs11.wrapper.PKCS11. The arguments directIn and directOut
+ * are native addresses of the input and output; if they are not 0, the
+ * corresponding array is ignored.
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @version 1.0
+ */
+public interface PKCS11Backend {
+
+  /**
+   * Connects to a PKCS#11 module and initializes it.
+   */
+  interface Factory {
+
+    /**
+     * Connects to the PKCS#11 module and calls C_Initialize.
+     *
+     * @param pkcs11ModuleName
+     *          The name of the module; e.g. "slbck.dll".
+     * @param initArgs
+     *          The initialization arguments. May be null.
+     * @return The backend for the module.
+     * @exception IOException
+     *              If the module cannot be loaded.
+     * @exception TokenException
+     *              If initializing the module fails.
+     */
+    PKCS11Backend connect(String pkcs11ModuleName,
+        CK_C_INITIALIZE_ARGS initArgs) throws IOException, TokenException;
+
+  }
+
+  /**
+   * Indicates that the application is done with the module.
+   *
+   * @param pReserved
+   *          reserved, must be null
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_Finalize(Object pReserved)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Returns general information about the module.
+   *
+   * @return the information
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  CK_INFO C_GetInfo() throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Obtains a list of slots in the system.
+   *
+   * @param tokenPresent
+   *          if true only slots with a token present are returned
+   * @return the slot IDs
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long[] C_GetSlotList(boolean tokenPresent)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Obtains information about a slot.
+   *
+   * @param slotID
+   *          the ID of the slot
+   * @return the slot information
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  CK_SLOT_INFO C_GetSlotInfo(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Obtains information about a token.
+   *
+   * @param slotID
+   *          the ID of the token's slot
+   * @return the token information
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  CK_TOKEN_INFO C_GetTokenInfo(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Obtains a list of mechanisms supported by a token.
+   *
+   * @param slotID
+   *          the ID of the token's slot
+   * @return the mechanism codes
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long[] C_GetMechanismList(long slotID)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Obtains information about a mechanism.
+   *
+   * @param slotID
+   *          the ID of the token's slot
+   * @param type
+   *          the mechanism code
+   * @return the mechanism information
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Opens a session between an application and a token.
+   *
+   * @param slotID
+   *          the ID of the token's slot
+   * @param flags
+   *          the session flags
+   * @param pApplication
+   *          passed to the notify callback
+   * @param notify
+   *          the notify callback, may be null
+   * @return the session handle
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long C_OpenSession(long slotID, long flags, Object pApplication,
+      CK_NOTIFY notify) throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Closes a session.
+   *
+   * @param hSession
+   *          the session's handle
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_CloseSession(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Obtains information about a session.
+   *
+   * @param hSession
+   *          the session's handle
+   * @return the session information
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Obtains the state of the cryptographic operation of a session.
+   *
+   * @param hSession
+   *          the session's handle
+   * @return the state
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  byte[] C_GetOperationState(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Restores the state of the cryptographic operation of a session.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pOperationState
+   *          the state
+   * @param hEncryptionKey
+   *          the handle of the encryption key
+   * @param hAuthenticationKey
+   *          the handle of the authentication key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_SetOperationState(long hSession, byte[] pOperationState,
+      long hEncryptionKey, long hAuthenticationKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Logs a user into a token.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param userType
+   *          the user type
+   * @param pPin
+   *          the PIN
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_Login(long hSession, long userType, char[] pPin)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Logs a user out from a token.
+   *
+   * @param hSession
+   *          the session's handle
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_Logout(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Creates a new object.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pTemplate
+   *          the object's template
+   * @return the handle of the new object
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long C_CreateObject(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Copies an object, creating a new object for the copy.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param hObject
+   *          the object's handle
+   * @param pTemplate
+   *          the template for the new object
+   * @return the handle of the copy
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long C_CopyObject(long hSession, long hObject, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Destroys an object.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param hObject
+   *          the object's handle
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_DestroyObject(long hSession, long hObject)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Obtains the values of one or more attributes of an object.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param hObject
+   *          the object's handle
+   * @param pTemplate
+   *          the attributes to read, receive the values
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Modifies the values of one or more attributes of an object.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param hObject
+   *          the object's handle
+   * @param pTemplate
+   *          the new attribute values
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Initializes a search for objects matching a template.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pTemplate
+   *          the attribute values to match
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Continues a search for objects.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param ulMaxObjectCount
+   *          the maximal number of handles to return
+   * @return the handles of the found objects
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long[] C_FindObjects(long hSession, long ulMaxObjectCount)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Finishes a search for objects.
+   *
+   * @param hSession
+   *          the session's handle
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_FindObjectsFinal(long hSession)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Initializes an encryption operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the encryption mechanism
+   * @param hKey
+   *          the handle of the encryption key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_EncryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Encrypts single-part data.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param directIn
+   *          the address of the input, or 0 to use in
+   * @param in
+   *          the input
+   * @param inOfs
+   *          the offset of the input
+   * @param inLen
+   *          the length of the input
+   * @param directOut
+   *          the address of the output, or 0 to use out
+   * @param out
+   *          the output buffer
+   * @param outOfs
+   *          the offset of the output
+   * @param outLen
+   *          the size of the output buffer
+   * @return the length of the encrypted data
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs, int inLen,
+      long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Continues a multiple-part encryption operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param directIn
+   *          the address of the input, or 0 to use in
+   * @param in
+   *          the input
+   * @param inOfs
+   *          the offset of the input
+   * @param inLen
+   *          the length of the input
+   * @param directOut
+   *          the address of the output, or 0 to use out
+   * @param out
+   *          the output buffer
+   * @param outOfs
+   *          the offset of the output
+   * @param outLen
+   *          the size of the output buffer
+   * @return the length of the encrypted part
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_EncryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Finishes a multiple-part encryption operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param directOut
+   *          the address of the output, or 0 to use out
+   * @param out
+   *          the output buffer
+   * @param outOfs
+   *          the offset of the output
+   * @param outLen
+   *          the size of the output buffer
+   * @return the length of the last encrypted part
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_EncryptFinal(long hSession, long directOut, byte[] out, int outOfs,
+      int outLen) throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Initializes a decryption operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the decryption mechanism
+   * @param hKey
+   *          the handle of the decryption key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_DecryptInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Decrypts encrypted data in a single part.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param directIn
+   *          the address of the input, or 0 to use in
+   * @param in
+   *          the input
+   * @param inOfs
+   *          the offset of the input
+   * @param inLen
+   *          the length of the input
+   * @param directOut
+   *          the address of the output, or 0 to use out
+   * @param out
+   *          the output buffer
+   * @param outOfs
+   *          the offset of the output
+   * @param outLen
+   *          the size of the output buffer
+   * @return the length of the decrypted data
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs, int inLen,
+      long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Continues a multiple-part decryption operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param directIn
+   *          the address of the input, or 0 to use in
+   * @param in
+   *          the input
+   * @param inOfs
+   *          the offset of the input
+   * @param inLen
+   *          the length of the input
+   * @param directOut
+   *          the address of the output, or 0 to use out
+   * @param out
+   *          the output buffer
+   * @param outOfs
+   *          the offset of the output
+   * @param outLen
+   *          the size of the output buffer
+   * @return the length of the decrypted part
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_DecryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Finishes a multiple-part decryption operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param directOut
+   *          the address of the output, or 0 to use out
+   * @param out
+   *          the output buffer
+   * @param outOfs
+   *          the offset of the output
+   * @param outLen
+   *          the size of the output buffer
+   * @return the length of the last decrypted part
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_DecryptFinal(long hSession, long directOut, byte[] out, int outOfs,
+      int outLen) throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Initializes a message-digesting operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the digesting mechanism
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_DigestInit(long hSession, CK_MECHANISM pMechanism)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Initializes a message-digesting operation and digests single-part data.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the digesting mechanism
+   * @param in
+   *          the input
+   * @param inOfs
+   *          the offset of the input
+   * @param inLen
+   *          the length of the input
+   * @param digest
+   *          the output buffer
+   * @param digestOfs
+   *          the offset of the output
+   * @param digestLen
+   *          the size of the output buffer
+   * @return the length of the digest
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_DigestSingle(long hSession, CK_MECHANISM pMechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Continues a multiple-part message-digesting operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param directIn
+   *          the address of the input, or 0 to use in
+   * @param in
+   *          the input
+   * @param inOfs
+   *          the offset of the input
+   * @param inLen
+   *          the length of the input
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_DigestUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Continues a multiple-part message-digesting operation by digesting the
+   * value of a secret key.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param hKey
+   *          the handle of the secret key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_DigestKey(long hSession, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Finishes a multiple-part message-digesting operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pDigest
+   *          the output buffer
+   * @param digestOfs
+   *          the offset of the output
+   * @param digestLen
+   *          the size of the output buffer
+   * @return the length of the digest
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_DigestFinal(long hSession, byte[] pDigest, int digestOfs, int digestLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Initializes a signature operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the signature mechanism
+   * @param hKey
+   *          the handle of the signature key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_SignInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Signs data in a single part.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pData
+   *          the data to sign
+   * @return the signature
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  byte[] C_Sign(long hSession, byte[] pData)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Continues a multiple-part signature operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param directIn
+   *          the address of the input, or 0 to use in
+   * @param in
+   *          the input
+   * @param inOfs
+   *          the offset of the input
+   * @param inLen
+   *          the length of the input
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_SignUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Finishes a multiple-part signature operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param expectedLen
+   *          the expected length of the signature, or 0 if unknown
+   * @return the signature
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  byte[] C_SignFinal(long hSession, int expectedLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Initializes a signature operation, where the data can be recovered from the
+   * signature.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the signature mechanism
+   * @param hKey
+   *          the handle of the signature key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_SignRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Signs data in a single operation, where the data can be recovered from the
+   * signature.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param in
+   *          the input
+   * @param inOfs
+   *          the offset of the input
+   * @param inLen
+   *          the length of the input
+   * @param out
+   *          the output buffer
+   * @param outOfs
+   *          the offset of the output
+   * @param outLen
+   *          the size of the output buffer
+   * @return the length of the signature
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen, byte[] out,
+      int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Initializes a verification operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the verification mechanism
+   * @param hKey
+   *          the handle of the verification key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_VerifyInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Verifies a signature in a single-part operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pData
+   *          the signed data
+   * @param pSignature
+   *          the signature
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_Verify(long hSession, byte[] pData, byte[] pSignature)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Continues a multiple-part verification operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param directIn
+   *          the address of the input, or 0 to use in
+   * @param in
+   *          the input
+   * @param inOfs
+   *          the offset of the input
+   * @param inLen
+   *          the length of the input
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_VerifyUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Finishes a multiple-part verification operation.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pSignature
+   *          the signature
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_VerifyFinal(long hSession, byte[] pSignature)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Initializes a signature verification operation, where the data is recovered
+   * from the signature.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the verification mechanism
+   * @param hKey
+   *          the handle of the verification key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_VerifyRecoverInit(long hSession, CK_MECHANISM pMechanism, long hKey)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Verifies a signature in a single-part operation, where the data is
+   * recovered from the signature.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param in
+   *          the signature
+   * @param inOfs
+   *          the offset of the signature
+   * @param inLen
+   *          the length of the signature
+   * @param out
+   *          the output buffer
+   * @param outOfs
+   *          the offset of the output
+   * @param outLen
+   *          the size of the output buffer
+   * @return the length of the recovered data
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Generates a secret key, creating a new key object.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the key generation mechanism
+   * @param pTemplate
+   *          the template for the new key
+   * @return the handle of the new key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long C_GenerateKey(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Generates a public-key/private-key pair, creating new key objects.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the key generation mechanism
+   * @param pPublicKeyTemplate
+   *          the template for the new public key
+   * @param pPrivateKeyTemplate
+   *          the template for the new private key
+   * @return the handles of the new public key and private key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long[] C_GenerateKeyPair(long hSession, CK_MECHANISM pMechanism,
+      CK_ATTRIBUTE[] pPublicKeyTemplate, CK_ATTRIBUTE[] pPrivateKeyTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Wraps (i.e., encrypts) a key.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the wrapping mechanism
+   * @param hWrappingKey
+   *          the handle of the wrapping key
+   * @param hKey
+   *          the handle of the key to wrap
+   * @return the wrapped key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  byte[] C_WrapKey(long hSession, CK_MECHANISM pMechanism, long hWrappingKey,
+      long hKey) throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Unwraps (decrypts) a wrapped key, creating a new key object.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the unwrapping mechanism
+   * @param hUnwrappingKey
+   *          the handle of the unwrapping key
+   * @param pWrappedKey
+   *          the wrapped key
+   * @param pTemplate
+   *          the template for the new key
+   * @return the handle of the unwrapped key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long C_UnwrapKey(long hSession, CK_MECHANISM pMechanism, long hUnwrappingKey,
+      byte[] pWrappedKey, CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Derives a key from a base key, creating a new key object.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pMechanism
+   *          the key derivation mechanism
+   * @param hBaseKey
+   *          the handle of the base key
+   * @param pTemplate
+   *          the template for the new key
+   * @return the handle of the derived key
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  long C_DeriveKey(long hSession, CK_MECHANISM pMechanism, long hBaseKey,
+      CK_ATTRIBUTE[] pTemplate)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Mixes additional seed material into the token's random number generator.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param pSeed
+   *          the seed material
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_SeedRandom(long hSession, byte[] pSeed)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Generates random data.
+   *
+   * @param hSession
+   *          the session's handle
+   * @param randomData
+   *          receives the random data
+   * @exception sun.security.pkcs11.wrapper.PKCS11Exception
+   *              If the function returns a value other than CKR_OK.
+   */
+  void C_GenerateRandom(long hSession, byte[] randomData)
+      throws sun.security.pkcs11.wrapper.PKCS11Exception;
+
+  /**
+   * Tells whether the arguments directIn and directOut may be the native
+   * addresses of direct buffers. If not, direct buffers are copied to
+   * arrays before they are passed to the backend.
+   *
+   * @return true if native addresses are accepted, false otherwise.
+   */
+  default boolean supportsDirectBuffers() {
+    return true;
+  }
+
+}